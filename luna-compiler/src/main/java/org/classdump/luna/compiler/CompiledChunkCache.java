@@ -0,0 +1,339 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import org.classdump.luna.parser.ParseException;
+import org.classdump.luna.parser.TokenMgrError;
+
+/**
+ * A persistent cache of compiled chunks, stored in a directory in the file system.
+ *
+ * <p>Compiled chunks are keyed by a hash of their source text, the source file name,
+ * the name of their main class, the {@linkplain CompilerSettings compiler settings}
+ * and the version of the compiler. Entries are written atomically, so the cache
+ * directory may be shared by multiple virtual machines. When the total size of the entries
+ * exceeds the size limit of the cache, the least recently used entries are removed.</p>
+ *
+ * <p>The cache is best-effort: entries that cannot be read are treated as missing,
+ * and failures to write entries are ignored.</p>
+ *
+ * <p>To use the cache for all chunks loaded by a chunk loader, use
+ * {@link CompilerChunkLoader#of(ClassLoader, LuaCompiler, String, CompiledChunkCache)}.</p>
+ */
+public final class CompiledChunkCache {
+
+  /**
+   * The default size limit of a cache, in bytes.
+   */
+  public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+  private static final String ENTRY_SUFFIX = ".chunk";
+
+  private final Path directory;
+  private final long maxSize;
+
+  private CompiledChunkCache(Path directory, long maxSize) {
+    this.directory = Objects.requireNonNull(directory);
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns a cache stored in the directory {@code directory}, creating the directory
+   * if it does not exist, with the total size of its entries limited to {@code maxSize}
+   * bytes.
+   *
+   * @param directory the cache directory, must not be {@code null}
+   * @param maxSize the size limit in bytes, must be positive
+   * @return a cache stored in {@code directory}
+   * @throws NullPointerException if {@code directory} is {@code null}
+   * @throws IllegalArgumentException if {@code maxSize} is not positive
+   * @throws IOException if the directory cannot be created
+   */
+  public static CompiledChunkCache open(Path directory, long maxSize) throws IOException {
+    Objects.requireNonNull(directory);
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Illegal cache size limit: " + maxSize);
+    }
+    Files.createDirectories(directory);
+    return new CompiledChunkCache(directory, maxSize);
+  }
+
+  /**
+   * Returns a cache stored in the directory {@code directory}, creating the directory
+   * if it does not exist, with the {@linkplain #DEFAULT_MAX_SIZE default size limit}.
+   *
+   * @param directory the cache directory, must not be {@code null}
+   * @return a cache stored in {@code directory}
+   * @throws NullPointerException if {@code directory} is {@code null}
+   * @throws IOException if the directory cannot be created
+   */
+  public static CompiledChunkCache open(Path directory) throws IOException {
+    return open(directory, DEFAULT_MAX_SIZE);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static void update(MessageDigest md, String s) {
+    md.update(s.getBytes(StandardCharsets.UTF_8));
+    md.update((byte) 0);
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder bld = new StringBuilder();
+    for (byte b : bytes) {
+      bld.append(Character.forDigit((b >> 4) & 0xf, 16));
+      bld.append(Character.forDigit(b & 0xf, 16));
+    }
+    return bld.toString();
+  }
+
+  /**
+   * Returns a string identifying the chunk with the source text {@code sourceText}
+   * loaded as {@code chunkName}. The string consists of hexadecimal digits only, and
+   * may therefore be used as part of a class name.
+   *
+   * @param chunkName the chunk name, must not be {@code null}
+   * @param sourceText the source text, must not be {@code null}
+   * @return a string identifying the chunk
+   * @throws NullPointerException if {@code chunkName} or {@code sourceText} is {@code null}
+   */
+  public static String chunkId(String chunkName, String sourceText) {
+    MessageDigest md = sha256();
+    update(md, chunkName);
+    update(md, sourceText);
+    return toHex(md.digest()).substring(0, 32);
+  }
+
+  /**
+   * Returns the key of the chunk {@code sourceText} compiled using {@code settings}.
+   *
+   * @param settings the compiler settings, must not be {@code null}
+   * @param sourceText the source text, must not be {@code null}
+   * @param sourceFileName the source file name, must not be {@code null}
+   * @param rootClassName the root class name, must not be {@code null}
+   * @return the key of the compiled chunk
+   * @throws NullPointerException if any of the arguments is {@code null}
+   */
+  public static String key(CompilerSettings settings, String sourceText, String sourceFileName,
+      String rootClassName) {
+
+    MessageDigest md = sha256();
+    update(md, LuaCompiler.configuration(settings));
+    update(md, rootClassName);
+    update(md, sourceFileName);
+    update(md, sourceText);
+    return toHex(md.digest());
+  }
+
+  /**
+   * Returns the cache directory.
+   *
+   * @return the cache directory
+   */
+  public Path directory() {
+    return directory;
+  }
+
+  /**
+   * Returns the size limit of this cache in bytes.
+   *
+   * @return the size limit of this cache
+   */
+  public long maxSize() {
+    return maxSize;
+  }
+
+  private Path entryPath(String key) {
+    return directory.resolve(key + ENTRY_SUFFIX);
+  }
+
+  /**
+   * Returns the compiled chunk with the key {@code key}, or {@code null} if there is
+   * no such chunk in the cache, or if it cannot be read.
+   *
+   * @param key the key, must not be {@code null}
+   * @return the compiled chunk with the key {@code key}, or {@code null} if not found
+   * @throws NullPointerException if {@code key} is {@code null}
+   */
+  public CompiledModule get(String key) {
+    Path path = entryPath(Objects.requireNonNull(key));
+
+    try (InputStream in = Files.newInputStream(path)) {
+      CompiledModule result = CompiledModule.readFrom(in);
+      touch(path);
+      return result;
+    } catch (NoSuchFileException ex) {
+      return null;
+    } catch (IOException ex) {
+      // corrupt entry
+      deleteQuietly(path);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the compiled chunk {@code module} under the key {@code key}, evicting
+   * the least recently used entries if the cache size exceeds the limit.
+   *
+   * @param key the key, must not be {@code null}
+   * @param module the compiled chunk, must not be {@code null}
+   * @throws NullPointerException if {@code key} or {@code module} is {@code null}
+   */
+  public void put(String key, CompiledModule module) {
+    Path path = entryPath(Objects.requireNonNull(key));
+    Objects.requireNonNull(module);
+
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(directory, key, ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        module.writeTo(out);
+      }
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      tmp = null;
+      evict(path);
+    } catch (IOException ex) {
+      // the cache is best-effort
+    } finally {
+      if (tmp != null) {
+        deleteQuietly(tmp);
+      }
+    }
+  }
+
+  /**
+   * Returns the chunk {@code sourceText} compiled by {@code compiler}, reading it
+   * from the cache if available, and storing it in the cache otherwise.
+   *
+   * @param compiler the compiler, must not be {@code null}
+   * @param sourceText source text, must not be {@code null}
+   * @param sourceFileName file name of the source, must not be {@code null}
+   * @param rootClassName class name of the main class, must not be {@code null}
+   * @return {@code sourceText} compiled into a loadable module
+   * @throws NullPointerException if any of the arguments is {@code null}
+   * @throws TokenMgrError when {@code sourceText} cannot be lexically analysed following the Lua
+   * lexical rules
+   * @throws ParseException when {@code sourceText} cannot be parsed following the Lua grammar
+   * @see LuaCompiler#compile(String, String, String)
+   */
+  public CompiledModule compile(LuaCompiler compiler, String sourceText, String sourceFileName,
+      String rootClassName) throws ParseException, TokenMgrError {
+
+    String key = key(compiler.settings(), sourceText, sourceFileName, rootClassName);
+    CompiledModule result = get(key);
+    if (result == null) {
+      result = compiler.compile(sourceText, sourceFileName, rootClassName);
+      put(key, result);
+    }
+    return result;
+  }
+
+  private static void touch(Path path) {
+    try {
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException ex) {
+      // only affects the order of eviction
+    }
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException ex) {
+      // will be retried on the next eviction
+    }
+  }
+
+  private static class Entry {
+
+    final Path path;
+    final long size;
+    final long lastModified;
+
+    Entry(Path path, long size, long lastModified) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+  }
+
+  // evicts the least recently used entries other than the entry at keep
+  private void evict(Path keep) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    long total = 0;
+
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX)) {
+      for (Path p : ds) {
+        try {
+          long size = Files.size(p);
+          entries.add(new Entry(p, size, Files.getLastModifiedTime(p).toMillis()));
+          total += size;
+        } catch (NoSuchFileException ex) {
+          // removed concurrently
+        }
+      }
+    }
+
+    if (total <= maxSize) {
+      return;
+    }
+
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry a, Entry b) {
+        return Long.compare(a.lastModified, b.lastModified);
+      }
+    });
+
+    for (Entry e : entries) {
+      if (total <= maxSize) {
+        break;
+      }
+      if (e.path.equals(keep)) {
+        continue;
+      }
+      deleteQuietly(e.path);
+      total -= e.size;
+    }
+  }
+
+}
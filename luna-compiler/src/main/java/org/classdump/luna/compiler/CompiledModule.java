@@ -16,11 +16,21 @@
 
 package org.classdump.luna.compiler;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.Objects;
+import org.classdump.luna.load.BinaryChunks;
 import org.classdump.luna.load.CompiledChunk;
 import org.classdump.luna.util.ByteVector;
 
+/**
+ * A Lua chunk compiled by {@link LuaCompiler}.
+ *
+ * <p>Compiled modules may be serialised as {@linkplain BinaryChunks binary chunks} using
+ * {@link #writeTo(OutputStream)} and read back using {@link #readFrom(InputStream)}.</p>
+ */
 public class CompiledModule implements CompiledChunk {
 
   private final Map<String, ByteVector> classMap;
@@ -45,4 +55,35 @@ public class CompiledModule implements CompiledChunk {
     return mainClassName;
   }
 
+  /**
+   * Writes this compiled module to the output stream {@code out}
+   * as a {@linkplain BinaryChunks binary chunk}.
+   *
+   * <p>The stream is not closed by this method.</p>
+   *
+   * @param out the output stream, must not be {@code null}
+   * @throws IOException if an I/O error occurs
+   * @throws NullPointerException if {@code out} is {@code null}
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    BinaryChunks.write(this, out);
+  }
+
+  /**
+   * Reads a compiled module previously written using {@link #writeTo(OutputStream)}
+   * from the input stream {@code in}.
+   *
+   * <p>The stream is not closed by this method.</p>
+   *
+   * @param in the input stream, must not be {@code null}
+   * @return the compiled module read from {@code in}
+   * @throws IOException if an I/O error occurs, or if the contents of {@code in} are not
+   * a compiled module
+   * @throws NullPointerException if {@code in} is {@code null}
+   */
+  public static CompiledModule readFrom(InputStream in) throws IOException {
+    CompiledChunk chunk = BinaryChunks.read(in);
+    return new CompiledModule(chunk.classMap(), chunk.mainClassName());
+  }
+
 }
@@ -17,7 +17,11 @@
 package org.classdump.luna.compiler;
 
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.classdump.luna.Variable;
+import org.classdump.luna.load.BinaryChunks;
 import org.classdump.luna.load.ChunkClassLoader;
 import org.classdump.luna.load.ChunkFactory;
 import org.classdump.luna.load.ChunkLoader;
@@ -30,20 +34,74 @@ import org.classdump.luna.runtime.LuaFunction;
 /**
  * A chunk loader that uses the {@linkplain LuaCompiler compiler} to convert Lua source
  * text to Java classfiles, and loads these classfiles into the VM using a {@link ClassLoader}.
+ *
+ * <p>Chunks may be compiled from multiple threads concurrently.</p>
+ *
+ * <p>When a {@linkplain CompiledChunkCache compiled chunk cache} is used, the name of the main
+ * class of every chunk is derived from a hash of the chunk name and source text instead, so
+ * that compiled chunks may be reused across runs; loading the same chunk repeatedly reuses
+ * its classes.</p>
+ *
+ * <p>An {@linkplain #unloadable(ClassLoader, LuaCompiler, String) unloadable} chunk loader
+ * defines every chunk it compiles in a class loader of its own, so that the classes of a chunk
+ * may be garbage-collected once its {@link ChunkFactory} and all the functions instantiated
+ * from it have become unreachable. This is intended for applications that load many short-lived
+ * chunks, at the price of a class loader per chunk.</p>
  */
 public class CompilerChunkLoader implements ChunkLoader {
 
   private final ChunkClassLoader chunkClassLoader;
   private final String rootClassPrefix;
   private final LuaCompiler compiler;
+  private final CompiledChunkCache cache;
+  private final boolean unloadable;
 
-  private int idx;
+  private final AtomicInteger idx;
 
-  CompilerChunkLoader(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix) {
-    this.chunkClassLoader = new ChunkClassLoader(Objects.requireNonNull(classLoader));
-    this.compiler = Objects.requireNonNull(compiler);
+  // root class names of chunks obtained via the cache mapped to their main class names
+  private final ConcurrentMap<String, String> cachedMainClassNames;
+
+  CompilerChunkLoader(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix,
+      CompiledChunkCache cache, boolean unloadable) {
+    Objects.requireNonNull(classLoader);
     this.rootClassPrefix = Objects.requireNonNull(rootClassPrefix);
-    this.idx = 0;
+    this.chunkClassLoader = unloadable
+        ? new PrefixChunkClassLoader(classLoader, rootClassPrefix)
+        : new ChunkClassLoader(classLoader);
+    this.compiler = Objects.requireNonNull(compiler);
+    this.cache = cache;
+    this.unloadable = unloadable;
+    this.idx = new AtomicInteger();
+    this.cachedMainClassNames = new ConcurrentHashMap<>();
+  }
+
+  CompilerChunkLoader(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix) {
+    this(classLoader, compiler, rootClassPrefix, null, false);
+  }
+
+  /*
+   * The chunk class loader of unloadable chunk loaders. No chunks are installed into it,
+   * but the classes of all chunks compiled by its chunk loader are reported as installed,
+   * so that it can be used to print Lua stack tracebacks.
+   */
+  private static class PrefixChunkClassLoader extends ChunkClassLoader {
+
+    static {
+      registerAsParallelCapable();
+    }
+
+    private final String rootClassPrefix;
+
+    PrefixChunkClassLoader(ClassLoader parent, String rootClassPrefix) {
+      super(parent);
+      this.rootClassPrefix = rootClassPrefix;
+    }
+
+    @Override
+    public boolean isInstalled(String className) {
+      return className.startsWith(rootClassPrefix) || super.isInstalled(className);
+    }
+
   }
 
   /**
@@ -64,6 +122,66 @@ public class CompilerChunkLoader implements ChunkLoader {
     return new CompilerChunkLoader(classLoader, compiler, rootClassPrefix);
   }
 
+  /**
+   * Returns a new instance of {@code CompilerChunkLoader} that uses the specified
+   * class loader {@code classLoader} to load classes it compiles using {@code compiler},
+   * storing the compiled chunks in {@code cache}. Every main chunk class has the class name
+   * {@code rootClassPrefix} followed by a hash of the chunk name and source text.
+   *
+   * @param classLoader the class loader used by this chunk loader, must not be {@code null}
+   * @param compiler the compiler instance used by this chunk loader, must not be {@code null}
+   * @param rootClassPrefix the class name prefix for compiled classes, must not be {@code null}
+   * @param cache the compiled chunk cache, must not be {@code null}
+   * @return a new instance of {@code CompilerChunkLoader}
+   * @throws NullPointerException if {@code classLoader}, {@code compiler}, {@code
+   * rootClassPrefix} or {@code cache} is {@code null}
+   */
+  public static CompilerChunkLoader of(ClassLoader classLoader, LuaCompiler compiler,
+      String rootClassPrefix, CompiledChunkCache cache) {
+    return new CompilerChunkLoader(classLoader, compiler, rootClassPrefix,
+        Objects.requireNonNull(cache), false);
+  }
+
+  /**
+   * Returns a new unloadable instance of {@code CompilerChunkLoader} that compiles chunks
+   * using {@code compiler} and defines every chunk in a new class loader whose parent
+   * is {@code classLoader}, with every main chunk class having the class name
+   * {@code rootClassPrefix} followed by a monotonically-increasing integer suffix.
+   *
+   * <p>The classes of a chunk are unloaded once its chunk factory and all the functions
+   * instantiated from it have become unreachable. The returned chunk loader does not keep
+   * any references to the chunks it has compiled.</p>
+   *
+   * @param classLoader the parent class loader of the class loaders of the chunks, must not be
+   * {@code null}
+   * @param compiler the compiler instance used by this chunk loader, must not be {@code null}
+   * @param rootClassPrefix the class name prefix for compiled classes, must not be {@code null}
+   * @return a new unloadable instance of {@code CompilerChunkLoader}
+   * @throws NullPointerException if {@code classLoader}, {@code compiler} or {@code
+   * rootClassPrefix} is {@code null}
+   */
+  public static CompilerChunkLoader unloadable(ClassLoader classLoader, LuaCompiler compiler,
+      String rootClassPrefix) {
+    return new CompilerChunkLoader(classLoader, compiler, rootClassPrefix, null, true);
+  }
+
+  /**
+   * Returns a new unloadable instance of {@code CompilerChunkLoader} that compiles chunks
+   * using a compiler instantiated with
+   * {@linkplain CompilerSettings#defaultSettings() default settings}, and defines every chunk
+   * in a new class loader whose parent is the class loader that loaded
+   * the {@code CompilerChunkLoader} class.
+   *
+   * @param rootClassPrefix the class name prefix for compiled classes, must not be {@code null}
+   * @return a new unloadable instance of {@code CompilerChunkLoader}
+   * @throws NullPointerException if {@code rootClassPrefix} is {@code null}
+   * @see #unloadable(ClassLoader, LuaCompiler, String)
+   */
+  public static CompilerChunkLoader unloadable(String rootClassPrefix) {
+    return unloadable(CompilerChunkLoader.class.getClassLoader(), new LuaCompiler(),
+        rootClassPrefix);
+  }
+
   /**
    * Returns a new instance of {@code CompilerChunkLoader} that uses the specified
    * class loader {@code classLoader} to load classes it compiles using a new instance
@@ -153,6 +271,16 @@ public class CompilerChunkLoader implements ChunkLoader {
     return chunkClassLoader;
   }
 
+  /**
+   * Returns {@code true} iff this chunk loader defines every chunk in a class loader
+   * of its own.
+   *
+   * @return {@code true} iff this chunk loader is unloadable
+   */
+  public boolean isUnloadable() {
+    return unloadable;
+  }
+
   @Override
   public LuaFunction<Variable, ?, ?, ?, ?> loadTextChunk(Variable env, String chunkName,
       String sourceText) throws LoaderException {
@@ -168,40 +296,74 @@ public class CompilerChunkLoader implements ChunkLoader {
     Objects.requireNonNull(chunkName);
     Objects.requireNonNull(sourceText);
 
-    synchronized (this) {
+    try {
+      // the class loader of the chunk must not be referenced from this chunk loader
+      // in the unloadable mode
+      ChunkClassLoader classLoader = unloadable
+          ? new ChunkClassLoader(chunkClassLoader.getParent())
+          : chunkClassLoader;
+
+      String mainClassName = cache != null
+          ? installCached(chunkName, sourceText)
+          : classLoader.install(
+              compiler.compile(sourceText, chunkName, rootClassPrefix + idx.getAndIncrement()));
+
+      //noinspection unchecked
+      return new ChunkFactory(
+          (Class<? extends LuaFunction<Variable, ?, ?, ?, ?>>) classLoader
+              .loadClass(mainClassName), chunkName);
+    } catch (TokenMgrError ex) {
+      String msg = ex.getMessage();
+      int line = 0;  // TODO
+      boolean partial = msg != null && msg
+          .contains("Encountered: <EOF>");  // TODO: is there really no better way?
+      throw new LoaderException(ex, chunkName, line, partial);
+    } catch (ParseException ex) {
+      boolean partial = ex.currentToken != null
+          && ex.currentToken.next != null
+          && ex.currentToken.next.kind == Parser.EOF;
+      int line = ex.currentToken != null
+          ? ex.currentToken.beginLine
+          : 0;
+      throw new LoaderException(ex, chunkName, line, partial);
+    } catch (ClassNotFoundException e) {
+      throw new LoaderException(e, chunkName, 0, false);
+    }
+  }
+
+  private String installCached(String chunkName, String sourceText)
+      throws ParseException, TokenMgrError {
+
+    String rootClassName =
+        rootClassPrefix + "h" + CompiledChunkCache.chunkId(chunkName, sourceText);
+
+    String mainClassName = cachedMainClassNames.get(rootClassName);
+    if (mainClassName == null) {
+      CompiledModule result = cache.compile(compiler, sourceText, chunkName, rootClassName);
       try {
-        String rootClassName = rootClassPrefix + (idx++);
-
-        CompiledModule result = compiler.compile(sourceText, chunkName, rootClassName);
-
-        String mainClassName = chunkClassLoader.install(result);
-        //noinspection unchecked
-        return new ChunkFactory(
-            (Class<? extends LuaFunction<Variable, ?, ?, ?, ?>>) chunkClassLoader
-                .loadClass(mainClassName), chunkName);
-      } catch (TokenMgrError ex) {
-        String msg = ex.getMessage();
-        int line = 0;  // TODO
-        boolean partial = msg != null && msg
-            .contains("Encountered: <EOF>");  // TODO: is there really no better way?
-        throw new LoaderException(ex, chunkName, line, partial);
-      } catch (ParseException ex) {
-        boolean partial = ex.currentToken != null
-            && ex.currentToken.next != null
-            && ex.currentToken.next.kind == Parser.EOF;
-        int line = ex.currentToken != null
-            ? ex.currentToken.beginLine
-            : 0;
-        throw new LoaderException(ex, chunkName, line, partial);
-      } catch (ClassNotFoundException e) {
-        throw new LoaderException(e, chunkName, 0, false);
+        mainClassName = chunkClassLoader.install(result);
+      } catch (IllegalStateException ex) {
+        // installed concurrently by another thread
+        mainClassName = result.mainClassName();
+        if (!chunkClassLoader.isInstalled(mainClassName)) {
+          throw ex;
+        }
       }
+      cachedMainClassNames.put(rootClassName, mainClassName);
     }
+    return mainClassName;
   }
 
-//	@Override
-//	public LuaFunction loadBinaryChunk(Variable env, String chunkName, byte[] bytes, int offset, int len) throws LoaderException {
-//		throw new UnsupportedOperationException();  // TODO
-//	}
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The classes of the binary chunk are defined in a new class loader whose parent is
+   * the class loader used by this chunk loader.</p>
+   */
+  @Override
+  public LuaFunction<?, ?, ?, ?, ?> loadBinaryChunk(Variable env, String chunkName, byte[] chunk,
+      int offset, int len) throws LoaderException {
+    return BinaryChunks.load(chunkClassLoader.getParent(), env, chunkName, chunk, offset, len);
+  }
 
 }
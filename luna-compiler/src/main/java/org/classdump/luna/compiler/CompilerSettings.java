@@ -28,14 +28,62 @@ import java.util.Objects;
  * the functions generated by the compiler account for number of ticks spent in execution
  * and pause when their time slice has expired;</li>
  * <li><b>const folding</b> (boolean): when {@code true}, constants are folded at compile
- * time (note that this does not have an influence on the number of ticks counted);</li>
+ * time, and code made unreachable or dead by folding is removed (note that this does not
+ * have an influence on the number of ticks counted). The other optimisations have settings
+ * of their own;</li>
  * <li><b>const caching</b> (boolean): when {@code true}, boxed numeric constants are stored
  * as static fields rather than being instantiated (and boxed) at execution time;</li>
  * <li><b>node size limit</b> (int): when positive, long functions are split up into smaller
  * Java methods (each containing at most the specified number of IR nodes); otherwise,
  * a single method containing the entire function code is generated. Java class files
  * impose a strict limit of 64 kB per method: this setting allows the compilation
- * of arbitrarily-long Lua functions.</li>
+ * of arbitrarily-long Lua functions;</li>
+ * <li><b>index caching</b> (boolean): when {@code true}, every table access site
+ * is given its own {@link org.classdump.luna.impl.ShapeCache}, speeding up the accesses
+ * to {@link org.classdump.luna.impl.ShapedTable}s. Reads of global variables and of the fields
+ * of global variables (such as {@code math.floor}) are given a
+ * {@link org.classdump.luna.impl.StampCache} instead, which skips the lookup for as long as
+ * the table has not been modified. The caches only pay off for programs dominated by field
+ * accesses to {@code ShapedTable}s, and slow down accesses to other tables;</li>
+ * <li><b>invokedynamic</b> (boolean): when {@code true}, table accesses are compiled
+ * to {@code invokedynamic} call sites with polymorphic inline caches
+ * (see {@link org.classdump.luna.runtime.IndexCallSite}), and function calls are compiled
+ * to {@code invokedynamic} call sites with monomorphic inline caches
+ * (see {@link org.classdump.luna.runtime.FunctionCallSite}). This takes precedence over
+ * index caching;</li>
+ * <li><b>unboxed slots</b> (boolean): when {@code true}, values statically known to be
+ * integers or floats are kept in primitive {@code long} and {@code double} local variables
+ * rather than being boxed, and are only boxed when they escape (e.g., when passed to a call,
+ * stored in a table, returned or saved in a suspended state);</li>
+ * <li><b>method size limit</b> (int): when positive, long functions are split up into
+ * Java methods whose <em>estimated</em> bytecode size is at most the specified number
+ * of bytes, preferably between rather than inside loops. This takes precedence over
+ * the node size limit. Keeping the methods below the limits of the JIT compiler
+ * (e.g. HotSpot's {@code HugeMethodLimit} of 8000 bytes) prevents large Lua functions
+ * from being left to the bytecode interpreter;</li>
+ * <li><b>inline size limit</b> (int): when positive, calls of local functions consisting
+ * of at most the specified number of IR nodes are replaced with the bodies of the called
+ * functions, when the called function is known at compile time (see
+ * {@link org.classdump.luna.compiler.tf.FunctionInliner});</li>
+ * <li><b>loop invariant hoisting</b> (boolean): when {@code true}, computations that cannot
+ * fail and whose operands do not change in a loop are moved out of the loop
+ * (see {@link org.classdump.luna.compiler.tf.LoopInvariantHoister}). Table reads are only
+ * hoisted when CPU accounting is disabled ({@link CPUAccountingMode#NO_CPU_ACCOUNTING}),
+ * since the tables may be modified by the host while the function is paused;</li>
+ * <li><b>redundant load elimination</b> (boolean): when {@code true}, repeated reads
+ * of a field with a constant key of a table that does not escape the function are replaced
+ * by the value read or written before (see
+ * {@link org.classdump.luna.compiler.tf.RedundantLoadEliminator});</li>
+ * <li><b>scalar replacement</b> (boolean): when {@code true}, tables that do not escape
+ * the function creating them, are created by a single table constructor and are only accessed
+ * with constant keys are replaced by local variables holding their fields (see
+ * {@link org.classdump.luna.compiler.tf.ScalarReplacer});</li>
+ * <li><b>parallelism</b> (int): the maximum number of functions of a chunk that are
+ * optimised and emitted concurrently. When {@code 1}, all functions are compiled
+ * in the calling thread; when non-positive, they are compiled in the
+ * {@linkplain java.util.concurrent.ForkJoinPool#commonPool() common fork-join pool};
+ * otherwise, in a fork-join pool shared by all compilers with the same parallelism.
+ * This setting has no influence on the generated code.</li>
  * </ul>
  *
  * <p>To obtain the settings with sensible defaults, use {@link CompilerSettings#defaultSettings()}.
@@ -62,26 +110,89 @@ public final class CompilerSettings {
    */
   public static final boolean DEFAULT_BYTE_STRING_MODE = true;
   /**
-   * The default method size limit.
+   * The default node size limit.
    */
   public static final int DEFAULT_NODE_SIZE_LIMIT = 2000;
+  /**
+   * The default index caching mode.
+   */
+  public static final boolean DEFAULT_INDEX_CACHING_MODE = false;
+  /**
+   * The default invokedynamic mode.
+   */
+  public static final boolean DEFAULT_INVOKE_DYNAMIC_MODE = false;
+  /**
+   * The default unboxed slots mode.
+   */
+  public static final boolean DEFAULT_UNBOXED_SLOTS_MODE = true;
+  /**
+   * The default method size limit (in estimated bytes of bytecode).
+   */
+  public static final int DEFAULT_METHOD_SIZE_LIMIT = 0;
+  /**
+   * The default inline size limit (in IR nodes).
+   */
+  public static final int DEFAULT_INLINE_SIZE_LIMIT = 20;
+  /**
+   * The default loop invariant hoisting mode.
+   */
+  public static final boolean DEFAULT_LOOP_INVARIANT_HOISTING_MODE = true;
+  /**
+   * The default redundant load elimination mode.
+   */
+  public static final boolean DEFAULT_REDUNDANT_LOAD_ELIMINATION_MODE = true;
+  /**
+   * The default scalar replacement mode.
+   */
+  public static final boolean DEFAULT_SCALAR_REPLACEMENT_MODE = true;
+  /**
+   * The default parallelism (use the common fork-join pool).
+   */
+  public static final int DEFAULT_PARALLELISM = 0;
   private final CPUAccountingMode cpuAccountingMode;
   private final boolean constFolding;
   private final boolean constCaching;
   private final boolean byteStrings;
   private final int nodeSizeLimit;
+  private final boolean indexCaching;
+  private final boolean invokeDynamic;
+  private final boolean unboxedSlots;
+  private final int methodSizeLimit;
+  private final int inlineSizeLimit;
+  private final boolean loopInvariantHoisting;
+  private final boolean redundantLoadElimination;
+  private final boolean scalarReplacement;
+  private final int parallelism;
   CompilerSettings(
       CPUAccountingMode cpuAccountingMode,
       boolean constFolding,
       boolean constCaching,
       boolean byteStrings,
-      int nodeSizeLimit) {
+      int nodeSizeLimit,
+      boolean indexCaching,
+      boolean invokeDynamic,
+      boolean unboxedSlots,
+      int methodSizeLimit,
+      int inlineSizeLimit,
+      boolean loopInvariantHoisting,
+      boolean redundantLoadElimination,
+      boolean scalarReplacement,
+      int parallelism) {
 
     this.cpuAccountingMode = Objects.requireNonNull(cpuAccountingMode);
     this.constFolding = constFolding;
     this.constCaching = constCaching;
     this.byteStrings = byteStrings;
     this.nodeSizeLimit = nodeSizeLimit;
+    this.indexCaching = indexCaching;
+    this.invokeDynamic = invokeDynamic;
+    this.unboxedSlots = unboxedSlots;
+    this.methodSizeLimit = methodSizeLimit;
+    this.inlineSizeLimit = inlineSizeLimit;
+    this.loopInvariantHoisting = loopInvariantHoisting;
+    this.redundantLoadElimination = redundantLoadElimination;
+    this.scalarReplacement = scalarReplacement;
+    this.parallelism = parallelism;
   }
 
   /**
@@ -90,6 +201,8 @@ public final class CompilerSettings {
    * <p>When {@code nodeSizeLimit} is non-positive, no chunking of the body method
    * will be performed.</p>
    *
+   * <p>The remaining settings are set to their default values.</p>
+   *
    * @param cpuAccountingMode CPU accounting mode, must not be {@code null}
    * @param constFolding const folding mode
    * @param constCaching const caching mode
@@ -106,7 +219,13 @@ public final class CompilerSettings {
       int nodeSizeLimit) {
 
     return new CompilerSettings(
-        cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit);
+        cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+        DEFAULT_INDEX_CACHING_MODE, DEFAULT_INVOKE_DYNAMIC_MODE,
+        DEFAULT_UNBOXED_SLOTS_MODE, DEFAULT_METHOD_SIZE_LIMIT,
+        DEFAULT_INLINE_SIZE_LIMIT, DEFAULT_LOOP_INVARIANT_HOISTING_MODE,
+        DEFAULT_REDUNDANT_LOAD_ELIMINATION_MODE,
+        DEFAULT_SCALAR_REPLACEMENT_MODE,
+        DEFAULT_PARALLELISM);
   }
 
   /**
@@ -147,7 +266,16 @@ public final class CompilerSettings {
         && this.constFolding == that.constFolding
         && this.constCaching == that.constCaching
         && this.byteStrings == that.byteStrings
-        && this.nodeSizeLimit == that.nodeSizeLimit;
+        && this.nodeSizeLimit == that.nodeSizeLimit
+        && this.indexCaching == that.indexCaching
+        && this.invokeDynamic == that.invokeDynamic
+        && this.unboxedSlots == that.unboxedSlots
+        && this.methodSizeLimit == that.methodSizeLimit
+        && this.inlineSizeLimit == that.inlineSizeLimit
+        && this.loopInvariantHoisting == that.loopInvariantHoisting
+        && this.redundantLoadElimination == that.redundantLoadElimination
+        && this.scalarReplacement == that.scalarReplacement
+        && this.parallelism == that.parallelism;
   }
 
   @Override
@@ -157,9 +285,46 @@ public final class CompilerSettings {
     result = 31 * result + (constCaching ? 1 : 0);
     result = 31 * result + (byteStrings ? 1 : 0);
     result = 31 * result + nodeSizeLimit;
+    result = 31 * result + (indexCaching ? 1 : 0);
+    result = 31 * result + (invokeDynamic ? 1 : 0);
+    result = 31 * result + (unboxedSlots ? 1 : 0);
+    result = 31 * result + methodSizeLimit;
+    result = 31 * result + inlineSizeLimit;
+    result = 31 * result + (loopInvariantHoisting ? 1 : 0);
+    result = 31 * result + (redundantLoadElimination ? 1 : 0);
+    result = 31 * result + (scalarReplacement ? 1 : 0);
+    result = 31 * result + parallelism;
     return result;
   }
 
+  /**
+   * Returns a string representation of these settings, listing the values of all settings.
+   *
+   * <p>Unlike {@link #hashCode()}, the string representation is stable across virtual
+   * machine instances.</p>
+   *
+   * @return a string representation of these settings
+   */
+  @Override
+  public String toString() {
+    return "CompilerSettings{"
+        + "cpuAccountingMode=" + cpuAccountingMode
+        + ", constFolding=" + constFolding
+        + ", constCaching=" + constCaching
+        + ", byteStrings=" + byteStrings
+        + ", nodeSizeLimit=" + nodeSizeLimit
+        + ", indexCaching=" + indexCaching
+        + ", invokeDynamic=" + invokeDynamic
+        + ", unboxedSlots=" + unboxedSlots
+        + ", methodSizeLimit=" + methodSizeLimit
+        + ", inlineSizeLimit=" + inlineSizeLimit
+        + ", loopInvariantHoisting=" + loopInvariantHoisting
+        + ", redundantLoadElimination=" + redundantLoadElimination
+        + ", scalarReplacement=" + scalarReplacement
+        + ", parallelism=" + parallelism
+        + "}";
+  }
+
   /**
    * Returns the CPU accounting mode.
    *
@@ -200,6 +365,87 @@ public final class CompilerSettings {
     return nodeSizeLimit;
   }
 
+  /**
+   * Returns the index caching mode.
+   *
+   * @return the index caching mode
+   */
+  public boolean indexCaching() {
+    return indexCaching;
+  }
+
+  /**
+   * Returns the method size limit.
+   *
+   * @return the method size limit
+   */
+  public int methodSizeLimit() {
+    return methodSizeLimit;
+  }
+
+  /**
+   * Returns the inline size limit.
+   *
+   * @return the inline size limit
+   */
+  public int inlineSizeLimit() {
+    return inlineSizeLimit;
+  }
+
+  /**
+   * Returns the loop invariant hoisting mode.
+   *
+   * @return the loop invariant hoisting mode
+   */
+  public boolean loopInvariantHoisting() {
+    return loopInvariantHoisting;
+  }
+
+  /**
+   * Returns the redundant load elimination mode.
+   *
+   * @return the redundant load elimination mode
+   */
+  public boolean redundantLoadElimination() {
+    return redundantLoadElimination;
+  }
+
+  /**
+   * Returns the scalar replacement mode.
+   *
+   * @return the scalar replacement mode
+   */
+  public boolean scalarReplacement() {
+    return scalarReplacement;
+  }
+
+  /**
+   * Returns the parallelism.
+   *
+   * @return the parallelism
+   */
+  public int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Returns the invokedynamic mode.
+   *
+   * @return the invokedynamic mode
+   */
+  public boolean invokeDynamic() {
+    return invokeDynamic;
+  }
+
+  /**
+   * Returns the unboxed slots mode.
+   *
+   * @return the unboxed slots mode
+   */
+  public boolean unboxedSlots() {
+    return unboxedSlots;
+  }
+
   /**
    * Returns compiler settings derived from this compiler settings by updating
    * the CPU accounting mode to {@code mode}.
@@ -210,7 +456,10 @@ public final class CompilerSettings {
    */
   public CompilerSettings withCPUAccountingMode(CPUAccountingMode mode) {
     return mode != this.cpuAccountingMode
-        ? new CompilerSettings(mode, constFolding, constCaching, byteStrings, nodeSizeLimit)
+        ? new CompilerSettings(
+            mode, constFolding, constCaching, byteStrings, nodeSizeLimit, indexCaching,
+            invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
         : this;
   }
 
@@ -223,7 +472,10 @@ public final class CompilerSettings {
    */
   public CompilerSettings withConstFolding(boolean mode) {
     return mode != this.constFolding
-        ? new CompilerSettings(cpuAccountingMode, mode, constCaching, byteStrings, nodeSizeLimit)
+        ? new CompilerSettings(
+            cpuAccountingMode, mode, constCaching, byteStrings, nodeSizeLimit, indexCaching,
+            invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
         : this;
   }
 
@@ -236,7 +488,10 @@ public final class CompilerSettings {
    */
   public CompilerSettings withConstCaching(boolean mode) {
     return mode != this.constCaching
-        ? new CompilerSettings(cpuAccountingMode, constFolding, mode, byteStrings, nodeSizeLimit)
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, mode, byteStrings, nodeSizeLimit, indexCaching,
+            invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
         : this;
   }
 
@@ -249,7 +504,10 @@ public final class CompilerSettings {
    */
   public CompilerSettings withByteStrings(boolean mode) {
     return mode != this.byteStrings
-        ? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, mode, nodeSizeLimit)
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, mode, nodeSizeLimit, indexCaching,
+            invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
         : this;
   }
 
@@ -262,7 +520,157 @@ public final class CompilerSettings {
    */
   public CompilerSettings withNodeSizeLimit(int limit) {
     return limit != this.nodeSizeLimit
-        ? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, byteStrings, limit)
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, limit, indexCaching,
+            invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the index caching mode to {@code mode}.
+   *
+   * @param mode new index caching mode
+   * @return settings derived from {@code this} by updating the index caching mode to {@code mode}
+   */
+  public CompilerSettings withIndexCaching(boolean mode) {
+    return mode != this.indexCaching
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit, mode,
+            invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the invokedynamic mode to {@code mode}.
+   *
+   * @param mode new invokedynamic mode
+   * @return settings derived from {@code this} by updating the invokedynamic mode to {@code mode}
+   */
+  public CompilerSettings withInvokeDynamic(boolean mode) {
+    return mode != this.invokeDynamic
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, mode, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the unboxed slots mode to {@code mode}.
+   *
+   * @param mode new unboxed slots mode
+   * @return settings derived from {@code this} by updating the unboxed slots mode to {@code mode}
+   */
+  public CompilerSettings withUnboxedSlots(boolean mode) {
+    return mode != this.unboxedSlots
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, invokeDynamic, mode, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the method size limit to {@code limit}.
+   *
+   * @param limit new method size limit
+   * @return settings derived from {@code this} by updating the method size limit to {@code limit}
+   */
+  public CompilerSettings withMethodSizeLimit(int limit) {
+    return limit != this.methodSizeLimit
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, invokeDynamic, unboxedSlots, limit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the inline size limit to {@code limit}.
+   *
+   * @param limit new inline size limit
+   * @return settings derived from {@code this} by updating the inline size limit to {@code limit}
+   */
+  public CompilerSettings withInlineSizeLimit(int limit) {
+    return limit != this.inlineSizeLimit
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, invokeDynamic, unboxedSlots, methodSizeLimit, limit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the loop invariant hoisting mode to {@code mode}.
+   *
+   * @param mode new loop invariant hoisting mode
+   * @return settings derived from {@code this} by updating the loop invariant hoisting mode
+   * to {@code mode}
+   */
+  public CompilerSettings withLoopInvariantHoisting(boolean mode) {
+    return mode != this.loopInvariantHoisting
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            mode, redundantLoadElimination, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the redundant load elimination mode to {@code mode}.
+   *
+   * @param mode new redundant load elimination mode
+   * @return settings derived from {@code this} by updating the redundant load elimination mode
+   * to {@code mode}
+   */
+  public CompilerSettings withRedundantLoadElimination(boolean mode) {
+    return mode != this.redundantLoadElimination
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, mode, scalarReplacement, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the scalar replacement mode to {@code mode}.
+   *
+   * @param mode new scalar replacement mode
+   * @return settings derived from {@code this} by updating the scalar replacement mode
+   * to {@code mode}
+   */
+  public CompilerSettings withScalarReplacement(boolean mode) {
+    return mode != this.scalarReplacement
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, mode, parallelism)
+        : this;
+  }
+
+  /**
+   * Returns compiler settings derived from this compiler settings by updating
+   * the parallelism to {@code parallelism}.
+   *
+   * @param parallelism new parallelism
+   * @return settings derived from {@code this} by updating the parallelism to {@code parallelism}
+   */
+  public CompilerSettings withParallelism(int parallelism) {
+    return parallelism != this.parallelism
+        ? new CompilerSettings(
+            cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit,
+            indexCaching, invokeDynamic, unboxedSlots, methodSizeLimit, inlineSizeLimit,
+            loopInvariantHoisting, redundantLoadElimination, scalarReplacement, parallelism)
         : this;
   }
 
@@ -284,7 +692,22 @@ public final class CompilerSettings {
      * and potentially pause by invoking
      * {@link org.classdump.luna.runtime.ExecutionContext#pauseIfRequested()}.</p>
      */
-    IN_EVERY_BASIC_BLOCK
+    IN_EVERY_BASIC_BLOCK,
+
+    /**
+     * Add up the costs of basic blocks in a local variable, and check CPU time usage
+     * on loop back-edges, before calls and before returns.
+     *
+     * <p>At the beginning of every basic block, its cost is added to a local tick counter.
+     * On every backward jump, before every call and before every return, the counter
+     * is passed to {@link org.classdump.luna.runtime.ExecutionContext#registerTicks(int)}
+     * and reset, followed by a potential pause by invoking
+     * {@link org.classdump.luna.runtime.ExecutionContext#pauseIfRequested()}.
+     * Since every iteration of a loop and every call passes through such a point, this mode
+     * bounds the amount of work done between checks just like {@link #IN_EVERY_BASIC_BLOCK},
+     * at a fraction of its cost.</p>
+     */
+    ON_BACK_EDGES
 
   }
 
@@ -17,16 +17,28 @@
 package org.classdump.luna.compiler;
 
 import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 import org.classdump.luna.compiler.analysis.DependencyAnalyser;
 import org.classdump.luna.compiler.analysis.DependencyInfo;
+import org.classdump.luna.compiler.analysis.EscapeAnalyser;
 import org.classdump.luna.compiler.analysis.LivenessAnalyser;
 import org.classdump.luna.compiler.analysis.LivenessInfo;
 import org.classdump.luna.compiler.analysis.SlotAllocInfo;
@@ -43,6 +55,10 @@ import org.classdump.luna.compiler.tf.CPUAccounter;
 import org.classdump.luna.compiler.tf.CodeSimplifier;
 import org.classdump.luna.compiler.tf.ConstFolder;
 import org.classdump.luna.compiler.tf.DeadCodePruner;
+import org.classdump.luna.compiler.tf.FunctionInliner;
+import org.classdump.luna.compiler.tf.LoopInvariantHoister;
+import org.classdump.luna.compiler.tf.RedundantLoadEliminator;
+import org.classdump.luna.compiler.tf.ScalarReplacer;
 import org.classdump.luna.parser.ParseException;
 import org.classdump.luna.parser.Parser;
 import org.classdump.luna.parser.TokenMgrError;
@@ -55,6 +71,12 @@ import org.classdump.luna.util.ByteVector;
  */
 public class LuaCompiler {
 
+  private static final String VERSION = compilerVersion();
+
+  // the pools for positive parallelism levels other than 1, created on demand and shared
+  // by all compiler instances: their workers are daemon threads that idle when not in use
+  private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
   private final CompilerSettings settings;
 
   /**
@@ -75,6 +97,45 @@ public class LuaCompiler {
     this(CompilerSettings.defaultSettings());
   }
 
+  // the implementation version of the compiler, and the size and modification time
+  // of the jar file it was loaded from (so that snapshot builds do not share entries)
+  private static String compilerVersion() {
+    StringBuilder bld = new StringBuilder();
+    Package pkg = LuaCompiler.class.getPackage();
+    bld.append(pkg != null && pkg.getImplementationVersion() != null
+        ? pkg.getImplementationVersion()
+        : "unknown");
+
+    try {
+      CodeSource cs = LuaCompiler.class.getProtectionDomain().getCodeSource();
+      if (cs != null && cs.getLocation() != null) {
+        Path path = Paths.get(cs.getLocation().toURI());
+        if (Files.isRegularFile(path)) {
+          bld.append(':').append(Files.size(path))
+              .append(':').append(Files.getLastModifiedTime(path).toMillis());
+        }
+      }
+    } catch (Exception ex) {
+      // no further information available
+    }
+
+    return bld.toString();
+  }
+
+  /**
+   * Returns a string identifying the version of the compiler and the settings
+   * {@code settings}, not including the settings that have no influence on the compiled
+   * code. Chunks compiled with equal configurations may be used interchangeably.
+   *
+   * @param settings the compiler settings, must not be {@code null}
+   * @return a string identifying the compiler version and {@code settings}
+   * @throws NullPointerException if {@code settings} is {@code null}
+   */
+  public static String configuration(CompilerSettings settings) {
+    // the parallelism has no influence on the compiled code
+    return VERSION + " " + settings.withParallelism(CompilerSettings.DEFAULT_PARALLELISM);
+  }
+
   private static Chunk parse(String sourceText) throws ParseException, TokenMgrError {
     ByteArrayInputStream bais = new ByteArrayInputStream(sourceText.getBytes());
     Parser parser = new Parser(bais);
@@ -95,6 +156,41 @@ public class LuaCompiler {
     return settings;
   }
 
+  private ForkJoinPool pool() {
+    if (settings.parallelism() <= 0) {
+      return ForkJoinPool.commonPool();
+    } else {
+      return POOLS.computeIfAbsent(settings.parallelism(), ForkJoinPool::new);
+    }
+  }
+
+  // applies f to every element of items, concurrently unless parallelism is 1;
+  // unchecked exceptions thrown by f are rethrown in the calling thread
+  private <T, R> List<R> map(Iterable<T> items, Function<T, R> f) {
+    List<R> result = new ArrayList<>();
+    List<T> itemList = new ArrayList<>();
+    for (T item : items) {
+      itemList.add(item);
+    }
+
+    if (settings.parallelism() == 1 || itemList.size() < 2) {
+      for (T item : itemList) {
+        result.add(f.apply(item));
+      }
+    } else {
+      ForkJoinPool pool = pool();
+      List<ForkJoinTask<R>> tasks = new ArrayList<>();
+      for (T item : itemList) {
+        tasks.add(pool.submit(() -> f.apply(item)));
+      }
+      for (ForkJoinTask<R> task : tasks) {
+        result.add(task.join());
+      }
+    }
+
+    return result;
+  }
+
   private Iterable<IRFunc> sortTopologically(Module module) {
     // TODO
     return module.fns();
@@ -129,19 +225,44 @@ public class LuaCompiler {
     fn = CPUAccounter.insertCPUAccounting(fn);
     fn = optimise(fn);
 
-    SlotAllocInfo slots = SlotAllocator.allocateSlots(fn);
+    if (settings.scalarReplacement()) {
+      fn = optimise(ScalarReplacer.replaceTables(fn, EscapeAnalyser.analyse(fn)));
+    }
+
+    if (settings.redundantLoadElimination()) {
+      fn = optimise(RedundantLoadEliminator.eliminateLoads(fn, EscapeAnalyser.analyse(fn)));
+    }
+
+    if (settings.loopInvariantHoisting()) {
+      // not part of the fixpoint: the guarded table reads in loops must stay in place;
+      // with CPU accounting, table reads are not hoisted at all
+      boolean pausable =
+          settings.cpuAccountingMode() != CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING;
+      fn = optimise(LoopInvariantHoister.hoistInvariants(fn, Typer.analyseTypes(fn), pausable));
+    }
+
     TypeInfo types = Typer.analyseTypes(fn);
+    SlotAllocInfo slots = settings.unboxedSlots()
+        ? SlotAllocator.allocateUnboxedSlots(fn, types)
+        : SlotAllocator.allocateSlots(fn);
+    if (settings.cpuAccountingMode() == CompilerSettings.CPUAccountingMode.ON_BACK_EDGES) {
+      slots = slots.withTickAccumulator();
+    }
     DependencyInfo deps = DependencyAnalyser.analyse(fn);
 
     return new ProcessedFunc(fn, slots, types, deps);
   }
 
   private Iterable<ProcessedFunc> processModule(Module m) {
+    if (settings.inlineSizeLimit() > 0) {
+      m = FunctionInliner.inlineFunctions(m, settings.inlineSizeLimit());
+    }
+
     Map<FunctionId, ProcessedFunc> pfs = new HashMap<>();
 
-    for (IRFunc fn : sortTopologically(m)) {
-      ProcessedFunc pf = processFunction(fn);
-      pfs.put(fn.id(), pf);
+    // functions are independent of each other once translated to IR
+    for (ProcessedFunc pf : map(sortTopologically(m), this::processFunction)) {
+      pfs.put(pf.fn.id(), pf);
     }
 
     ProcessedFunc main = pfs.get(FunctionId.root());
@@ -201,8 +322,16 @@ public class LuaCompiler {
 
     Map<String, ByteVector> classMap = new HashMap<>();
     String mainClass = null;
+    List<ProcessedFunc> pfList = new ArrayList<>();
     for (ProcessedFunc pf : pfs) {
-      CompiledClass cc = compileFunction(pf, sourceFileName, rootClassName);
+      pfList.add(pf);
+    }
+    List<CompiledClass> ccs = map(pfList,
+        pf -> compileFunction(pf, sourceFileName, rootClassName));
+
+    for (int i = 0; i < pfList.size(); i++) {
+      ProcessedFunc pf = pfList.get(i);
+      CompiledClass cc = ccs.get(i);
 
       if (pf.fn.id().isRoot()) {
         assert (mainClass == null);
@@ -219,7 +348,7 @@ public class LuaCompiler {
     return new CompiledModule(Collections.unmodifiableMap(classMap), mainClass);
   }
 
-  private static class ProcessedFunc {
+  static class ProcessedFunc {
 
     public final IRFunc fn;
     public final SlotAllocInfo slots;
@@ -35,6 +35,7 @@ import org.classdump.luna.compiler.ir.TCall;
 import org.classdump.luna.compiler.ir.TabGet;
 import org.classdump.luna.compiler.ir.TabNew;
 import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
 import org.classdump.luna.compiler.ir.TabRawSet;
 import org.classdump.luna.compiler.ir.TabRawSetInt;
 import org.classdump.luna.compiler.ir.TabSet;
@@ -52,7 +53,7 @@ import org.classdump.luna.compiler.ir.VarLoad;
 import org.classdump.luna.compiler.ir.VarStore;
 import org.classdump.luna.compiler.ir.Vararg;
 
-abstract class AbstractUseDefVisitor extends IRVisitor {
+public abstract class AbstractUseDefVisitor extends IRVisitor {
 
   protected abstract void def(Val v);
 
@@ -124,6 +125,14 @@ abstract class AbstractUseDefVisitor extends IRVisitor {
     def(node.dest());
   }
 
+  @Override
+  public void visit(TabRawGet node) {
+    use(node.guard());
+    use(node.obj());
+    use(node.key());
+    def(node.dest());
+  }
+
   @Override
   public void visit(TabSet node) {
     use(node.obj());
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.analysis;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.classdump.luna.compiler.IRFunc;
+import org.classdump.luna.compiler.ir.AbstractVar;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.Closure;
+import org.classdump.luna.compiler.ir.MultiVal;
+import org.classdump.luna.compiler.ir.PhiLoad;
+import org.classdump.luna.compiler.ir.PhiStore;
+import org.classdump.luna.compiler.ir.PhiVal;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.ir.TabNew;
+import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
+import org.classdump.luna.compiler.ir.TabRawSet;
+import org.classdump.luna.compiler.ir.TabRawSetInt;
+import org.classdump.luna.compiler.ir.TabSet;
+import org.classdump.luna.compiler.ir.UpVar;
+import org.classdump.luna.compiler.ir.Val;
+import org.classdump.luna.compiler.ir.Var;
+import org.classdump.luna.compiler.ir.VarInit;
+import org.classdump.luna.compiler.ir.VarLoad;
+import org.classdump.luna.compiler.ir.VarStore;
+
+/**
+ * A flow-insensitive escape analysis of the tables created in a function.
+ *
+ * <p>Values, phi values and local variables connected by loads and stores are put in the same
+ * group. The members of a group hold tables that do not escape the function if all values
+ * in the group are the results of table constructors or loads, none of the variables
+ * is a parameter or captured by a closure, and the values are only used as the tables
+ * being accessed (or stored in the group's variables). Any other use &mdash; passing them
+ * to a function, returning them, storing them in a table or an upvalue, or using them
+ * as operands &mdash; makes the whole group escape.</p>
+ */
+public class EscapeAnalyser {
+
+  private final Map<Object, Object> parents;
+  private final Set<Val> tables;
+  private final Set<Object> escaping;
+
+  private EscapeAnalyser() {
+    this.parents = new HashMap<>();
+    this.tables = new HashSet<>();
+    this.escaping = new HashSet<>();
+  }
+
+  public static EscapeInfo analyse(IRFunc fn) {
+    EscapeAnalyser analyser = new EscapeAnalyser();
+    return analyser.analyseFunction(fn);
+  }
+
+  private Object find(Object o) {
+    Object p = parents.get(o);
+    if (p == null) {
+      parents.put(o, o);
+      return o;
+    } else if (p == o) {
+      return o;
+    } else {
+      Object root = find(p);
+      parents.put(o, root);
+      return root;
+    }
+  }
+
+  private void union(Object a, Object b) {
+    Object ra = find(a);
+    Object rb = find(b);
+    if (ra != rb) {
+      parents.put(ra, rb);
+    }
+  }
+
+  private EscapeInfo analyseFunction(IRFunc fn) {
+    escaping.addAll(fn.params());
+
+    Visitor visitor = new Visitor();
+    Iterator<BasicBlock> it = fn.code().blockIterator();
+    while (it.hasNext()) {
+      BasicBlock b = it.next();
+      for (int i = 0; i < b.body().size(); i++) {
+        b.body().get(i).accept(visitor);
+      }
+      b.end().accept(visitor);
+    }
+
+    Set<Object> escapingGroups = new HashSet<>();
+    for (Object o : escaping) {
+      escapingGroups.add(find(o));
+    }
+
+    Set<Object> localGroups = new HashSet<>();
+    for (Val v : tables) {
+      Object root = find(v);
+      if (!escapingGroups.contains(root)) {
+        localGroups.add(root);
+      }
+    }
+
+    Map<Object, Object> groups = new HashMap<>();
+    for (Object o : parents.keySet()) {
+      Object root = find(o);
+      if (localGroups.contains(root)) {
+        groups.put(o, root);
+      }
+    }
+
+    return new EscapeInfo(Collections.unmodifiableMap(groups));
+  }
+
+  private class Visitor extends AbstractUseDefVisitor {
+
+    @Override
+    protected void def(Val v) {
+      // not a table created in this function
+      escaping.add(v);
+    }
+
+    @Override
+    protected void use(Val v) {
+      escaping.add(v);
+    }
+
+    @Override
+    protected void def(PhiVal pv) {
+    }
+
+    @Override
+    protected void use(PhiVal pv) {
+    }
+
+    @Override
+    protected void def(MultiVal mv) {
+    }
+
+    @Override
+    protected void use(MultiVal mv) {
+    }
+
+    @Override
+    protected void def(Var v) {
+    }
+
+    @Override
+    protected void use(Var v) {
+    }
+
+    @Override
+    protected void def(UpVar uv) {
+    }
+
+    @Override
+    protected void use(UpVar uv) {
+    }
+
+    @Override
+    public void visit(TabNew node) {
+      tables.add(node.dest());
+      find(node.dest());
+    }
+
+    @Override
+    public void visit(VarInit node) {
+      union(node.src(), node.var());
+    }
+
+    @Override
+    public void visit(VarLoad node) {
+      union(node.dest(), node.var());
+    }
+
+    @Override
+    public void visit(VarStore node) {
+      union(node.src(), node.var());
+    }
+
+    @Override
+    public void visit(PhiStore node) {
+      union(node.src(), node.dest());
+    }
+
+    @Override
+    public void visit(PhiLoad node) {
+      union(node.dest(), node.src());
+    }
+
+    @Override
+    public void visit(TabGet node) {
+      use(node.key());
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(TabRawGet node) {
+      use(node.guard());
+      use(node.key());
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(TabSet node) {
+      use(node.key());
+      use(node.value());
+    }
+
+    @Override
+    public void visit(TabRawSet node) {
+      use(node.key());
+      use(node.value());
+    }
+
+    @Override
+    public void visit(TabRawSetInt node) {
+      use(node.value());
+    }
+
+    @Override
+    public void visit(TabRawAppendMulti node) {
+      // the appended values may escape, but they are not tables created in this function
+    }
+
+    @Override
+    public void visit(Closure node) {
+      for (AbstractVar v : node.args()) {
+        escaping.add(v);
+      }
+      def(node.dest());
+    }
+
+  }
+
+}
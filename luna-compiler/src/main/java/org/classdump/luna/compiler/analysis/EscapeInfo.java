@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.analysis;
+
+import java.util.Map;
+import java.util.Objects;
+import org.classdump.luna.compiler.ir.AbstractVal;
+import org.classdump.luna.compiler.ir.Var;
+
+/**
+ * The result of the escape analysis of a function: the values and local variables that
+ * only ever hold tables created in the function that are not accessible outside it.
+ *
+ * <p>Such tables cannot have a metatable, since they are never passed to a function
+ * (such as {@code setmetatable}), and they cannot be accessed by any code other than
+ * the function itself, neither from a nested function, nor from a metamethod, nor from
+ * the host while the function is paused.</p>
+ *
+ * <p>The values and variables are partitioned into groups: the tables held by the members
+ * of a group are only ever held by the members of the same group.</p>
+ */
+public class EscapeInfo {
+
+  private final Map<Object, Object> groups;
+
+  public EscapeInfo(Map<Object, Object> groups) {
+    this.groups = Objects.requireNonNull(groups);
+  }
+
+  public boolean isLocalTable(AbstractVal v) {
+    return groups.containsKey(Objects.requireNonNull(v));
+  }
+
+  public boolean isLocalTable(Var v) {
+    return groups.containsKey(Objects.requireNonNull(v));
+  }
+
+  /**
+   * Returns the group of {@code v}, or {@code null} if {@code v} does not hold local tables.
+   */
+  public Object group(AbstractVal v) {
+    return groups.get(Objects.requireNonNull(v));
+  }
+
+  /**
+   * Returns the group of {@code v}, or {@code null} if {@code v} does not hold local tables.
+   */
+  public Object group(Var v) {
+    return groups.get(Objects.requireNonNull(v));
+  }
+
+}
@@ -16,6 +16,7 @@
 
 package org.classdump.luna.compiler.analysis;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
@@ -26,12 +27,28 @@ public class SlotAllocInfo {
 
   private final Map<AbstractVal, Integer> valSlots;
   private final Map<Var, Integer> varSlots;
-  private final int numSlots;
+  private final SlotType[] slotTypes;
+  private final int tickAccumulatorSlot;  // -1 if none
 
-  public SlotAllocInfo(Map<AbstractVal, Integer> valSlots, Map<Var, Integer> varSlots) {
+  private SlotAllocInfo(Map<AbstractVal, Integer> valSlots, Map<Var, Integer> varSlots,
+      SlotType[] slotTypes, int tickAccumulatorSlot) {
     this.valSlots = Objects.requireNonNull(valSlots);
     this.varSlots = Objects.requireNonNull(varSlots);
+    this.slotTypes = Arrays.copyOf(slotTypes, slotTypes.length);
+    this.tickAccumulatorSlot = tickAccumulatorSlot;
+  }
+
+  public SlotAllocInfo(Map<AbstractVal, Integer> valSlots, Map<Var, Integer> varSlots,
+      SlotType[] slotTypes) {
+    this(valSlots, varSlots, slotTypes, -1);
+  }
+
+  public SlotAllocInfo(Map<AbstractVal, Integer> valSlots, Map<Var, Integer> varSlots) {
+    this(valSlots, varSlots, allObjectSlots(valSlots, varSlots));
+  }
 
+  private static SlotType[] allObjectSlots(Map<AbstractVal, Integer> valSlots,
+      Map<Var, Integer> varSlots) {
     int n = 0;
     for (Integer i : varSlots.values()) {
       n = Math.max(n, i);
@@ -39,7 +56,9 @@ public class SlotAllocInfo {
     for (Integer i : valSlots.values()) {
       n = Math.max(n, i);
     }
-    this.numSlots = n + 1;
+    SlotType[] types = new SlotType[n + 1];
+    Arrays.fill(types, SlotType.OBJECT);
+    return types;
   }
 
   public int slotOf(AbstractVal v) {
@@ -60,8 +79,59 @@ public class SlotAllocInfo {
     }
   }
 
+  public SlotType slotType(int idx) {
+    return slotTypes[idx];
+  }
+
+  public SlotType slotTypeOf(AbstractVal v) {
+    return slotType(slotOf(v));
+  }
+
+  public SlotType slotTypeOf(Var v) {
+    return slotType(slotOf(v));
+  }
+
   public int numSlots() {
-    return numSlots;
+    return slotTypes.length;
+  }
+
+  /**
+   * Returns a slot allocation derived from this one by adding an extra {@link SlotType#LONG}
+   * slot used for accumulating CPU ticks. The slot is not assigned to any value or variable.
+   *
+   * @return slot allocation with a tick accumulator slot
+   */
+  public SlotAllocInfo withTickAccumulator() {
+    if (hasTickAccumulator()) {
+      return this;
+    }
+
+    SlotType[] types = Arrays.copyOf(slotTypes, slotTypes.length + 1);
+    types[slotTypes.length] = SlotType.LONG;
+    return new SlotAllocInfo(valSlots, varSlots, types, slotTypes.length);
+  }
+
+  public boolean hasTickAccumulator() {
+    return tickAccumulatorSlot >= 0;
+  }
+
+  public int tickAccumulatorSlot() {
+    if (hasTickAccumulator()) {
+      return tickAccumulatorSlot;
+    } else {
+      throw new NoSuchElementException("No tick accumulator slot");
+    }
+  }
+
+  /**
+   * The type of a slot. Slots of type {@link #OBJECT} hold arbitrary (boxed) values;
+   * slots of types {@link #LONG} and {@link #DOUBLE} hold unboxed integers and floats,
+   * respectively.
+   */
+  public enum SlotType {
+    OBJECT,
+    LONG,
+    DOUBLE
   }
 
 }
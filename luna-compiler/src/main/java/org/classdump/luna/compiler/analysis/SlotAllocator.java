@@ -28,6 +28,9 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import org.classdump.luna.compiler.IRFunc;
+import org.classdump.luna.compiler.analysis.SlotAllocInfo.SlotType;
+import org.classdump.luna.compiler.analysis.types.LuaTypes;
+import org.classdump.luna.compiler.analysis.types.Type;
 import org.classdump.luna.compiler.ir.AbstractVal;
 import org.classdump.luna.compiler.ir.BasicBlock;
 import org.classdump.luna.compiler.ir.BodyNode;
@@ -41,17 +44,33 @@ import org.classdump.luna.compiler.ir.Var;
 
 public class SlotAllocator {
 
+  // the maximum number of local variable entries occupied by the slots, which are passed
+  // to the run method as arguments (leaving room for the remaining arguments)
+  private static final int MAX_SLOTS_SIZE = 250;
+
   private final IRFunc fn;
+  private final TypeInfo types;  // may be null
 
   private final Map<AbstractVal, Integer> valSlots;
   private final Map<Var, Integer> varSlots;
 
+  // slot types; when types is null, all slots are object slots
+  private final Map<AbstractVal, SlotType> valSlotTypes;
+  private final Map<Var, SlotType> varSlotTypes;
+
   private IRNode currentNode;
 
-  public SlotAllocator(IRFunc fn) {
+  public SlotAllocator(IRFunc fn, TypeInfo types) {
     this.fn = Objects.requireNonNull(fn);
+    this.types = types;
     this.valSlots = new HashMap<>();
     this.varSlots = new HashMap<>();
+    this.valSlotTypes = new HashMap<>();
+    this.varSlotTypes = new HashMap<>();
+  }
+
+  public SlotAllocator(IRFunc fn) {
+    this(fn, null);
   }
 
   public static SlotAllocInfo allocateSlots(IRFunc fn) {
@@ -59,6 +78,55 @@ public class SlotAllocator {
     return allocator.process();
   }
 
+  // like allocateSlots, but integer and float values and variables get unboxed slots
+  public static SlotAllocInfo allocateUnboxedSlots(IRFunc fn, TypeInfo types) {
+    SlotAllocInfo result = new SlotAllocator(fn, Objects.requireNonNull(types)).process();
+    if (sizeOf(result) > MAX_SLOTS_SIZE) {
+      // wide slots would not fit into the run method signature
+      result = allocateSlots(fn);
+    }
+    return result;
+  }
+
+  private static int sizeOf(SlotAllocInfo info) {
+    int size = 0;
+    for (int i = 0; i < info.numSlots(); i++) {
+      size += info.slotType(i) == SlotType.OBJECT ? 1 : 2;
+    }
+    return size;
+  }
+
+  private static SlotType slotTypeFor(Type t) {
+    if (t.isSubtypeOf(LuaTypes.NUMBER_INTEGER)) {
+      return SlotType.LONG;
+    } else if (t.isSubtypeOf(LuaTypes.NUMBER_FLOAT)) {
+      return SlotType.DOUBLE;
+    } else {
+      return SlotType.OBJECT;
+    }
+  }
+
+  private SlotType slotTypeOf(AbstractVal v) {
+    SlotType st = valSlotTypes.get(v);
+    if (st == null) {
+      st = types != null ? slotTypeFor(types.typeOf(v)) : SlotType.OBJECT;
+      valSlotTypes.put(v, st);
+    }
+    return st;
+  }
+
+  private SlotType slotTypeOf(Var v) {
+    SlotType st = varSlotTypes.get(v);
+    if (st == null) {
+      // parameters and reified variables are always stored in object slots
+      st = types != null && !fn.params().contains(v) && !types.isReified(v)
+          ? slotTypeFor(types.typeOf(v))
+          : SlotType.OBJECT;
+      varSlotTypes.put(v, st);
+    }
+    return st;
+  }
+
   private IRNode node() {
     if (currentNode == null) {
       throw new IllegalStateException("Current node is null");
@@ -94,12 +162,15 @@ public class SlotAllocator {
     }
   }
 
-  private BitSet occupiedSlots(LivenessInfo liveness, IRNode node) {
+  private BitSet occupiedSlots(LivenessInfo liveness, IRNode node, SlotType type) {
     BitSet occupied = new BitSet();
 
     LivenessInfo.Entry e = liveness.entry(node);
 
     for (Var v : e.inVar()) {
+      if (slotTypeOf(v) != type) {
+        continue;
+      }
       int idx = slotOf(v);
       if (occupied.get(idx)) {
         throw new IllegalStateException("Slot " + idx + " already occupied");
@@ -109,6 +180,9 @@ public class SlotAllocator {
       }
     }
     for (AbstractVal v : e.inVal()) {
+      if (slotTypeOf(v) != type) {
+        continue;
+      }
       int idx = slotOf(v);
       if (occupied.get(idx)) {
         throw new IllegalStateException("Slot " + idx + " already occupied");
@@ -120,8 +194,8 @@ public class SlotAllocator {
     return occupied;
   }
 
-  private int findFreeSlot(LivenessInfo liveness, IRNode node) {
-    BitSet occupied = occupiedSlots(liveness, node);
+  private int findFreeSlot(LivenessInfo liveness, IRNode node, SlotType type) {
+    BitSet occupied = occupiedSlots(liveness, node, type);
 
     int idx = 0;
     while (occupied.get(idx)) {
@@ -144,14 +218,14 @@ public class SlotAllocator {
     if (hasSlot(v)) {
       throw new IllegalStateException("Slot already assigned for variable " + v);
     }
-    varSlots.put(v, findFreeSlot(liveness, node));
+    varSlots.put(v, findFreeSlot(liveness, node, slotTypeOf(v)));
   }
 
   private void assignSlot(AbstractVal v, LivenessInfo liveness, IRNode node) {
     if (hasSlot(v)) {
       throw new IllegalStateException("Slot already assigned for value " + v);
     }
-    valSlots.put(v, findFreeSlot(liveness, node));
+    valSlots.put(v, findFreeSlot(liveness, node, slotTypeOf(v)));
   }
 
   public SlotAllocInfo process() {
@@ -178,9 +252,54 @@ public class SlotAllocator {
       }
     }
 
+    return types != null
+        ? typedSlotAllocInfo()
+        : new SlotAllocInfo(
+            Collections.unmodifiableMap(valSlots),
+            Collections.unmodifiableMap(varSlots));
+  }
+
+  // object slots first, followed by long slots and double slots
+  private SlotAllocInfo typedSlotAllocInfo() {
+    int[] counts = new int[SlotType.values().length];
+    for (Map.Entry<AbstractVal, Integer> e : valSlots.entrySet()) {
+      int t = slotTypeOf(e.getKey()).ordinal();
+      counts[t] = Math.max(counts[t], e.getValue() + 1);
+    }
+    for (Map.Entry<Var, Integer> e : varSlots.entrySet()) {
+      int t = slotTypeOf(e.getKey()).ordinal();
+      counts[t] = Math.max(counts[t], e.getValue() + 1);
+    }
+    // keep at least one slot, as in the untyped case
+    counts[SlotType.OBJECT.ordinal()] = Math.max(1, counts[SlotType.OBJECT.ordinal()]);
+
+    int[] offsets = new int[counts.length];
+    int total = 0;
+    for (int t = 0; t < counts.length; t++) {
+      offsets[t] = total;
+      total += counts[t];
+    }
+
+    SlotType[] slotTypes = new SlotType[total];
+    for (SlotType t : SlotType.values()) {
+      for (int i = 0; i < counts[t.ordinal()]; i++) {
+        slotTypes[offsets[t.ordinal()] + i] = t;
+      }
+    }
+
+    Map<AbstractVal, Integer> vals = new HashMap<>();
+    for (Map.Entry<AbstractVal, Integer> e : valSlots.entrySet()) {
+      vals.put(e.getKey(), offsets[slotTypeOf(e.getKey()).ordinal()] + e.getValue());
+    }
+    Map<Var, Integer> vars = new HashMap<>();
+    for (Map.Entry<Var, Integer> e : varSlots.entrySet()) {
+      vars.put(e.getKey(), offsets[slotTypeOf(e.getKey()).ordinal()] + e.getValue());
+    }
+
     return new SlotAllocInfo(
-        Collections.unmodifiableMap(valSlots),
-        Collections.unmodifiableMap(varSlots));
+        Collections.unmodifiableMap(vals),
+        Collections.unmodifiableMap(vars),
+        slotTypes);
   }
 
   private void assignSlots(BasicBlock b, AllocatorVisitor visitor) {
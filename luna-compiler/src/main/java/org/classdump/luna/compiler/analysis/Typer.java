@@ -224,6 +224,22 @@ public class Typer {
   }
 
 
+  /**
+   * Returns {@code true} iff a value of type {@code t} is known to be neither a table
+   * nor a userdata, i.e. when comparing it for equality with any other value never
+   * involves the {@code __eq} metamethod.
+   *
+   * @param t the type, must not be {@code null}
+   * @return {@code true} iff values of type {@code t} are always compared by raw equality
+   */
+  public static boolean isRawComparable(Type t) {
+    return t.isSubtypeOf(LuaTypes.NIL)
+        || t.isSubtypeOf(LuaTypes.BOOLEAN)
+        || t.isSubtypeOf(LuaTypes.NUMBER)
+        || t.isSubtypeOf(LuaTypes.STRING)
+        || t.isSubtypeOf(LuaTypes.FUNCTION);
+  }
+
   public static TypeInfo analyseTypes(IRFunc fn) {
     TyperVisitor visitor = new TyperVisitor();
     visitor.visit(fn);
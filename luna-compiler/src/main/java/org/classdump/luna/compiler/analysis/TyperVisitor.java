@@ -52,6 +52,7 @@ import org.classdump.luna.compiler.ir.TCall;
 import org.classdump.luna.compiler.ir.TabGet;
 import org.classdump.luna.compiler.ir.TabNew;
 import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
 import org.classdump.luna.compiler.ir.TabSet;
 import org.classdump.luna.compiler.ir.ToNumber;
 import org.classdump.luna.compiler.ir.UnOp;
@@ -74,6 +75,7 @@ class TyperVisitor extends CodeVisitor {
 
   private final Set<Var> allVars;
   private final Set<Var> reifiedVars;
+  private final Map<Var, Type> varTypes;
 
   private final Set<Label> seen;
   private final Queue<Label> open;
@@ -91,6 +93,7 @@ class TyperVisitor extends CodeVisitor {
 
     this.allVars = new HashSet<>();
     this.reifiedVars = new HashSet<>();
+    this.varTypes = new HashMap<>();
 
     this.seen = new HashSet<>();
     this.open = new ArrayDeque<>();
@@ -154,7 +157,8 @@ class TyperVisitor extends CodeVisitor {
   }
 
   public TypeInfo valTypes() {
-    return TypeInfo.of(valTypes, phiValTypes, multiValTypes, allVars, reifiedVars, returnType());
+    return TypeInfo.of(valTypes, phiValTypes, multiValTypes, allVars, reifiedVars, varTypes,
+        returnType());
   }
 
   private TypeSeq returnType() {
@@ -386,10 +390,19 @@ class TyperVisitor extends CodeVisitor {
 
           case EQ:
           case NEQ:
+            result = LuaTypes.BOOLEAN;
+            if (!Typer.isRawComparable(l) && !Typer.isRawComparable(r)) {
+              // __eq is only consulted when both operands are tables or both are userdata
+              mayCallMetamethod();
+            }
+            break;
+
           case LT:
           case LE:
             result = LuaTypes.BOOLEAN;
-            mayCallMetamethod();  // TODO: may be restricted (see §2.4 of LRM)
+            if (!l.isSubtypeOf(LuaTypes.NUMBER) || !r.isSubtypeOf(LuaTypes.NUMBER)) {
+              mayCallMetamethod();  // TODO: may be restricted further (see §2.4 of LRM)
+            }
             break;
           default:
             throw new UnsupportedOperationException("Illegal binary operation: " + node.op());
@@ -443,6 +456,11 @@ class TyperVisitor extends CodeVisitor {
     assign(node.dest(), LuaTypes.ANY);
   }
 
+  @Override
+  public void visit(TabRawGet node) {
+    assign(node.dest(), LuaTypes.ANY);
+  }
+
   @Override
   public void visit(TabSet node) {
     mayCallMetamethod();
@@ -580,6 +598,7 @@ class TyperVisitor extends CodeVisitor {
       Objects.requireNonNull(v);
       allVars.add(v);
       types.put(v, Objects.requireNonNull(t));
+      varTypes.put(v, joinTypes(varTypes.get(v), t));
     }
 
     public Type load(Var v) {
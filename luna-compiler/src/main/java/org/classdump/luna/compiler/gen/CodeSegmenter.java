@@ -18,8 +18,10 @@ package org.classdump.luna.compiler.gen;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import org.classdump.luna.compiler.ir.BasicBlock;
 import org.classdump.luna.compiler.ir.BodyNode;
@@ -127,6 +129,133 @@ public final class CodeSegmenter {
     }
   }
 
+  // the number of nodes from the beginning of blk whose estimated size fits in limit,
+  // adjusted so that both parts of the split contain at least one node that is not a Line
+  private static int sizeSplitIndex(BasicBlock blk, int limit) {
+    List<BodyNode> body = blk.body();
+
+    int first = -1;
+    int last = -1;
+    for (int i = 0; i < body.size(); i++) {
+      if (!(body.get(i) instanceof Line)) {
+        if (first == -1) {
+          first = i;
+        }
+        last = i;
+      }
+    }
+
+    int index = 0;
+    int size = 0;
+    while (index < body.size()) {
+      size += CodeSizeEstimator.estimate(body.get(index));
+      if (size > limit) {
+        break;
+      }
+      index += 1;
+    }
+
+    return Math.min(Math.max(index, first + 1), last);
+  }
+
+  private static int nonLineNodes(BasicBlock blk) {
+    int count = 0;
+    for (BodyNode n : blk.body()) {
+      if (!(n instanceof Line)) {
+        count += 1;
+      }
+    }
+    return count;
+  }
+
+  // the greatest position in (start, end] at which code may be split up without cutting
+  // through a loop that begins in the current segment, or end if there is no such position
+  private static int loopBoundary(List<int[]> loops, int start, int end) {
+    for (int pos = end; pos > start; pos--) {
+      boolean inLoop = false;
+      for (int[] loop : loops) {
+        if (loop[0] >= start && loop[0] < pos && pos <= loop[1]) {
+          inLoop = true;
+          break;
+        }
+      }
+      if (!inLoop) {
+        return pos;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Splits {@code code} up into segments whose estimated bytecode size is at most
+   * {@code limit} bytes.
+   *
+   * <p>Segments preferably end between loops rather than inside them, so that
+   * the iterations of a loop run inside a single method. Only blocks whose size alone
+   * exceeds the limit are split up.</p>
+   *
+   * @param code the code to segment, must not be {@code null}
+   * @param limit the size limit in bytes; when non-positive, the code is not segmented
+   * @return the segmented code
+   * @throws NullPointerException if {@code code} is {@code null}
+   */
+  public static SegmentedCode segmentBySize(Code code, int limit) {
+    if (limit <= 0) {
+      return SegmentedCode.singleton(code);
+    }
+
+    // split up blocks that do not fit into a segment on their own
+    List<BasicBlock> blocks = new ArrayList<>();
+    int splitIdx = 0;
+    Iterator<BasicBlock> bit = code.blockIterator();
+    while (bit.hasNext()) {
+      BasicBlock blk = bit.next();
+      while (CodeSizeEstimator.estimate(blk) > limit && nonLineNodes(blk) > 1) {
+        BlockSplit split = splitBlockAt(blk, sizeSplitIndex(blk, limit), splitIdx++);
+        blocks.add(split.pred);
+        blk = split.succ;
+      }
+      blocks.add(blk);
+    }
+
+    Map<Label, Integer> positions = new HashMap<>();
+    for (BasicBlock blk : blocks) {
+      positions.put(blk.label(), positions.size());
+    }
+
+    // loops as the ranges of positions between a jump target and a jump back to it
+    List<int[]> loops = new ArrayList<>();
+    for (int i = 0; i < blocks.size(); i++) {
+      for (Label l : blocks.get(i).end().nextLabels()) {
+        int target = positions.get(l);
+        if (target <= i) {
+          loops.add(new int[]{target, i});
+        }
+      }
+    }
+
+    List<List<BasicBlock>> segmentBlocks = new ArrayList<>();
+    int start = 0;
+    int size = 0;
+    for (int i = 0; i < blocks.size(); i++) {
+      int len = CodeSizeEstimator.estimate(blocks.get(i));
+      while (i > start && size + len > limit) {
+        int end = loopBoundary(loops, start, i);
+        segmentBlocks.add(Collections.unmodifiableList(
+            new ArrayList<>(blocks.subList(start, end))));
+        for (int j = start; j < end; j++) {
+          size -= CodeSizeEstimator.estimate(blocks.get(j));
+        }
+        start = end;
+      }
+      size += len;
+    }
+    segmentBlocks.add(Collections.unmodifiableList(
+        new ArrayList<>(blocks.subList(start, blocks.size()))));
+
+    return SegmentedCode.of(segmentBlocks);
+  }
+
   private static class BlockSplit {
 
     final BasicBlock pred;
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.gen;
+
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.BinOp;
+import org.classdump.luna.compiler.ir.BodyNode;
+import org.classdump.luna.compiler.ir.Branch;
+import org.classdump.luna.compiler.ir.CPUWithdraw;
+import org.classdump.luna.compiler.ir.Call;
+import org.classdump.luna.compiler.ir.Closure;
+import org.classdump.luna.compiler.ir.CodeVisitor;
+import org.classdump.luna.compiler.ir.IRNode;
+import org.classdump.luna.compiler.ir.Jmp;
+import org.classdump.luna.compiler.ir.Line;
+import org.classdump.luna.compiler.ir.LoadConst;
+import org.classdump.luna.compiler.ir.MultiGet;
+import org.classdump.luna.compiler.ir.PhiLoad;
+import org.classdump.luna.compiler.ir.PhiStore;
+import org.classdump.luna.compiler.ir.Ret;
+import org.classdump.luna.compiler.ir.TCall;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.ir.TabNew;
+import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
+import org.classdump.luna.compiler.ir.TabRawSet;
+import org.classdump.luna.compiler.ir.TabRawSetInt;
+import org.classdump.luna.compiler.ir.TabSet;
+import org.classdump.luna.compiler.ir.ToNext;
+import org.classdump.luna.compiler.ir.ToNumber;
+import org.classdump.luna.compiler.ir.UnOp;
+import org.classdump.luna.compiler.ir.UpLoad;
+import org.classdump.luna.compiler.ir.UpStore;
+import org.classdump.luna.compiler.ir.VList;
+import org.classdump.luna.compiler.ir.VarInit;
+import org.classdump.luna.compiler.ir.VarLoad;
+import org.classdump.luna.compiler.ir.VarStore;
+import org.classdump.luna.compiler.ir.Vararg;
+
+/**
+ * A rough estimate of the size (in bytes) of the JVM bytecode emitted for IR nodes.
+ *
+ * <p>The estimates err on the side of the slower paths of the emitter (i.e., they assume
+ * that operations need a resumption point, and that values are boxed).</p>
+ */
+final class CodeSizeEstimator extends CodeVisitor {
+
+  // saving the state before and restoring it after an operation that may be suspended
+  private static final int RESUMPTION_POINT = 12;
+
+  // loading or storing a register
+  private static final int REGISTER = 2;
+
+  private int size;
+
+  private CodeSizeEstimator() {
+    this.size = 0;
+  }
+
+  static int estimate(IRNode node) {
+    CodeSizeEstimator estimator = new CodeSizeEstimator();
+    node.accept(estimator);
+    return estimator.size;
+  }
+
+  static int estimate(BasicBlock block) {
+    int size = 0;
+    for (BodyNode n : block.body()) {
+      size += estimate(n);
+    }
+    return size + estimate(block.end());
+  }
+
+  private static int vlist(VList vl) {
+    return vl.addrs().size() * REGISTER + (vl.isMulti() ? 20 : 0);
+  }
+
+  // invocation of a Dispatch method with args arguments, resuming afterwards
+  private void dispatch(int args) {
+    size += RESUMPTION_POINT + 1 + args * REGISTER + 3 + 4 + REGISTER;
+  }
+
+  @Override
+  public void visit(LoadConst.Nil node) {
+    size += 1 + REGISTER;
+  }
+
+  @Override
+  public void visit(LoadConst.Bool node) {
+    size += 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(LoadConst.Int node) {
+    size += 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(LoadConst.Flt node) {
+    size += 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(LoadConst.Str node) {
+    size += 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(BinOp node) {
+    dispatch(2);
+  }
+
+  @Override
+  public void visit(UnOp node) {
+    dispatch(1);
+  }
+
+  @Override
+  public void visit(TabNew node) {
+    size += 1 + 6 + 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(TabGet node) {
+    dispatch(2);
+    size += 4;  // shape cache
+  }
+
+  @Override
+  public void visit(TabRawGet node) {
+    size += 4 * REGISTER + 13;  // guard check and a static call
+  }
+
+  @Override
+  public void visit(TabSet node) {
+    dispatch(3);
+    size += 4;  // shape cache
+  }
+
+  @Override
+  public void visit(TabRawSet node) {
+    size += 3 * REGISTER + 3 + 3;
+  }
+
+  @Override
+  public void visit(TabRawSetInt node) {
+    size += 2 * REGISTER + 3 + 3 + 3;
+  }
+
+  @Override
+  public void visit(TabRawAppendMulti node) {
+    size += 60;
+  }
+
+  @Override
+  public void visit(VarInit node) {
+    size += 2 * REGISTER + 7;
+  }
+
+  @Override
+  public void visit(VarLoad node) {
+    size += 2 * REGISTER + 6;
+  }
+
+  @Override
+  public void visit(VarStore node) {
+    size += 2 * REGISTER + 6;
+  }
+
+  @Override
+  public void visit(UpLoad node) {
+    size += 1 + 3 + 3 + 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(UpStore node) {
+    size += 1 + 3 + 3 + REGISTER + 3;
+  }
+
+  @Override
+  public void visit(Vararg node) {
+    size += 10;
+  }
+
+  @Override
+  public void visit(Ret node) {
+    size += 6 + vlist(node.args()) + 4;
+  }
+
+  @Override
+  public void visit(TCall node) {
+    size += 6 + REGISTER + vlist(node.args()) + 4;
+  }
+
+  @Override
+  public void visit(Call node) {
+    dispatch(1);
+    size += vlist(node.args());
+  }
+
+  @Override
+  public void visit(MultiGet node) {
+    size += 1 + 3 + 1 + 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(PhiStore node) {
+    size += 2 * REGISTER;
+  }
+
+  @Override
+  public void visit(PhiLoad node) {
+    size += 2 * REGISTER;
+  }
+
+  @Override
+  public void visit(Jmp node) {
+    size += 3;
+  }
+
+  @Override
+  public void visit(Closure node) {
+    size += 10 + node.args().size() * (REGISTER + 4) + REGISTER;
+  }
+
+  @Override
+  public void visit(ToNumber node) {
+    size += REGISTER + 3 + 3 + REGISTER;
+  }
+
+  @Override
+  public void visit(ToNext node) {
+    // no-op
+  }
+
+  @Override
+  public void visit(Branch branch) {
+    branch.condition().accept(this);
+  }
+
+  @Override
+  public void visit(Branch.Condition.Nil cond) {
+    size += REGISTER + 3;
+  }
+
+  @Override
+  public void visit(Branch.Condition.Bool cond) {
+    size += REGISTER + 3 + 3;
+  }
+
+  @Override
+  public void visit(Branch.Condition.NumLoopEnd cond) {
+    size += 3 * REGISTER + 9 + 3;
+  }
+
+  @Override
+  public void visit(CPUWithdraw node) {
+    size += RESUMPTION_POINT + 2 + 3 + 3 + 1 + 3;
+  }
+
+  @Override
+  public void visit(Line node) {
+    // stored in the line number table, not in the code
+  }
+
+}
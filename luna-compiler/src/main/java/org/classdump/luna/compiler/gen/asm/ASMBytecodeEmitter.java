@@ -28,13 +28,19 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import org.classdump.luna.Variable;
 import org.classdump.luna.compiler.CompilerSettings;
 import org.classdump.luna.compiler.FunctionId;
 import org.classdump.luna.compiler.IRFunc;
 import org.classdump.luna.compiler.analysis.DependencyInfo;
+import org.classdump.luna.compiler.analysis.LivenessAnalyser;
+import org.classdump.luna.compiler.analysis.LivenessInfo;
 import org.classdump.luna.compiler.analysis.SlotAllocInfo;
 import org.classdump.luna.compiler.analysis.TypeInfo;
 import org.classdump.luna.compiler.gen.BytecodeEmitter;
@@ -44,6 +50,8 @@ import org.classdump.luna.compiler.gen.asm.helpers.ASMUtils;
 import org.classdump.luna.compiler.gen.asm.helpers.InvokableMethods;
 import org.classdump.luna.compiler.gen.asm.helpers.InvokeKind;
 import org.classdump.luna.compiler.ir.AbstractVar;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.Label;
 import org.classdump.luna.compiler.ir.UpVar;
 import org.classdump.luna.compiler.ir.Var;
 import org.classdump.luna.impl.DefaultSavedState;
@@ -60,6 +68,9 @@ import org.objectweb.asm.util.TraceClassVisitor;
 
 public class ASMBytecodeEmitter extends BytecodeEmitter {
 
+  // HotSpot's default limit on the size of methods it compiles
+  private static final int HUGE_METHOD_LIMIT = 8000;
+
   public final IRFunc fn;
   public final SlotAllocInfo slots;
   public final TypeInfo types;
@@ -77,6 +88,10 @@ public class ASMBytecodeEmitter extends BytecodeEmitter {
   private final List<FieldNode> fields;
 
   private boolean verifyAndPrint;
+  private boolean printMethodSizes;
+
+  private LivenessInfo liveness;
+  private Set<Label> backEdgeSources;
 
   public ASMBytecodeEmitter(
       IRFunc fn,
@@ -104,6 +119,42 @@ public class ASMBytecodeEmitter extends BytecodeEmitter {
 
     String s = System.getProperty("org.classdump.luna.compiler.VerifyAndPrint");
     verifyAndPrint = s != null && "true".equals(s.trim().toLowerCase());
+
+    String m = System.getProperty("org.classdump.luna.compiler.PrintMethodSizes");
+    printMethodSizes = m != null && "true".equals(m.trim().toLowerCase());
+  }
+
+  // computed on demand, as it is only needed by some of the optimisations in the emitter
+  LivenessInfo liveness() {
+    if (liveness == null) {
+      liveness = LivenessAnalyser.computeLiveness(fn);
+    }
+    return liveness;
+  }
+
+  // labels of the blocks that end with a jump to a block that does not follow them in the code
+  Set<Label> backEdgeSources() {
+    if (backEdgeSources == null) {
+      Map<Label, Integer> positions = new HashMap<>();
+      Iterator<BasicBlock> it = fn.code().blockIterator();
+      while (it.hasNext()) {
+        positions.put(it.next().label(), positions.size());
+      }
+
+      Set<Label> result = new HashSet<>();
+      it = fn.code().blockIterator();
+      while (it.hasNext()) {
+        BasicBlock b = it.next();
+        int pos = positions.get(b.label());
+        for (Label l : b.end().nextLabels()) {
+          if (positions.get(l) <= pos) {
+            result.add(b.label());
+          }
+        }
+      }
+      backEdgeSources = Collections.unmodifiableSet(result);
+    }
+    return backEdgeSources;
   }
 
   protected static NestedInstanceKind functionKind(IRFunc fn) {
@@ -318,9 +369,26 @@ public class ASMBytecodeEmitter extends BytecodeEmitter {
       reader.accept(checker, 0);
     }
 
+    if (printMethodSizes) {
+      printMethodSizes(bytes);
+    }
+
     return bytes;
   }
 
+  private void printMethodSizes(byte[] bytes) {
+    StringBuilder bld = new StringBuilder();
+    bld.append("Method sizes of ").append(thisClassName())
+        .append(" (").append(sourceFile).append("):");
+    for (Map.Entry<String, Integer> e : ASMUtils.methodCodeSizes(bytes).entrySet()) {
+      bld.append("\n  ").append(e.getKey()).append(": ").append(e.getValue()).append(" bytes");
+      if (e.getValue() > HUGE_METHOD_LIMIT) {
+        bld.append(" (will not be JIT-compiled by HotSpot)");
+      }
+    }
+    System.err.println(bld);
+  }
+
   @Override
   public CompiledClass emit() {
     ClassNode classNode = classNode();
@@ -26,6 +26,14 @@ import static org.objectweb.asm.Opcodes.ARETURN;
 import static org.objectweb.asm.Opcodes.ARRAYLENGTH;
 import static org.objectweb.asm.Opcodes.ASTORE;
 import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.DADD;
+import static org.objectweb.asm.Opcodes.DCMPG;
+import static org.objectweb.asm.Opcodes.DCMPL;
+import static org.objectweb.asm.Opcodes.DDIV;
+import static org.objectweb.asm.Opcodes.DMUL;
+import static org.objectweb.asm.Opcodes.DNEG;
+import static org.objectweb.asm.Opcodes.DSTORE;
+import static org.objectweb.asm.Opcodes.DSUB;
 import static org.objectweb.asm.Opcodes.DUP;
 import static org.objectweb.asm.Opcodes.F_APPEND;
 import static org.objectweb.asm.Opcodes.F_CHOP;
@@ -37,6 +45,10 @@ import static org.objectweb.asm.Opcodes.I2L;
 import static org.objectweb.asm.Opcodes.IADD;
 import static org.objectweb.asm.Opcodes.ICONST_1;
 import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFGE;
+import static org.objectweb.asm.Opcodes.IFGT;
+import static org.objectweb.asm.Opcodes.IFLE;
+import static org.objectweb.asm.Opcodes.IFLT;
 import static org.objectweb.asm.Opcodes.IFNE;
 import static org.objectweb.asm.Opcodes.IFNONNULL;
 import static org.objectweb.asm.Opcodes.IFNULL;
@@ -46,7 +58,18 @@ import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 import static org.objectweb.asm.Opcodes.ISTORE;
 import static org.objectweb.asm.Opcodes.IXOR;
+import static org.objectweb.asm.Opcodes.L2D;
+import static org.objectweb.asm.Opcodes.L2I;
 import static org.objectweb.asm.Opcodes.LADD;
+import static org.objectweb.asm.Opcodes.LAND;
+import static org.objectweb.asm.Opcodes.LCMP;
+import static org.objectweb.asm.Opcodes.LLOAD;
+import static org.objectweb.asm.Opcodes.LMUL;
+import static org.objectweb.asm.Opcodes.LNEG;
+import static org.objectweb.asm.Opcodes.LOR;
+import static org.objectweb.asm.Opcodes.LSTORE;
+import static org.objectweb.asm.Opcodes.LSUB;
+import static org.objectweb.asm.Opcodes.LXOR;
 import static org.objectweb.asm.Opcodes.NEW;
 import static org.objectweb.asm.Opcodes.PUTFIELD;
 import static org.objectweb.asm.Opcodes.RETURN;
@@ -54,30 +77,38 @@ import static org.objectweb.asm.Opcodes.RETURN;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import org.classdump.luna.ByteString;
 import org.classdump.luna.Table;
 import org.classdump.luna.Variable;
 import org.classdump.luna.compiler.CompilerSettings;
 import org.classdump.luna.compiler.FunctionId;
+import org.classdump.luna.compiler.analysis.NumericOperationType;
 import org.classdump.luna.compiler.analysis.SlotAllocInfo;
 import org.classdump.luna.compiler.analysis.TypeInfo;
+import org.classdump.luna.compiler.analysis.Typer;
+import org.classdump.luna.compiler.analysis.types.LuaTypes;
 import org.classdump.luna.compiler.gen.ClassNameTranslator;
 import org.classdump.luna.compiler.gen.asm.helpers.ASMUtils;
 import org.classdump.luna.compiler.gen.asm.helpers.BoxedPrimitivesMethods;
 import org.classdump.luna.compiler.gen.asm.helpers.ConversionMethods;
 import org.classdump.luna.compiler.gen.asm.helpers.DispatchMethods;
 import org.classdump.luna.compiler.gen.asm.helpers.ExecutionContextMethods;
+import org.classdump.luna.compiler.gen.asm.helpers.OperatorMethods;
 import org.classdump.luna.compiler.gen.asm.helpers.ReturnBufferMethods;
 import org.classdump.luna.compiler.gen.asm.helpers.TableMethods;
+import org.classdump.luna.compiler.gen.asm.helpers.UtilMethods;
 import org.classdump.luna.compiler.gen.asm.helpers.VariableMethods;
 import org.classdump.luna.compiler.ir.AbstractVal;
 import org.classdump.luna.compiler.ir.AbstractVar;
 import org.classdump.luna.compiler.ir.BasicBlock;
 import org.classdump.luna.compiler.ir.BinOp;
+import org.classdump.luna.compiler.ir.BodyNode;
 import org.classdump.luna.compiler.ir.Branch;
 import org.classdump.luna.compiler.ir.CPUWithdraw;
 import org.classdump.luna.compiler.ir.Call;
@@ -95,6 +126,7 @@ import org.classdump.luna.compiler.ir.TCall;
 import org.classdump.luna.compiler.ir.TabGet;
 import org.classdump.luna.compiler.ir.TabNew;
 import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
 import org.classdump.luna.compiler.ir.TabRawSet;
 import org.classdump.luna.compiler.ir.TabRawSetInt;
 import org.classdump.luna.compiler.ir.TabSet;
@@ -111,6 +143,8 @@ import org.classdump.luna.compiler.ir.VarInit;
 import org.classdump.luna.compiler.ir.VarLoad;
 import org.classdump.luna.compiler.ir.VarStore;
 import org.classdump.luna.compiler.ir.Vararg;
+import org.classdump.luna.impl.ShapeCache;
+import org.classdump.luna.impl.StampCache;
 import org.classdump.luna.runtime.ExecutionContext;
 import org.classdump.luna.runtime.ReturnBuffer;
 import org.objectweb.asm.Opcodes;
@@ -150,6 +184,19 @@ class BytecodeEmitVisitor extends CodeVisitor {
   private final List<RunMethod.ConstFieldInstance> constFields;
   private Label destLabel;
 
+  // a comparison that cannot call metamethods whose result is only used by the branch
+  // ending the current block
+  private BinOp fusedComparison;
+
+  // vals and vars in the current block known to hold a table created by TabNew that cannot
+  // have acquired a metatable yet (i.e., no code has been run since it was created)
+  private final Set<Object> freshTables;
+
+  // vals in the current block known to hold the value of the _ENV upvalue (mapped to 0),
+  // or a field of it (mapped to 1): accesses to their fields are global variable accesses
+  // or accesses to the fields of modules
+  private final Map<Object, Integer> globals;
+
   public BytecodeEmitVisitor(
       ASMBytecodeEmitter context,
       RunMethod runMethod,
@@ -170,6 +217,8 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
     this.labels = new HashMap<>();
     this.resumptionPoints = new ArrayList<>();
+    this.freshTables = new HashSet<>();
+    this.globals = new HashMap<>();
 
     this.il = new InsnList();
     this.locals = new ArrayList<>();
@@ -279,15 +328,147 @@ class BytecodeEmitVisitor extends CodeVisitor {
   }
 
   protected int slot(AbstractVal v) {
-    return runMethod.slotOffset() + slots.slotOf(v);
+    return runMethod.registerIndex(slots.slotOf(v));
   }
 
   protected int slot(Var v) {
-    return runMethod.slotOffset() + slots.slotOf(v);
+    return runMethod.registerIndex(slots.slotOf(v));
   }
 
   protected int nextLocalVariableIndex() {
-    return runMethod.slotOffset() + slots.numSlots();
+    return runMethod.slotOffset() + runMethod.registersSize();
+  }
+
+  // pushes the value of v on the stack, boxing it if it is stored in an unboxed slot
+  private InsnList load(AbstractVal v) {
+    return runMethod.loadBoxedRegister(slots.slotOf(v), slot(v));
+  }
+
+  private InsnList load(Var v) {
+    return runMethod.loadBoxedRegister(slots.slotOf(v), slot(v));
+  }
+
+  // stores the (boxed) value on the top of the stack into v
+  private InsnList store(AbstractVal v) {
+    int idx = slots.slotOf(v);
+    InsnList il = runMethod.unboxToRegister(idx);
+    il.add(new VarInsnNode(runMethod.registerType(idx).getOpcode(ISTORE), slot(v)));
+    return il;
+  }
+
+  private InsnList store(Var v) {
+    int idx = slots.slotOf(v);
+    InsnList il = runMethod.unboxToRegister(idx);
+    il.add(new VarInsnNode(runMethod.registerType(idx).getOpcode(ISTORE), slot(v)));
+    return il;
+  }
+
+  // copies the value of src to dest, avoiding boxing when both are stored in unboxed slots
+  // of the same type
+  private void move(SlotAllocInfo.SlotType srcType, int srcIdx, int srcSlot,
+      SlotAllocInfo.SlotType destType, int destIdx, int destSlot) {
+    if (srcType == destType) {
+      Type t = runMethod.registerType(srcIdx);
+      il.add(new VarInsnNode(t.getOpcode(ILOAD), srcSlot));
+      il.add(new VarInsnNode(t.getOpcode(ISTORE), destSlot));
+    } else {
+      il.add(runMethod.loadBoxedRegister(srcIdx, srcSlot));
+      il.add(runMethod.unboxToRegister(destIdx));
+      il.add(new VarInsnNode(runMethod.registerType(destIdx).getOpcode(ISTORE), destSlot));
+    }
+  }
+
+  private void move(AbstractVal src, AbstractVal dest) {
+    move(slots.slotTypeOf(src), slots.slotOf(src), slot(src),
+        slots.slotTypeOf(dest), slots.slotOf(dest), slot(dest));
+  }
+
+  private void move(AbstractVal src, Var dest) {
+    move(slots.slotTypeOf(src), slots.slotOf(src), slot(src),
+        slots.slotTypeOf(dest), slots.slotOf(dest), slot(dest));
+  }
+
+  private void move(Var src, AbstractVal dest) {
+    move(slots.slotTypeOf(src), slots.slotOf(src), slot(src),
+        slots.slotTypeOf(dest), slots.slotOf(dest), slot(dest));
+  }
+
+  private boolean isInteger(AbstractVal v) {
+    return types.typeOf(v).isSubtypeOf(LuaTypes.NUMBER_INTEGER);
+  }
+
+  private boolean isFloat(AbstractVal v) {
+    return types.typeOf(v).isSubtypeOf(LuaTypes.NUMBER_FLOAT);
+  }
+
+  private boolean isNumber(AbstractVal v) {
+    return types.typeOf(v).isSubtypeOf(LuaTypes.NUMBER);
+  }
+
+  // pushes the value of the integer v on the stack as a long
+  private InsnList loadLong(AbstractVal v) {
+    InsnList il = new InsnList();
+    int idx = slots.slotOf(v);
+    if (slots.slotTypeOf(v) == SlotAllocInfo.SlotType.LONG) {
+      il.add(runMethod.loadRegister(idx, slot(v)));
+    } else {
+      il.add(runMethod.loadBoxedRegister(idx, slot(v)));
+      il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+      il.add(BoxedPrimitivesMethods.longValue(Number.class));
+    }
+    return il;
+  }
+
+  // pushes the value of the number v on the stack as a double
+  private InsnList loadDouble(AbstractVal v) {
+    InsnList il = new InsnList();
+    int idx = slots.slotOf(v);
+    switch (slots.slotTypeOf(v)) {
+      case DOUBLE:
+        il.add(runMethod.loadRegister(idx, slot(v)));
+        break;
+      case LONG:
+        il.add(runMethod.loadRegister(idx, slot(v)));
+        il.add(new InsnNode(L2D));
+        break;
+      default:
+        il.add(runMethod.loadBoxedRegister(idx, slot(v)));
+        il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+        il.add(BoxedPrimitivesMethods.doubleValue(Number.class));
+        break;
+    }
+    return il;
+  }
+
+  private InsnList loadNumber(AbstractVal v) {
+    InsnList il = new InsnList();
+    il.add(load(v));
+    il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+    return il;
+  }
+
+  // stores the long on the top of the stack into v
+  private InsnList storeLong(AbstractVal v) {
+    InsnList il = new InsnList();
+    if (slots.slotTypeOf(v) == SlotAllocInfo.SlotType.LONG) {
+      il.add(new VarInsnNode(LSTORE, slot(v)));
+    } else {
+      il.add(BoxedPrimitivesMethods.box(Type.LONG_TYPE, Long.class));
+      il.add(store(v));
+    }
+    return il;
+  }
+
+  // stores the double on the top of the stack into v
+  private InsnList storeDouble(AbstractVal v) {
+    InsnList il = new InsnList();
+    if (slots.slotTypeOf(v) == SlotAllocInfo.SlotType.DOUBLE) {
+      il.add(new VarInsnNode(DSTORE, slot(v)));
+    } else {
+      il.add(BoxedPrimitivesMethods.box(Type.DOUBLE_TYPE, Double.class));
+      il.add(store(v));
+    }
+    return il;
   }
 
   private LabelNode l(Object o) {
@@ -343,6 +524,34 @@ class BytecodeEmitVisitor extends CodeVisitor {
     return cfi.accessInsns();
   }
 
+  private InsnList loadNewCache(final Class<?> cacheClass) {
+    // every access site gets its own cache: the field is never shared
+    String fieldName = "_ic_" + constFields.size();
+    RunMethod.ConstFieldInstance cfi = new RunMethod.ConstFieldInstance(
+        new Object(), fieldName, context.thisClassType(), Type.getType(cacheClass)) {
+      @Override
+      public void doInstantiate(InsnList il) {
+        il.add(new TypeInsnNode(NEW, Type.getInternalName(cacheClass)));
+        il.add(new InsnNode(DUP));
+        il.add(ASMUtils.ctor(cacheClass));
+      }
+    };
+    constFields.add(cfi);
+    return cfi.accessInsns();
+  }
+
+  private InsnList loadNewShapeCache() {
+    return loadNewCache(ShapeCache.class);
+  }
+
+  private InsnList loadNewStampCache() {
+    return loadNewCache(StampCache.class);
+  }
+
+  private boolean isGlobal(Val v) {
+    return globals.containsKey(v);
+  }
+
   public AbstractInsnNode loadExecutionContext() {
     return new VarInsnNode(ALOAD, runMethod.LV_CONTEXT);
   }
@@ -386,6 +595,8 @@ class BytecodeEmitVisitor extends CodeVisitor {
   }
 
   protected ResumptionPoint newResumptionPoint() {
+    // arbitrary code may be executed from here on, including calls to setmetatable
+    freshTables.clear();
     int idx = resumptionPoints.size();
     ResumptionPoint rp = new ResumptionPoint(idx);
     resumptionPoints.add(rp.label());
@@ -442,14 +653,14 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
   @Override
   public void visit(PhiStore node) {
-    il.add(new VarInsnNode(ALOAD, slot(node.src())));
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    freshTables.remove(node.dest());
+    move(node.src(), node.dest());
   }
 
   @Override
   public void visit(PhiLoad node) {
-    il.add(new VarInsnNode(ALOAD, slot(node.src())));
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    freshTables.remove(node.dest());
+    move(node.src(), node.dest());
   }
 
   @Override
@@ -457,86 +668,117 @@ class BytecodeEmitVisitor extends CodeVisitor {
     if (types.isReified(node.var())) {
       il.add(new TypeInsnNode(NEW, Type.getInternalName(Variable.class)));
       il.add(new InsnNode(DUP));
-      il.add(new VarInsnNode(ALOAD, slot(node.src())));
+      il.add(load(node.src()));
       il.add(VariableMethods.constructor());
-      il.add(new VarInsnNode(ASTORE, slot(node.var())));
+      il.add(store(node.var()));
     } else {
-      il.add(new VarInsnNode(ALOAD, slot(node.src())));
-      il.add(new VarInsnNode(ASTORE, slot(node.var())));
+      trackFreshness(node.src(), node.var());
+      move(node.src(), node.var());
     }
   }
 
   @Override
   public void visit(VarStore node) {
     if (types.isReified(node.var())) {
-      il.add(new VarInsnNode(ALOAD, slot(node.var())));
+      il.add(load(node.var()));
       il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Variable.class)));
-      il.add(new VarInsnNode(ALOAD, slot(node.src())));
+      il.add(load(node.src()));
       il.add(VariableMethods.set());
     } else {
-      il.add(new VarInsnNode(ALOAD, slot(node.src())));
-      il.add(new VarInsnNode(ASTORE, slot(node.var())));
+      trackFreshness(node.src(), node.var());
+      move(node.src(), node.var());
     }
   }
 
   @Override
   public void visit(VarLoad node) {
     if (types.isReified(node.var())) {
-      il.add(new VarInsnNode(ALOAD, slot(node.var())));
+      il.add(load(node.var()));
       il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Variable.class)));
       il.add(VariableMethods.get());
+      il.add(store(node.dest()));
     } else {
-      il.add(new VarInsnNode(ALOAD, slot(node.var())));
+      trackFreshness(node.var(), node.dest());
+      move(node.var(), node.dest());
     }
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+  }
+
+  private void trackFreshness(Object src, Object dest) {
+    if (freshTables.contains(src)) {
+      freshTables.add(dest);
+    } else {
+      freshTables.remove(dest);
+    }
+  }
+
+  private boolean isFreshTable(AbstractVal v) {
+    return freshTables.contains(v);
   }
 
   @Override
   public void visit(UpLoad node) {
+    if (node.upval().name().equals(org.classdump.luna.parser.analysis.Variable.ENV_NAME)) {
+      globals.put(node.dest(), 0);
+    } else {
+      globals.remove(node.dest());
+    }
+
     il.add(loadUpvalueRef(node.upval()));
     il.add(VariableMethods.get());
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
   public void visit(UpStore node) {
     il.add(loadUpvalueRef(node.upval()));
-    il.add(new VarInsnNode(ALOAD, slot(node.src())));
+    il.add(load(node.src()));
     il.add(VariableMethods.set());
   }
 
   @Override
   public void visit(LoadConst.Nil node) {
     il.add(new InsnNode(ACONST_NULL));
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
   public void visit(LoadConst.Bool node) {
     il.add(BoxedPrimitivesMethods.loadBoxedBoolean(node.value()));
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
   public void visit(LoadConst.Int node) {
+    if (slots.slotTypeOf(node.dest()) == SlotAllocInfo.SlotType.LONG) {
+      il.add(ASMUtils.loadLong(node.value()));
+      il.add(new VarInsnNode(LSTORE, slot(node.dest())));
+      return;
+    }
+
     if (context.compilerSettings.constCaching()) {
       il.add(loadCachedConst(node.value()));
     } else {
       il.add(ASMUtils.loadLong(node.value()));
       il.add(BoxedPrimitivesMethods.box(Type.LONG_TYPE, Type.getType(Long.class)));
     }
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
   public void visit(LoadConst.Flt node) {
+    if (slots.slotTypeOf(node.dest()) == SlotAllocInfo.SlotType.DOUBLE) {
+      il.add(ASMUtils.loadDouble(node.value()));
+      il.add(new VarInsnNode(DSTORE, slot(node.dest())));
+      return;
+    }
+
     if (context.compilerSettings.constCaching()) {
       il.add(loadCachedConst(node.value()));
     } else {
       il.add(ASMUtils.loadDouble(node.value()));
       il.add(BoxedPrimitivesMethods.box(Type.DOUBLE_TYPE, Type.getType(Double.class)));
     }
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
@@ -553,98 +795,518 @@ class BytecodeEmitVisitor extends CodeVisitor {
       il.add(new LdcInsnNode(node.value()));
     }
 
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
+  }
+
+  private static boolean isComparison(BinOp.Op op) {
+    switch (op) {
+      case EQ:
+      case NEQ:
+      case LT:
+      case LE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // the type of the arithmetic operation node when it involves no metamethods
+  private NumericOperationType numericOpType(BinOp node) {
+    AbstractVal l = node.left();
+    AbstractVal r = node.right();
+
+    if (!isNumber(l) || !isNumber(r)) {
+      return NumericOperationType.Any;
+    }
+
+    switch (node.op()) {
+      case ADD:
+      case SUB:
+      case MUL:
+      case MOD:
+      case IDIV:
+        if (isInteger(l) && isInteger(r)) {
+          return NumericOperationType.Integer;
+        } else if (isFloat(l) || isFloat(r)) {
+          return NumericOperationType.Float;
+        } else {
+          return NumericOperationType.Number;
+        }
+
+      case DIV:
+      case POW:
+        return NumericOperationType.Float;
+
+      case BAND:
+      case BOR:
+      case BXOR:
+      case SHL:
+      case SHR:
+        // floats must be converted to integers, which may fail: leave that to Dispatch
+        return isInteger(l) && isInteger(r)
+            ? NumericOperationType.Integer
+            : NumericOperationType.Any;
+
+      default:
+        return NumericOperationType.Any;
+    }
+  }
+
+  private static AbstractInsnNode integerOp(BinOp.Op op) {
+    switch (op) {
+      case ADD:
+        return new InsnNode(LADD);
+      case SUB:
+        return new InsnNode(LSUB);
+      case MUL:
+        return new InsnNode(LMUL);
+      case BAND:
+        return new InsnNode(LAND);
+      case BOR:
+        return new InsnNode(LOR);
+      case BXOR:
+        return new InsnNode(LXOR);
+      case MOD:
+        return rawIntegerOp(OperatorMethods.RAW_OP_MOD);
+      case IDIV:
+        return rawIntegerOp(OperatorMethods.RAW_OP_IDIV);
+      case SHL:
+        return rawIntegerOp(OperatorMethods.RAW_OP_SHL);
+      case SHR:
+        return rawIntegerOp(OperatorMethods.RAW_OP_SHR);
+      default:
+        throw new IllegalArgumentException("Illegal integer operation: " + op);
+    }
+  }
+
+  private static AbstractInsnNode rawIntegerOp(String methodName) {
+    return OperatorMethods.rawBinaryOperator(methodName, Type.LONG_TYPE, Type.LONG_TYPE);
+  }
+
+  private static AbstractInsnNode floatOp(BinOp.Op op) {
+    switch (op) {
+      case ADD:
+        return new InsnNode(DADD);
+      case SUB:
+        return new InsnNode(DSUB);
+      case MUL:
+        return new InsnNode(DMUL);
+      case DIV:
+        return new InsnNode(DDIV);
+      case MOD:
+        return rawFloatOp(OperatorMethods.RAW_OP_MOD);
+      case IDIV:
+        return rawFloatOp(OperatorMethods.RAW_OP_IDIV);
+      case POW:
+        return rawFloatOp(OperatorMethods.RAW_OP_POW);
+      default:
+        throw new IllegalArgumentException("Illegal float operation: " + op);
+    }
+  }
+
+  private static AbstractInsnNode rawFloatOp(String methodName) {
+    return OperatorMethods.rawBinaryOperator(methodName, Type.DOUBLE_TYPE, Type.DOUBLE_TYPE);
+  }
+
+  private boolean isNumericComparison(BinOp node) {
+    return isComparison(node.op()) && isNumber(node.left()) && isNumber(node.right());
+  }
+
+  // equality tests in which __eq cannot be involved
+  private boolean isRawEquality(BinOp node) {
+    return (node.op() == BinOp.Op.EQ || node.op() == BinOp.Op.NEQ)
+        && (Typer.isRawComparable(types.typeOf(node.left()))
+        || Typer.isRawComparable(types.typeOf(node.right())));
+  }
+
+  // emits a jump to target if the result of the comparison node is jumpIf,
+  // falling through otherwise; node must be a numeric comparison or a raw equality test
+  private InsnList comparisonJump(BinOp node, boolean jumpIf, LabelNode target) {
+    if (isNumericComparison(node)) {
+      return numericComparisonJump(node, jumpIf, target);
+    }
+
+    InsnList il = new InsnList();
+    boolean positive = node.op() == BinOp.Op.EQ;
+    il.add(load(node.left()));
+    il.add(load(node.right()));
+    il.add(UtilMethods.Ordering_isRawEqual());
+    il.add(new JumpInsnNode(jumpIf == positive ? IFNE : IFEQ, target));
+    return il;
+  }
+
+  private boolean isConcatenationOfStrings(BinOp node) {
+    return node.op() == BinOp.Op.CONCAT
+        && isStringable(node.left()) && isStringable(node.right());
+  }
+
+  private boolean isStringable(AbstractVal v) {
+    return types.typeOf(v).isSubtypeOf(LuaTypes.STRING)
+        || types.typeOf(v).isSubtypeOf(LuaTypes.NUMBER);
+  }
+
+  // emits a jump to target if the result of the numeric comparison node is jumpIf,
+  // falling through otherwise
+  private InsnList numericComparisonJump(BinOp node, boolean jumpIf, LabelNode target) {
+    InsnList il = new InsnList();
+
+    AbstractVal l = node.left();
+    AbstractVal r = node.right();
+
+    // NEQ is the negation of EQ
+    boolean positive = node.op() != BinOp.Op.NEQ;
+    String name = node.op() == BinOp.Op.LT ? OperatorMethods.RAW_OP_LT
+        : node.op() == BinOp.Op.LE ? OperatorMethods.RAW_OP_LE
+            : OperatorMethods.RAW_OP_EQ;
+
+    final int opcode;
+    if (isInteger(l) && isInteger(r)) {
+      il.add(loadLong(l));
+      il.add(loadLong(r));
+      il.add(new InsnNode(LCMP));
+      opcode = compareJumpOpcode(node.op(), jumpIf);
+    } else if (isFloat(l) && isFloat(r)) {
+      il.add(loadDouble(l));
+      il.add(loadDouble(r));
+      // NaN must compare as false in LT and LE, and as not equal in EQ and NEQ
+      il.add(new InsnNode(node.op() == BinOp.Op.LT || node.op() == BinOp.Op.LE ? DCMPG : DCMPL));
+      opcode = compareJumpOpcode(node.op(), jumpIf);
+    } else {
+      if (isInteger(l) && isFloat(r)) {
+        il.add(loadLong(l));
+        il.add(loadDouble(r));
+        il.add(OperatorMethods.rawBinaryOperator(
+            name, Type.BOOLEAN_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE));
+      } else if (isFloat(l) && isInteger(r)) {
+        il.add(loadDouble(l));
+        il.add(loadLong(r));
+        il.add(OperatorMethods.rawBinaryOperator(
+            name, Type.BOOLEAN_TYPE, Type.DOUBLE_TYPE, Type.LONG_TYPE));
+      } else {
+        il.add(loadNumber(l));
+        il.add(loadNumber(r));
+        il.add(DispatchMethods.numericComparison(name));
+      }
+      opcode = jumpIf == positive ? IFNE : IFEQ;
+    }
+
+    il.add(new JumpInsnNode(opcode, target));
+    return il;
+  }
+
+  // the opcode of the jump following LCMP, DCMPL or DCMPG that jumps when the result
+  // of the comparison op is jumpIf
+  private static int compareJumpOpcode(BinOp.Op op, boolean jumpIf) {
+    switch (op) {
+      case EQ:
+        return jumpIf ? IFEQ : IFNE;
+      case NEQ:
+        return jumpIf ? IFNE : IFEQ;
+      case LT:
+        return jumpIf ? IFLT : IFGE;
+      case LE:
+        return jumpIf ? IFLE : IFGT;
+      default:
+        throw new IllegalArgumentException("Illegal comparison: " + op);
+    }
+  }
+
+  // returns the last node in block if it is a comparison that cannot call metamethods
+  // and whose result is used by the branch ending the block and nowhere else
+  private BinOp fusibleComparison(BasicBlock block) {
+    if (block.body().isEmpty() || !(block.end() instanceof Branch)) {
+      return null;
+    }
+
+    BodyNode last = block.body().get(block.body().size() - 1);
+    Branch branch = (Branch) block.end();
+    if (!(last instanceof BinOp) || !(branch.condition() instanceof Branch.Condition.Bool)) {
+      return null;
+    }
+
+    BinOp node = (BinOp) last;
+    Branch.Condition.Bool cond = (Branch.Condition.Bool) branch.condition();
+    if (cond.addr().equals(node.dest())
+        && (isNumericComparison(node) || isRawEquality(node))
+        && !context.liveness().entry(branch).outVal().contains(node.dest())) {
+      return node;
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public void visit(BasicBlock block) {
+    fusedComparison = fusibleComparison(block);
+    freshTables.clear();
+    globals.clear();
+    try {
+      visit(block.label());
+      for (BodyNode n : block.body()) {
+        n.accept(this);
+      }
+      if (accumulatingTicks() && context.backEdgeSources().contains(block.label())) {
+        flushTicks();
+      }
+      block.end().accept(this);
+    } finally {
+      fusedComparison = null;
+    }
   }
 
   @Override
   public void visit(BinOp node) {
+    if (node == fusedComparison) {
+      // emitted by the branch
+      return;
+    }
+
+    if (isNumericComparison(node) || isRawEquality(node)) {
+      LabelNode l_false = new LabelNode();
+      LabelNode l_end = new LabelNode();
+      il.add(comparisonJump(node, false, l_false));
+      il.add(BoxedPrimitivesMethods.loadBoxedBoolean(true));
+      il.add(store(node.dest()));
+      il.add(new JumpInsnNode(GOTO, l_end));
+      il.add(l_false);
+      il.add(new FrameNode(F_SAME, 0, null, 0, null));
+      il.add(BoxedPrimitivesMethods.loadBoxedBoolean(false));
+      il.add(store(node.dest()));
+      il.add(l_end);
+      il.add(new FrameNode(F_SAME, 0, null, 0, null));
+      return;
+    }
+
+    if (isConcatenationOfStrings(node)) {
+      il.add(load(node.left()));
+      il.add(ConversionMethods.stringValueOf());
+      il.add(load(node.right()));
+      il.add(ConversionMethods.stringValueOf());
+      il.add(UtilMethods.ByteString_concat());
+      il.add(store(node.dest()));
+      return;
+    }
+
+    // no metamethods may be involved: no need for a resumption point or the return buffer
+    switch (numericOpType(node)) {
+      case Integer:
+        il.add(loadLong(node.left()));
+        il.add(loadLong(node.right()));
+        il.add(integerOp(node.op()));
+        il.add(storeLong(node.dest()));
+        return;
+
+      case Float:
+        il.add(loadDouble(node.left()));
+        il.add(loadDouble(node.right()));
+        il.add(floatOp(node.op()));
+        il.add(storeDouble(node.dest()));
+        return;
+
+      case Number:
+        il.add(loadNumber(node.left()));
+        il.add(loadNumber(node.right()));
+        il.add(DispatchMethods.numeric(dispatchMethodName(node.op()), 2));
+        il.add(store(node.dest()));
+        return;
+
+      default:
+        break;
+    }
+
     ResumptionPoint rp = newResumptionPoint();
     il.add(rp.save());
 
     il.add(loadExecutionContext());
-    il.add(new VarInsnNode(ALOAD, slot(node.left())));
-    il.add(new VarInsnNode(ALOAD, slot(node.right())));
+    il.add(load(node.left()));
+    il.add(load(node.right()));
     il.add(DispatchMethods.dynamic(dispatchMethodName(node.op()), 2));
 
     il.add(rp.resume());
     il.add(retrieve_0());
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
   public void visit(UnOp node) {
     if (node.op() == UnOp.Op.NOT) {
-      il.add(new VarInsnNode(ALOAD, slot(node.arg())));
+      il.add(load(node.arg()));
       il.add(ConversionMethods.booleanValueOf());
       il.add(new InsnNode(ICONST_1));
       il.add(new InsnNode(IXOR));
       il.add(BoxedPrimitivesMethods.box(Type.BOOLEAN_TYPE, Type.getType(Boolean.class)));
+    } else if (node.op() == UnOp.Op.UNM && isInteger(node.arg())) {
+      il.add(loadLong(node.arg()));
+      il.add(new InsnNode(LNEG));
+      il.add(storeLong(node.dest()));
+      return;
+    } else if (node.op() == UnOp.Op.UNM && isFloat(node.arg())) {
+      il.add(loadDouble(node.arg()));
+      il.add(new InsnNode(DNEG));
+      il.add(storeDouble(node.dest()));
+      return;
+    } else if (node.op() == UnOp.Op.UNM && isNumber(node.arg())) {
+      il.add(loadNumber(node.arg()));
+      il.add(DispatchMethods.numeric(DispatchMethods.OP_UNM, 1));
+    } else if (node.op() == UnOp.Op.LEN
+        && types.typeOf(node.arg()).isSubtypeOf(LuaTypes.STRING)) {
+      il.add(load(node.arg()));
+      il.add(ConversionMethods.stringValueOf());
+      il.add(UtilMethods.ByteString_length());
+      il.add(new InsnNode(I2L));
+      il.add(storeLong(node.dest()));
+      return;
+    } else if (node.op() == UnOp.Op.BNOT && isInteger(node.arg())) {
+      il.add(loadLong(node.arg()));
+      il.add(ASMUtils.loadLong(-1L));
+      il.add(new InsnNode(LXOR));
+      il.add(storeLong(node.dest()));
+      return;
     } else {
       ResumptionPoint rp = newResumptionPoint();
       il.add(rp.save());
 
       il.add(loadExecutionContext());
-      il.add(new VarInsnNode(ALOAD, slot(node.arg())));
+      il.add(load(node.arg()));
       il.add(DispatchMethods.dynamic(dispatchMethodName(node.op()), 1));
 
       il.add(rp.resume());
       il.add(retrieve_0());
     }
 
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
   public void visit(TabNew node) {
     il.add(loadExecutionContext());
     il.add(ExecutionContextMethods.newTable(node.array(), node.hash()));
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
+    freshTables.add(node.dest());
   }
 
   @Override
   public void visit(TabGet node) {
+    Integer level = globals.get(node.obj());
+    if (level != null && level == 0) {
+      globals.put(node.dest(), 1);
+    } else {
+      globals.remove(node.dest());
+    }
+
+    if (isFreshTable(node.obj())) {
+      // no metatable: equivalent to rawget
+      il.add(load(node.obj()));
+      il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
+      il.add(load(node.key()));
+      il.add(TableMethods.rawget());
+      il.add(store(node.dest()));
+      return;
+    }
+
     ResumptionPoint rp = newResumptionPoint();
     il.add(rp.save());
 
     il.add(loadExecutionContext());
-    il.add(new VarInsnNode(ALOAD, slot(node.obj())));
-    il.add(new VarInsnNode(ALOAD, slot(node.key())));
-    il.add(DispatchMethods.index());
+    il.add(load(node.obj()));
+    il.add(load(node.key()));
+
+    if (context.compilerSettings.invokeDynamic()) {
+      // the result is returned directly, unless we're resuming after a metamethod call
+      LabelNode done = new LabelNode();
+      il.add(DispatchMethods.index_indy());
+      il.add(store(node.dest()));
+      il.add(new JumpInsnNode(GOTO, done));
+      il.add(rp.resume());
+      il.add(retrieve_0());
+      il.add(store(node.dest()));
+      il.add(done);
+      il.add(ASMUtils.frameSame());
+    } else {
+      if (context.compilerSettings.indexCaching() && isGlobal(node.obj())) {
+        il.add(loadNewStampCache());
+        il.add(DispatchMethods.index_stamped());
+      } else if (context.compilerSettings.indexCaching()) {
+        il.add(loadNewShapeCache());
+        il.add(DispatchMethods.index_cached());
+      } else {
+        il.add(DispatchMethods.index());
+      }
 
-    il.add(rp.resume());
-    il.add(retrieve_0());
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+      il.add(rp.resume());
+      il.add(retrieve_0());
+      il.add(store(node.dest()));
+    }
+  }
+
+  @Override
+  public void visit(TabRawGet node) {
+    LabelNode read = new LabelNode();
+    LabelNode done = new LabelNode();
+
+    il.add(load(node.guard()));
+    il.add(new JumpInsnNode(IFNONNULL, read));
+    il.add(new InsnNode(ACONST_NULL));
+    il.add(store(node.dest()));
+    il.add(new JumpInsnNode(GOTO, done));
+
+    il.add(read);
+    il.add(ASMUtils.frameSame());
+    il.add(load(node.obj()));
+    il.add(load(node.key()));
+    il.add(DispatchMethods.rawindex());
+    il.add(store(node.dest()));
+
+    il.add(done);
+    il.add(ASMUtils.frameSame());
   }
 
   @Override
   public void visit(TabSet node) {
+    if (isFreshTable(node.obj())) {
+      // no metatable: equivalent to rawset
+      il.add(load(node.obj()));
+      il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
+      il.add(load(node.key()));
+      il.add(load(node.value()));
+      il.add(TableMethods.rawset());
+      return;
+    }
+
     ResumptionPoint rp = newResumptionPoint();
     il.add(rp.save());
 
     il.add(loadExecutionContext());
-    il.add(new VarInsnNode(ALOAD, slot(node.obj())));
-    il.add(new VarInsnNode(ALOAD, slot(node.key())));
-    il.add(new VarInsnNode(ALOAD, slot(node.value())));
-    il.add(DispatchMethods.setindex());
+    il.add(load(node.obj()));
+    il.add(load(node.key()));
+    il.add(load(node.value()));
+    if (context.compilerSettings.invokeDynamic()) {
+      il.add(DispatchMethods.setindex_indy());
+    } else if (context.compilerSettings.indexCaching()) {
+      il.add(loadNewShapeCache());
+      il.add(DispatchMethods.setindex_cached());
+    } else {
+      il.add(DispatchMethods.setindex());
+    }
 
     il.add(rp.resume());
   }
 
   @Override
   public void visit(TabRawSet node) {
-    il.add(new VarInsnNode(ALOAD, slot(node.obj())));
+    il.add(load(node.obj()));
     il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
-    il.add(new VarInsnNode(ALOAD, slot(node.key())));
-    il.add(new VarInsnNode(ALOAD, slot(node.value())));
+    il.add(load(node.key()));
+    il.add(load(node.value()));
     il.add(TableMethods.rawset());
   }
 
   @Override
   public void visit(TabRawSetInt node) {
-    il.add(new VarInsnNode(ALOAD, slot(node.obj())));
+    il.add(load(node.obj()));
     il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
     il.add(ASMUtils.loadLong(node.idx()));
-    il.add(new VarInsnNode(ALOAD, slot(node.value())));
+    il.add(load(node.value()));
     il.add(TableMethods.rawset_int());
   }
 
@@ -656,6 +1318,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			Table tab;
 			ReturnBuffer rbuf = context.getReturnBuffer();
 			int i = 0;
+			tab.ensureArrayCapacity(OFFSET - 1 + rbuf.size());
 			context.registerTicks(rbuf.size());  // only when we care about ticks spent
 			while (i < rbuf.size()) {
 				tab.rawset(OFFSET + i, rbuf.get(i));
@@ -681,7 +1344,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
     il.add(begin);
 
-    il.add(new VarInsnNode(ALOAD, slot(node.obj())));
+    il.add(load(node.obj()));
     il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
     il.add(new VarInsnNode(ASTORE, lv_idx_tab));
 
@@ -692,6 +1355,15 @@ class BytecodeEmitVisitor extends CodeVisitor {
     il.add(ASMUtils.loadInt(0));
     il.add(new VarInsnNode(ISTORE, lv_idx_i));
 
+    // tab.ensureArrayCapacity(OFFSET - 1 + rbuf.size());
+    il.add(new VarInsnNode(ALOAD, lv_idx_tab));
+    il.add(ASMUtils.loadLong(node.firstIdx() - 1));
+    il.add(new VarInsnNode(ALOAD, lv_idx_stack));
+    il.add(ReturnBufferMethods.size());
+    il.add(new InsnNode(I2L));
+    il.add(new InsnNode(LADD));
+    il.add(TableMethods.ensureArrayCapacity());
+
     // context.registerTicks(rbuf.size());
     if (countingTicks()) {
       il.add(loadExecutionContext());
@@ -794,7 +1466,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
         for (Val v : vl.addrs()) {
           il.add(new VarInsnNode(ALOAD, lv_idx_args));
           il.add(ASMUtils.loadInt(idx++));
-          il.add(new VarInsnNode(ALOAD, slot(v)));
+          il.add(load(v));
           il.add(new InsnNode(AASTORE));
         }
 
@@ -828,7 +1500,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
       if (k <= maxKind) {
         // pass arguments on the JVM stack
         for (Val v : vl.addrs()) {
-          il.add(new VarInsnNode(ALOAD, slot(v)));
+          il.add(load(v));
         }
         return k;
       } else {
@@ -840,7 +1512,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
         for (Val v : vl.addrs()) {
           il.add(new InsnNode(DUP));
           il.add(ASMUtils.loadInt(idx++));
-          il.add(new VarInsnNode(ALOAD, slot(v)));
+          il.add(load(v));
           il.add(new InsnNode(AASTORE));
         }
 
@@ -851,6 +1523,10 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
   @Override
   public void visit(Ret node) {
+    if (accumulatingTicks()) {
+      flushTicks();
+    }
+
     il.add(loadExecutionContext());
     il.add(loadReturnBuffer());
     int kind = loadVList(node.args(), ReturnBufferMethods.MAX_SETTO_KIND);  // values
@@ -860,9 +1536,13 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
   @Override
   public void visit(TCall node) {
+    if (accumulatingTicks()) {
+      flushTicks();
+    }
+
     il.add(loadExecutionContext());
     il.add(loadReturnBuffer());
-    il.add(new VarInsnNode(ALOAD, slot(node.target())));  // call target
+    il.add(load(node.target()));  // call target
     int kind = loadVList(node.args(), ReturnBufferMethods.MAX_TAILCALL_KIND);  // call args
     il.add(ReturnBufferMethods.tailCall(kind));
     il.add(_return());
@@ -870,13 +1550,19 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
   @Override
   public void visit(Call node) {
+    if (accumulatingTicks()) {
+      flushTicks();
+    }
+
     ResumptionPoint rp = newResumptionPoint();
     il.add(rp.save());
 
     il.add(loadExecutionContext());
-    il.add(new VarInsnNode(ALOAD, slot(node.fn())));  // call target
+    il.add(load(node.fn()));  // call target
     int kind = loadVList(node.args(), DispatchMethods.MAX_CALL_KIND);  // call args
-    il.add(DispatchMethods.call(kind));
+    il.add(context.compilerSettings.invokeDynamic()
+        ? DispatchMethods.call_indy(kind)
+        : DispatchMethods.call(kind));
 
     il.add(rp.resume());
   }
@@ -886,7 +1572,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
     il.add(loadExecutionContext());
     il.add(loadReturnBuffer());
     il.add(ReturnBufferMethods.get(node.idx()));
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
@@ -909,14 +1595,14 @@ class BytecodeEmitVisitor extends CodeVisitor {
     }
 
     il.add(cu.fetchInstanceInsns());
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
   public void visit(ToNumber node) {
-    il.add(new VarInsnNode(ALOAD, slot(node.src())));
+    il.add(load(node.src()));
     il.add(ConversionMethods.toNumericalValue(node.desc()));
-    il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+    il.add(store(node.dest()));
   }
 
   @Override
@@ -940,7 +1626,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
   @Override
   public void visit(Branch.Condition.Nil cond) {
     assert (destLabel != null);
-    il.add(new VarInsnNode(ALOAD, slot(cond.addr())));
+    il.add(load(cond.addr()));
 
     if (!isSub() || resolver.isLocalLabel(destLabel)) {
       // local jump
@@ -958,7 +1644,23 @@ class BytecodeEmitVisitor extends CodeVisitor {
   @Override
   public void visit(Branch.Condition.Bool cond) {
     assert (destLabel != null);
-    il.add(new VarInsnNode(ALOAD, slot(cond.addr())));
+
+    if (fusedComparison != null && cond.addr().equals(fusedComparison.dest())) {
+      if (!isSub() || resolver.isLocalLabel(destLabel)) {
+        // local jump
+        il.add(comparisonJump(fusedComparison, cond.expected(), l(destLabel)));
+      } else {
+        // non-local jump
+        LabelNode l_nojump = new LabelNode();
+        il.add(comparisonJump(fusedComparison, !cond.expected(), l_nojump));
+        il.add(_nonLocalGoto(destLabel));
+        il.add(l_nojump);
+        il.add(new FrameNode(F_SAME, 0, null, 0, null));
+      }
+      return;
+    }
+
+    il.add(load(cond.addr()));
     il.add(ConversionMethods.booleanValueOf());
 
     if (!isSub() || resolver.isLocalLabel(destLabel)) {
@@ -975,14 +1677,97 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
   }
 
+  // emits a jump to target if the numeric loop has ended, falling through otherwise;
+  // returns null if the types of the loop parameters are not known precisely enough
+  private InsnList numLoopEndJump(Branch.Condition.NumLoopEnd cond, LabelNode target) {
+    InsnList il = new InsnList();
+
+    AbstractVal var = cond.var();
+    AbstractVal limit = cond.limit();
+    AbstractVal step = cond.step();
+
+    if (isInteger(var) && isInteger(step) && !isInteger(limit)) {
+      il.add(loadLong(var));
+      il.add(loadNumber(limit));
+      il.add(loadLong(step));
+      il.add(DispatchMethods.continueIntegerLoop());
+      il.add(new JumpInsnNode(IFEQ, target));
+      return il;
+    }
+
+    final boolean integer;
+    if (isInteger(var) && isInteger(limit) && isInteger(step)) {
+      integer = true;
+    } else if (isFloat(var) && isFloat(limit) && isFloat(step)) {
+      integer = false;
+    } else {
+      return null;
+    }
+
+    LabelNode l_nonpos = new LabelNode();
+    LabelNode l_continue = new LabelNode();
+
+    // step > 0: continue iff var <= limit; NaN steps go to the non-positive case
+    il.add(integer ? loadLong(step) : loadDouble(step));
+    il.add(integer ? ASMUtils.loadLong(0L) : ASMUtils.loadDouble(0.0));
+    il.add(new InsnNode(integer ? LCMP : DCMPL));
+    il.add(new JumpInsnNode(IFLE, l_nonpos));
+    il.add(integer ? loadLong(var) : loadDouble(var));
+    il.add(integer ? loadLong(limit) : loadDouble(limit));
+    il.add(new InsnNode(integer ? LCMP : DCMPG));
+    il.add(new JumpInsnNode(IFGT, target));
+    il.add(new JumpInsnNode(GOTO, l_continue));
+
+    // step == 0 or NaN: the loop has ended; step < 0: continue iff var >= limit
+    il.add(l_nonpos);
+    il.add(new FrameNode(F_SAME, 0, null, 0, null));
+    il.add(integer ? loadLong(step) : loadDouble(step));
+    il.add(integer ? ASMUtils.loadLong(0L) : ASMUtils.loadDouble(0.0));
+    il.add(new InsnNode(integer ? LCMP : DCMPG));
+    il.add(new JumpInsnNode(IFGE, target));
+    il.add(integer ? loadLong(limit) : loadDouble(limit));
+    il.add(integer ? loadLong(var) : loadDouble(var));
+    il.add(new InsnNode(integer ? LCMP : DCMPG));
+    il.add(new JumpInsnNode(IFGT, target));
+
+    il.add(l_continue);
+    il.add(new FrameNode(F_SAME, 0, null, 0, null));
+    return il;
+  }
+
   @Override
   public void visit(Branch.Condition.NumLoopEnd cond) {
     assert (destLabel != null);
-    il.add(new VarInsnNode(ALOAD, slot(cond.var())));
+
+    if (!isSub() || resolver.isLocalLabel(destLabel)) {
+      // local jump
+      InsnList jump = numLoopEndJump(cond, l(destLabel));
+      if (jump != null) {
+        il.add(jump);
+        return;
+      }
+    } else {
+      // non-local jump
+      LabelNode l_end = new LabelNode();
+      InsnList jump = numLoopEndJump(cond, l_end);
+      if (jump != null) {
+        LabelNode l_nojump = new LabelNode();
+        il.add(jump);
+        il.add(new JumpInsnNode(GOTO, l_nojump));
+        il.add(l_end);
+        il.add(new FrameNode(F_SAME, 0, null, 0, null));
+        il.add(_nonLocalGoto(destLabel));
+        il.add(l_nojump);
+        il.add(new FrameNode(F_SAME, 0, null, 0, null));
+        return;
+      }
+    }
+
+    il.add(load(cond.var()));
     il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
-    il.add(new VarInsnNode(ALOAD, slot(cond.limit())));
+    il.add(load(cond.limit()));
     il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
-    il.add(new VarInsnNode(ALOAD, slot(cond.step())));
+    il.add(load(cond.step()));
     il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
     il.add(DispatchMethods.continueLoop());
 
@@ -1020,18 +1805,56 @@ class BytecodeEmitVisitor extends CodeVisitor {
         break;
       }
 
+      case ON_BACK_EDGES: {
+        int idx = slots.tickAccumulatorSlot();
+        int lv = runMethod.registerIndex(idx);
+        il.add(new VarInsnNode(LLOAD, lv));
+        il.add(ASMUtils.loadLong(cost));
+        il.add(new InsnNode(LADD));
+        il.add(new VarInsnNode(LSTORE, lv));
+        break;
+      }
+
       default:
         throw new UnsupportedOperationException(
             "Unsupported CPU accounting mode: " + context.compilerSettings.cpuAccountingMode());
     }
   }
 
+  // registers the ticks accumulated so far and potentially pauses
+  private void flushTicks() {
+    assert (accumulatingTicks());
+
+    int lv = runMethod.registerIndex(slots.tickAccumulatorSlot());
+
+    il.add(loadExecutionContext());
+    il.add(new VarInsnNode(LLOAD, lv));
+    il.add(new InsnNode(L2I));
+    il.add(ExecutionContextMethods.registerTicks());
+
+    // reset before pausing, so that the ticks are not registered again after resuming
+    il.add(ASMUtils.loadLong(0L));
+    il.add(new VarInsnNode(LSTORE, lv));
+
+    ResumptionPoint rp = newResumptionPoint();
+    il.add(rp.save());
+    il.add(loadExecutionContext());
+    il.add(ExecutionContextMethods.checkCallYield());
+    il.add(rp.resume());
+  }
+
   // do we care about counting ticks?
   private boolean countingTicks() {
     return (context.compilerSettings.cpuAccountingMode()
         != CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING);
   }
 
+  // are the ticks accumulated in a local variable?
+  private boolean accumulatingTicks() {
+    return (context.compilerSettings.cpuAccountingMode()
+        == CompilerSettings.CPUAccountingMode.ON_BACK_EDGES);
+  }
+
   @Override
   public void visit(CPUWithdraw node) {
     staticCpuWithdraw(node.cost());
@@ -1136,7 +1959,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
         } else {
           Var v = (Var) var;
           assert (context.types.isReified(v));
-          il.add(new VarInsnNode(ALOAD, slot(v)));
+          il.add(load(v));
           il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Variable.class)));
         }
       }
@@ -26,7 +26,6 @@ import static org.objectweb.asm.Opcodes.DUP;
 import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
 import static org.objectweb.asm.Opcodes.NEW;
 import static org.objectweb.asm.Opcodes.RETURN;
-import static org.objectweb.asm.Opcodes.SWAP;
 
 import java.util.List;
 import java.util.Objects;
@@ -106,28 +105,23 @@ class ResumeMethod {
                 ASMUtils.arrayTypeFor(Object.class)),
             false
         ));
+        il.add(new VarInsnNode(ASTORE, 4));
 
         // varargs stored as the 0th element
-        int numRegs = runMethod.numOfRegisters() + (context.isVararg() ? 1 : 0);
-
-        for (int i = 0; i < numRegs; i++) {
-
-          // Note: it might be more elegant to use a local variable
-          // to store the array instead of having to perform SWAPs
+        int arrayIdx = 0;
+        if (context.isVararg()) {
+          il.add(new VarInsnNode(ALOAD, 4));
+          il.add(ASMUtils.loadInt(arrayIdx++));
+          il.add(new InsnNode(AALOAD));
+          il.add(
+              new TypeInsnNode(CHECKCAST, ASMUtils.arrayTypeFor(Object.class).getInternalName()));
+        }
 
-          if (i + 1 < numRegs) {
-            il.add(new InsnNode(DUP));
-          }
-          il.add(ASMUtils.loadInt(i));
+        for (int i = 0; i < runMethod.numOfRegisters(); i++) {
+          il.add(new VarInsnNode(ALOAD, 4));
+          il.add(ASMUtils.loadInt(arrayIdx++));
           il.add(new InsnNode(AALOAD));
-          if (i == 0 && context.isVararg()) {
-            il.add(
-                new TypeInsnNode(CHECKCAST, ASMUtils.arrayTypeFor(Object.class).getInternalName()));
-          }
-
-          if (i + 1 < numRegs) {
-            il.add(new InsnNode(SWAP));
-          }
+          il.add(runMethod.unboxToRegister(i));
         }
       }
 
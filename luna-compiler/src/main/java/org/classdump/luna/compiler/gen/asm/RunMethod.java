@@ -28,6 +28,7 @@ import static org.objectweb.asm.Opcodes.ARETURN;
 import static org.objectweb.asm.Opcodes.ASTORE;
 import static org.objectweb.asm.Opcodes.ATHROW;
 import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.DCONST_0;
 import static org.objectweb.asm.Opcodes.DUP;
 import static org.objectweb.asm.Opcodes.F_APPEND;
 import static org.objectweb.asm.Opcodes.F_SAME;
@@ -41,6 +42,7 @@ import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
 import static org.objectweb.asm.Opcodes.ISTORE;
 import static org.objectweb.asm.Opcodes.ISUB;
 import static org.objectweb.asm.Opcodes.IUSHR;
+import static org.objectweb.asm.Opcodes.LCONST_0;
 import static org.objectweb.asm.Opcodes.NEW;
 import static org.objectweb.asm.Opcodes.PUTSTATIC;
 import static org.objectweb.asm.Opcodes.RETURN;
@@ -51,6 +53,7 @@ import java.util.Objects;
 import org.classdump.luna.compiler.gen.CodeSegmenter;
 import org.classdump.luna.compiler.gen.SegmentedCode;
 import org.classdump.luna.compiler.gen.asm.helpers.ASMUtils;
+import org.classdump.luna.compiler.gen.asm.helpers.BoxedPrimitivesMethods;
 import org.classdump.luna.compiler.ir.BasicBlock;
 import org.classdump.luna.compiler.ir.Label;
 import org.classdump.luna.impl.DefaultSavedState;
@@ -90,12 +93,28 @@ class RunMethod {
   private final List<ClosureFieldInstance> closureFields;
   private final List<ConstFieldInstance> constFields;
 
+  // register offsets relative to slotOffset(): unboxed registers occupy two entries
+  private final int[] registerOffsets;
+  private final int registersSize;
+
   public RunMethod(ASMBytecodeEmitter context) {
     this.context = Objects.requireNonNull(context);
 
-    final SegmentedCode segmentedCode = CodeSegmenter.segment(
-        context.fn.code(),
-        context.compilerSettings.nodeSizeLimit());
+    this.registerOffsets = new int[context.slots.numSlots()];
+    int size = 0;
+    for (int i = 0; i < registerOffsets.length; i++) {
+      registerOffsets[i] = size;
+      size += registerType(i).getSize();
+    }
+    this.registersSize = size;
+
+    final SegmentedCode segmentedCode = context.compilerSettings.methodSizeLimit() > 0
+        ? CodeSegmenter.segmentBySize(
+            context.fn.code(),
+            context.compilerSettings.methodSizeLimit())
+        : CodeSegmenter.segment(
+            context.fn.code(),
+            context.compilerSettings.nodeSizeLimit());
 
     this.methodNodes = new ArrayList<>();
 
@@ -167,6 +186,69 @@ class RunMethod {
     return context.isVararg() ? LV_VARARGS + 1 : LV_VARARGS;
   }
 
+  public Type registerType(int idx) {
+    switch (context.slots.slotType(idx)) {
+      case LONG:
+        return Type.LONG_TYPE;
+      case DOUBLE:
+        return Type.DOUBLE_TYPE;
+      default:
+        return Type.getType(Object.class);
+    }
+  }
+
+  // local variable index of the register idx
+  public int registerIndex(int idx) {
+    return slotOffset() + registerOffsets[idx];
+  }
+
+  // number of local variable entries occupied by the registers
+  public int registersSize() {
+    return registersSize;
+  }
+
+  InsnList loadRegister(int idx, int lv) {
+    InsnList il = new InsnList();
+    Type t = registerType(idx);
+    il.add(new VarInsnNode(t.getOpcode(ILOAD), lv));
+    return il;
+  }
+
+  InsnList loadBoxedRegister(int idx, int lv) {
+    InsnList il = loadRegister(idx, lv);
+    Type t = registerType(idx);
+    if (t.equals(Type.LONG_TYPE)) {
+      il.add(BoxedPrimitivesMethods.box(Type.LONG_TYPE, Long.class));
+    } else if (t.equals(Type.DOUBLE_TYPE)) {
+      il.add(BoxedPrimitivesMethods.box(Type.DOUBLE_TYPE, Double.class));
+    }
+    return il;
+  }
+
+  // converts the boxed value on the top of the stack to the type of the register idx
+  InsnList unboxToRegister(int idx) {
+    InsnList il = new InsnList();
+    Type t = registerType(idx);
+    if (t.getSort() != Type.OBJECT) {
+      il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+      il.add(BoxedPrimitivesMethods.unbox(Number.class, t));
+    }
+    return il;
+  }
+
+  InsnList loadRegisterDefault(int idx) {
+    InsnList il = new InsnList();
+    Type t = registerType(idx);
+    if (t.equals(Type.LONG_TYPE)) {
+      il.add(new InsnNode(LCONST_0));
+    } else if (t.equals(Type.DOUBLE_TYPE)) {
+      il.add(new InsnNode(DCONST_0));
+    } else {
+      il.add(new InsnNode(ACONST_NULL));
+    }
+    return il;
+  }
+
   public boolean isResumable() {
     return resumable;
   }
@@ -191,7 +273,7 @@ class RunMethod {
       args.add(ASMUtils.arrayTypeFor(Object.class));
     }
     for (int i = 0; i < numOfRegisters(); i++) {
-      args.add(Type.getType(Object.class));
+      args.add(registerType(i));
     }
     return Type.getMethodType(context.savedStateClassType(), args.toArray(new Type[0]));
   }
@@ -232,10 +314,17 @@ class RunMethod {
     il.add(ASMUtils.loadInt(numRegs));
     il.add(new TypeInsnNode(ANEWARRAY, Type.getInternalName(Object.class)));
     {
-      for (int i = 0; i < numRegs; i++) {
+      int arrayIdx = 0;
+      if (context.isVararg()) {
         il.add(new InsnNode(DUP));
-        il.add(ASMUtils.loadInt(i));
-        il.add(new VarInsnNode(ALOAD, 2 + i));
+        il.add(ASMUtils.loadInt(arrayIdx++));
+        il.add(new VarInsnNode(ALOAD, 2));
+        il.add(new InsnNode(AASTORE));
+      }
+      for (int i = 0; i < numOfRegisters(); i++) {
+        il.add(new InsnNode(DUP));
+        il.add(ASMUtils.loadInt(arrayIdx++));
+        il.add(loadBoxedRegister(i, regOffset + registerOffsets[i]));
         il.add(new InsnNode(AASTORE));
       }
     }
@@ -261,11 +350,11 @@ class RunMethod {
               null, begin, end, 2));
     }
     for (int i = 0; i < numOfRegisters(); i++) {
-      locals.add(new LocalVariableNode("r_" + i, Type.getDescriptor(Object.class), null, begin, end,
-          regOffset + i));
+      locals.add(new LocalVariableNode("r_" + i, registerType(i).getDescriptor(), null, begin, end,
+          regOffset + registerOffsets[i]));
     }
 
-    node.maxLocals = 2 + numOfRegisters();
+    node.maxLocals = regOffset + registersSize();
     node.maxStack = 4 + 3;  // 4 to get register array at top, +3 to add element to it
 
     return node;
@@ -284,7 +373,7 @@ class RunMethod {
       args.add(ASMUtils.arrayTypeFor(Object.class));
     }
     for (int i = 0; i < numOfRegisters(); i++) {
-      args.add(Type.getType(Object.class));
+      args.add(registerType(i));
     }
     return Type.getMethodType(returnType, args.toArray(new Type[0]));
   }
@@ -346,7 +435,7 @@ class RunMethod {
       il.add(new VarInsnNode(ALOAD, LV_VARARGS));
     }
     for (int i = 0; i < numOfRegisters(); i++) {
-      il.add(new VarInsnNode(ALOAD, slotOffset() + i));
+      il.add(loadRegister(i, registerIndex(i)));
     }
     il.add(snapshotMethodInvokeInsn());
 
@@ -411,8 +500,8 @@ class RunMethod {
 
     for (int i = 0; i < numOfRegisters(); i++) {
       locals.add(
-          new LocalVariableNode("s_" + i, Type.getDescriptor(Object.class), null, l_begin, l_end,
-              slotOffset() + i));
+          new LocalVariableNode("s_" + i, registerType(i).getDescriptor(), null, l_begin, l_end,
+              registerIndex(i)));
     }
 
     return locals;
@@ -521,7 +610,7 @@ class RunMethod {
 
     InsnList il = node.instructions;
 
-    int lvOffset = slotOffset() + numOfRegisters();
+    int lvOffset = slotOffset() + registersSize();
 
     int lv_rpp = lvOffset + 0;
     int lv_methodIdx = lvOffset + 1;
@@ -608,7 +697,7 @@ class RunMethod {
         il.add(new VarInsnNode(ALOAD, LV_VARARGS));
       }
       for (int j = 0; j < numOfRegisters(); j++) {
-        il.add(new VarInsnNode(ALOAD, slotOffset() + j));
+        il.add(loadRegister(j, registerIndex(j)));
       }
 
       il.add(new MethodInsnNode(INVOKESPECIAL,
@@ -668,8 +757,12 @@ class RunMethod {
         if (i == 0 && context.isVararg()) {
           il.add(
               new TypeInsnNode(CHECKCAST, ASMUtils.arrayTypeFor(Object.class).getInternalName()));
+          il.add(new VarInsnNode(ASTORE, LV_VARARGS));
+        } else {
+          int reg = context.isVararg() ? i - 1 : i;
+          il.add(unboxToRegister(reg));
+          il.add(new VarInsnNode(registerType(reg).getOpcode(ISTORE), registerIndex(reg)));
         }
-        il.add(new VarInsnNode(ASTORE, LV_VARARGS + i));
       }
     }
 
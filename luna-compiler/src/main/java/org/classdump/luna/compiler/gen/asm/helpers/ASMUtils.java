@@ -35,7 +35,10 @@ import static org.objectweb.asm.Opcodes.LCONST_1;
 import static org.objectweb.asm.Opcodes.SIPUSH;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FrameNode;
@@ -161,4 +164,49 @@ public abstract class ASMUtils {
     return ctor(Type.getType(clazz), argTypes);
   }
 
+  /**
+   * Returns the sizes (in bytes) of the code of the methods in the class file
+   * {@code classBytes}, keyed by the method name followed by its descriptor.
+   *
+   * @param classBytes the class file, must not be {@code null}
+   * @return a map from method names and descriptors to code sizes
+   */
+  public static Map<String, Integer> methodCodeSizes(byte[] classBytes) {
+    ClassReader reader = new ClassReader(classBytes);
+    char[] buf = new char[reader.getMaxStringLength()];
+    Map<String, Integer> result = new LinkedHashMap<>();
+
+    // skip access flags, this class, super class and interfaces
+    int u = reader.header + 6;
+    u += 2 + 2 * reader.readUnsignedShort(u);
+
+    // skip fields
+    int n = reader.readUnsignedShort(u);
+    u += 2;
+    for (int i = 0; i < n; i++) {
+      int attrs = reader.readUnsignedShort(u + 6);
+      u += 8;
+      for (int j = 0; j < attrs; j++) {
+        u += 6 + reader.readInt(u + 2);
+      }
+    }
+
+    n = reader.readUnsignedShort(u);
+    u += 2;
+    for (int i = 0; i < n; i++) {
+      String name = reader.readUTF8(u + 2, buf) + reader.readUTF8(u + 4, buf);
+      int attrs = reader.readUnsignedShort(u + 6);
+      u += 8;
+      for (int j = 0; j < attrs; j++) {
+        if ("Code".equals(reader.readUTF8(u, buf))) {
+          // max_stack and max_locals precede code_length
+          result.put(name, reader.readInt(u + 10));
+        }
+        u += 6 + reader.readInt(u + 2);
+      }
+    }
+
+    return result;
+  }
+
 }
@@ -19,6 +19,7 @@ package org.classdump.luna.compiler.gen.asm.helpers;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 
 import java.util.Objects;
+import org.classdump.luna.ByteString;
 import org.classdump.luna.Conversions;
 import org.classdump.luna.LuaFormat;
 import org.classdump.luna.util.Check;
@@ -74,6 +75,17 @@ public abstract class ConversionMethods {
         false);
   }
 
+  public static AbstractInsnNode stringValueOf() {
+    return new MethodInsnNode(
+        INVOKESTATIC,
+        Type.getInternalName(Conversions.class),
+        "stringValueOf",
+        Type.getMethodDescriptor(
+            Type.getType(ByteString.class),
+            Type.getType(Object.class)),
+        false);
+  }
+
   public static AbstractInsnNode unboxedNumberToLuaFormatString(Type tpe) {
     Check.isTrue(tpe.equals(Type.DOUBLE_TYPE) || tpe.equals(Type.LONG_TYPE));
     return new MethodInsnNode(
@@ -16,14 +16,24 @@
 
 package org.classdump.luna.compiler.gen.asm.helpers;
 
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.Arrays;
+import org.classdump.luna.impl.ShapeCache;
+import org.classdump.luna.impl.StampCache;
 import org.classdump.luna.runtime.Dispatch;
 import org.classdump.luna.runtime.ExecutionContext;
+import org.classdump.luna.runtime.FunctionCallSite;
+import org.classdump.luna.runtime.IndexCallSite;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 
 public class DispatchMethods {
@@ -94,14 +104,107 @@ public class DispatchMethods {
         false);
   }
 
+  public static AbstractInsnNode numericComparison(String methodName) {
+    return new MethodInsnNode(
+        INVOKESTATIC,
+        Type.getInternalName(Dispatch.class),
+        methodName,
+        Type.getMethodDescriptor(
+            Type.BOOLEAN_TYPE,
+            Type.getType(Number.class),
+            Type.getType(Number.class)),
+        false);
+  }
+
   public static AbstractInsnNode index() {
     return dynamic(OP_INDEX, 2);
   }
 
+  public static AbstractInsnNode rawindex() {
+    return new MethodInsnNode(
+        INVOKESTATIC,
+        Type.getInternalName(Dispatch.class),
+        "rawindex",
+        Type.getMethodDescriptor(
+            Type.getType(Object.class),
+            Type.getType(Object.class),
+            Type.getType(Object.class)),
+        false);
+  }
+
   public static AbstractInsnNode setindex() {
     return dynamic(OP_SETINDEX, 3);
   }
 
+  private static Handle indexCallSiteBootstrap(String name) {
+    return new Handle(
+        H_INVOKESTATIC,
+        Type.getInternalName(IndexCallSite.class),
+        name,
+        Type.getMethodDescriptor(
+            Type.getType(CallSite.class),
+            Type.getType(MethodHandles.Lookup.class),
+            Type.getType(String.class),
+            Type.getType(MethodType.class)));
+  }
+
+  public static AbstractInsnNode index_indy() {
+    return new InvokeDynamicInsnNode(
+        OP_INDEX,
+        IndexCallSite.INDEX_TYPE.toMethodDescriptorString(),
+        indexCallSiteBootstrap("bootstrapIndex"));
+  }
+
+  public static AbstractInsnNode setindex_indy() {
+    return new InvokeDynamicInsnNode(
+        OP_SETINDEX,
+        IndexCallSite.SETINDEX_TYPE.toMethodDescriptorString(),
+        indexCallSiteBootstrap("bootstrapSetIndex"));
+  }
+
+  public static AbstractInsnNode index_cached() {
+    return new MethodInsnNode(
+        INVOKESTATIC,
+        Type.getInternalName(Dispatch.class),
+        OP_INDEX,
+        Type.getMethodDescriptor(
+            Type.VOID_TYPE,
+            Type.getType(ExecutionContext.class),
+            Type.getType(Object.class),
+            Type.getType(Object.class),
+            Type.getType(ShapeCache.class)),
+        false);
+  }
+
+  public static AbstractInsnNode index_stamped() {
+    return new MethodInsnNode(
+        INVOKESTATIC,
+        Type.getInternalName(Dispatch.class),
+        OP_INDEX,
+        Type.getMethodDescriptor(
+            Type.VOID_TYPE,
+            Type.getType(ExecutionContext.class),
+            Type.getType(Object.class),
+            Type.getType(Object.class),
+            Type.getType(StampCache.class)),
+        false);
+  }
+
+  public static AbstractInsnNode setindex_cached() {
+    return new MethodInsnNode(
+        INVOKESTATIC,
+        Type.getInternalName(Dispatch.class),
+        OP_SETINDEX,
+        Type.getMethodDescriptor(
+            Type.VOID_TYPE,
+            Type.getType(ExecutionContext.class),
+            Type.getType(Object.class),
+            Type.getType(Object.class),
+            Type.getType(Object.class),
+            Type.getType(ShapeCache.class)),
+        false);
+  }
+
   public static int adjustKind_call(int kind) {
     return kind > 0 ? (call_method(kind).exists() ? kind : 0) : 0;
   }
@@ -115,6 +218,21 @@ public class DispatchMethods {
     return call_method(kind).toMethodInsnNode();
   }
 
+  public static AbstractInsnNode call_indy(int kind) {
+    return new InvokeDynamicInsnNode(
+        OP_CALL,
+        FunctionCallSite.typeForKind(kind).toMethodDescriptorString(),
+        new Handle(
+            H_INVOKESTATIC,
+            Type.getInternalName(FunctionCallSite.class),
+            "bootstrapCall",
+            Type.getMethodDescriptor(
+                Type.getType(CallSite.class),
+                Type.getType(MethodHandles.Lookup.class),
+                Type.getType(String.class),
+                Type.getType(MethodType.class))));
+  }
+
   public static AbstractInsnNode continueLoop() {
     return new MethodInsnNode(
         INVOKESTATIC,
@@ -128,4 +246,17 @@ public class DispatchMethods {
         false);
   }
 
+  public static AbstractInsnNode continueIntegerLoop() {
+    return new MethodInsnNode(
+        INVOKESTATIC,
+        Type.getInternalName(Dispatch.class),
+        "signed_le",
+        Type.getMethodDescriptor(
+            Type.BOOLEAN_TYPE,
+            Type.LONG_TYPE,
+            Type.getType(Number.class),
+            Type.LONG_TYPE),
+        false);
+  }
+
 }
@@ -27,9 +27,14 @@ import org.objectweb.asm.tree.MethodInsnNode;
 
 public class OperatorMethods {
 
-  public static final String RAW_OP_MOD = "rawmod";
-  public static final String RAW_OP_POW = "rawpow";
-  public static final String RAW_OP_IDIV = "rawidiv";
+  public static final String RAW_OP_MOD = "mod";
+  public static final String RAW_OP_POW = "pow";
+  public static final String RAW_OP_IDIV = "idiv";
+  public static final String RAW_OP_SHL = "shl";
+  public static final String RAW_OP_SHR = "shr";
+  public static final String RAW_OP_EQ = "eq";
+  public static final String RAW_OP_LT = "lt";
+  public static final String RAW_OP_LE = "le";
 
   private OperatorMethods() {
     // not to be instantiated
@@ -37,14 +42,19 @@ public class OperatorMethods {
 
   public static AbstractInsnNode rawBinaryOperator(String methodName, Type returnType,
       Type argType) {
+    return rawBinaryOperator(methodName, returnType, argType, argType);
+  }
+
+  public static AbstractInsnNode rawBinaryOperator(String methodName, Type returnType,
+      Type leftType, Type rightType) {
     return new MethodInsnNode(
         INVOKESTATIC,
         Type.getInternalName(LuaMathOperators.class),
         methodName,
         Type.getMethodDescriptor(
             returnType,
-            argType,
-            argType),
+            leftType,
+            rightType),
         false);
   }
 
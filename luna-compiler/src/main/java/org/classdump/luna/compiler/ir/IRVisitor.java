@@ -85,6 +85,12 @@ public abstract class IRVisitor {
     }
   }
 
+  public void visit(TabRawGet node) {
+    if (v != null) {
+      v.visit(node);
+    }
+  }
+
   public void visit(TabSet node) {
     if (v != null) {
       v.visit(node);
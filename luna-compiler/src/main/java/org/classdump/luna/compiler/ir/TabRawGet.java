@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.ir;
+
+import java.util.Objects;
+
+/**
+ * A raw table read that never fails and never calls metamethods: the value of {@code key}
+ * in {@code obj} if {@code guard} is not nil and {@code obj} is a table, nil otherwise.
+ */
+public class TabRawGet extends BodyNode {
+
+  private final Val dest;
+  private final Val guard;
+  private final Val obj;
+  private final Val key;
+
+  public TabRawGet(Val dest, Val guard, Val obj, Val key) {
+    this.dest = Objects.requireNonNull(dest);
+    this.guard = Objects.requireNonNull(guard);
+    this.obj = Objects.requireNonNull(obj);
+    this.key = Objects.requireNonNull(key);
+  }
+
+  public Val dest() {
+    return dest;
+  }
+
+  public Val guard() {
+    return guard;
+  }
+
+  public Val obj() {
+    return obj;
+  }
+
+  public Val key() {
+    return key;
+  }
+
+  @Override
+  public void accept(IRVisitor visitor) {
+    visitor.visit(this);
+  }
+
+}
@@ -21,13 +21,13 @@ import org.classdump.luna.compiler.IRFunc;
 public class CPUAccounter {
 
   public static IRFunc insertCPUAccounting(IRFunc fn) {
-    CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.INITIALISE);
+    CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.initialise());
     visitor.visit(fn);
     return fn.update(visitor.result());
   }
 
   public static IRFunc collectCPUAccounting(IRFunc fn) {
-    CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.COLLECT);
+    CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.collect());
     visitor.visit(fn);
     return fn.update(visitor.result());
   }
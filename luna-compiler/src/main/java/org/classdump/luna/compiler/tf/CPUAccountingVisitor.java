@@ -35,6 +35,7 @@ import org.classdump.luna.compiler.ir.TCall;
 import org.classdump.luna.compiler.ir.TabGet;
 import org.classdump.luna.compiler.ir.TabNew;
 import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
 import org.classdump.luna.compiler.ir.TabRawSet;
 import org.classdump.luna.compiler.ir.TabRawSetInt;
 import org.classdump.luna.compiler.ir.TabSet;
@@ -45,50 +46,58 @@ import org.classdump.luna.util.Check;
 
 class CPUAccountingVisitor extends CodeTransformerVisitor {
 
-  public static final Account INITIALISE = new Account() {
-    @Override
-    public void cpuNode(CPUWithdraw node) {
-      // no-op
-    }
+  // accounts accumulate the cost of the block being visited, and may therefore
+  // not be shared by visitors running concurrently
+  public static Account initialise() {
+    return new Account() {
+      @Override
+      public void cpuNode(CPUWithdraw node) {
+        // no-op
+      }
 
-    @Override
-    public void noCost() {
-      // no-op
-    }
+      @Override
+      public void noCost() {
+        // no-op
+      }
 
-    @Override
-    public void staticCost(int c) {
-      add(c);
-    }
+      @Override
+      public void staticCost(int c) {
+        add(c);
+      }
 
-    @Override
-    public void dynamicCost() {
-      // no-op
-    }
+      @Override
+      public void dynamicCost() {
+        // no-op
+      }
 
-  };
-  public static final Account COLLECT = new Account() {
-    @Override
-    public void cpuNode(CPUWithdraw node) {
-      add(node.cost());
-    }
+    };
+  }
 
-    @Override
-    public void noCost() {
-      // no-op
-    }
+  public static Account collect() {
+    return new Account() {
+      @Override
+      public void cpuNode(CPUWithdraw node) {
+        add(node.cost());
+      }
 
-    @Override
-    public void staticCost(int c) {
-      // no-op
-    }
+      @Override
+      public void noCost() {
+        // no-op
+      }
 
-    @Override
-    public void dynamicCost() {
-      // no-op
-    }
+      @Override
+      public void staticCost(int c) {
+        // no-op
+      }
+
+      @Override
+      public void dynamicCost() {
+        // no-op
+      }
+
+    };
+  }
 
-  };
   private final Account acc;
 
   public CPUAccountingVisitor(Account acc) {
@@ -195,6 +204,11 @@ class CPUAccountingVisitor extends CodeTransformerVisitor {
       account.staticCost();
     }
 
+    @Override
+    public void visit(TabRawGet node) {
+      account.staticCost();
+    }
+
     @Override
     public void visit(TabSet node) {
       account.staticCost();
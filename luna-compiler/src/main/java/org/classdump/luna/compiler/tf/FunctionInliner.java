@@ -0,0 +1,882 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.tf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import org.classdump.luna.compiler.FunctionId;
+import org.classdump.luna.compiler.IRFunc;
+import org.classdump.luna.compiler.Module;
+import org.classdump.luna.compiler.analysis.AbstractUseDefVisitor;
+import org.classdump.luna.compiler.ir.AbstractVar;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.BinOp;
+import org.classdump.luna.compiler.ir.BlockTermNode;
+import org.classdump.luna.compiler.ir.BodyNode;
+import org.classdump.luna.compiler.ir.Branch;
+import org.classdump.luna.compiler.ir.CPUWithdraw;
+import org.classdump.luna.compiler.ir.Call;
+import org.classdump.luna.compiler.ir.Closure;
+import org.classdump.luna.compiler.ir.Code;
+import org.classdump.luna.compiler.ir.IRNode;
+import org.classdump.luna.compiler.ir.IRVisitor;
+import org.classdump.luna.compiler.ir.Jmp;
+import org.classdump.luna.compiler.ir.Label;
+import org.classdump.luna.compiler.ir.Line;
+import org.classdump.luna.compiler.ir.LoadConst;
+import org.classdump.luna.compiler.ir.MultiGet;
+import org.classdump.luna.compiler.ir.MultiVal;
+import org.classdump.luna.compiler.ir.PhiLoad;
+import org.classdump.luna.compiler.ir.PhiStore;
+import org.classdump.luna.compiler.ir.PhiVal;
+import org.classdump.luna.compiler.ir.Ret;
+import org.classdump.luna.compiler.ir.TCall;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.ir.TabNew;
+import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
+import org.classdump.luna.compiler.ir.TabRawSet;
+import org.classdump.luna.compiler.ir.TabRawSetInt;
+import org.classdump.luna.compiler.ir.TabSet;
+import org.classdump.luna.compiler.ir.ToNext;
+import org.classdump.luna.compiler.ir.ToNumber;
+import org.classdump.luna.compiler.ir.UnOp;
+import org.classdump.luna.compiler.ir.UpLoad;
+import org.classdump.luna.compiler.ir.UpStore;
+import org.classdump.luna.compiler.ir.UpVar;
+import org.classdump.luna.compiler.ir.VList;
+import org.classdump.luna.compiler.ir.Val;
+import org.classdump.luna.compiler.ir.Var;
+import org.classdump.luna.compiler.ir.VarInit;
+import org.classdump.luna.compiler.ir.VarLoad;
+import org.classdump.luna.compiler.ir.VarStore;
+import org.classdump.luna.compiler.ir.Vararg;
+import org.classdump.luna.compiler.util.CodeUtils;
+
+/**
+ * Inlines calls of small local functions, replacing the calls with copies of the bodies
+ * of the called functions.
+ *
+ * <p>A call is inlined if it is made in the function declaring the local variable holding
+ * the called function, and the variable provably holds a closure at the point of the call:
+ * the closure is its only value, and its initialisation dominates the call. The variable
+ * must not be captured by other functions, and its value may only be used as the target
+ * of calls, so that the closure cannot be modified (e.g., by {@code debug.setupvalue}).
+ * The called function must not be variadic
+ * or recursive, must not define nested functions, and must consist of at most
+ * {@code sizeLimit} IR nodes. Calls with a variable number of arguments, and calls whose
+ * results are not accessed individually (e.g., passed on to another call) are not
+ * inlined.</p>
+ *
+ * <p>Only the calls in the original code are inlined: the calls in the inlined bodies are
+ * left as they are.</p>
+ */
+public class FunctionInliner {
+
+  private final Module module;
+  private final int sizeLimit;
+
+  private final Map<FunctionId, Boolean> inlinable;
+
+  private int labelIdx;
+  private int valIdx;
+  private int phiValIdx;
+  private int multiValIdx;
+  private int varIdx;
+
+  private FunctionInliner(Module module, int sizeLimit) {
+    this.module = Objects.requireNonNull(module);
+    this.sizeLimit = sizeLimit;
+    this.inlinable = new HashMap<>();
+  }
+
+  /**
+   * Inlines the calls of small local functions in all functions of {@code module}.
+   *
+   * @param module the module, must not be {@code null}
+   * @param sizeLimit the maximum number of IR nodes of an inlined function
+   * @return the transformed module
+   * @throws NullPointerException if {@code module} is {@code null}
+   */
+  public static Module inlineFunctions(Module module, int sizeLimit) {
+    FunctionInliner inliner = new FunctionInliner(module, sizeLimit);
+    List<IRFunc> fns = new ArrayList<>();
+    for (IRFunc fn : module.fns()) {
+      fns.add(inliner.transform(fn));
+    }
+    return new Module(Collections.unmodifiableList(fns));
+  }
+
+  private Label newLabel() {
+    return new Label(labelIdx++);
+  }
+
+  // new values get negative indices, not to clash with the translator-assigned ones
+  private Val newVal() {
+    return new Val(-(++valIdx));
+  }
+
+  private PhiVal newPhiVal() {
+    return new PhiVal(-(++phiValIdx));
+  }
+
+  private MultiVal newMultiVal() {
+    return new MultiVal(-(++multiValIdx));
+  }
+
+  private Var newVar() {
+    return new Var(-(++varIdx));
+  }
+
+  private IRFunc transform(IRFunc fn) {
+    Code code = fn.code();
+
+    int max = 0;
+    for (Label l : code.labels()) {
+      max = Math.max(max, l.idx());
+    }
+    labelIdx = max + 1;
+    valIdx = 0;
+    phiValIdx = 0;
+    multiValIdx = 0;
+    varIdx = 0;
+
+    // the calls not considered yet
+    Set<Call> calls = new HashSet<>();
+    Iterator<IRNode> it = CodeUtils.nodeIterator(code);
+    while (it.hasNext()) {
+      IRNode n = it.next();
+      if (n instanceof Call) {
+        calls.add((Call) n);
+      }
+    }
+
+    Site site;
+    while ((site = nextSite(fn, code, calls)) != null) {
+      code = inline(code, site);
+    }
+
+    return fn.update(code);
+  }
+
+  private static class Position {
+
+    final Label label;
+    final int index;
+
+    Position(Label label, int index) {
+      this.label = Objects.requireNonNull(label);
+      this.index = index;
+    }
+
+  }
+
+  private static class Site {
+
+    final Call call;
+    final Position position;
+    final Closure closure;
+    final IRFunc callee;
+
+    Site(Call call, Position position, Closure closure, IRFunc callee) {
+      this.call = Objects.requireNonNull(call);
+      this.position = Objects.requireNonNull(position);
+      this.closure = Objects.requireNonNull(closure);
+      this.callee = Objects.requireNonNull(callee);
+    }
+
+  }
+
+  private static class Index {
+
+    final Map<Val, BodyNode> defs = new HashMap<>();
+    final Map<BodyNode, Position> positions = new HashMap<>();
+    final Map<Var, List<BodyNode>> varDefs = new HashMap<>();
+    final Map<MultiVal, List<IRNode>> multiUses = new HashMap<>();
+    final Map<Var, List<Val>> varLoads = new HashMap<>();
+
+    // the values used other than as call targets, and the variables captured by closures
+    final Set<Val> escaping = new HashSet<>();
+    final Set<Var> captured = new HashSet<>();
+
+    Index(Code code) {
+      Uses uses = new Uses();
+      Iterator<BasicBlock> it = code.blockIterator();
+      while (it.hasNext()) {
+        BasicBlock b = it.next();
+        for (int i = 0; i < b.body().size(); i++) {
+          BodyNode n = b.body().get(i);
+          positions.put(n, new Position(b.label(), i));
+          n.accept(uses);
+
+          if (n instanceof VarLoad) {
+            VarLoad vl = (VarLoad) n;
+            defs.put(vl.dest(), n);
+            List<Val> l = varLoads.get(vl.var());
+            if (l == null) {
+              l = new ArrayList<>();
+              varLoads.put(vl.var(), l);
+            }
+            l.add(vl.dest());
+          } else if (n instanceof Closure) {
+            defs.put(((Closure) n).dest(), n);
+          } else if (n instanceof LoadConst.Nil) {
+            defs.put(((LoadConst.Nil) n).dest(), n);
+          } else if (n instanceof VarInit) {
+            varDef(((VarInit) n).var(), n);
+          } else if (n instanceof VarStore) {
+            varDef(((VarStore) n).var(), n);
+          } else if (n instanceof MultiGet) {
+            multiUse(((MultiGet) n).src(), n);
+          } else if (n instanceof Call) {
+            multiUse(((Call) n).args().suffix(), n);
+          } else if (n instanceof TabRawAppendMulti) {
+            multiUse(((TabRawAppendMulti) n).src(), n);
+          }
+        }
+
+        b.end().accept(uses);
+        if (b.end() instanceof Ret) {
+          multiUse(((Ret) b.end()).args().suffix(), b.end());
+        } else if (b.end() instanceof TCall) {
+          multiUse(((TCall) b.end()).args().suffix(), b.end());
+        }
+      }
+    }
+
+    private void varDef(Var v, BodyNode n) {
+      List<BodyNode> l = varDefs.get(v);
+      if (l == null) {
+        l = new ArrayList<>();
+        varDefs.put(v, l);
+      }
+      l.add(n);
+    }
+
+    private void multiUse(MultiVal mv, IRNode n) {
+      if (mv != null) {
+        List<IRNode> l = multiUses.get(mv);
+        if (l == null) {
+          l = new ArrayList<>();
+          multiUses.put(mv, l);
+        }
+        l.add(n);
+      }
+    }
+
+    List<IRNode> uses(MultiVal mv) {
+      List<IRNode> l = multiUses.get(mv);
+      return l != null ? l : Collections.<IRNode>emptyList();
+    }
+
+    private class Uses extends AbstractUseDefVisitor {
+
+      @Override
+      protected void def(Val v) {
+      }
+
+      @Override
+      protected void use(Val v) {
+        escaping.add(v);
+      }
+
+      @Override
+      protected void def(PhiVal pv) {
+      }
+
+      @Override
+      protected void use(PhiVal pv) {
+      }
+
+      @Override
+      protected void def(MultiVal mv) {
+      }
+
+      @Override
+      protected void use(MultiVal mv) {
+      }
+
+      @Override
+      protected void def(Var v) {
+      }
+
+      @Override
+      protected void use(Var v) {
+      }
+
+      @Override
+      protected void def(UpVar uv) {
+      }
+
+      @Override
+      protected void use(UpVar uv) {
+      }
+
+      @Override
+      public void visit(Call node) {
+        use(node.args());
+      }
+
+      @Override
+      public void visit(Closure node) {
+        for (AbstractVar v : node.args()) {
+          if (v instanceof Var) {
+            captured.add((Var) v);
+          }
+        }
+      }
+
+    }
+
+  }
+
+  private Site nextSite(IRFunc fn, Code code, Set<Call> calls) {
+    if (calls.isEmpty()) {
+      return null;
+    }
+
+    Index index = new Index(code);
+    Iterator<BasicBlock> it = code.blockIterator();
+    while (it.hasNext()) {
+      for (BodyNode n : it.next().body()) {
+        if (n instanceof Call && calls.remove(n)) {
+          Site site = site(fn, code, index, (Call) n);
+          if (site != null) {
+            return site;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private Site site(IRFunc fn, Code code, Index index, Call call) {
+    if (call.args().isMulti()) {
+      return null;
+    }
+
+    BodyNode load = index.defs.get(call.fn());
+    if (!(load instanceof VarLoad)) {
+      return null;
+    }
+
+    Var var = ((VarLoad) load).var();
+    if (index.captured.contains(var)) {
+      return null;
+    }
+    for (Val v : index.varLoads.get(var)) {
+      if (index.escaping.contains(v)) {
+        return null;
+      }
+    }
+
+    Closure closure = binding(code, index, var, index.positions.get(load));
+    if (closure == null || !isInlinable(closure.id())) {
+      return null;
+    }
+
+    // the results may only be accessed individually, and before the next call
+    Position position = index.positions.get(call);
+    for (IRNode use : index.uses(call.dest())) {
+      Position p = index.positions.get(use);
+      if (!(use instanceof MultiGet)
+          || !p.label.equals(position.label) || p.index < position.index) {
+        return null;
+      }
+    }
+
+    return new Site(call, position, closure, module.get(closure.id()));
+  }
+
+  private static Val src(BodyNode n) {
+    return n instanceof VarInit ? ((VarInit) n).src() : ((VarStore) n).src();
+  }
+
+  // the closure held by var at loadPosition, or null if not known
+  private static Closure binding(Code code, Index index, Var var, Position loadPosition) {
+    List<BodyNode> defs = index.varDefs.get(var);
+    if (defs == null) {
+      return null;
+    }
+
+    final BodyNode bind;
+    if (defs.size() == 1 && defs.get(0) instanceof VarInit) {
+      // local f = function ... end
+      bind = defs.get(0);
+    } else if (defs.size() == 2
+        && defs.get(0) instanceof VarInit
+        && defs.get(1) instanceof VarStore
+        && index.defs.get(src(defs.get(0))) instanceof LoadConst.Nil) {
+      // local function f ... end, the declaration immediately followed by the assignment
+      Position init = index.positions.get(defs.get(0));
+      Position store = index.positions.get(defs.get(1));
+      if (!init.label.equals(store.label) || init.index > store.index) {
+        return null;
+      }
+      bind = defs.get(1);
+    } else {
+      return null;
+    }
+
+    BodyNode value = index.defs.get(src(bind));
+    return value instanceof Closure && dominates(code, index.positions.get(bind), loadPosition)
+        ? (Closure) value
+        : null;
+  }
+
+  private static boolean dominates(Code code, Position a, Position b) {
+    if (a.label.equals(b.label)) {
+      return a.index < b.index;
+    }
+
+    // b is dominated by a if it is unreachable from the entry when avoiding a
+    Set<Label> visited = new HashSet<>();
+    Deque<Label> open = new ArrayDeque<>();
+    if (!code.entryLabel().equals(a.label)) {
+      open.add(code.entryLabel());
+    }
+    while (!open.isEmpty()) {
+      Label l = open.pop();
+      if (visited.add(l)) {
+        if (l.equals(b.label)) {
+          return false;
+        }
+        for (Label nxt : code.block(l).end().nextLabels()) {
+          if (!nxt.equals(a.label)) {
+            open.add(nxt);
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean isInlinable(FunctionId id) {
+    Boolean result = inlinable.get(id);
+    if (result == null) {
+      IRFunc fn = module.get(id);
+      int size = 0;
+      boolean simple = !fn.isVararg();
+      Iterator<IRNode> it = CodeUtils.nodeIterator(fn.code());
+      while (simple && it.hasNext()) {
+        IRNode n = it.next();
+        if (n instanceof Closure || n instanceof Vararg) {
+          simple = false;
+        } else if (!(n instanceof Line)) {
+          size += 1;
+        }
+      }
+      result = simple && size <= sizeLimit;
+      inlinable.put(id, result);
+    }
+    return result;
+  }
+
+  private Code inline(Code code, Site site) {
+    BasicBlock block = code.block(site.position.label);
+    List<BodyNode> body = block.body();
+    int at = site.position.index;
+    Call call = site.call;
+    IRFunc callee = site.callee;
+
+    Line line = null;
+    for (BodyNode n : body.subList(0, at)) {
+      if (n instanceof Line) {
+        line = (Line) n;
+      }
+    }
+
+    // the continuation, reading the results from phi values
+    Map<Integer, PhiVal> results = new TreeMap<>();
+    Label join = newLabel();
+    List<BodyNode> joinBody = new ArrayList<>();
+    if (line != null) {
+      joinBody.add(new Line(line.lineNumber()));
+    }
+    for (BodyNode n : body.subList(at + 1, body.size())) {
+      if (n instanceof MultiGet && ((MultiGet) n).src().equals(call.dest())) {
+        MultiGet mg = (MultiGet) n;
+        PhiVal pv = results.get(mg.idx());
+        if (pv == null) {
+          pv = newPhiVal();
+          results.put(mg.idx(), pv);
+        }
+        joinBody.add(new PhiLoad(mg.dest(), pv));
+      } else {
+        joinBody.add(n);
+      }
+    }
+
+    Copier copier = new Copier(callee.upvals(), site.closure.args());
+
+    // the arguments are assigned to copies of the parameters
+    List<BodyNode> head = new ArrayList<>(body.subList(0, at));
+    List<Val> args = call.args().addrs();
+    for (int i = 0; i < callee.params().size(); i++) {
+      Val arg;
+      if (i < args.size()) {
+        arg = args.get(i);
+      } else {
+        arg = newVal();
+        head.add(new LoadConst.Nil(arg));
+      }
+      head.add(new VarInit(copier.var(callee.params().get(i)), arg));
+    }
+
+    List<BasicBlock> inlined = new ArrayList<>();
+    inlined.add(new BasicBlock(block.label(), Collections.unmodifiableList(head),
+        new ToNext(copier.label(callee.code().entryLabel()))));
+
+    Iterator<BasicBlock> it = callee.code().blockIterator();
+    while (it.hasNext()) {
+      BasicBlock b = it.next();
+      List<BodyNode> copy = copier.copy(b.body());
+      final BlockTermNode end;
+      if (b.end() instanceof Ret) {
+        storeResults(copy, copier.vlist(((Ret) b.end()).args()), results);
+        end = new Jmp(join);
+      } else if (b.end() instanceof TCall) {
+        TCall tc = (TCall) b.end();
+        MultiVal mv = newMultiVal();
+        copy.add(new Call(mv, copier.val(tc.target()), copier.vlist(tc.args())));
+        storeResults(copy, new VList(Collections.<Val>emptyList(), mv), results);
+        end = new Jmp(join);
+      } else {
+        end = copier.copy(b.end());
+      }
+      inlined.add(new BasicBlock(copier.label(b.label()), Collections.unmodifiableList(copy), end));
+    }
+
+    inlined.add(new BasicBlock(join, Collections.unmodifiableList(joinBody), block.end()));
+
+    List<BasicBlock> result = new ArrayList<>();
+    Iterator<BasicBlock> bit = code.blockIterator();
+    while (bit.hasNext()) {
+      BasicBlock b = bit.next();
+      if (b.label().equals(block.label())) {
+        result.addAll(inlined);
+      } else {
+        result.add(b);
+      }
+    }
+    return Code.of(result);
+  }
+
+  // stores the values returned by an inlined function in the phi values read by the caller
+  private void storeResults(List<BodyNode> body, VList values, Map<Integer, PhiVal> results) {
+    List<Val> addrs = values.addrs();
+    for (Map.Entry<Integer, PhiVal> e : results.entrySet()) {
+      int idx = e.getKey();
+      Val v;
+      if (idx < addrs.size()) {
+        v = addrs.get(idx);
+      } else {
+        v = newVal();
+        body.add(values.isMulti()
+            ? new MultiGet(v, values.suffix(), idx - addrs.size())
+            : new LoadConst.Nil(v));
+      }
+      body.add(new PhiStore(e.getValue(), v));
+    }
+  }
+
+  // copies the code of an inlined function, substituting its upvalues
+  private class Copier extends IRVisitor {
+
+    private final Map<UpVar, AbstractVar> upvals;
+
+    private final Map<Val, Val> vals;
+    private final Map<PhiVal, PhiVal> phiVals;
+    private final Map<MultiVal, MultiVal> multiVals;
+    private final Map<Var, Var> vars;
+    private final Map<Label, Label> labels;
+
+    private List<BodyNode> body;
+    private BlockTermNode end;
+
+    Copier(List<UpVar> upvals, List<AbstractVar> captured) {
+      this.upvals = new HashMap<>();
+      for (int i = 0; i < upvals.size(); i++) {
+        this.upvals.put(upvals.get(i), captured.get(i));
+      }
+      this.vals = new HashMap<>();
+      this.phiVals = new HashMap<>();
+      this.multiVals = new HashMap<>();
+      this.vars = new HashMap<>();
+      this.labels = new HashMap<>();
+    }
+
+    Val val(Val v) {
+      Val w = vals.get(v);
+      if (w == null) {
+        w = newVal();
+        vals.put(v, w);
+      }
+      return w;
+    }
+
+    PhiVal phiVal(PhiVal pv) {
+      PhiVal w = phiVals.get(pv);
+      if (w == null) {
+        w = newPhiVal();
+        phiVals.put(pv, w);
+      }
+      return w;
+    }
+
+    MultiVal multiVal(MultiVal mv) {
+      MultiVal w = multiVals.get(mv);
+      if (w == null) {
+        w = newMultiVal();
+        multiVals.put(mv, w);
+      }
+      return w;
+    }
+
+    Var var(Var v) {
+      Var w = vars.get(v);
+      if (w == null) {
+        w = newVar();
+        vars.put(v, w);
+      }
+      return w;
+    }
+
+    Label label(Label l) {
+      Label w = labels.get(l);
+      if (w == null) {
+        w = newLabel();
+        labels.put(l, w);
+      }
+      return w;
+    }
+
+    VList vlist(VList vl) {
+      List<Val> addrs = new ArrayList<>();
+      for (Val v : vl.addrs()) {
+        addrs.add(val(v));
+      }
+      return new VList(Collections.unmodifiableList(addrs),
+          vl.isMulti() ? multiVal(vl.suffix()) : null);
+    }
+
+    List<BodyNode> copy(List<BodyNode> nodes) {
+      body = new ArrayList<>();
+      for (BodyNode n : nodes) {
+        n.accept(this);
+      }
+      List<BodyNode> result = body;
+      body = null;
+      return result;
+    }
+
+    BlockTermNode copy(BlockTermNode node) {
+      end = null;
+      node.accept(this);
+      return Objects.requireNonNull(end);
+    }
+
+    @Override
+    public void visit(LoadConst.Nil node) {
+      body.add(new LoadConst.Nil(val(node.dest())));
+    }
+
+    @Override
+    public void visit(LoadConst.Bool node) {
+      body.add(new LoadConst.Bool(val(node.dest()), node.value()));
+    }
+
+    @Override
+    public void visit(LoadConst.Int node) {
+      body.add(new LoadConst.Int(val(node.dest()), node.value()));
+    }
+
+    @Override
+    public void visit(LoadConst.Flt node) {
+      body.add(new LoadConst.Flt(val(node.dest()), node.value()));
+    }
+
+    @Override
+    public void visit(LoadConst.Str node) {
+      body.add(new LoadConst.Str(val(node.dest()), node.value()));
+    }
+
+    @Override
+    public void visit(BinOp node) {
+      body.add(new BinOp(node.op(), val(node.dest()), val(node.left()), val(node.right())));
+    }
+
+    @Override
+    public void visit(UnOp node) {
+      body.add(new UnOp(node.op(), val(node.dest()), val(node.arg())));
+    }
+
+    @Override
+    public void visit(TabNew node) {
+      body.add(new TabNew(val(node.dest()), node.array(), node.hash()));
+    }
+
+    @Override
+    public void visit(TabGet node) {
+      body.add(new TabGet(val(node.dest()), val(node.obj()), val(node.key())));
+    }
+
+    @Override
+    public void visit(TabRawGet node) {
+      body.add(new TabRawGet(val(node.dest()), val(node.guard()), val(node.obj()),
+          val(node.key())));
+    }
+
+    @Override
+    public void visit(TabSet node) {
+      body.add(new TabSet(val(node.obj()), val(node.key()), val(node.value())));
+    }
+
+    @Override
+    public void visit(TabRawSet node) {
+      body.add(new TabRawSet(val(node.obj()), val(node.key()), val(node.value())));
+    }
+
+    @Override
+    public void visit(TabRawSetInt node) {
+      body.add(new TabRawSetInt(val(node.obj()), node.idx(), val(node.value())));
+    }
+
+    @Override
+    public void visit(TabRawAppendMulti node) {
+      body.add(new TabRawAppendMulti(val(node.obj()), (int) node.firstIdx(),
+          multiVal(node.src())));
+    }
+
+    @Override
+    public void visit(VarInit node) {
+      body.add(new VarInit(var(node.var()), val(node.src())));
+    }
+
+    @Override
+    public void visit(VarLoad node) {
+      body.add(new VarLoad(val(node.dest()), var(node.var())));
+    }
+
+    @Override
+    public void visit(VarStore node) {
+      body.add(new VarStore(var(node.var()), val(node.src())));
+    }
+
+    @Override
+    public void visit(UpLoad node) {
+      AbstractVar v = upvals.get(node.upval());
+      body.add(v instanceof Var
+          ? new VarLoad(val(node.dest()), (Var) v)
+          : new UpLoad(val(node.dest()), (UpVar) v));
+    }
+
+    @Override
+    public void visit(UpStore node) {
+      AbstractVar v = upvals.get(node.upval());
+      body.add(v instanceof Var
+          ? new VarStore((Var) v, val(node.src()))
+          : new UpStore((UpVar) v, val(node.src())));
+    }
+
+    @Override
+    public void visit(Vararg node) {
+      throw new IllegalStateException("Vararg in inlined function");
+    }
+
+    @Override
+    public void visit(Call node) {
+      body.add(new Call(multiVal(node.dest()), val(node.fn()), vlist(node.args())));
+    }
+
+    @Override
+    public void visit(MultiGet node) {
+      body.add(new MultiGet(val(node.dest()), multiVal(node.src()), node.idx()));
+    }
+
+    @Override
+    public void visit(PhiStore node) {
+      body.add(new PhiStore(phiVal(node.dest()), val(node.src())));
+    }
+
+    @Override
+    public void visit(PhiLoad node) {
+      body.add(new PhiLoad(val(node.dest()), phiVal(node.src())));
+    }
+
+    @Override
+    public void visit(Closure node) {
+      throw new IllegalStateException("Closure in inlined function");
+    }
+
+    @Override
+    public void visit(ToNumber node) {
+      body.add(new ToNumber(val(node.dest()), val(node.src()), node.desc()));
+    }
+
+    @Override
+    public void visit(CPUWithdraw node) {
+      body.add(new CPUWithdraw(node.cost()));
+    }
+
+    @Override
+    public void visit(Line node) {
+      body.add(new Line(node.lineNumber()));
+    }
+
+    @Override
+    public void visit(Jmp node) {
+      end = new Jmp(label(node.jmpDest()));
+    }
+
+    @Override
+    public void visit(ToNext node) {
+      end = new ToNext(label(node.label()));
+    }
+
+    @Override
+    public void visit(Branch branch) {
+      Branch.Condition c = branch.condition();
+      final Branch.Condition cond;
+      if (c instanceof Branch.Condition.Nil) {
+        cond = new Branch.Condition.Nil(val(((Branch.Condition.Nil) c).addr()));
+      } else if (c instanceof Branch.Condition.Bool) {
+        Branch.Condition.Bool b = (Branch.Condition.Bool) c;
+        cond = new Branch.Condition.Bool(val(b.addr()), b.expected());
+      } else if (c instanceof Branch.Condition.NumLoopEnd) {
+        Branch.Condition.NumLoopEnd nle = (Branch.Condition.NumLoopEnd) c;
+        cond = new Branch.Condition.NumLoopEnd(val(nle.var()), val(nle.limit()),
+            val(nle.step()));
+      } else {
+        throw new UnsupportedOperationException("Illegal branch condition: " + c);
+      }
+      end = new Branch(cond, label(branch.jmpDest()), label(branch.next()));
+    }
+
+  }
+
+}
@@ -0,0 +1,819 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.tf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.classdump.luna.compiler.IRFunc;
+import org.classdump.luna.compiler.analysis.TypeInfo;
+import org.classdump.luna.compiler.analysis.Typer;
+import org.classdump.luna.compiler.analysis.types.LuaTypes;
+import org.classdump.luna.compiler.analysis.types.Type;
+import org.classdump.luna.compiler.ir.AbstractVar;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.BinOp;
+import org.classdump.luna.compiler.ir.BlockTermNode;
+import org.classdump.luna.compiler.ir.BodyNode;
+import org.classdump.luna.compiler.ir.Branch;
+import org.classdump.luna.compiler.ir.Call;
+import org.classdump.luna.compiler.ir.Closure;
+import org.classdump.luna.compiler.ir.Code;
+import org.classdump.luna.compiler.ir.IRNode;
+import org.classdump.luna.compiler.ir.IRVisitor;
+import org.classdump.luna.compiler.ir.Jmp;
+import org.classdump.luna.compiler.ir.Label;
+import org.classdump.luna.compiler.ir.Line;
+import org.classdump.luna.compiler.ir.LoadConst;
+import org.classdump.luna.compiler.ir.MultiGet;
+import org.classdump.luna.compiler.ir.PhiLoad;
+import org.classdump.luna.compiler.ir.PhiStore;
+import org.classdump.luna.compiler.ir.PhiVal;
+import org.classdump.luna.compiler.ir.TCall;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.ir.TabNew;
+import org.classdump.luna.compiler.ir.TabRawGet;
+import org.classdump.luna.compiler.ir.TabSet;
+import org.classdump.luna.compiler.ir.ToNext;
+import org.classdump.luna.compiler.ir.ToNumber;
+import org.classdump.luna.compiler.ir.UnOp;
+import org.classdump.luna.compiler.ir.UpLoad;
+import org.classdump.luna.compiler.ir.UpStore;
+import org.classdump.luna.compiler.ir.UpVar;
+import org.classdump.luna.compiler.ir.Val;
+import org.classdump.luna.compiler.ir.Var;
+import org.classdump.luna.compiler.ir.VarInit;
+import org.classdump.luna.compiler.ir.VarLoad;
+import org.classdump.luna.compiler.ir.VarStore;
+import org.classdump.luna.compiler.util.CodeUtils;
+
+/**
+ * Loop-invariant code motion: moves computations whose operands do not change within a loop
+ * from the loop body to the block preceding the loop header.
+ *
+ * <p>Only computations that never fail and never call metamethods are hoisted, since they
+ * are executed even if the loop body is not: loads of constants and of local variables
+ * not assigned in the loop, arithmetic, comparisons and concatenations on operands known
+ * to be numbers (or strings), and closures that do not capture variables declared
+ * in the loop.</p>
+ *
+ * <p>Table reads with invariant operands are hoisted from loops that can neither execute
+ * Lua code nor modify tables otherwise, and that cannot be paused. Since reading a table
+ * may call the {@code __index} metamethod, such reads are guarded: they are replaced
+ * by raw reads before the loop, whose results are used in the loop only if all of them
+ * succeeded. Otherwise, the loop executes the original reads.</p>
+ */
+public class LoopInvariantHoister {
+
+  private final TypeInfo types;
+  private final boolean pausable;
+
+  private final Set<Label> visited;
+  private final Set<TabGet> fallbacks;
+
+  private int labelIdx;
+  private int valIdx;
+  private int phiValIdx;
+
+  private LoopInvariantHoister(TypeInfo types, boolean pausable, Code code) {
+    this.types = Objects.requireNonNull(types);
+    this.pausable = pausable;
+    this.visited = new HashSet<>();
+    this.fallbacks = new HashSet<>();
+
+    int max = 0;
+    for (Label l : code.labels()) {
+      max = Math.max(max, l.idx());
+    }
+    this.labelIdx = max + 1;
+  }
+
+  /**
+   * Hoists loop-invariant computations out of the loops in {@code fn}.
+   *
+   * <p>Table reads are not hoisted when {@code pausable} is {@code true}: while paused,
+   * the tables may be modified by the host.</p>
+   *
+   * @param fn the function, must not be {@code null}
+   * @param types the type information for {@code fn}, must not be {@code null}
+   * @param pausable {@code true} if the execution of {@code fn} may be paused in its loops
+   * @return the transformed function
+   */
+  public static IRFunc hoistInvariants(IRFunc fn, TypeInfo types, boolean pausable) {
+    LoopInvariantHoister hoister = new LoopInvariantHoister(types, pausable, fn.code());
+    return fn.update(hoister.transform(fn.code()));
+  }
+
+  private Label newLabel() {
+    return new Label(labelIdx++);
+  }
+
+  // new values get negative indices, not to clash with the translator-assigned ones
+  private Val newVal() {
+    return new Val(-(++valIdx));
+  }
+
+  private PhiVal newPhiVal() {
+    return new PhiVal(-(++phiValIdx));
+  }
+
+  private Code transform(Code code) {
+    Loop loop;
+    while ((loop = nextLoop(code)) != null) {
+      visited.add(loop.header);
+      code = hoist(code, loop);
+    }
+    return code;
+  }
+
+  private static class Loop {
+
+    final Label header;
+    final Label preheader;
+    final Set<Label> blocks;
+
+    Loop(Label header, Label preheader, Set<Label> blocks) {
+      this.header = header;
+      this.preheader = preheader;
+      this.blocks = blocks;
+    }
+
+  }
+
+  // returns the innermost loop not visited yet, or null if there is none
+  private Loop nextLoop(Code code) {
+    Map<Label, Integer> position = new LinkedHashMap<>();
+    Iterator<BasicBlock> it = code.blockIterator();
+    while (it.hasNext()) {
+      position.put(it.next().label(), position.size());
+    }
+
+    Map<Label, Set<Label>> in = CodeUtils.inLabels(code);
+
+    Loop result = null;
+    for (Label h : position.keySet()) {
+      if (visited.contains(h)) {
+        continue;
+      }
+
+      // blocks that jump back to h
+      Deque<Label> open = new ArrayDeque<>();
+      for (Label l : in.get(h)) {
+        if (position.get(l) >= position.get(h)) {
+          open.push(l);
+        }
+      }
+      if (open.isEmpty()) {
+        continue;
+      }
+
+      Loop loop = naturalLoop(code, in, h, open);
+      if (loop == null) {
+        visited.add(h);
+      } else if (result == null || loop.blocks.size() < result.blocks.size()) {
+        result = loop;
+      }
+    }
+
+    return result;
+  }
+
+  // the loop with header h, or null if it has more than one entry or no preheader
+  private static Loop naturalLoop(Code code, Map<Label, Set<Label>> in, Label h,
+      Deque<Label> open) {
+
+    Set<Label> blocks = new HashSet<>();
+    blocks.add(h);
+    while (!open.isEmpty()) {
+      Label l = open.pop();
+      if (blocks.add(l)) {
+        open.addAll(in.get(l));
+      }
+    }
+
+    Label preheader = null;
+    for (Label l : blocks) {
+      for (Label m : in.get(l)) {
+        if (!blocks.contains(m)) {
+          if (!l.equals(h) || preheader != null) {
+            return null;
+          }
+          preheader = m;
+        }
+      }
+    }
+
+    if (preheader == null) {
+      return null;
+    }
+
+    BlockTermNode end = code.block(preheader).end();
+    if (!(end instanceof Jmp || end instanceof ToNext)) {
+      return null;
+    }
+
+    return new Loop(h, preheader, blocks);
+  }
+
+  private static boolean isNumber(Type t) {
+    return t.isSubtypeOf(LuaTypes.NUMBER);
+  }
+
+  private static boolean isInteger(Type t) {
+    return t.isSubtypeOf(LuaTypes.NUMBER_INTEGER);
+  }
+
+  private static boolean isFloat(Type t) {
+    return t.isSubtypeOf(LuaTypes.NUMBER_FLOAT);
+  }
+
+  private static boolean isStringable(Type t) {
+    return t.isSubtypeOf(LuaTypes.STRING) || t.isSubtypeOf(LuaTypes.NUMBER);
+  }
+
+  // true if the operation neither fails nor calls a metamethod
+  private boolean isSafe(BinOp node) {
+    Type l = types.typeOf(node.left());
+    Type r = types.typeOf(node.right());
+
+    switch (node.op()) {
+      case ADD:
+      case SUB:
+      case MUL:
+      case DIV:
+      case POW:
+      case LT:
+      case LE:
+        return isNumber(l) && isNumber(r);
+
+      case MOD:
+      case IDIV:
+        // integer division by zero fails
+        return isNumber(l) && isNumber(r) && (isFloat(l) || isFloat(r));
+
+      case BAND:
+      case BOR:
+      case BXOR:
+      case SHL:
+      case SHR:
+        return isInteger(l) && isInteger(r);
+
+      case CONCAT:
+        return isStringable(l) && isStringable(r);
+
+      case EQ:
+      case NEQ:
+        return Typer.isRawComparable(l) || Typer.isRawComparable(r);
+
+      default:
+        return false;
+    }
+  }
+
+  // true if the operation does not call a metamethod
+  private boolean isRaw(BinOp node) {
+    switch (node.op()) {
+      case MOD:
+      case IDIV:
+      case BAND:
+      case BOR:
+      case BXOR:
+      case SHL:
+      case SHR:
+        return isNumber(types.typeOf(node.left())) && isNumber(types.typeOf(node.right()));
+
+      default:
+        return isSafe(node);
+    }
+  }
+
+  private boolean isSafe(UnOp node) {
+    Type t = types.typeOf(node.arg());
+
+    switch (node.op()) {
+      case UNM:
+        return isNumber(t);
+      case BNOT:
+        return isInteger(t);
+      case NOT:
+        return true;
+      case LEN:
+        return t.isSubtypeOf(LuaTypes.STRING);
+      default:
+        return false;
+    }
+  }
+
+  private boolean isRaw(UnOp node) {
+    return node.op() == UnOp.Op.BNOT
+        ? isNumber(types.typeOf(node.arg()))
+        : isSafe(node);
+  }
+
+  // true if the closure allocates a new instance every time it is evaluated
+  private static boolean capturesLocals(Closure node) {
+    for (AbstractVar v : node.args()) {
+      if (v instanceof Var) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class LoopInfo extends IRVisitor {
+
+    final Set<Val> defs = new HashSet<>();
+    final Set<Var> declared = new HashSet<>();
+    final Set<Var> assigned = new HashSet<>();
+    final Set<UpVar> upAssigned = new HashSet<>();
+
+    void def(Val v) {
+      defs.add(v);
+    }
+
+    @Override
+    public void visit(LoadConst.Nil node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(LoadConst.Bool node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(LoadConst.Int node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(LoadConst.Flt node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(LoadConst.Str node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(BinOp node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(UnOp node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(TabNew node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(TabGet node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(TabRawGet node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(VarInit node) {
+      declared.add(node.var());
+      assigned.add(node.var());
+    }
+
+    @Override
+    public void visit(VarLoad node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(VarStore node) {
+      assigned.add(node.var());
+    }
+
+    @Override
+    public void visit(UpLoad node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(UpStore node) {
+      upAssigned.add(node.upval());
+    }
+
+    @Override
+    public void visit(MultiGet node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(PhiLoad node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(Closure node) {
+      def(node.dest());
+    }
+
+    @Override
+    public void visit(ToNumber node) {
+      def(node.dest());
+    }
+
+  }
+
+  // finds nodes that may execute Lua code or modify tables
+  private class EffectFinder extends IRVisitor {
+
+    final Set<BodyNode> hoisted;
+    boolean found;
+
+    EffectFinder(Set<BodyNode> hoisted) {
+      this.hoisted = hoisted;
+    }
+
+    @Override
+    public void visit(BinOp node) {
+      found |= !isRaw(node);
+    }
+
+    @Override
+    public void visit(UnOp node) {
+      found |= !isRaw(node);
+    }
+
+    @Override
+    public void visit(TabGet node) {
+      found |= !hoisted.contains(node);
+    }
+
+    @Override
+    public void visit(TabSet node) {
+      found = true;
+    }
+
+    @Override
+    public void visit(Call node) {
+      found = true;
+    }
+
+    @Override
+    public void visit(TCall node) {
+      found = true;
+    }
+
+  }
+
+  private class Candidates {
+
+    final LoopInfo info;
+    final boolean tableReads;
+
+    final Set<Val> invariant;
+    final Set<Val> guarded;
+    final Set<Val> volatiles;
+    final Map<Val, BodyNode> definedBy;
+    final Set<BodyNode> nodes;
+
+    Candidates(LoopInfo info, boolean tableReads) {
+      this.info = info;
+      this.tableReads = tableReads;
+      this.invariant = new HashSet<>();
+      this.guarded = new HashSet<>();
+      this.volatiles = new HashSet<>();
+      this.definedBy = new HashMap<>();
+      this.nodes = new LinkedHashSet<>();
+    }
+
+    boolean isInvariant(Val v) {
+      return !info.defs.contains(v) || invariant.contains(v);
+    }
+
+    boolean isReadable(Val v) {
+      return isInvariant(v) || guarded.contains(v) || volatiles.contains(v);
+    }
+
+    void add(BodyNode node, Val dest) {
+      nodes.add(node);
+      invariant.add(dest);
+      definedBy.put(dest, node);
+    }
+
+    // loads of values that may be modified by the fallback reads, only usable in raw reads
+    void addVolatile(BodyNode node, Val dest) {
+      nodes.add(node);
+      volatiles.add(dest);
+      definedBy.put(dest, node);
+    }
+
+    void visit(BodyNode node) {
+      if (node instanceof LoadConst) {
+        add(node, ((LoadConst) node).dest());
+      } else if (node instanceof VarLoad) {
+        VarLoad n = (VarLoad) node;
+        if (!info.assigned.contains(n.var())) {
+          // captured variables may be modified by other functions
+          if (!types.isReified(n.var())) {
+            add(n, n.dest());
+          } else if (tableReads) {
+            addVolatile(n, n.dest());
+          }
+        }
+      } else if (node instanceof UpLoad) {
+        UpLoad n = (UpLoad) node;
+        if (tableReads && !info.upAssigned.contains(n.upval())) {
+          addVolatile(n, n.dest());
+        }
+      } else if (node instanceof BinOp) {
+        BinOp n = (BinOp) node;
+        if (isInvariant(n.left()) && isInvariant(n.right()) && isSafe(n)) {
+          add(n, n.dest());
+        }
+      } else if (node instanceof UnOp) {
+        UnOp n = (UnOp) node;
+        if (isInvariant(n.arg()) && isSafe(n)) {
+          add(n, n.dest());
+        }
+      } else if (node instanceof Closure) {
+        Closure n = (Closure) node;
+        if (capturesLocals(n) && !capturesAnyOf(n, info.declared)) {
+          add(n, n.dest());
+        }
+      } else if (node instanceof TabGet) {
+        TabGet n = (TabGet) node;
+        if (tableReads && !fallbacks.contains(n)
+            && isReadable(n.obj()) && isReadable(n.key())) {
+          nodes.add(n);
+          guarded.add(n.dest());
+          definedBy.put(n.dest(), n);
+        }
+      }
+    }
+
+    private void require(Set<BodyNode> result, Val v) {
+      BodyNode n = definedBy.get(v);
+      if (n != null && result.add(n)) {
+        for (Val u : operands(n)) {
+          require(result, u);
+        }
+      }
+    }
+
+    // loads are only worth hoisting if used by a hoisted computation
+    Set<BodyNode> worthHoisting() {
+      Set<BodyNode> result = new HashSet<>();
+      for (BodyNode n : nodes) {
+        if (!(n instanceof LoadConst || n instanceof VarLoad || n instanceof UpLoad)
+            && result.add(n)) {
+          for (Val v : operands(n)) {
+            require(result, v);
+          }
+        }
+      }
+
+      Set<BodyNode> ordered = new LinkedHashSet<>();
+      for (BodyNode n : nodes) {
+        if (result.contains(n)) {
+          ordered.add(n);
+        }
+      }
+      return ordered;
+    }
+
+  }
+
+  private static boolean capturesAnyOf(Closure node, Set<Var> vars) {
+    for (AbstractVar v : node.args()) {
+      if (vars.contains(v)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<Val> operands(BodyNode node) {
+    if (node instanceof BinOp) {
+      BinOp n = (BinOp) node;
+      List<Val> result = new ArrayList<>();
+      result.add(n.left());
+      result.add(n.right());
+      return result;
+    } else if (node instanceof UnOp) {
+      return Collections.singletonList(((UnOp) node).arg());
+    } else if (node instanceof TabGet) {
+      TabGet n = (TabGet) node;
+      List<Val> result = new ArrayList<>();
+      result.add(n.obj());
+      result.add(n.key());
+      return result;
+    } else {
+      return Collections.emptyList();
+    }
+  }
+
+  private List<BasicBlock> loopBlocks(Code code, Loop loop) {
+    List<BasicBlock> result = new ArrayList<>();
+    Iterator<BasicBlock> it = code.blockIterator();
+    while (it.hasNext()) {
+      BasicBlock b = it.next();
+      if (loop.blocks.contains(b.label())) {
+        result.add(b);
+      }
+    }
+    return result;
+  }
+
+  private Candidates candidates(List<BasicBlock> blocks, LoopInfo info, boolean tableReads) {
+    Candidates candidates = new Candidates(info, tableReads);
+    for (BasicBlock b : blocks) {
+      for (BodyNode n : b.body()) {
+        candidates.visit(n);
+      }
+    }
+    return candidates;
+  }
+
+  private boolean hasEffects(List<BasicBlock> blocks, Set<BodyNode> hoisted) {
+    EffectFinder finder = new EffectFinder(hoisted);
+    for (BasicBlock b : blocks) {
+      for (IRNode n : b.body()) {
+        n.accept(finder);
+      }
+      b.end().accept(finder);
+    }
+    return finder.found;
+  }
+
+  private Code hoist(Code code, Loop loop) {
+    List<BasicBlock> blocks = loopBlocks(code, loop);
+
+    LoopInfo info = new LoopInfo();
+    for (BasicBlock b : blocks) {
+      for (BodyNode n : b.body()) {
+        n.accept(info);
+      }
+    }
+
+    Set<BodyNode> hoisted = null;
+    if (!pausable) {
+      hoisted = candidates(blocks, info, true).worthHoisting();
+      if (hasEffects(blocks, hoisted)) {
+        hoisted = null;
+      }
+    }
+    if (hoisted == null) {
+      hoisted = candidates(blocks, info, false).worthHoisting();
+    }
+
+    if (hoisted.isEmpty()) {
+      return code;
+    }
+
+    // the guarded table reads, and the raw reads replacing them before the loop
+    Map<TabGet, Val> rawReads = new HashMap<>();
+    Map<Val, Val> aliases = new HashMap<>();
+
+    // loads that the fallback reads may invalidate are copied rather than moved
+    Set<BodyNode> removed = new HashSet<>(hoisted);
+
+    BasicBlock pre = code.block(loop.preheader);
+    List<BodyNode> preBody = new ArrayList<>(pre.body());
+    Val guard = null;
+    for (BodyNode n : hoisted) {
+      if (n instanceof VarLoad && types.isReified(((VarLoad) n).var())) {
+        VarLoad vl = (VarLoad) n;
+        Val v = newVal();
+        preBody.add(new VarLoad(v, vl.var()));
+        aliases.put(vl.dest(), v);
+        removed.remove(n);
+      } else if (n instanceof UpLoad) {
+        UpLoad ul = (UpLoad) n;
+        Val v = newVal();
+        preBody.add(new UpLoad(v, ul.upval()));
+        aliases.put(ul.dest(), v);
+        removed.remove(n);
+      } else if (n instanceof TabGet) {
+        TabGet tg = (TabGet) n;
+        Val obj = alias(aliases, tg.obj());
+        Val key = alias(aliases, tg.key());
+        Val raw = newVal();
+        // the chain of guards makes raw non-nil only if all reads so far have succeeded
+        preBody.add(new TabRawGet(raw, guard != null ? guard : obj, obj, key));
+        rawReads.put(tg, raw);
+        aliases.put(tg.dest(), raw);
+        guard = raw;
+      } else {
+        preBody.add(n);
+      }
+    }
+
+    Map<Label, List<BasicBlock>> replacements = new HashMap<>();
+    List<BasicBlock> fallbackBlocks = new ArrayList<>();
+    for (BasicBlock b : blocks) {
+      replacements.put(b.label(), split(b, removed, rawReads, guard, fallbackBlocks));
+    }
+
+    List<BasicBlock> result = new ArrayList<>();
+    Iterator<BasicBlock> it = code.blockIterator();
+    while (it.hasNext()) {
+      BasicBlock b = it.next();
+      if (b.label().equals(loop.preheader)) {
+        result.add(new BasicBlock(b.label(), Collections.unmodifiableList(preBody), b.end()));
+      } else if (replacements.containsKey(b.label())) {
+        result.addAll(replacements.get(b.label()));
+      } else {
+        result.add(b);
+      }
+    }
+    result.addAll(fallbackBlocks);
+
+    return Code.of(result);
+  }
+
+  private static Val alias(Map<Val, Val> aliases, Val v) {
+    Val a = aliases.get(v);
+    return a != null ? a : v;
+  }
+
+  // removes the hoisted nodes from b, splitting it at guarded table reads
+  private List<BasicBlock> split(BasicBlock b, Set<BodyNode> removed, Map<TabGet, Val> rawReads,
+      Val guard, List<BasicBlock> fallbackBlocks) {
+
+    List<BasicBlock> result = new ArrayList<>();
+
+    Label label = b.label();
+    List<BodyNode> body = new ArrayList<>();
+    Line line = null;
+
+    for (BodyNode n : b.body()) {
+      if (n instanceof Line) {
+        line = (Line) n;
+      }
+
+      Val raw = n instanceof TabGet ? rawReads.get(n) : null;
+      if (raw != null) {
+        TabGet tg = (TabGet) n;
+        PhiVal pv = newPhiVal();
+        Label fallback = newLabel();
+        Label next = newLabel();
+
+        body.add(new PhiStore(pv, raw));
+        result.add(new BasicBlock(label, Collections.unmodifiableList(body),
+            new Branch(new Branch.Condition.Nil(guard), fallback, next)));
+
+        Val v = newVal();
+        TabGet read = new TabGet(v, tg.obj(), tg.key());
+        fallbacks.add(read);
+        List<BodyNode> fallbackBody = new ArrayList<>();
+        if (line != null) {
+          fallbackBody.add(new Line(line.lineNumber()));
+        }
+        fallbackBody.add(read);
+        fallbackBody.add(new PhiStore(pv, v));
+        fallbackBlocks.add(new BasicBlock(fallback, Collections.unmodifiableList(fallbackBody),
+            new Jmp(next)));
+
+        label = next;
+        body = new ArrayList<>();
+        body.add(new PhiLoad(tg.dest(), pv));
+      } else if (!removed.contains(n)) {
+        body.add(n);
+      }
+    }
+
+    result.add(new BasicBlock(label, Collections.unmodifiableList(body), b.end()));
+    return result;
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.tf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.classdump.luna.compiler.IRFunc;
+import org.classdump.luna.compiler.analysis.EscapeInfo;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.BodyNode;
+import org.classdump.luna.compiler.ir.Code;
+import org.classdump.luna.compiler.ir.IRNode;
+import org.classdump.luna.compiler.ir.LoadConst;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.ir.TabNew;
+import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawSet;
+import org.classdump.luna.compiler.ir.TabRawSetInt;
+import org.classdump.luna.compiler.ir.TabSet;
+import org.classdump.luna.compiler.ir.Val;
+import org.classdump.luna.compiler.ir.Var;
+import org.classdump.luna.compiler.ir.VarInit;
+import org.classdump.luna.compiler.ir.VarLoad;
+import org.classdump.luna.compiler.ir.VarStore;
+import org.classdump.luna.compiler.util.CodeUtils;
+
+/**
+ * Redundant load elimination: within a basic block, replaces reads of a table field
+ * with a constant key by the value previously read from or written to the same field.
+ *
+ * <p>Only tables that do not escape the function (see {@link EscapeInfo}) are considered.
+ * Since they have no metatables and cannot be accessed by any other code, their fields
+ * may only be modified by writes in this function, and calls do not invalidate the values
+ * known. A write to a field invalidates the values known for the same key in the tables that
+ * may be the same table: tables created earlier in the same block are known to be distinct
+ * from each other and from all other tables. Writes with keys that are not constant
+ * invalidate all fields of the tables that may be the same table.</p>
+ *
+ * <p>The values are passed from the original read or write to the eliminated reads
+ * in new local variables.</p>
+ *
+ * <p>The pass runs after {@link ScalarReplacer}, and applies to the non-escaping tables
+ * that remain allocated: tables that are also accessed with keys that are not constant
+ * (e.g., filled in a loop), and tables that may have been created by more than one
+ * table constructor (e.g., in different branches).</p>
+ */
+public class RedundantLoadEliminator {
+
+  private final EscapeInfo escapes;
+  private final Map<Val, Object> constants;
+
+  private int varIdx;
+
+  private RedundantLoadEliminator(EscapeInfo escapes) {
+    this.escapes = Objects.requireNonNull(escapes);
+    this.constants = new HashMap<>();
+  }
+
+  /**
+   * Eliminates redundant reads of the fields of tables in {@code fn} that do not escape it.
+   *
+   * @param fn the function, must not be {@code null}
+   * @param escapes the escape information for {@code fn}, must not be {@code null}
+   * @return the transformed function
+   */
+  public static IRFunc eliminateLoads(IRFunc fn, EscapeInfo escapes) {
+    RedundantLoadEliminator eliminator = new RedundantLoadEliminator(escapes);
+    return fn.update(eliminator.transform(fn.code()));
+  }
+
+  // new variables get negative indices, not to clash with the translator-assigned ones
+  private Var newVar() {
+    return new Var(-(++varIdx));
+  }
+
+  private Code transform(Code code) {
+    Iterator<IRNode> it = CodeUtils.nodeIterator(code);
+    while (it.hasNext()) {
+      IRNode n = it.next();
+      if (n instanceof LoadConst.Str) {
+        LoadConst.Str ls = (LoadConst.Str) n;
+        constants.put(ls.dest(), ls.value());
+      } else if (n instanceof LoadConst.Int) {
+        LoadConst.Int li = (LoadConst.Int) n;
+        constants.put(li.dest(), li.value());
+      }
+    }
+
+    List<BasicBlock> blocks = new ArrayList<>();
+    boolean changed = false;
+    Iterator<BasicBlock> bit = code.blockIterator();
+    while (bit.hasNext()) {
+      BasicBlock b = bit.next();
+      BasicBlock nb = transform(b);
+      changed |= nb != b;
+      blocks.add(nb);
+    }
+
+    return changed ? Code.of(blocks) : code;
+  }
+
+  private BasicBlock transform(BasicBlock block) {
+    Block b = new Block();
+
+    for (BodyNode n : block.body()) {
+      if (n instanceof TabNew) {
+        Object t = new Object();
+        b.fresh.add(t);
+        b.tokens.put(((TabNew) n).dest(), t);
+      } else if (n instanceof VarLoad) {
+        VarLoad vl = (VarLoad) n;
+        if (escapes.isLocalTable(vl.var())) {
+          b.tokens.put(vl.dest(), b.token(vl.var()));
+        }
+      } else if (n instanceof VarInit) {
+        VarInit vi = (VarInit) n;
+        if (escapes.isLocalTable(vi.var())) {
+          b.varTokens.put(vi.var(), b.token(vi.src()));
+        }
+      } else if (n instanceof VarStore) {
+        VarStore vs = (VarStore) n;
+        if (escapes.isLocalTable(vs.var())) {
+          b.varTokens.put(vs.var(), b.token(vs.src()));
+        }
+      } else if (n instanceof TabGet) {
+        TabGet tg = (TabGet) n;
+        Object key = constants.get(tg.key());
+        if (key != null && escapes.isLocalTable(tg.obj())) {
+          Field f = new Field(b.token(tg.obj()), key);
+          Source s = b.known.get(f);
+          if (s != null) {
+            b.redundant.put(tg, s);
+          } else {
+            b.known.put(f, new Source(tg, tg.dest()));
+          }
+        }
+      } else if (n instanceof TabSet) {
+        TabSet ts = (TabSet) n;
+        if (escapes.isLocalTable(ts.obj())) {
+          b.store(ts, ts.obj(), constants.get(ts.key()), ts.value());
+        }
+      } else if (n instanceof TabRawSet) {
+        TabRawSet trs = (TabRawSet) n;
+        if (escapes.isLocalTable(trs.obj())) {
+          b.store(trs, trs.obj(), constants.get(trs.key()), trs.value());
+        }
+      } else if (n instanceof TabRawSetInt) {
+        TabRawSetInt trsi = (TabRawSetInt) n;
+        if (escapes.isLocalTable(trsi.obj())) {
+          b.store(trsi, trsi.obj(), trsi.idx(), trsi.value());
+        }
+      } else if (n instanceof TabRawAppendMulti) {
+        TabRawAppendMulti tram = (TabRawAppendMulti) n;
+        if (escapes.isLocalTable(tram.obj())) {
+          b.invalidate(b.token(tram.obj()), null);
+        }
+      }
+    }
+
+    if (b.redundant.isEmpty()) {
+      return block;
+    }
+
+    Map<Source, Var> vars = new HashMap<>();
+    for (Source s : b.redundant.values()) {
+      if (!vars.containsKey(s)) {
+        vars.put(s, newVar());
+      }
+    }
+    Map<BodyNode, Source> sources = new HashMap<>();
+    for (Source s : vars.keySet()) {
+      sources.put(s.node, s);
+    }
+
+    List<BodyNode> body = new ArrayList<>();
+    for (BodyNode n : block.body()) {
+      Source r = b.redundant.get(n);
+      if (r != null) {
+        body.add(new VarLoad(((TabGet) n).dest(), vars.get(r)));
+      } else {
+        body.add(n);
+      }
+
+      Source s = sources.get(n);
+      if (s != null) {
+        body.add(new VarInit(vars.get(s), s.value));
+      }
+    }
+
+    return new BasicBlock(block.label(), Collections.unmodifiableList(body), block.end());
+  }
+
+  private static class Field {
+
+    final Object token;
+    final Object key;
+
+    Field(Object token, Object key) {
+      this.token = Objects.requireNonNull(token);
+      this.key = Objects.requireNonNull(key);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Field that = (Field) o;
+      return this.token == that.token && this.key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(token) * 31 + key.hashCode();
+    }
+
+  }
+
+  // the value of a field known after a read or write
+  private static class Source {
+
+    final BodyNode node;
+    final Val value;
+
+    Source(BodyNode node, Val value) {
+      this.node = Objects.requireNonNull(node);
+      this.value = Objects.requireNonNull(value);
+    }
+
+  }
+
+  private static class Block {
+
+    // the tables in the block are represented by tokens: equal tokens denote the same table
+    final Map<Val, Object> tokens = new HashMap<>();
+    final Map<Var, Object> varTokens = new HashMap<>();
+    // tokens of the tables created in this block
+    final Set<Object> fresh = new HashSet<>();
+
+    final Map<Field, Source> known = new HashMap<>();
+    final Map<TabGet, Source> redundant = new LinkedHashMap<>();
+
+    Object token(Val v) {
+      Object t = tokens.get(v);
+      if (t == null) {
+        t = new Object();
+        tokens.put(v, t);
+      }
+      return t;
+    }
+
+    Object token(Var v) {
+      Object t = varTokens.get(v);
+      if (t == null) {
+        t = new Object();
+        varTokens.put(v, t);
+      }
+      return t;
+    }
+
+    boolean mayAlias(Object t, Object u) {
+      return t == u || !(fresh.contains(t) || fresh.contains(u));
+    }
+
+    // invalidates the fields with the given key (all fields if null) that may be in t
+    void invalidate(Object t, Object key) {
+      Iterator<Field> it = known.keySet().iterator();
+      while (it.hasNext()) {
+        Field f = it.next();
+        if ((key == null || key.equals(f.key)) && mayAlias(f.token, t)) {
+          it.remove();
+        }
+      }
+    }
+
+    void store(BodyNode node, Val obj, Object key, Val value) {
+      Object t = token(obj);
+      invalidate(t, key);
+      if (key != null) {
+        known.put(new Field(t, key), new Source(node, value));
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.tf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.classdump.luna.compiler.IRFunc;
+import org.classdump.luna.compiler.analysis.EscapeInfo;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.BodyNode;
+import org.classdump.luna.compiler.ir.Code;
+import org.classdump.luna.compiler.ir.IRNode;
+import org.classdump.luna.compiler.ir.LoadConst;
+import org.classdump.luna.compiler.ir.PhiLoad;
+import org.classdump.luna.compiler.ir.PhiStore;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.ir.TabNew;
+import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
+import org.classdump.luna.compiler.ir.TabRawSet;
+import org.classdump.luna.compiler.ir.TabRawSetInt;
+import org.classdump.luna.compiler.ir.TabSet;
+import org.classdump.luna.compiler.ir.Val;
+import org.classdump.luna.compiler.ir.Var;
+import org.classdump.luna.compiler.ir.VarInit;
+import org.classdump.luna.compiler.ir.VarLoad;
+import org.classdump.luna.compiler.ir.VarStore;
+import org.classdump.luna.compiler.util.CodeUtils;
+
+/**
+ * Scalar replacement of tables: replaces the fields of tables that do not escape
+ * the function (see {@link EscapeInfo}) by local variables, eliminating the tables.
+ *
+ * <p>A group of values and variables holding such tables is replaced if all the tables
+ * are created by a single table constructor, and all accesses to them use constant keys
+ * (strings or integers). Since the constructor dominates all accesses to the tables, and the
+ * tables cannot be held by anything outside the group, only the table created last is
+ * accessible at any point: the variables replacing its fields are initialised to nil
+ * by the constructor, and reads and writes of the fields become loads and stores
+ * of the variables. Fields written in the constructor's block before being read are
+ * initialised by the first write instead.</p>
+ */
+public class ScalarReplacer {
+
+  private final EscapeInfo escapes;
+  private final Map<Val, Object> constants;
+
+  // the groups of the tables to replace, with the variables replacing their fields
+  private final Map<Object, Map<Object, Var>> fields;
+
+  private int valIdx;
+  private int varIdx;
+
+  private ScalarReplacer(EscapeInfo escapes) {
+    this.escapes = Objects.requireNonNull(escapes);
+    this.constants = new HashMap<>();
+    this.fields = new HashMap<>();
+  }
+
+  /**
+   * Replaces the tables in {@code fn} that do not escape it by local variables.
+   *
+   * @param fn the function, must not be {@code null}
+   * @param escapes the escape information for {@code fn}, must not be {@code null}
+   * @return the transformed function
+   */
+  public static IRFunc replaceTables(IRFunc fn, EscapeInfo escapes) {
+    ScalarReplacer replacer = new ScalarReplacer(escapes);
+    return fn.update(replacer.transform(fn.code()));
+  }
+
+  // new values and variables get negative indices, not to clash with the translator-assigned ones
+  private Val newVal() {
+    return new Val(-(++valIdx));
+  }
+
+  private Var newVar() {
+    return new Var(-(++varIdx));
+  }
+
+  // the key of a table access, or null if not constant
+  private Object key(IRNode n) {
+    if (n instanceof TabGet) {
+      return constants.get(((TabGet) n).key());
+    } else if (n instanceof TabSet) {
+      return constants.get(((TabSet) n).key());
+    } else if (n instanceof TabRawSet) {
+      return constants.get(((TabRawSet) n).key());
+    } else if (n instanceof TabRawSetInt) {
+      return ((TabRawSetInt) n).idx();
+    } else {
+      return null;
+    }
+  }
+
+  // the accessed table of a table access, or null if n is not a table access
+  private static Val obj(IRNode n) {
+    if (n instanceof TabGet) {
+      return ((TabGet) n).obj();
+    } else if (n instanceof TabSet) {
+      return ((TabSet) n).obj();
+    } else if (n instanceof TabRawSet) {
+      return ((TabRawSet) n).obj();
+    } else if (n instanceof TabRawSetInt) {
+      return ((TabRawSetInt) n).obj();
+    } else if (n instanceof TabRawGet) {
+      return ((TabRawGet) n).obj();
+    } else if (n instanceof TabRawAppendMulti) {
+      return ((TabRawAppendMulti) n).obj();
+    } else {
+      return null;
+    }
+  }
+
+  private static Val value(IRNode n) {
+    if (n instanceof TabSet) {
+      return ((TabSet) n).value();
+    } else if (n instanceof TabRawSet) {
+      return ((TabRawSet) n).value();
+    } else if (n instanceof TabRawSetInt) {
+      return ((TabRawSetInt) n).value();
+    } else {
+      return null;
+    }
+  }
+
+  private Object group(IRNode n) {
+    Val obj = obj(n);
+    return obj != null ? escapes.group(obj) : null;
+  }
+
+  private void analyse(Code code) {
+    Map<Object, Integer> sites = new HashMap<>();
+    Map<Object, Set<Object>> keys = new LinkedHashMap<>();
+    Set<Object> excluded = new HashSet<>();
+
+    Iterator<IRNode> it = CodeUtils.nodeIterator(code);
+    while (it.hasNext()) {
+      IRNode n = it.next();
+      if (n instanceof LoadConst.Str) {
+        LoadConst.Str ls = (LoadConst.Str) n;
+        constants.put(ls.dest(), ls.value());
+      } else if (n instanceof LoadConst.Int) {
+        LoadConst.Int li = (LoadConst.Int) n;
+        constants.put(li.dest(), li.value());
+      }
+    }
+
+    it = CodeUtils.nodeIterator(code);
+    while (it.hasNext()) {
+      IRNode n = it.next();
+      if (n instanceof TabNew) {
+        Object g = escapes.group(((TabNew) n).dest());
+        if (g != null) {
+          Integer count = sites.get(g);
+          sites.put(g, count != null ? count + 1 : 1);
+          if (!keys.containsKey(g)) {
+            keys.put(g, new HashSet<>());
+          }
+        }
+      } else {
+        Object g = group(n);
+        if (g != null) {
+          Object key = key(n);
+          if (key != null) {
+            keys.get(g).add(key);
+          } else {
+            excluded.add(g);
+          }
+        }
+      }
+    }
+
+    for (Map.Entry<Object, Set<Object>> e : keys.entrySet()) {
+      Object g = e.getKey();
+      if (sites.get(g) == 1 && !excluded.contains(g)) {
+        Map<Object, Var> vars = new LinkedHashMap<>();
+        for (Object key : e.getValue()) {
+          vars.put(key, newVar());
+        }
+        fields.put(g, vars);
+      }
+    }
+  }
+
+  private Code transform(Code code) {
+    analyse(code);
+    if (fields.isEmpty()) {
+      return code;
+    }
+
+    List<BasicBlock> blocks = new ArrayList<>();
+    Iterator<BasicBlock> it = code.blockIterator();
+    while (it.hasNext()) {
+      blocks.add(transform(it.next()));
+    }
+    return Code.of(blocks);
+  }
+
+  private boolean isReplaced(Object g) {
+    return g != null && fields.containsKey(g);
+  }
+
+  private BasicBlock transform(BasicBlock block) {
+    List<BodyNode> body = new ArrayList<>();
+
+    // the fields initialised by their first write in this block
+    Set<IRNode> inits = new HashSet<>();
+    Object site = null;
+    Set<Object> accessed = new HashSet<>();
+
+    for (BodyNode n : block.body()) {
+      if (n instanceof TabNew && isReplaced(escapes.group(((TabNew) n).dest()))) {
+        site = escapes.group(((TabNew) n).dest());
+        accessed.clear();
+      } else if (site != null && site.equals(group(n)) && accessed.add(key(n))) {
+        if (value(n) != null) {
+          inits.add(n);
+        }
+      }
+    }
+
+    boolean changed = false;
+    for (int i = 0; i < block.body().size(); i++) {
+      BodyNode n = block.body().get(i);
+
+      Object g = n instanceof TabNew ? escapes.group(((TabNew) n).dest()) : group(n);
+      if (isReplaced(g)) {
+        Map<Object, Var> vars = fields.get(g);
+        changed = true;
+
+        if (n instanceof TabNew) {
+          Val nil = null;
+          Set<Object> initialised = new HashSet<>();
+          for (int j = i + 1; j < block.body().size(); j++) {
+            BodyNode m = block.body().get(j);
+            if (inits.contains(m) && g.equals(group(m))) {
+              initialised.add(key(m));
+            }
+          }
+          for (Map.Entry<Object, Var> e : vars.entrySet()) {
+            if (!initialised.contains(e.getKey())) {
+              if (nil == null) {
+                nil = newVal();
+                body.add(new LoadConst.Nil(nil));
+              }
+              body.add(new VarInit(e.getValue(), nil));
+            }
+          }
+        } else if (n instanceof TabGet) {
+          body.add(new VarLoad(((TabGet) n).dest(), vars.get(key(n))));
+        } else if (inits.contains(n)) {
+          body.add(new VarInit(vars.get(key(n)), value(n)));
+        } else {
+          body.add(new VarStore(vars.get(key(n)), value(n)));
+        }
+      } else if (isRemoved(n)) {
+        changed = true;
+      } else {
+        body.add(n);
+      }
+    }
+
+    return changed
+        ? new BasicBlock(block.label(), Collections.unmodifiableList(body), block.end())
+        : block;
+  }
+
+  // true if n only passes around a replaced table
+  private boolean isRemoved(BodyNode n) {
+    if (n instanceof VarInit) {
+      return isReplaced(escapes.group(((VarInit) n).var()));
+    } else if (n instanceof VarStore) {
+      return isReplaced(escapes.group(((VarStore) n).var()));
+    } else if (n instanceof VarLoad) {
+      return isReplaced(escapes.group(((VarLoad) n).var()));
+    } else if (n instanceof PhiStore) {
+      return isReplaced(escapes.group(((PhiStore) n).dest()));
+    } else if (n instanceof PhiLoad) {
+      return isReplaced(escapes.group(((PhiLoad) n).src()));
+    } else {
+      return false;
+    }
+  }
+
+}
@@ -33,6 +33,7 @@ import org.classdump.luna.compiler.ir.TCall;
 import org.classdump.luna.compiler.ir.TabGet;
 import org.classdump.luna.compiler.ir.TabNew;
 import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
 import org.classdump.luna.compiler.ir.TabRawSet;
 import org.classdump.luna.compiler.ir.TabRawSetInt;
 import org.classdump.luna.compiler.ir.TabSet;
@@ -95,6 +96,11 @@ public abstract class DefaultNodeActionVisitor extends IRVisitor {
     action(node);
   }
 
+  @Override
+  public void visit(TabRawGet node) {
+    action(node);
+  }
+
   @Override
   public void visit(TabSet node) {
     action(node);
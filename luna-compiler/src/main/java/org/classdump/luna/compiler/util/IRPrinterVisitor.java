@@ -35,6 +35,7 @@ import org.classdump.luna.compiler.ir.TCall;
 import org.classdump.luna.compiler.ir.TabGet;
 import org.classdump.luna.compiler.ir.TabNew;
 import org.classdump.luna.compiler.ir.TabRawAppendMulti;
+import org.classdump.luna.compiler.ir.TabRawGet;
 import org.classdump.luna.compiler.ir.TabRawSet;
 import org.classdump.luna.compiler.ir.TabRawSetInt;
 import org.classdump.luna.compiler.ir.TabSet;
@@ -106,6 +107,12 @@ public class IRPrinterVisitor extends CodeVisitor {
 		ps.println("\ttabget " + node.dest() + " " + node.obj() + " " + node.key());
 	}
 
+	@Override
+	public void visit(TabRawGet node) {
+		ps.println("\ttabrawget " + node.dest() + " " + node.obj() + " " + node.key()
+				+ " if " + node.guard());
+	}
+
 	@Override
 	public void visit(TabSet node) {
 		ps.println("\ttabset " + node.obj() + " " + node.key() + " " + node.value());
@@ -16,11 +16,22 @@
 
 package org.classdump.luna;
 
+import java.util.Map;
+import java.util.WeakHashMap;
+
 /**
  * Base class of objects that have a metatable attached to them on a per-instance basis.
  */
 public abstract class LuaObject {
 
+  /**
+   * Values associated with this object in tables with weak keys, indexed by the tables
+   * (held weakly). Values stored here are reachable only as long as this object is reachable,
+   * which makes it possible to implement ephemeron tables on top of weak references.
+   * May be {@code null}.
+   */
+  private Map<Object, Object> ephemerons;
+
   /**
    * Returns the metatable of this object, or {@code null} if this object does not have
    * a metatable.
@@ -41,4 +52,49 @@ public abstract class LuaObject {
    */
   public abstract Table setMetatable(Table mt);
 
+  /**
+   * Returns the value associated with this object (as a key) in the weak-keyed table
+   * {@code owner}, or {@code null} if there is no such value.
+   *
+   * <p>This method is meant to be used by table implementations only.</p>
+   *
+   * @param owner the table, must not be {@code null}
+   * @return the value associated with this object in {@code owner}, or {@code null}
+   * @see #setEphemeron(Object, Object)
+   */
+  public final Object getEphemeron(Object owner) {
+    // not thread-safe!
+    Map<Object, Object> m = ephemerons;
+    return m != null ? m.get(owner) : null;
+  }
+
+  /**
+   * Associates {@code value} with this object (as a key) in the weak-keyed table
+   * {@code owner}. If {@code value} is {@code null}, removes the association.
+   *
+   * <p>The value is only referenced from this object, so it will not keep this
+   * object reachable from the table {@code owner}, even if {@code value} refers to
+   * this object. {@code owner} is held weakly.</p>
+   *
+   * <p>This method is meant to be used by table implementations only.</p>
+   *
+   * @param owner the table, must not be {@code null}
+   * @param value the value, may be {@code null}
+   */
+  public final void setEphemeron(Object owner, Object value) {
+    // not thread-safe!
+    Map<Object, Object> m = ephemerons;
+    if (value != null) {
+      if (m == null) {
+        ephemerons = m = new WeakHashMap<>(4);
+      }
+      m.put(owner, value);
+    } else if (m != null) {
+      m.remove(owner);
+      if (m.isEmpty()) {
+        ephemerons = null;
+      }
+    }
+  }
+
 }
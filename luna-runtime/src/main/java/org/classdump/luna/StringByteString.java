@@ -64,6 +64,14 @@ class StringByteString extends ByteString {
       return true;
     }
 
+    // the same string encodes to the same bytes
+    if (that instanceof StringByteString) {
+      StringByteString other = (StringByteString) that;
+      if (this.charset.equals(other.charset) && this.string.equals(other.string)) {
+        return true;
+      }
+    }
+
     // don't force hashCode computation, but use if already known
     int thisHash = this.maybeHashCode();
     int thatHash = that.maybeHashCode();
@@ -19,6 +19,7 @@ package org.classdump.luna;
 import java.util.Collections;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.classdump.luna.runtime.Dispatch;
 import org.classdump.luna.runtime.ExecutionContext;
 
@@ -33,6 +34,9 @@ import org.classdump.luna.runtime.ExecutionContext;
  */
 public abstract class Table extends LuaObject {
 
+  // source of table stamps, unique across all tables
+  private static final AtomicLong STAMPS = new AtomicLong();
+
   /**
    * A weak set containing the references to tables this table is a metatable of.
    *
@@ -43,13 +47,25 @@ public abstract class Table extends LuaObject {
    * with the key "__mode" in M determines whether T has weak keys, values or both. This means
    * that an update of M["__mode"] may trigger a change in the weakness status of all basetables
    * of M. Therefore, each table must keep track of its basetables.
+   *
+   * Allocated lazily, since most tables are never used as metatables; {@code null} if this
+   * table has never been a metatable.
    */
-  private final Set<Table> basetables = Collections
-      .newSetFromMap(new WeakHashMap<Table, Boolean>());
+  private Set<Table> basetables;
   /**
    * The metatable of this table, may be {@code null}.
    */
   private Table metatable;
+  /**
+   * The most recently known border of this table, used by {@link #rawlen()}.
+   * May be out of date.
+   */
+  private long borderHint;
+  /**
+   * The stamp of the current contents of this table, or 0 if no stamp has been assigned
+   * since the contents were last modified.
+   */
+  private long stamp;
 
   /**
    * Retrieves the value associated with the given {@code key}, returning {@code null}
@@ -135,6 +151,65 @@ public abstract class Table extends LuaObject {
     rawset(Long.valueOf(idx), value);
   }
 
+  /**
+   * Hints this table that values are about to be associated with the integer keys
+   * 1&hellip;{@code size}, giving it the opportunity to allocate the storage for these
+   * keys at once rather than growing it incrementally.
+   *
+   * <p>This method has no observable effect on the contents of the table. The default
+   * implementation does nothing.</p>
+   *
+   * @param size the number of consecutive integer keys (starting at 1) expected to be
+   * assigned in this table
+   */
+  public void ensureArrayCapacity(long size) {
+    // no-op by default
+  }
+
+  /**
+   * Returns the stamp of the current raw contents of this table, or {@code 0} if this table
+   * does not track the modifications of its contents.
+   *
+   * <p>The stamp of a table changes whenever its raw contents are modified, and stamps
+   * are never shared by different tables. Therefore, if two calls of this method (on any tables)
+   * return the same non-zero stamp, then the calls have been made on the same table, and its
+   * raw contents have not been modified in between. This allows the results of raw accesses
+   * to be cached (see {@link org.classdump.luna.impl.StampCache}).</p>
+   *
+   * <p>The default implementation returns {@code 0}. Implementations that track modifications
+   * should return {@link #trackedStamp()}, and must call {@link #invalidateStamp()} whenever
+   * their raw contents are modified.</p>
+   *
+   * @return the stamp of the contents of this table, or {@code 0} if not tracked
+   */
+  public long stamp() {
+    return 0L;
+  }
+
+  /**
+   * Returns the stamp of the current contents of this table, assigning a new stamp if
+   * the contents have been modified since the last call of this method.
+   *
+   * <p>Not thread-safe.</p>
+   *
+   * @return the non-zero stamp of the contents of this table
+   */
+  protected final long trackedStamp() {
+    long s = stamp;
+    if (s == 0L) {
+      stamp = s = STAMPS.incrementAndGet();
+    }
+    return s;
+  }
+
+  /**
+   * Marks the contents of this table as modified, so that the next call
+   * of {@link #trackedStamp()} returns a new stamp.
+   */
+  protected final void invalidateStamp() {
+    stamp = 0L;
+  }
+
   /**
    * If this table is a sequence, returns the length of this sequence.
    *
@@ -147,9 +222,45 @@ public abstract class Table extends LuaObject {
    * <p>Note that when this table is not a sequence, the return value of this method
    * is undefined.</p>
    *
+   * <p>This method first checks whether the border found by its previous invocation
+   * (adjusted by {@link #updateBorderHint(long, Object)}) is still a border of this table,
+   * in which case it is returned immediately. Otherwise, a border is located using
+   * {@link #findBorder()}.</p>
+   *
    * @return the length of the sequence if this table is a sequence
    */
   public long rawlen() {
+    // not thread-safe!
+    long b = borderHint;
+    if (isBorder(b)) {
+      return b;
+    } else {
+      b = findBorder();
+      borderHint = b;
+      return b;
+    }
+  }
+
+  private boolean isBorder(long b) {
+    return b >= 0
+        && (b == 0 || rawget(b) != null)
+        && (b == Long.MAX_VALUE || rawget(b + 1) == null);
+  }
+
+  /**
+   * Locates a <i>border</i> in this table, i.e., a non-negative integer <i>b</i> such that
+   * <i>b</i> is either zero or is associated with a non-<b>nil</b> value, and
+   * <i>b</i> + 1 is not associated with any value. If this table is a sequence,
+   * its only border is its length.
+   *
+   * <p>This method is called by {@link #rawlen()} when the cached border hint is
+   * not a border. The default implementation performs an unbound search using
+   * {@link #rawget(long)}; implementations may override it in order to take advantage
+   * of their internal structure.</p>
+   *
+   * @return a border in this table
+   */
+  protected long findBorder() {
     long idx = 1;
 
     while (idx >= 0 && rawget(idx) != null) {
@@ -184,6 +295,31 @@ public abstract class Table extends LuaObject {
     }
   }
 
+  /**
+   * Updates the border hint used by {@link #rawlen()} following the assignment of
+   * {@code value} to the integer key {@code idx}.
+   *
+   * <p>Implementations of {@link #rawset(Object, Object)} and {@link #rawset(long, Object)}
+   * should call this method for integer keys, so that the typical ways of growing and
+   * shrinking sequences (e.g., {@code t[#t+1] = v} and {@code t[#t] = nil}) keep
+   * {@link #rawlen()} constant-time. Failing to call this method does not affect
+   * correctness, only the performance of {@link #rawlen()}.</p>
+   *
+   * @param idx the integer key
+   * @param value the value assigned to {@code idx}, may be {@code null}
+   */
+  protected void updateBorderHint(long idx, Object value) {
+    // not thread-safe!
+    long b = borderHint;
+    if (value != null) {
+      if (idx == b + 1) {
+        borderHint = idx;
+      }
+    } else if (idx == b && idx > 0) {
+      borderHint = idx - 1;
+    }
+  }
+
   /**
    * Returns the initial key for iterating through the set of keys in this table.
    *
@@ -254,20 +390,22 @@ public abstract class Table extends LuaObject {
 
     if (old != null) {
       // update the basetable mapping
-      old.basetables.remove(this);
+      if (old.basetables != null) {
+        old.basetables.remove(this);
+      }
     }
 
     boolean wk = false;
     boolean wv = false;
 
     if (mt != null) {
+      if (mt.basetables == null) {
+        mt.basetables = Collections.newSetFromMap(new WeakHashMap<Table, Boolean>());
+      }
       mt.basetables.add(this);
       Object m = mt.rawget(Metatables.MT_MODE);
-      if (m instanceof String) {
-        String s = (String) m;
-        wk = s.indexOf('k') > -1;
-        wv = s.indexOf('v') > -1;
-      }
+      wk = hasMode(m, 'k');
+      wv = hasMode(m, 'v');
     }
 
     metatable = mt;
@@ -294,15 +432,9 @@ public abstract class Table extends LuaObject {
    */
   protected void updateBasetableModes(Object key, Object value) {
     // not thread-safe!
-    if (Metatables.MT_MODE.equals(key)) {
-      boolean wk = false;
-      boolean wv = false;
-
-      if (value instanceof String) {
-        String s = (String) value;
-        wk = s.indexOf('k') > -1;
-        wv = s.indexOf('v') > -1;
-      }
+    if (basetables != null && Metatables.MT_MODE.equals(key)) {
+      boolean wk = hasMode(value, 'k');
+      boolean wv = hasMode(value, 'v');
 
       // update all tables
       for (Table t : basetables) {
@@ -311,6 +443,16 @@ public abstract class Table extends LuaObject {
     }
   }
 
+  private static boolean hasMode(Object mode, char c) {
+    if (mode instanceof ByteString) {
+      return ((ByteString) mode).contains((byte) c);
+    } else if (mode instanceof String) {
+      return ((String) mode).indexOf(c) > -1;
+    } else {
+      return false;
+    }
+  }
+
   /**
    * Sets the weakness of this table. If {@code weakKeys} is {@code true}, the table will have
    * weak keys (otherwise, the table will have non-weak keys). Similarly, if {@code weakValues}
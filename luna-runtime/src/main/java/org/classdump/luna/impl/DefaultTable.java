@@ -16,26 +16,69 @@
 
 package org.classdump.luna.impl;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.NoSuchElementException;
 import org.classdump.luna.Conversions;
+import org.classdump.luna.LuaObject;
 import org.classdump.luna.Table;
 import org.classdump.luna.TableFactory;
-import org.classdump.luna.util.TraversableHashMap;
+import org.classdump.luna.runtime.Coroutine;
+import org.classdump.luna.runtime.LuaFunction;
+import org.classdump.luna.util.OpenHashMap;
 
 /**
- * Default implementation of the Lua table storing all key-value pairs in a hashmap.
- * The table implementation does not support weak keys or values.
+ * Default implementation of the Lua table storing all key-value pairs in an open-addressing
+ * hashmap.
+ *
+ * <p>The table supports weak keys, weak values and both (as determined by the
+ * {@code "__mode"} field of its metatable). Only tables, functions, userdata and coroutines
+ * are held weakly; the remaining values (numbers, strings and booleans) are never removed
+ * from weak tables. Entries whose keys or values have been reclaimed by the garbage
+ * collector are no longer visible, and are removed from the table on its next
+ * modification.</p>
+ *
+ * <p>Tables with weak keys and strong values are <i>ephemeron</i> tables: when the key
+ * is a table or a userdata, the value is stored in the key object itself, and therefore
+ * does not keep the key reachable. For other kinds of keys, the value is held by the table,
+ * and a reference from the value to its key will keep the key alive.</p>
  */
 public class DefaultTable extends Table {
 
   private static final TableFactory FACTORY_INSTANCE = new Factory();
-  private final TraversableHashMap<Object, Object> values;
+
+  private static final int MODE_STRONG = 0;
+  private static final int MODE_WEAK_KEYS = 1;
+  private static final int MODE_WEAK_VALUES = 2;
+  private static final int MODE_WEAK_KEYS_AND_VALUES = MODE_WEAK_KEYS | MODE_WEAK_VALUES;
+
+  // stored in place of a value that is held by its (weak) key, see LuaObject.getEphemeron()
+  private static final Object EPHEMERON = new Object();
+
+  private OpenHashMap<Object, Object> values;
+
+  private int mode;
+  private ReferenceQueue<Object> queue;  // null iff mode == MODE_STRONG
 
   /**
    * Constructs a new empty table.
    */
   public DefaultTable() {
-    this.values = new TraversableHashMap<>();
+    this(0);
+  }
+
+  /**
+   * Constructs a new empty table with enough space to hold {@code expectedSize} entries
+   * without resizing.
+   *
+   * @param expectedSize the expected number of entries, must not be negative
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public DefaultTable(int expectedSize) {
+    this.values = new OpenHashMap<>(expectedSize);
+    this.mode = MODE_STRONG;
+    this.queue = null;
   }
 
   /**
@@ -47,10 +90,29 @@ public class DefaultTable extends Table {
     return FACTORY_INSTANCE;
   }
 
+  private static boolean isCollectable(Object o) {
+    return o instanceof LuaObject || o instanceof LuaFunction || o instanceof Coroutine;
+  }
+
   @Override
   public Object rawget(Object key) {
     key = Conversions.normaliseKey(key);
-    return key != null ? values.get(key) : null;
+    if (key == null) {
+      return null;
+    }
+
+    Object v = values.get(key);
+    return mode == MODE_STRONG ? v : weakValue(key, v);
+  }
+
+  private Object weakValue(Object key, Object v) {
+    if (v instanceof WeakValue) {
+      return ((WeakValue) v).get();
+    } else if (v == EPHEMERON) {
+      return ((LuaObject) key).getEphemeron(this);
+    } else {
+      return v;
+    }
   }
 
   @Override
@@ -65,33 +127,205 @@ public class DefaultTable extends Table {
     }
 
     value = Conversions.canonicalRepresentationOf(value);
+    invalidateStamp();
+
+    if (mode == MODE_STRONG) {
+      if (value == null) {
+        values.remove(key);
+      } else {
+        values.put(key, value);
+      }
+    } else {
+      expungeStaleEntries();
+      weakSet(key, value);
+    }
+
+    if (key instanceof Long) {
+      updateBorderHint(((Long) key).longValue(), value);
+    } else {
+      updateBasetableModes(key, value);
+    }
+  }
+
+  @Override
+  public long stamp() {
+    // entries of weak tables may disappear without being modified
+    return mode == MODE_STRONG ? trackedStamp() : 0L;
+  }
+
+  private void weakSet(Object key, Object value) {
+    Object old = values.get(key);
+    boolean weakKey = (mode & MODE_WEAK_KEYS) != 0 && isCollectable(key);
+
+    if (old == EPHEMERON) {
+      ((LuaObject) key).setEphemeron(this, null);
+    }
 
     if (value == null) {
       values.remove(key);
-    } else {
-      values.put(key, value);
+      return;
+    }
+
+    // if the key is already in the map, the map keeps the wrapper it already has
+    Object k = weakKey ? new WeakKey(key, queue) : key;
+
+    Object v = value;
+    if ((mode & MODE_WEAK_VALUES) != 0) {
+      if (isCollectable(value)) {
+        v = new WeakValue(value, weakKey ? k : key, queue);
+      }
+    } else if (weakKey && key instanceof LuaObject && isCollectable(value)) {
+      // ephemeron: the value is only reachable through the key
+      ((LuaObject) key).setEphemeron(this, value);
+      v = EPHEMERON;
+    }
+
+    values.put(k, v);
+  }
+
+  private void expungeStaleEntries() {
+    Reference<?> ref;
+    while ((ref = queue.poll()) != null) {
+      if (ref instanceof WeakKey) {
+        values.remove(ref);
+      } else {
+        Object k = ((WeakValue) ref).key;
+        if (values.get(k) == ref) {
+          values.remove(k);
+        }
+      }
     }
+  }
 
-    updateBasetableModes(key, value);
+  @Override
+  public void ensureArrayCapacity(long size) {
+    // size counts the entries already present in the array part
+    long expected = Math.max(size, values.size());
+    values.ensureCapacity((int) Math.min(expected, Integer.MAX_VALUE));
   }
 
   @Override
   public Object initialKey() {
-    return values.getFirstKey();
+    Object k = values.getFirstKey();
+    return mode == MODE_STRONG ? k : liveKeyFrom(k);
   }
 
   @Override
   public Object successorKeyOf(Object key) {
+    Object k;
     try {
-      return values.getSuccessorOf(key);
+      k = values.getSuccessorOf(key);
     } catch (NoSuchElementException | NullPointerException ex) {
       throw new IllegalArgumentException("invalid key to 'next'", ex);
     }
+    return mode == MODE_STRONG ? k : liveKeyFrom(k);
+  }
+
+  // returns the first key, starting at the stored key k, whose entry has not been reclaimed
+  private Object liveKeyFrom(Object k) {
+    while (k != null) {
+      Object key = k instanceof WeakKey ? ((WeakKey) k).get() : k;
+      if (key != null && weakValue(key, values.get(k)) != null) {
+        return key;
+      }
+      k = values.getSuccessorOf(k);
+    }
+    return null;
   }
 
   @Override
   protected void setMode(boolean weakKeys, boolean weakValues) {
-    // TODO
+    int newMode = (weakKeys ? MODE_WEAK_KEYS : 0) | (weakValues ? MODE_WEAK_VALUES : 0);
+    if (newMode == mode) {
+      return;
+    }
+
+    OpenHashMap<Object, Object> oldValues = values;
+
+    invalidateStamp();
+    values = new OpenHashMap<>(oldValues.size());
+    mode = newMode;
+    queue = newMode != MODE_STRONG ? new ReferenceQueue<>() : null;
+
+    // re-insert the live entries
+    for (int i = oldValues.firstIndex(); i >= 0; i = oldValues.nextIndex(i)) {
+      Object k = oldValues.keyAt(i);
+      Object v = oldValues.valueAt(i);
+
+      if (k instanceof WeakKey) {
+        k = ((WeakKey) k).get();
+      }
+      if (k == null) {
+        continue;
+      }
+
+      if (v instanceof WeakValue) {
+        v = ((WeakValue) v).get();
+      } else if (v == EPHEMERON) {
+        LuaObject o = (LuaObject) k;
+        v = o.getEphemeron(this);
+        o.setEphemeron(this, null);
+      }
+      if (v == null) {
+        continue;
+      }
+
+      if (newMode == MODE_STRONG) {
+        values.put(k, v);
+      } else {
+        weakSet(k, v);
+      }
+    }
+  }
+
+  /**
+   * A weak reference to a key. Equal to the keys equal to its referent, and to other
+   * {@code WeakKey}s with equal referents.
+   */
+  private static final class WeakKey extends WeakReference<Object> {
+
+    private final int hash;
+
+    WeakKey(Object referent, ReferenceQueue<Object> queue) {
+      super(referent, queue);
+      this.hash = referent.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      Object r = get();
+      if (r == null) {
+        return false;
+      }
+      if (o instanceof WeakKey) {
+        o = ((WeakKey) o).get();
+      }
+      return r.equals(o);
+    }
+
+  }
+
+  /**
+   * A weak reference to a value, remembering the key (as stored in the map) it is
+   * associated with.
+   */
+  private static final class WeakValue extends WeakReference<Object> {
+
+    private final Object key;
+
+    WeakValue(Object referent, Object key, ReferenceQueue<Object> queue) {
+      super(referent, queue);
+      this.key = key;
+    }
+
   }
 
   static class Factory implements TableFactory {
@@ -103,7 +337,8 @@ public class DefaultTable extends Table {
 
     @Override
     public Table newTable(int array, int hash) {
-      return new DefaultTable();
+      long size = Math.max(0, array) + (long) Math.max(0, hash);
+      return new DefaultTable((int) Math.min(size, Integer.MAX_VALUE));
     }
   }
 
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.impl;
+
+import java.util.NoSuchElementException;
+import org.classdump.luna.Conversions;
+import org.classdump.luna.Table;
+import org.classdump.luna.TableFactory;
+import org.classdump.luna.util.OpenHashMap;
+
+/**
+ * An implementation of the Lua table that splits its contents into an <i>array part</i>
+ * and a <i>hash part</i>, following the design of the reference implementation of Lua.
+ *
+ * <p>The array part stores the values associated with the integer keys
+ * 1&hellip;<i>n</i> in a plain Java array, where <i>n</i> is the size of the array part.
+ * Accesses to these keys using {@link #rawget(long)} and {@link #rawset(long, Object)}
+ * therefore involve neither boxing nor hashing. All the remaining keys are stored in the
+ * hash part.</p>
+ *
+ * <p>The size of the array part is recomputed whenever the hash part runs out of its
+ * capacity: the new size is the largest <i>n</i> (a power of two) such that more than
+ * half of the slots 1&hellip;<i>n</i> would be in use. Appending to a full array part
+ * (e.g. by {@code t[#t+1] = v}) grows the array part directly.</p>
+ *
+ * <p>Iteration visits the array part (in ascending key order) before the hash part.</p>
+ *
+ * <p>Tables with weak keys or values (as determined by the {@code "__mode"} field
+ * of their metatable) store all their entries in a {@link DefaultTable}, which implements
+ * the weak modes, and have neither an array part nor a hash part. They switch back to their
+ * own storage once they cease to be weak.</p>
+ */
+public class HybridTable extends Table {
+
+  private static final TableFactory FACTORY_INSTANCE = new Factory();
+
+  // maximum size of the array part is 2^MAX_BITS
+  private static final int MAX_BITS = 30;
+  private static final int MAX_ARRAY_SIZE = 1 << MAX_BITS;
+
+  private static final int MIN_ARRAY_SIZE = 4;
+  private static final int MIN_HASH_CAPACITY = 4;
+
+  private static final Object[] EMPTY_ARRAY = new Object[0];
+
+  private Object[] array;
+  private int arrayCount;  // number of non-nil values in array
+
+  private final OpenHashMap<Object, Object> hash;
+  private int hashCapacity;  // triggers a rehash when reached
+
+  private DefaultTable weak;  // holds all entries iff the table has weak keys or values
+
+  /**
+   * Constructs a new empty table.
+   */
+  public HybridTable() {
+    this(0, 0);
+  }
+
+  /**
+   * Constructs a new empty table with the array part of size {@code arraySize} and
+   * the hash part with space for {@code hashSize} entries.
+   *
+   * <p>Negative sizes are treated as zero; the size of the array part is limited
+   * to 2<sup>30</sup>.</p>
+   *
+   * @param arraySize the initial size of the array part
+   * @param hashSize the initial capacity of the hash part
+   */
+  public HybridTable(int arraySize, int hashSize) {
+    arraySize = Math.min(Math.max(0, arraySize), MAX_ARRAY_SIZE);
+    hashSize = Math.max(0, hashSize);
+
+    this.array = arraySize > 0 ? new Object[arraySize] : EMPTY_ARRAY;
+    this.arrayCount = 0;
+    this.hash = new OpenHashMap<>(hashSize);
+    this.hashCapacity = hashCapacityFor(hashSize);
+  }
+
+  /**
+   * Returns the table factory for constructing instances of {@code HybridTable}.
+   *
+   * @return the table factory for {@code HybridTable}s
+   */
+  public static TableFactory factory() {
+    return FACTORY_INSTANCE;
+  }
+
+  private static int ceilLog2(long x) {
+    // x >= 1
+    return 64 - Long.numberOfLeadingZeros(x - 1);
+  }
+
+  private static int hashCapacityFor(int size) {
+    return Math.max(MIN_HASH_CAPACITY, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+  }
+
+  private static boolean isArrayCandidate(long k) {
+    return k > 0 && k <= MAX_ARRAY_SIZE;
+  }
+
+  @Override
+  public Object rawget(Object key) {
+    key = Conversions.normaliseKey(key);
+    if (key instanceof Long) {
+      return rawget(((Long) key).longValue());
+    } else if (weak != null) {
+      return weak.rawget(key);
+    } else {
+      return key != null ? hash.get(key) : null;
+    }
+  }
+
+  @Override
+  public Object rawget(long idx) {
+    if (idx > 0 && idx <= array.length) {
+      return array[(int) (idx - 1)];
+    } else if (weak != null) {
+      return weak.rawget(idx);
+    } else {
+      return hash.get(Long.valueOf(idx));
+    }
+  }
+
+  @Override
+  public void rawset(Object key, Object value) {
+    key = Conversions.normaliseKey(key);
+
+    if (key == null) {
+      throw new IllegalArgumentException("table index is nil");
+    }
+
+    if (key instanceof Long) {
+      rawset(((Long) key).longValue(), value);
+      return;
+    }
+
+    if (key instanceof Double && Double.isNaN(((Double) key).doubleValue())) {
+      throw new IllegalArgumentException("table index is NaN");
+    }
+
+    value = Conversions.canonicalRepresentationOf(value);
+    invalidateStamp();
+
+    if (weak != null) {
+      weak.rawset(key, value);
+    } else if (value == null) {
+      hash.remove(key);
+    } else {
+      hashPut(key, value);
+    }
+
+    updateBasetableModes(key, value);
+  }
+
+  @Override
+  public void rawset(long idx, Object value) {
+    value = Conversions.canonicalRepresentationOf(value);
+    invalidateStamp();
+
+    if (idx > 0 && idx <= array.length) {
+      arraySet((int) (idx - 1), value);
+    } else if (weak != null) {
+      weak.rawset(idx, value);
+    } else if (value == null) {
+      hash.remove(Long.valueOf(idx));
+    } else if (idx == array.length + 1 && arrayCount == array.length && idx <= MAX_ARRAY_SIZE) {
+      // appending to a full array part
+      resizeArray(Math.max(MIN_ARRAY_SIZE, array.length << 1));
+      arraySet((int) (idx - 1), value);
+    } else {
+      hashPut(Long.valueOf(idx), value);
+    }
+
+    updateBorderHint(idx, value);
+  }
+
+  @Override
+  public long stamp() {
+    // entries of weak tables may disappear without being modified
+    return weak == null ? trackedStamp() : 0L;
+  }
+
+  private void arraySet(int i, Object value) {
+    Object old = array[i];
+    array[i] = value;
+    if (old == null) {
+      if (value != null) {
+        arrayCount += 1;
+      }
+    } else if (value == null) {
+      arrayCount -= 1;
+    }
+  }
+
+  private void hashPut(Object key, Object value) {
+    if (hash.size() >= hashCapacity && !hash.containsKey(key)) {
+      // no space left for the new key: recompute the sizes of both parts
+      rehash(key);
+
+      if (key instanceof Long) {
+        long k = ((Long) key).longValue();
+        if (k > 0 && k <= array.length) {
+          arraySet((int) (k - 1), value);
+          return;
+        }
+      }
+    }
+
+    hash.put(key, value);
+  }
+
+  private void rehash(Object extraKey) {
+    // nums[i] is the number of integer keys k such that 2^(i-1) < k <= 2^i
+    int[] nums = new int[MAX_BITS + 1];
+
+    int totalInt = 0;
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] != null) {
+        nums[ceilLog2(i + 1)] += 1;
+        totalInt += 1;
+      }
+    }
+
+    // total number of keys, including extraKey
+    int total = arrayCount + hash.size() + 1;
+
+    for (int i = hash.firstIndex(); i >= 0; i = hash.nextIndex(i)) {
+      totalInt += countIntegerKey(hash.keyAt(i), nums);
+    }
+    totalInt += countIntegerKey(extraKey, nums);
+
+    // compute the optimal size of the array part
+    int arraySize = 0;
+    int inArray = 0;
+    int a = 0;
+    for (int i = 0, twoToI = 1; i <= MAX_BITS && twoToI / 2 < totalInt; i++, twoToI <<= 1) {
+      a += nums[i];
+      if (a > twoToI / 2) {
+        arraySize = twoToI;
+        inArray = a;
+      }
+    }
+
+    resizeArray(arraySize);
+
+    hashCapacity = hashCapacityFor(total - inArray);
+  }
+
+  private static int countIntegerKey(Object key, int[] nums) {
+    if (key instanceof Long) {
+      long k = ((Long) key).longValue();
+      if (isArrayCandidate(k)) {
+        nums[ceilLog2(k)] += 1;
+        return 1;
+      }
+    }
+    return 0;
+  }
+
+  private void resizeArray(int newSize) {
+    int oldSize = array.length;
+    if (newSize == oldSize) {
+      return;
+    }
+
+    Object[] oldArray = array;
+    Object[] newArray = newSize > 0 ? new Object[newSize] : EMPTY_ARRAY;
+    System.arraycopy(oldArray, 0, newArray, 0, Math.min(oldSize, newSize));
+
+    array = newArray;
+
+    if (newSize < oldSize) {
+      // move the vanishing slice to the hash part
+      for (int i = newSize; i < oldSize; i++) {
+        Object v = oldArray[i];
+        if (v != null) {
+          arrayCount -= 1;
+          hash.put(Long.valueOf(i + 1), v);
+        }
+      }
+    } else if (!hash.isEmpty()) {
+      // move the keys that now belong to the array part from the hash part
+      for (int i = oldSize; i < newSize; i++) {
+        Object v = hash.remove(Long.valueOf(i + 1));
+        if (v != null) {
+          newArray[i] = v;
+          arrayCount += 1;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void ensureArrayCapacity(long size) {
+    if (weak != null) {
+      weak.ensureArrayCapacity(size);
+    } else if (size > array.length) {
+      resizeArray((int) Math.min(size, MAX_ARRAY_SIZE));
+    }
+  }
+
+  @Override
+  protected long findBorder() {
+    int n = array.length;
+    if (weak != null) {
+      return weak.rawlen();
+    } else if (n > 0 && array[n - 1] == null) {
+      // there is a border in the array part: binary search for it
+      int i = 0;
+      int j = n;
+      while (j - i > 1) {
+        int m = (i + j) >>> 1;
+        if (array[m - 1] == null) {
+          j = m;
+        } else {
+          i = m;
+        }
+      }
+      return i;
+    } else if (hash.isEmpty()) {
+      return n;
+    } else {
+      return super.findBorder();
+    }
+  }
+
+  private Object firstArrayKeyFrom(int i) {
+    for (; i < array.length; i++) {
+      if (array[i] != null) {
+        return Long.valueOf(i + 1);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Object initialKey() {
+    if (weak != null) {
+      return weak.initialKey();
+    }
+    Object k = firstArrayKeyFrom(0);
+    return k != null ? k : hash.getFirstKey();
+  }
+
+  @Override
+  public Object successorKeyOf(Object key) {
+    key = Conversions.normaliseKey(key);
+
+    if (weak != null) {
+      return weak.successorKeyOf(key);
+    }
+
+    if (key instanceof Long) {
+      long k = ((Long) key).longValue();
+      if (k > 0 && k <= array.length) {
+        Object next = firstArrayKeyFrom((int) k);
+        return next != null ? next : hash.getFirstKey();
+      }
+    }
+
+    try {
+      return hash.getSuccessorOf(key);
+    } catch (NoSuchElementException | NullPointerException ex) {
+      throw new IllegalArgumentException("invalid key to 'next'", ex);
+    }
+  }
+
+  @Override
+  protected void setMode(boolean weakKeys, boolean weakValues) {
+    if (weakKeys || weakValues) {
+      if (weak == null) {
+        toWeak(weakKeys, weakValues);
+      } else {
+        weak.setMode(weakKeys, weakValues);
+      }
+    } else if (weak != null) {
+      fromWeak();
+    }
+    invalidateStamp();
+  }
+
+  // moves all entries to a table implementing the weak modes
+  private void toWeak(boolean weakKeys, boolean weakValues) {
+    DefaultTable t = new DefaultTable(arrayCount + hash.size());
+    t.setMode(weakKeys, weakValues);
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] != null) {
+        t.rawset(Long.valueOf(i + 1), array[i]);
+      }
+    }
+    for (int i = hash.firstIndex(); i >= 0; i = hash.nextIndex(i)) {
+      t.rawset(hash.keyAt(i), hash.valueAt(i));
+    }
+
+    array = EMPTY_ARRAY;
+    arrayCount = 0;
+    hash.clear();
+    hashCapacity = hashCapacityFor(0);
+    weak = t;
+  }
+
+  // moves the live entries back from the weak table
+  private void fromWeak() {
+    DefaultTable t = weak;
+    // makes the values held by ephemeron keys strong again
+    t.setMode(false, false);
+    weak = null;
+
+    for (Object k = t.initialKey(); k != null; k = t.successorKeyOf(k)) {
+      Object v = t.rawget(k);
+      if (k instanceof Long) {
+        rawset(((Long) k).longValue(), v);
+      } else {
+        hashPut(k, v);
+      }
+    }
+  }
+
+  static class Factory implements TableFactory {
+
+    @Override
+    public Table newTable() {
+      return newTable(0, 0);
+    }
+
+    @Override
+    public Table newTable(int array, int hash) {
+      return new HybridTable(array, hash);
+    }
+  }
+
+}
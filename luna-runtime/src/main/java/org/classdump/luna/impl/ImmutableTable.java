@@ -156,6 +156,12 @@ public class ImmutableTable extends Table {
     return e != null ? e.value : null;
   }
 
+  @Override
+  public long stamp() {
+    // the contents never change
+    return trackedStamp();
+  }
+
   /**
    * Throws an {@link UnsupportedOperationException}, since this table is immutable.
    *
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The layout of a {@link ShapedTable}: an immutable mapping of keys to slot indices.
+ *
+ * <p>Shapes form a tree rooted in {@link #ROOT}, the empty shape. Adding a new key
+ * to a table of shape <i>S</i> moves the table to the child of <i>S</i> for that key.
+ * Tables that are built using the same keys in the same order therefore share the same
+ * shape.</p>
+ *
+ * <p>Shapes are shared by all tables in all states, and are safe to use from multiple
+ * threads. Shapes that are not used by any table may be reclaimed by the garbage
+ * collector.</p>
+ */
+final class Shape {
+
+  /**
+   * The maximum number of keys in a shape.
+   */
+  static final int MAX_SIZE = 32;
+
+  /**
+   * The maximum number of children of a shape.
+   */
+  static final int MAX_TRANSITIONS = 64;
+
+  // shapes up to this size are searched linearly
+  private static final int LINEAR_SEARCH_LIMIT = 8;
+
+  /**
+   * The empty shape.
+   */
+  static final Shape ROOT = new Shape(null, null);
+
+  private final Shape parent;  // keeps the ancestors alive
+  private final Object[] keys;  // keys[i] is the key in slot i
+  private final int[] hashes;  // hashes[i] is the hash code of keys[i]
+  private final Map<Object, Integer> index;  // null if keys.length <= LINEAR_SEARCH_LIMIT
+
+  // children indexed by key; guarded by this
+  private Map<Object, WeakReference<Shape>> transitions;
+
+  // most recently followed transition, read without locking
+  private volatile Transition lastTransition;
+
+  private Shape(Shape parent, Object key) {
+    this.parent = parent;
+
+    if (parent == null) {
+      this.keys = new Object[0];
+      this.hashes = new int[0];
+      this.index = null;
+    } else {
+      int n = parent.keys.length;
+      Object[] ks = new Object[n + 1];
+      System.arraycopy(parent.keys, 0, ks, 0, n);
+      ks[n] = key;
+      this.keys = ks;
+
+      int[] hs = new int[n + 1];
+      System.arraycopy(parent.hashes, 0, hs, 0, n);
+      hs[n] = key.hashCode();
+      this.hashes = hs;
+
+      if (ks.length > LINEAR_SEARCH_LIMIT) {
+        Map<Object, Integer> idx = new HashMap<>();
+        for (int i = 0; i < ks.length; i++) {
+          idx.put(ks[i], i);
+        }
+        this.index = idx;
+      } else {
+        this.index = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of keys in this shape.
+   *
+   * @return the number of keys in this shape
+   */
+  int size() {
+    return keys.length;
+  }
+
+  /**
+   * Returns the key in the slot {@code slot}.
+   *
+   * @param slot the slot index
+   * @return the key in {@code slot}
+   */
+  Object keyAt(int slot) {
+    return keys[slot];
+  }
+
+  /**
+   * Returns the slot index of {@code key}, or {@code -1} if {@code key} is not
+   * in this shape.
+   *
+   * @param key the key, must not be {@code null}
+   * @return the slot index of {@code key}, or {@code -1}
+   */
+  int slotOf(Object key) {
+    if (index == null) {
+      // compare the hash codes first: they are cached by byte strings, unlike their bytes
+      Object[] ks = keys;
+      int[] hs = hashes;
+      int h = key.hashCode();
+      for (int i = 0; i < ks.length; i++) {
+        Object k = ks[i];
+        if (k == key || (hs[i] == h && k.equals(key))) {
+          return i;
+        }
+      }
+      return -1;
+    } else {
+      Integer i = index.get(key);
+      return i != null ? i.intValue() : -1;
+    }
+  }
+
+  /**
+   * Returns the shape obtained by adding {@code key} to this shape, or {@code null}
+   * if there is no such shape because this shape is too large or has too many children.
+   *
+   * <p>{@code key} must not be in this shape.</p>
+   *
+   * @param key the key to add, must not be {@code null}
+   * @return the child of this shape for {@code key}, or {@code null}
+   */
+  Shape withKey(Object key) {
+    Transition t = lastTransition;
+    if (t != null && (t.key == key || t.key.equals(key))) {
+      return t.shape;
+    }
+
+    if (keys.length >= MAX_SIZE) {
+      return null;
+    }
+
+    Shape child;
+    synchronized (this) {
+      if (transitions == null) {
+        transitions = new HashMap<>();
+      }
+
+      WeakReference<Shape> ref = transitions.get(key);
+      child = ref != null ? ref.get() : null;
+
+      if (child == null) {
+        if (transitions.size() >= MAX_TRANSITIONS) {
+          expungeTransitions();
+          if (transitions.size() >= MAX_TRANSITIONS) {
+            return null;
+          }
+        }
+        child = new Shape(this, key);
+        transitions.put(key, new WeakReference<>(child));
+      }
+    }
+
+    lastTransition = new Transition(key, child);
+    return child;
+  }
+
+  private void expungeTransitions() {
+    // guarded by this
+    Iterator<WeakReference<Shape>> it = transitions.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().get() == null) {
+        it.remove();
+      }
+    }
+  }
+
+  private static final class Transition {
+
+    final Object key;
+    final Shape shape;
+
+    Transition(Object key, Shape shape) {
+      this.key = key;
+      this.shape = shape;
+    }
+
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.impl;
+
+/**
+ * A cache remembering the slot of a key in a {@link ShapedTable}, meant to be used
+ * at a single table access site (such as a field access in compiled Lua code).
+ *
+ * <p>When the cache hits (i.e., the table has the same shape and the key is the same
+ * as in the previous access), the access is a shape check followed by an array access.
+ * After too many misses, the cache stops updating itself.</p>
+ *
+ * <p>Instances of this class are safe to be shared by multiple threads.</p>
+ *
+ * @see ShapedTable#rawget(Object, ShapeCache)
+ * @see ShapedTable#rawsetIfPresent(Object, Object, ShapeCache)
+ */
+public final class ShapeCache {
+
+  // number of misses after which the cache stops updating itself
+  private static final int MAX_MISSES = 16;
+
+  Entry entry;
+  private int misses;
+
+  /**
+   * Constructs a new empty cache.
+   */
+  public ShapeCache() {
+    this.entry = null;
+    this.misses = 0;
+  }
+
+  void update(Shape shape, Object key, int slot) {
+    // racy, but benign: entries are immutable
+    if (misses < MAX_MISSES) {
+      misses += 1;
+      entry = new Entry(shape, key, slot);
+    }
+  }
+
+  static final class Entry {
+
+    final Shape shape;
+    final Object key;
+    final int slot;
+
+    Entry(Shape shape, Object key, int slot) {
+      this.shape = shape;
+      this.key = key;
+      this.slot = slot;
+    }
+
+  }
+
+}
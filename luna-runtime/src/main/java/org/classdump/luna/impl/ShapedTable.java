@@ -0,0 +1,413 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.impl;
+
+import java.util.NoSuchElementException;
+import org.classdump.luna.ByteString;
+import org.classdump.luna.Conversions;
+import org.classdump.luna.Metatables;
+import org.classdump.luna.Table;
+import org.classdump.luna.TableFactory;
+import org.classdump.luna.util.OpenHashMap;
+
+/**
+ * An implementation of the Lua table optimised for records, i.e., tables with a small,
+ * fixed set of string keys.
+ *
+ * <p>The string keys of the table are described by a {@link Shape} shared with the other
+ * tables built using the same keys in the same order, and their values are stored in
+ * a plain array. All the remaining keys are stored in a hash map. Once the table has more
+ * than {@value Shape#MAX_SIZE} distinct string keys, it switches to the <i>dictionary
+ * mode</i>, storing all keys in the hash map.</p>
+ *
+ * <p>Assigning <b>nil</b> to a string key keeps the key in the shape of the table,
+ * so that the shape does not change when fields are cleared and set again.</p>
+ *
+ * <p>Accesses to the string keys may be sped up by a {@link ShapeCache}: see
+ * {@link #rawget(Object, ShapeCache)} and {@link #rawsetIfPresent(Object, Object, ShapeCache)}.
+ * </p>
+ *
+ * <p>Iteration visits the string keys (in the order in which they have been added
+ * to the table) before the remaining keys.</p>
+ *
+ * <p>Tables with weak keys or values (as determined by the {@code "__mode"} field
+ * of their metatable) are in the dictionary mode, and store all their entries
+ * in a {@link DefaultTable}, which implements the weak modes. They switch back to their
+ * own hash map (but remain in the dictionary mode) once they cease to be weak.</p>
+ */
+public class ShapedTable extends Table {
+
+  private static final TableFactory FACTORY_INSTANCE = new Factory();
+
+  private static final Object[] EMPTY_SLOTS = new Object[0];
+
+  private static final int MODE_KEY_HASH = Metatables.MT_MODE.hashCode();
+
+  private Shape shape;  // null iff in dictionary mode
+  private Object[] slots;  // slots[i] is the value of shape.keyAt(i), may be null
+  private OpenHashMap<Object, Object> hash;  // allocated lazily
+  private DefaultTable weak;  // holds all entries iff the table has weak keys or values
+
+  /**
+   * Constructs a new empty table.
+   */
+  public ShapedTable() {
+    this(0, 0);
+  }
+
+  /**
+   * Constructs a new empty table with space for {@code arraySize} integer keys and
+   * {@code fieldCount} string keys.
+   *
+   * <p>Negative sizes are treated as zero.</p>
+   *
+   * @param arraySize the expected number of integer keys
+   * @param fieldCount the expected number of string keys
+   */
+  public ShapedTable(int arraySize, int fieldCount) {
+    fieldCount = Math.min(Math.max(0, fieldCount), Shape.MAX_SIZE);
+
+    this.shape = Shape.ROOT;
+    this.slots = fieldCount > 0 ? new Object[fieldCount] : EMPTY_SLOTS;
+    this.hash = arraySize > 0 ? new OpenHashMap<Object, Object>(arraySize) : null;
+  }
+
+  /**
+   * Returns the table factory for constructing instances of {@code ShapedTable}.
+   *
+   * @return the table factory for {@code ShapedTable}s
+   */
+  public static TableFactory factory() {
+    return FACTORY_INSTANCE;
+  }
+
+  private OpenHashMap<Object, Object> hash() {
+    OpenHashMap<Object, Object> h = hash;
+    if (h == null) {
+      hash = h = new OpenHashMap<>();
+    }
+    return h;
+  }
+
+  @Override
+  public Object rawget(Object key) {
+    key = Conversions.normaliseKey(key);
+
+    if (key instanceof ByteString && shape != null) {
+      int i = shape.slotOf(key);
+      return i >= 0 ? slots[i] : null;
+    } else if (weak != null) {
+      return weak.rawget(key);
+    } else {
+      return key != null && hash != null ? hash.get(key) : null;
+    }
+  }
+
+  @Override
+  public Object rawget(long idx) {
+    if (hash != null) {
+      return hash.get(Long.valueOf(idx));
+    } else {
+      return weak != null ? weak.rawget(idx) : null;
+    }
+  }
+
+  /**
+   * Retrieves the value associated with the given {@code key}, using and updating
+   * the shape cache {@code cache}.
+   *
+   * <p>This method is functionally equivalent to {@link #rawget(Object)}.</p>
+   *
+   * @param key the key, may be {@code null}
+   * @param cache the shape cache, must not be {@code null}
+   * @return the value associated with {@code key}, or {@code null} when there is no value
+   * associated with {@code key} in this table
+   */
+  public Object rawget(Object key, ShapeCache cache) {
+    ShapeCache.Entry e = cache.entry;
+    if (e != null && e.shape == shape && (e.key == key || e.key.equals(key))) {
+      return slots[e.slot];
+    } else {
+      int i = cachedSlotOf(key, cache);
+      return i >= 0 ? slots[i] : rawget(key);
+    }
+  }
+
+  /**
+   * Sets the value associated with {@code key} to {@code value} if {@code key} already
+   * has a non-<b>nil</b> value associated with it, using and updating the shape cache
+   * {@code cache}. Returns {@code true} if the value has been set.
+   *
+   * <p>When this method returns {@code true}, its effect is equivalent to that of
+   * {@link #rawset(Object, Object)}. Otherwise, the method has no effect.</p>
+   *
+   * @param key the key, may be {@code null}
+   * @param value the value, may be {@code null}
+   * @param cache the shape cache, must not be {@code null}
+   * @return {@code true} if the value associated with {@code key} has been set
+   */
+  public boolean rawsetIfPresent(Object key, Object value, ShapeCache cache) {
+    int i;
+    ShapeCache.Entry e = cache.entry;
+    if (e != null && e.shape == shape && (e.key == key || e.key.equals(key))) {
+      i = e.slot;
+    } else {
+      i = cachedSlotOf(key, cache);
+    }
+
+    if (i >= 0 && slots[i] != null) {
+      slots[i] = Conversions.canonicalRepresentationOf(value);
+      invalidateStamp();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  private static boolean isModeKey(Object key) {
+    // byte strings cache their hash codes, but not their bytes
+    return key.hashCode() == MODE_KEY_HASH && Metatables.MT_MODE.equals(key);
+  }
+
+  private int cachedSlotOf(Object key, ShapeCache cache) {
+    // setting the mode of the table must go through rawset
+    if (key instanceof ByteString && shape != null && !isModeKey(key)) {
+      int i = shape.slotOf(key);
+      if (i >= 0) {
+        cache.update(shape, key, i);
+      }
+      return i;
+    } else {
+      return -1;
+    }
+  }
+
+  @Override
+  public void rawset(Object key, Object value) {
+    key = Conversions.normaliseKey(key);
+
+    if (key == null) {
+      throw new IllegalArgumentException("table index is nil");
+    }
+
+    if (key instanceof Long) {
+      rawset(((Long) key).longValue(), value);
+      return;
+    }
+
+    if (key instanceof Double && Double.isNaN(((Double) key).doubleValue())) {
+      throw new IllegalArgumentException("table index is NaN");
+    }
+
+    value = Conversions.canonicalRepresentationOf(value);
+    invalidateStamp();
+
+    if (key instanceof ByteString && shape != null) {
+      shapedSet(key, value);
+    } else if (weak != null) {
+      weak.rawset(key, value);
+    } else if (value == null) {
+      if (hash != null) {
+        hash.remove(key);
+      }
+    } else {
+      hash().put(key, value);
+    }
+
+    updateBasetableModes(key, value);
+  }
+
+  @Override
+  public long stamp() {
+    // entries of weak tables may disappear without being modified
+    return weak == null ? trackedStamp() : 0L;
+  }
+
+  private void shapedSet(Object key, Object value) {
+    int i = shape.slotOf(key);
+    if (i >= 0) {
+      slots[i] = value;
+    } else if (value != null) {
+      Shape s = shape.withKey(key);
+      if (s != null) {
+        i = s.size() - 1;
+        if (i >= slots.length) {
+          Object[] newSlots = new Object[Math.min(Shape.MAX_SIZE, Math.max(4, slots.length * 2))];
+          System.arraycopy(slots, 0, newSlots, 0, slots.length);
+          slots = newSlots;
+        }
+        slots[i] = value;
+        shape = s;
+      } else {
+        toDictionary();
+        hash.put(key, value);
+      }
+    }
+  }
+
+  private void toDictionary() {
+    OpenHashMap<Object, Object> h = hash();
+    h.ensureCapacity(h.size() + shape.size());
+    for (int i = 0; i < shape.size(); i++) {
+      Object v = slots[i];
+      if (v != null) {
+        h.put(shape.keyAt(i), v);
+      }
+    }
+    shape = null;
+    slots = EMPTY_SLOTS;
+  }
+
+  @Override
+  public void rawset(long idx, Object value) {
+    value = Conversions.canonicalRepresentationOf(value);
+    invalidateStamp();
+
+    if (weak != null) {
+      weak.rawset(idx, value);
+    } else if (value == null) {
+      if (hash != null) {
+        hash.remove(Long.valueOf(idx));
+      }
+    } else {
+      hash().put(Long.valueOf(idx), value);
+    }
+
+    updateBorderHint(idx, value);
+  }
+
+  @Override
+  public void ensureArrayCapacity(long size) {
+    if (weak != null) {
+      weak.ensureArrayCapacity(size);
+      return;
+    }
+    OpenHashMap<Object, Object> h = hash();
+    // size counts the entries already present in the array part
+    long expected = Math.max(size, h.size());
+    h.ensureCapacity((int) Math.min(expected, Integer.MAX_VALUE));
+  }
+
+  private Object firstSlotKeyFrom(int i) {
+    if (shape != null) {
+      for (int n = shape.size(); i < n; i++) {
+        if (slots[i] != null) {
+          return shape.keyAt(i);
+        }
+      }
+    }
+    return null;
+  }
+
+  private Object firstHashKey() {
+    return hash != null ? hash.getFirstKey() : null;
+  }
+
+  @Override
+  public Object initialKey() {
+    if (weak != null) {
+      return weak.initialKey();
+    }
+    Object k = firstSlotKeyFrom(0);
+    return k != null ? k : firstHashKey();
+  }
+
+  @Override
+  public Object successorKeyOf(Object key) {
+    key = Conversions.normaliseKey(key);
+
+    if (key instanceof ByteString && shape != null) {
+      int i = shape.slotOf(key);
+      if (i >= 0) {
+        Object next = firstSlotKeyFrom(i + 1);
+        return next != null ? next : firstHashKey();
+      }
+    }
+
+    if (weak != null) {
+      return weak.successorKeyOf(key);
+    }
+
+    try {
+      if (hash == null) {
+        throw new NoSuchElementException();
+      }
+      return hash.getSuccessorOf(key);
+    } catch (NoSuchElementException | NullPointerException ex) {
+      throw new IllegalArgumentException("invalid key to 'next'", ex);
+    }
+  }
+
+  @Override
+  protected void setMode(boolean weakKeys, boolean weakValues) {
+    if (weakKeys || weakValues) {
+      if (weak == null) {
+        toWeak(weakKeys, weakValues);
+      } else {
+        weak.setMode(weakKeys, weakValues);
+      }
+    } else if (weak != null) {
+      fromWeak();
+    }
+    invalidateStamp();
+  }
+
+  // moves all entries to a table implementing the weak modes
+  private void toWeak(boolean weakKeys, boolean weakValues) {
+    if (shape != null) {
+      toDictionary();
+    }
+
+    OpenHashMap<Object, Object> h = hash;
+    DefaultTable t = new DefaultTable(h != null ? h.size() : 0);
+    t.setMode(weakKeys, weakValues);
+    if (h != null) {
+      for (int i = h.firstIndex(); i >= 0; i = h.nextIndex(i)) {
+        t.rawset(h.keyAt(i), h.valueAt(i));
+      }
+    }
+
+    hash = null;
+    weak = t;
+  }
+
+  // moves the live entries back from the weak table
+  private void fromWeak() {
+    DefaultTable t = weak;
+    // makes the values held by ephemeron keys strong again
+    t.setMode(false, false);
+    weak = null;
+
+    for (Object k = t.initialKey(); k != null; k = t.successorKeyOf(k)) {
+      hash().put(k, t.rawget(k));
+    }
+  }
+
+  static class Factory implements TableFactory {
+
+    @Override
+    public Table newTable() {
+      return newTable(0, 0);
+    }
+
+    @Override
+    public Table newTable(int array, int hash) {
+      return new ShapedTable(array, hash);
+    }
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.impl;
+
+import org.classdump.luna.Table;
+
+/**
+ * A cache remembering the value of a key in a table guarded by the {@linkplain Table#stamp()
+ * stamp} of the table, meant to be used at a single table access site (such as a global
+ * variable access in compiled Lua code).
+ *
+ * <p>When the cache hits (i.e., the table has the same stamp and the key is the same as
+ * in the previous access), the access is a stamp check and a field load, regardless
+ * of the implementation of the table. Since stamps are unique across tables, the cache does
+ * not keep a reference to the table. After too many misses, the cache stops updating
+ * itself.</p>
+ *
+ * <p>Only non-<b>nil</b> values are cached, so that the result of a cache hit does not
+ * depend on the metatable of the table.</p>
+ *
+ * <p>Instances of this class are safe to be shared by multiple threads.</p>
+ *
+ * @see Table#stamp()
+ */
+public final class StampCache {
+
+  // number of misses after which the cache stops updating itself
+  private static final int MAX_MISSES = 16;
+
+  private Entry entry;
+  private int misses;
+
+  /**
+   * Constructs a new empty cache.
+   */
+  public StampCache() {
+    this.entry = null;
+    this.misses = 0;
+  }
+
+  /**
+   * Retrieves the value associated with the given {@code key} in {@code table}, using
+   * and updating this cache.
+   *
+   * <p>This method is functionally equivalent to {@link Table#rawget(Object)}.</p>
+   *
+   * @param table the table, must not be {@code null}
+   * @param key the key, may be {@code null}
+   * @return the value associated with {@code key} in {@code table}, or {@code null} when
+   * there is no value associated with {@code key} in {@code table}
+   * @throws NullPointerException if {@code table} is {@code null}
+   */
+  public Object rawget(Table table, Object key) {
+    long stamp = table.stamp();
+    Entry e = entry;
+    if (stamp != 0L && e != null && e.stamp == stamp && (e.key == key || e.key.equals(key))) {
+      return e.value;
+    }
+
+    Object value = table.rawget(key);
+    // racy, but benign: entries are immutable
+    if (stamp != 0L && value != null && key != null && misses < MAX_MISSES) {
+      misses += 1;
+      entry = new Entry(stamp, key, value);
+    }
+    return value;
+  }
+
+  private static final class Entry {
+
+    final long stamp;
+    final Object key;
+    final Object value;
+
+    Entry(long stamp, Object key, Object value) {
+      this.stamp = stamp;
+      this.key = key;
+      this.value = value;
+    }
+
+  }
+
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.classdump.luna.Variable;
+import org.classdump.luna.runtime.LuaFunction;
+import org.classdump.luna.util.ByteVector;
+
+/**
+ * Luna binary chunks: the serialised form of {@linkplain CompiledChunk compiled chunks}.
+ *
+ * <p>A binary chunk consists of the signature {@code "\x1bLuna"}, a format version, the name
+ * of the main class and the class files of the main class and the classes of the functions
+ * nested in it. The classes are defined again when the binary chunk is loaded, without
+ * compiling any Lua code.</p>
+ *
+ * <p>Binary chunks are specific to Luna, and are not compatible with the binary chunks
+ * of PUC-Lua. Like those of PUC-Lua, they are not verified when loaded, and should only be
+ * loaded from trusted sources. The Lua functions {@code load}, {@code loadfile}
+ * and {@code dofile} therefore only accept binary chunks when explicitly enabled
+ * by the host.</p>
+ */
+public final class BinaryChunks {
+
+  /**
+   * The first byte of every binary chunk, used to distinguish binary chunks from text chunks.
+   */
+  public static final byte SIGNATURE_BYTE = 0x1b;
+
+  private static final byte[] SIGNATURE = {SIGNATURE_BYTE, 'L', 'u', 'n', 'a'};
+  private static final int FORMAT_VERSION = 1;
+
+  // limits on the contents of binary chunks, so that malformed chunks are rejected
+  // before any memory is allocated for them
+  private static final int MAX_CLASSES = 1 << 16;
+  private static final int MAX_CLASS_FILE_LENGTH = 1 << 26;
+
+  // class files are read in blocks of at most this size, so that a truncated chunk
+  // does not allocate more than it contains
+  private static final int READ_BLOCK_SIZE = 1 << 16;
+
+  private static final String CLASS_FILE_SUFFIX = ".class";
+
+  // the package of the classes emitted by the compiler
+  private static final String COMPILED_CLASS_PREFIX = "luna_dynamic.";
+
+  private BinaryChunks() {
+    // not to be instantiated
+  }
+
+  private static class SimpleCompiledChunk implements CompiledChunk {
+
+    private final Map<String, ByteVector> classMap;
+    private final String mainClassName;
+
+    SimpleCompiledChunk(Map<String, ByteVector> classMap, String mainClassName) {
+      this.classMap = Collections.unmodifiableMap(classMap);
+      this.mainClassName = mainClassName;
+    }
+
+    @Override
+    public Map<String, ByteVector> classMap() {
+      return classMap;
+    }
+
+    @Override
+    public String mainClassName() {
+      return mainClassName;
+    }
+
+  }
+
+  /**
+   * Returns {@code true} iff the {@code len} bytes in {@code bytes} starting at {@code offset}
+   * should be treated as a binary chunk rather than as a text chunk, i.e., iff they start
+   * with {@link #SIGNATURE_BYTE}.
+   *
+   * @param bytes the byte array, must not be {@code null}
+   * @param offset the offset of the chunk in {@code bytes}
+   * @param len the length of the chunk
+   * @return {@code true} iff the chunk is a binary chunk
+   * @throws NullPointerException if {@code bytes} is {@code null}
+   */
+  public static boolean isBinaryChunk(byte[] bytes, int offset, int len) {
+    return len > 0 && bytes[offset] == SIGNATURE_BYTE;
+  }
+
+  /**
+   * Writes the compiled chunk {@code chunk} to the output stream {@code out} as a binary chunk.
+   *
+   * <p>The stream is not closed by this method.</p>
+   *
+   * @param chunk the compiled chunk, must not be {@code null}
+   * @param out the output stream, must not be {@code null}
+   * @throws IOException if an I/O error occurs
+   * @throws NullPointerException if {@code chunk} or {@code out} is {@code null}
+   */
+  public static void write(CompiledChunk chunk, OutputStream out) throws IOException {
+    Map<String, ByteVector> classMap = chunk.classMap();
+    DataOutputStream dos = new DataOutputStream(Objects.requireNonNull(out));
+    dos.write(SIGNATURE);
+    dos.writeInt(FORMAT_VERSION);
+    dos.writeUTF(chunk.mainClassName());
+    dos.writeInt(classMap.size());
+    for (Map.Entry<String, ByteVector> e : classMap.entrySet()) {
+      byte[] bytes = e.getValue().copyToNewArray();
+      dos.writeUTF(e.getKey());
+      dos.writeInt(bytes.length);
+      dos.write(bytes);
+    }
+    dos.flush();
+  }
+
+  /**
+   * Reads a binary chunk from the input stream {@code in}.
+   *
+   * <p>The stream is not closed by this method.</p>
+   *
+   * @param in the input stream, must not be {@code null}
+   * @return the compiled chunk read from {@code in}
+   * @throws IOException if an I/O error occurs, or if the contents of {@code in} are not
+   * a binary chunk
+   * @throws NullPointerException if {@code in} is {@code null}
+   */
+  public static CompiledChunk read(InputStream in) throws IOException {
+    DataInputStream dis = new DataInputStream(Objects.requireNonNull(in));
+
+    for (byte b : SIGNATURE) {
+      if (dis.read() != (b & 0xff)) {
+        throw new IOException("not a binary chunk");
+      }
+    }
+
+    try {
+      return readContents(dis);
+    } catch (EOFException ex) {
+      throw new IOException("malformed binary chunk (truncated)", ex);
+    }
+  }
+
+  // reads exactly len bytes from in, allocating no more than has been read
+  private static byte[] readBytes(DataInputStream in, int len) throws IOException {
+    byte[] bytes = new byte[Math.min(len, READ_BLOCK_SIZE)];
+    int n = 0;
+    while (n < len) {
+      if (n == bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.min(len, n + Math.max(n, READ_BLOCK_SIZE)));
+      }
+      int k = in.read(bytes, n, bytes.length - n);
+      if (k < 0) {
+        throw new EOFException();
+      }
+      n += k;
+    }
+    return bytes;
+  }
+
+  private static CompiledChunk readContents(DataInputStream dis) throws IOException {
+    int version = dis.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("version mismatch (binary chunk format " + version
+          + ", expected " + FORMAT_VERSION + ")");
+    }
+
+    String mainClassName = dis.readUTF();
+    int n = dis.readInt();
+    if (n < 1 || n > MAX_CLASSES) {
+      throw new IOException("malformed binary chunk (illegal number of classes: " + n + ")");
+    }
+
+    Map<String, ByteVector> classMap = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      String name = dis.readUTF();
+      int len = dis.readInt();
+      if (len < 0 || len > MAX_CLASS_FILE_LENGTH) {
+        throw new IOException("malformed binary chunk (illegal class file length: " + len + ")");
+      }
+      classMap.put(name, ByteVector.wrap(readBytes(dis, len)));
+    }
+
+    if (!classMap.containsKey(mainClassName)) {
+      throw new IOException("malformed binary chunk (no main class)");
+    }
+
+    return new SimpleCompiledChunk(classMap, mainClassName);
+  }
+
+  private static byte[] classFile(ClassLoader classLoader, String className) throws IOException {
+    if (classLoader instanceof ChunkClassLoader) {
+      ByteVector bv = ((ChunkClassLoader) classLoader).classFile(className);
+      if (bv != null) {
+        return bv.copyToNewArray();
+      }
+    }
+
+    InputStream in = classLoader != null
+        ? classLoader.getResourceAsStream(className.replace('.', '/') + CLASS_FILE_SUFFIX)
+        : null;
+    if (in == null) {
+      throw new IOException("class file not found: " + className);
+    }
+
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        out.write(buf, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  // returns the names of the classes referenced from the constant pool of classFile
+  private static List<String> referencedClasses(byte[] classFile) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+    if (in.readInt() != 0xcafebabe) {
+      throw new IOException("not a class file");
+    }
+    in.readUnsignedShort();  // minor version
+    in.readUnsignedShort();  // major version
+
+    int count = in.readUnsignedShort();
+    String[] utf8 = new String[count];
+    List<Integer> classIndices = new ArrayList<>();
+
+    for (int i = 1; i < count; i++) {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case 1:  // Utf8
+          utf8[i] = in.readUTF();
+          break;
+        case 7:  // Class
+          classIndices.add(in.readUnsignedShort());
+          break;
+        case 8:  // String
+        case 16:  // MethodType
+          in.skipBytes(2);
+          break;
+        case 15:  // MethodHandle
+          in.skipBytes(3);
+          break;
+        case 3:  // Integer
+        case 4:  // Float
+        case 9:  // Fieldref
+        case 10:  // Methodref
+        case 11:  // InterfaceMethodref
+        case 12:  // NameAndType
+        case 18:  // InvokeDynamic
+          in.skipBytes(4);
+          break;
+        case 5:  // Long
+        case 6:  // Double
+          in.skipBytes(8);
+          i += 1;  // takes up two entries
+          break;
+        default:
+          throw new IOException("illegal constant pool tag: " + tag);
+      }
+    }
+
+    List<String> result = new ArrayList<>();
+    for (int idx : classIndices) {
+      if (idx > 0 && idx < count && utf8[idx] != null) {
+        result.add(utf8[idx].replace('/', '.'));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the compiled chunk consisting of the class of the Lua function {@code fn}
+   * and the classes of the functions nested in it.
+   *
+   * <p>Only functions compiled from Lua code can be dumped, and only if their class files
+   * are available from the class loader that defined them: this is the case for functions
+   * loaded using a {@link ChunkClassLoader} that {@linkplain ChunkClassLoader#retainsClassFiles()
+   * retains their class files}, and for functions loaded from class files
+   * using a class loader that provides them as resources.</p>
+   *
+   * @param fn the function to dump, must not be {@code null}
+   * @return the compiled chunk of {@code fn}
+   * @throws NullPointerException if {@code fn} is {@code null}
+   * @throws IOException if the class files of {@code fn} are not available
+   */
+  public static CompiledChunk dump(LuaFunction fn) throws IOException {
+    Class<?> c = fn.getClass();
+    ClassLoader classLoader = c.getClassLoader();
+    String mainClassName = c.getName();
+    if (!mainClassName.startsWith(COMPILED_CLASS_PREFIX)) {
+      throw new IOException("not a compiled Lua function: " + mainClassName);
+    }
+    String nestedPrefix = mainClassName + "$";
+
+    Map<String, ByteVector> classMap = new LinkedHashMap<>();
+    Deque<String> open = new ArrayDeque<>();
+    open.add(mainClassName);
+
+    while (!open.isEmpty()) {
+      String name = open.poll();
+      if (!classMap.containsKey(name)) {
+        byte[] bytes = classFile(classLoader, name);
+        classMap.put(name, ByteVector.wrap(bytes));
+        for (String ref : referencedClasses(bytes)) {
+          if (ref.startsWith(nestedPrefix)) {
+            open.add(ref);
+          }
+        }
+      }
+    }
+
+    return new SimpleCompiledChunk(classMap, mainClassName);
+  }
+
+  /**
+   * Defines the classes of the compiled chunk {@code chunk} in a new {@link ChunkClassLoader}
+   * with the parent {@code parent}, and returns its main class.
+   *
+   * <p>Every binary chunk is defined in a class loader of its own, so that a chunk may be loaded
+   * any number of times, and the class names in the chunk do not clash with the classes
+   * defined elsewhere.</p>
+   *
+   * @param chunk the compiled chunk, must not be {@code null}
+   * @param parent the parent class loader, may be {@code null} to use the bootstrap class
+   * loader
+   * @param chunkName the chunk name, used in error messages
+   * @return the main class of {@code chunk}
+   * @throws NullPointerException if {@code chunk} is {@code null}
+   * @throws LoaderException if the main class of {@code chunk} cannot be defined, or is not
+   * a Lua function
+   */
+  public static Class<? extends LuaFunction> define(CompiledChunk chunk, ClassLoader parent,
+      String chunkName) throws LoaderException {
+
+    ChunkClassLoader classLoader = new ChunkClassLoader(parent);
+    String mainClassName = classLoader.install(chunk);
+    try {
+      Class<?> c = classLoader.loadClass(mainClassName);
+      if (!LuaFunction.class.isAssignableFrom(c)) {
+        throw new ClassCastException("not a Lua function: " + mainClassName);
+      }
+      return c.asSubclass(LuaFunction.class);
+    } catch (ClassNotFoundException | LinkageError | ClassCastException ex) {
+      throw new LoaderException(ex, chunkName);
+    }
+  }
+
+  /**
+   * Returns a new instance of the Lua function class {@code fnClass} defined from
+   * a binary chunk, setting its first upvalue to {@code env} and all other upvalues
+   * to fresh variables containing <b>nil</b>.
+   *
+   * @param fnClass the function class, must not be {@code null}
+   * @param env the first upvalue, must not be {@code null}
+   * @param chunkName the chunk name, used in error messages
+   * @return a new instance of {@code fnClass}
+   * @throws NullPointerException if {@code fnClass} or {@code env} is {@code null}
+   * @throws LoaderException if {@code fnClass} cannot be instantiated
+   */
+  public static LuaFunction newInstance(Class<? extends LuaFunction> fnClass, Variable env,
+      String chunkName) throws LoaderException {
+    Objects.requireNonNull(env);
+
+    try {
+      for (Constructor<?> ctor : fnClass.getConstructors()) {
+        Class<?>[] types = ctor.getParameterTypes();
+        boolean upvaluesOnly = true;
+        for (Class<?> t : types) {
+          upvaluesOnly &= t == Variable.class;
+        }
+
+        if (upvaluesOnly) {
+          Object[] args = new Object[types.length];
+          for (int i = 0; i < args.length; i++) {
+            args[i] = i == 0 ? env : new Variable(null);
+          }
+          return (LuaFunction) ctor.newInstance(args);
+        }
+      }
+      throw new NoSuchMethodException("no upvalue constructor in " + fnClass.getName());
+    } catch (RuntimeException | LinkageError | ReflectiveOperationException ex) {
+      throw new LoaderException(ex, chunkName);
+    }
+  }
+
+  /**
+   * Loads the binary chunk consisting of the {@code len} bytes in {@code bytes} starting
+   * at {@code offset}, defining its classes in a new {@link ChunkClassLoader} with the parent
+   * {@code parent}, and returns a new instance of its main function with the first upvalue
+   * set to {@code env}.
+   *
+   * @param parent the parent class loader, may be {@code null} to use the bootstrap class
+   * loader
+   * @param env the first upvalue of the function, must not be {@code null}
+   * @param chunkName the chunk name, must not be {@code null}
+   * @param bytes the byte array containing the binary chunk, must not be {@code null}
+   * @param offset the offset of the binary chunk in {@code bytes}
+   * @param len the length of the binary chunk
+   * @return a new instance of the main function of the binary chunk
+   * @throws NullPointerException if {@code env}, {@code chunkName} or {@code bytes} is {@code
+   * null}
+   * @throws LoaderException if the binary chunk is malformed or cannot be loaded
+   */
+  public static LuaFunction load(ClassLoader parent, Variable env, String chunkName,
+      byte[] bytes, int offset, int len) throws LoaderException {
+    Objects.requireNonNull(env);
+    Objects.requireNonNull(chunkName);
+
+    final CompiledChunk chunk;
+    try {
+      chunk = read(new ByteArrayInputStream(bytes, offset, len));
+    } catch (IOException ex) {
+      throw new LoaderException(ex, chunkName);
+    }
+
+    return newInstance(define(chunk, parent, chunkName), env, chunkName);
+  }
+
+}
@@ -16,35 +16,74 @@
 
 package org.classdump.luna.load;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.classdump.luna.util.ByteVector;
 
 /**
  * Class loader for Lua chunks.
+ *
+ * <p>This class loader is parallel capable: chunks may be installed and their classes
+ * loaded from multiple threads concurrently.</p>
+ *
+ * <p>By default, the class files of loaded classes are retained for as long as the class loader
+ * itself is reachable (see {@link #classFile(String)}), so that the functions they implement
+ * can always be {@linkplain BinaryChunks#dump(org.classdump.luna.runtime.LuaFunction) dumped}.
+ * Class loaders constructed with {@code retainClassFiles} set to {@code false} discard
+ * the class file of every class once it has been defined; the functions they load cannot
+ * be dumped.</p>
+ *
+ * <p>Installed classes are defined by this class loader without delegating to the parent
+ * class loader first. Like all classes, they may only be unloaded together with the class
+ * loader that defined them: chunks that should be garbage-collected individually must be
+ * installed into class loaders of their own.</p>
  */
 public class ChunkClassLoader extends ClassLoader {
 
+  static {
+    registerAsParallelCapable();
+  }
+
   private final Map<String, ByteVector> installed;
-  private final Set<String> loaded;
+  private final Map<String, ByteVector> loaded;
+  private final boolean retainClassFiles;
+
+  // stands in for the class files of loaded classes that are not retained
+  private static final ByteVector DISCARDED = ByteVector.wrap(new byte[0]);
 
   /**
    * Constructs a new {@code ChunkClassLoader} with the specified class loader {@code parent}
-   * as its parent in the class loading hierarchy.
+   * as its parent in the class loading hierarchy. If {@code retainClassFiles} is {@code true},
+   * the class files of loaded classes are retained by this class loader; otherwise, they
+   * are discarded once their classes have been defined.
    *
    * @param parent the parent class loader
+   * @param retainClassFiles if {@code true}, retain the class files of loaded classes
    */
-  public ChunkClassLoader(ClassLoader parent) {
+  public ChunkClassLoader(ClassLoader parent, boolean retainClassFiles) {
     super(parent);
-    this.installed = new HashMap<>();
-    this.loaded = new HashSet<>();
+    this.installed = new ConcurrentHashMap<>();
+    this.loaded = new ConcurrentHashMap<>();
+    this.retainClassFiles = retainClassFiles;
+  }
+
+  /**
+   * Constructs a new {@code ChunkClassLoader} with the specified class loader {@code parent}
+   * as its parent in the class loading hierarchy. The class files of loaded classes
+   * are retained.
+   *
+   * @param parent the parent class loader
+   */
+  public ChunkClassLoader(ClassLoader parent) {
+    this(parent, true);
   }
 
   /**
    * Constructs a new {@code ChunkClassLoader} using the class loader that loaded
-   * the {@code ChunkClassLoader} class as the parent class loader.
+   * the {@code ChunkClassLoader} class as the parent class loader. The class files of loaded
+   * classes are retained.
    */
   public ChunkClassLoader() {
     this(ChunkClassLoader.class.getClassLoader());
@@ -66,9 +105,10 @@ public class ChunkClassLoader extends ClassLoader {
   public String install(CompiledChunk chunk) {
     Map<String, ByteVector> classes = chunk.classMap();
 
-    synchronized (this) {
+    // only guards against concurrent installs of the same class names
+    synchronized (installed) {
       for (String name : classes.keySet()) {
-        if (installed.containsKey(name) || loaded.contains(name)) {
+        if (installed.containsKey(name) || loaded.containsKey(name)) {
           // class already installed
           throw new IllegalStateException("Class already installed: " + name);
         }
@@ -92,22 +132,84 @@ public class ChunkClassLoader extends ClassLoader {
    * @throws NullPointerException if {@code className} is {@code null}
    */
   public boolean isInstalled(String className) {
-    synchronized (this) {
-      return installed.containsKey(className) || loaded.contains(className);
+    return installed.containsKey(className) || loaded.containsKey(className);
+  }
+
+  /**
+   * Returns the class file of the class {@code className} installed into this
+   * {@code ChunkClassLoader}, or {@code null} if no such class has been installed, or if
+   * the class has been loaded and this class loader does not retain the class files
+   * of loaded classes.
+   *
+   * @param className the class name, must not be {@code null}
+   * @return the class file of {@code className}, or {@code null} if {@code className} has not
+   * been installed into this class loader or its class file has not been retained
+   * @throws NullPointerException if {@code className} is {@code null}
+   */
+  public ByteVector classFile(String className) {
+    ByteVector bv = loaded.get(className);
+    if (bv != null) {
+      return bv != DISCARDED ? bv : null;
+    } else {
+      return installed.get(className);
     }
   }
 
+  /**
+   * Returns {@code true} if this class loader retains the class files of the classes
+   * it has loaded.
+   *
+   * @return {@code true} iff the class files of loaded classes are retained
+   */
+  public boolean retainsClassFiles() {
+    return retainClassFiles;
+  }
+
   @Override
-  protected Class<?> findClass(String name) throws ClassNotFoundException {
-    synchronized (this) {
-      ByteVector bv = installed.remove(name);
+  public InputStream getResourceAsStream(String name) {
+    String suffix = ".class";
+    if (name.endsWith(suffix)) {
+      String className = name.substring(0, name.length() - suffix.length()).replace('/', '.');
+      ByteVector bv = classFile(className);
       if (bv != null) {
-        loaded.add(name);
-        return defineClass(name, bv);
-      } else {
-        throw new ClassNotFoundException(name);
+        return new ByteArrayInputStream(bv.copyToNewArray());
       }
     }
+    return super.getResourceAsStream(name);
+  }
+
+  @Override
+  protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    if (isInstalled(name)) {
+      // installed classes are defined here without consulting the parent first, so that
+      // the parent does not keep track of the names of the classes of every chunk
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> c = findLoadedClass(name);
+        if (c == null) {
+          c = findClass(name);
+        }
+        if (resolve) {
+          resolveClass(c);
+        }
+        return c;
+      }
+    } else {
+      return super.loadClass(name, resolve);
+    }
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    // loadClass holds the class loading lock for name; mark the class as loaded
+    // before removing it so that it is always reported by isInstalled
+    ByteVector bv = installed.get(name);
+    if (bv != null) {
+      loaded.put(name, retainClassFiles ? bv : DISCARDED);
+      installed.remove(name);
+      return defineClass(name, bv);
+    } else {
+      throw new ClassNotFoundException(name);
+    }
   }
 
   private Class<?> defineClass(String name, ByteVector bytes) {
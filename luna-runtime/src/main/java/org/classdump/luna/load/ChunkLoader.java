@@ -47,8 +47,31 @@ public interface ChunkLoader {
   LuaFunction<Variable, ?, ?, ?, ?> loadTextChunk(Variable env, String chunkName, String chunk)
       throws LoaderException;
 
-  // TODO: binary chunks
-//	LuaFunction loadBinaryChunk(Variable env, String chunkName, byte[] chunk, int offset, int len) throws LoaderException;
+  /**
+   * Loads the {@linkplain BinaryChunks binary chunk} consisting of the {@code len} bytes
+   * in {@code chunk} starting at {@code offset}, and returns it as an instance of
+   * {@link LuaFunction}, supplying {@code env} as the value of its first upvalue.
+   *
+   * <p>The default implementation defines the classes of the binary chunk in a new
+   * {@link ChunkClassLoader} whose parent is the class loader of this chunk loader.</p>
+   *
+   * <p>If {@code chunk} is not a valid binary chunk, a {@link LoaderException} is thrown.</p>
+   *
+   * @param env the variable to be used as the first upvalue of {@code chunk}, must not be {@code
+   * null}
+   * @param chunkName chunk name, must not be {@code null}
+   * @param chunk the byte array containing the binary chunk, must not be {@code null}
+   * @param offset the offset of the binary chunk in {@code chunk}
+   * @param len the length of the binary chunk
+   * @return a function object
+   * @throws LoaderException if {@code chunk} cannot be converted to a Lua function object
+   * @throws NullPointerException if {@code env}, {@code chunkName} or {@code chunk} is {@code
+   * null}
+   */
+  default LuaFunction<?, ?, ?, ?, ?> loadBinaryChunk(Variable env, String chunkName,
+      byte[] chunk, int offset, int len) throws LoaderException {
+    return BinaryChunks.load(getClass().getClassLoader(), env, chunkName, chunk, offset, len);
+  }
 
   /**
    * Compiles the text chunk {@code chunk} (a string containing a Lua program) and returns it
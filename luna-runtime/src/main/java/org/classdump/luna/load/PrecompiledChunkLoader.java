@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.classdump.luna.Variable;
+import org.classdump.luna.runtime.LuaFunction;
+
+/**
+ * A chunk loader that loads chunks compiled ahead of time, without parsing or compiling
+ * them.
+ *
+ * <p>Precompiled chunks are described by index resources named {@link #INDEX_RESOURCE_NAME}
+ * (as written by the ahead-of-time compiler in the standalone distribution), and their classes
+ * are loaded by a class loader that can see these resources. The header {@link #INDEX_HEADER}
+ * of the index is followed by the configuration of the compiler the chunks were compiled
+ * with (its version and settings, as returned by {@code LuaCompiler.configuration(settings)}).
+ * Every subsequent line describes a single chunk by four tab-separated fields:
+ * the {@linkplain #sourceHash(String) hash of its source text}, the name of its main class,
+ * its module name and its chunk name.</p>
+ *
+ * <p>Indices whose configuration differs from the configuration expected by the loader
+ * are ignored, so that chunks compiled by a different version of the compiler or with
+ * different settings (e.g., without CPU accounting) are never used in their stead.</p>
+ *
+ * <p>Text chunks are looked up by the hash of their source text, so modules loaded from source
+ * files (e.g. by {@code require}) that have not changed since they were compiled are loaded
+ * from their precompiled classes. Chunks that have not been precompiled are loaded by
+ * a fallback chunk loader, if any. Precompiled modules may also be looked up by their
+ * module name using {@link #loadModule(String)}.</p>
+ */
+public class PrecompiledChunkLoader implements ChunkLoader {
+
+  /**
+   * The name of the index resources describing precompiled chunks.
+   */
+  public static final String INDEX_RESOURCE_NAME = "META-INF/luna/chunks.index";
+
+  /**
+   * The first line of every index resource.
+   */
+  public static final String INDEX_HEADER = "luna-precompiled-chunks 2";
+
+  private final ClassLoader classLoader;
+  private final String configuration;
+  private final ChunkLoader fallback;
+
+  private final Map<String, Entry> bySourceHash;
+  private final Map<String, Entry> byModuleName;
+
+  private static class Entry {
+
+    final String mainClassName;
+    final String chunkName;
+
+    Entry(String mainClassName, String chunkName) {
+      this.mainClassName = mainClassName;
+      this.chunkName = chunkName;
+    }
+
+  }
+
+  PrecompiledChunkLoader(ClassLoader classLoader, String configuration, ChunkLoader fallback)
+      throws IOException {
+    this.classLoader = Objects.requireNonNull(classLoader);
+    this.configuration = Objects.requireNonNull(configuration);
+    this.fallback = fallback;
+    this.bySourceHash = new HashMap<>();
+    this.byModuleName = new HashMap<>();
+
+    Enumeration<URL> indices = classLoader.getResources(INDEX_RESOURCE_NAME);
+    while (indices.hasMoreElements()) {
+      readIndex(indices.nextElement());
+    }
+  }
+
+  /**
+   * Returns a new precompiled chunk loader that loads the chunks listed in the index
+   * resources visible to {@code classLoader} and compiled with the compiler configuration
+   * {@code configuration} using {@code classLoader}, and loads all other chunks using
+   * {@code fallback}.
+   *
+   * @param classLoader the class loader for precompiled chunks, must not be {@code null}
+   * @param configuration the expected compiler configuration, must not be {@code null}
+   * @param fallback the loader for chunks that have not been precompiled, may be {@code null}
+   * @return a new precompiled chunk loader
+   * @throws NullPointerException if {@code classLoader} or {@code configuration}
+   * is {@code null}
+   * @throws IOException if an index resource cannot be read or is malformed
+   */
+  public static PrecompiledChunkLoader of(ClassLoader classLoader, String configuration,
+      ChunkLoader fallback) throws IOException {
+    return new PrecompiledChunkLoader(classLoader, configuration, fallback);
+  }
+
+  /**
+   * Returns a new precompiled chunk loader that loads the chunks precompiled into
+   * the jar files {@code jars} with the compiler configuration {@code configuration},
+   * and loads all other chunks using {@code fallback}.
+   *
+   * @param configuration the expected compiler configuration, must not be {@code null}
+   * @param fallback the loader for chunks that have not been precompiled, may be {@code null}
+   * @param jars the jar files containing precompiled chunks, must not be {@code null}
+   * @return a new precompiled chunk loader
+   * @throws NullPointerException if {@code configuration}, {@code jars} or any of its elements
+   * is {@code null}
+   * @throws IOException if an index resource cannot be read or is malformed
+   */
+  public static PrecompiledChunkLoader of(String configuration, ChunkLoader fallback,
+      Path... jars) throws IOException {
+    URL[] urls = new URL[jars.length];
+    for (int i = 0; i < jars.length; i++) {
+      urls[i] = jars[i].toUri().toURL();
+    }
+    ClassLoader classLoader = new URLClassLoader(
+        urls, PrecompiledChunkLoader.class.getClassLoader());
+    return new PrecompiledChunkLoader(classLoader, configuration, fallback);
+  }
+
+  /**
+   * Returns the hash of the source text {@code sourceText} used to look up precompiled
+   * chunks, a string of hexadecimal digits.
+   *
+   * @param sourceText the source text, must not be {@code null}
+   * @return the hash of {@code sourceText}
+   * @throws NullPointerException if {@code sourceText} is {@code null}
+   */
+  public static String sourceHash(String sourceText) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+
+    byte[] digest = md.digest(sourceText.getBytes(StandardCharsets.UTF_8));
+    StringBuilder bld = new StringBuilder();
+    for (byte b : digest) {
+      bld.append(Character.forDigit((b >> 4) & 0xf, 16));
+      bld.append(Character.forDigit(b & 0xf, 16));
+    }
+    return bld.toString();
+  }
+
+  private void readIndex(URL url) throws IOException {
+    try (InputStream in = url.openStream()) {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(in, StandardCharsets.UTF_8));
+
+      String header = reader.readLine();
+      if (!INDEX_HEADER.equals(header)) {
+        throw new IOException("Not a chunk index: " + url);
+      }
+
+      String config = reader.readLine();
+      if (config == null) {
+        throw new IOException("Malformed chunk index: " + url);
+      } else if (!configuration.equals(config)) {
+        // compiled with a different compiler or different settings
+        return;
+      }
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 4) {
+          throw new IOException("Malformed chunk index entry in " + url + ": " + line);
+        }
+
+        Entry entry = new Entry(fields[1], fields[3]);
+        bySourceHash.putIfAbsent(fields[0], entry);
+        if (!fields[2].isEmpty()) {
+          byModuleName.putIfAbsent(fields[2], entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of precompiled chunks known to this loader.
+   *
+   * @return the number of precompiled chunks
+   */
+  public int size() {
+    return bySourceHash.size();
+  }
+
+  /**
+   * Returns an unmodifiable map of the names of the precompiled modules known to this loader
+   * to their chunk names.
+   *
+   * @return the names of the precompiled modules mapped to their chunk names
+   */
+  public Map<String, String> modules() {
+    Map<String, String> result = new HashMap<>();
+    for (Map.Entry<String, Entry> e : byModuleName.entrySet()) {
+      result.put(e.getKey(), e.getValue().chunkName);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  private ChunkFactory factory(Entry entry, String chunkName) throws LoaderException {
+    try {
+      Class<?> c = Class.forName(entry.mainClassName, true, classLoader);
+      if (!LuaFunction.class.isAssignableFrom(c)) {
+        throw new ClassCastException("Not a Lua function: " + entry.mainClassName);
+      }
+      @SuppressWarnings("unchecked")
+      Class<? extends LuaFunction<Variable, ?, ?, ?, ?>> fnClass =
+          (Class<? extends LuaFunction<Variable, ?, ?, ?, ?>>) c;
+      return new ChunkFactory(fnClass, chunkName);
+    } catch (ClassNotFoundException | LinkageError | ClassCastException ex) {
+      throw new LoaderException(ex, chunkName);
+    }
+  }
+
+  /**
+   * Returns the chunk factory of the precompiled module {@code moduleName}, or {@code null}
+   * if there is no such module.
+   *
+   * @param moduleName the module name, must not be {@code null}
+   * @return the chunk factory of the module {@code moduleName}, or {@code null} if not found
+   * @throws NullPointerException if {@code moduleName} is {@code null}
+   * @throws LoaderException if the classes of the module cannot be loaded
+   */
+  public ChunkFactory loadModule(String moduleName) throws LoaderException {
+    Entry entry = byModuleName.get(Objects.requireNonNull(moduleName));
+    return entry != null ? factory(entry, entry.chunkName) : null;
+  }
+
+  @Override
+  public LuaFunction<Variable, ?, ?, ?, ?> loadTextChunk(Variable env, String chunkName,
+      String chunk) throws LoaderException {
+    Objects.requireNonNull(env);
+    return compileTextChunk(chunkName, chunk).newInstance(env);
+  }
+
+  @Override
+  public ChunkFactory compileTextChunk(String chunkName, String chunk) throws LoaderException {
+    Objects.requireNonNull(chunkName);
+    Objects.requireNonNull(chunk);
+
+    Entry entry = bySourceHash.get(sourceHash(chunk));
+    if (entry != null) {
+      return factory(entry, chunkName);
+    } else if (fallback != null) {
+      return fallback.compileTextChunk(chunkName, chunk);
+    } else {
+      throw new LoaderException(
+          new IllegalArgumentException("chunk has not been precompiled"), chunkName);
+    }
+  }
+
+}
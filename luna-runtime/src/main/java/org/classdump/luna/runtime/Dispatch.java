@@ -26,6 +26,9 @@ import org.classdump.luna.Metatables;
 import org.classdump.luna.Ordering;
 import org.classdump.luna.Table;
 import org.classdump.luna.Userdata;
+import org.classdump.luna.impl.ShapeCache;
+import org.classdump.luna.impl.ShapedTable;
+import org.classdump.luna.impl.StampCache;
 
 /**
  * A static class for dispatching operations according to the semantics of Lua 5.3.
@@ -1427,6 +1430,91 @@ public final class Dispatch {
     index(context, (Object) Objects.requireNonNull(table), Long.valueOf(key));
   }
 
+  /**
+   * Evaluates the Lua expression {@code table[key]} (in non-assignment context) including
+   * the handling of metamethods, and stores the result to the return buffer associated with
+   * {@code context}, using the shape cache {@code cache} to speed up the access to
+   * {@link ShapedTable}s.
+   * <b>This method throws an {@link UnresolvedControlThrowable}</b>: non-local control
+   * changes are expected to be resolved by the caller of this method.
+   *
+   * <p>This method is functionally equivalent to
+   * {@link #index(ExecutionContext, Object, Object)}. {@code cache} is meant to be
+   * associated with the call site.</p>
+   *
+   * @param context execution context, must not be {@code null}
+   * @param table the target, may be any value
+   * @param key the key, may be any value
+   * @param cache the shape cache, must not be {@code null}
+   * @throws UnresolvedControlThrowable if the evaluation called a metamethod and the metamethod
+   * initiates a non-local control change
+   * @throws NullPointerException if {@code context} or {@code cache} is {@code null}
+   * @throws IllegalOperationAttemptException if {@code table} is not a table and does not have the
+   * {@code __index} metamethod
+   */
+  public static void index(ExecutionContext context, Object table, Object key, ShapeCache cache)
+      throws UnresolvedControlThrowable {
+    if (table instanceof ShapedTable) {
+      Object value = ((ShapedTable) table).rawget(key, cache);
+      if (value != null) {
+        context.getReturnBuffer().setTo(value);
+        return;
+      }
+    }
+
+    index(context, table, key);
+  }
+
+  /**
+   * Evaluates the Lua expression {@code table[key]} (in non-assignment context) including
+   * the handling of metamethods, and stores the result to the return buffer associated with
+   * {@code context}, using the stamp cache {@code cache} to avoid the lookup of {@code key}
+   * when the contents of {@code table} have not changed since the previous access.
+   * <b>This method throws an {@link UnresolvedControlThrowable}</b>: non-local control
+   * changes are expected to be resolved by the caller of this method.
+   *
+   * <p>This method is functionally equivalent to
+   * {@link #index(ExecutionContext, Object, Object)}. {@code cache} is meant to be
+   * associated with the call site, and is meant for accesses to global variables
+   * and to the fields of modules.</p>
+   *
+   * @param context execution context, must not be {@code null}
+   * @param table the target, may be any value
+   * @param key the key, may be any value
+   * @param cache the stamp cache, must not be {@code null}
+   * @throws UnresolvedControlThrowable if the evaluation called a metamethod and the metamethod
+   * initiates a non-local control change
+   * @throws NullPointerException if {@code context} or {@code cache} is {@code null}
+   * @throws IllegalOperationAttemptException if {@code table} is not a table and does not have the
+   * {@code __index} metamethod
+   */
+  public static void index(ExecutionContext context, Object table, Object key, StampCache cache)
+      throws UnresolvedControlThrowable {
+    if (table instanceof Table) {
+      Object value = cache.rawget((Table) table, key);
+      if (value != null) {
+        context.getReturnBuffer().setTo(value);
+        return;
+      }
+    }
+
+    index(context, table, key);
+  }
+
+  /**
+   * Returns the raw value associated with {@code key} in {@code table} if {@code table}
+   * is a table, or {@code null} otherwise. This method never calls metamethods
+   * and never fails.
+   *
+   * @param table the target, may be any value
+   * @param key the key, may be any value
+   * @return the raw value of {@code key} in {@code table} if {@code table} is a table,
+   * {@code null} otherwise
+   */
+  public static Object rawindex(Object table, Object key) {
+    return table instanceof Table ? ((Table) table).rawget(key) : null;
+  }
+
   /**
    * Executes the Lua statement {@code table[key] = value}, including the handling of
    * metamethods, and stores the result to the return buffer associated with {@code context}.
@@ -1532,6 +1620,39 @@ public final class Dispatch {
     setindex(context, (Object) Objects.requireNonNull(table), Long.valueOf(key), value);
   }
 
+  /**
+   * Executes the Lua statement {@code table[key] = value}, including the handling of
+   * metamethods, and stores the result to the return buffer associated with {@code context},
+   * using the shape cache {@code cache} to speed up the access to {@link ShapedTable}s.
+   * <b>This method throws an {@link UnresolvedControlThrowable}</b>: non-local control
+   * changes are expected to be resolved by the caller of this method.
+   *
+   * <p>This method is functionally equivalent to
+   * {@link #setindex(ExecutionContext, Object, Object, Object)}. {@code cache} is meant
+   * to be associated with the call site.</p>
+   *
+   * @param context execution context, must not be {@code null}
+   * @param table the target, may be any value
+   * @param key the key, may be any value
+   * @param value the value, may be any value
+   * @param cache the shape cache, must not be {@code null}
+   * @throws UnresolvedControlThrowable if the evaluation called a metamethod and the metamethod
+   * initiates a non-local control change
+   * @throws NullPointerException if {@code context} or {@code cache} is {@code null}
+   * @throws IllegalOperationAttemptException if {@code table} is not a table and does not have the
+   * {@code __newindex} metamethod
+   */
+  public static void setindex(ExecutionContext context, Object table, Object key, Object value,
+      ShapeCache cache)
+      throws UnresolvedControlThrowable {
+    if (table instanceof ShapedTable
+        && ((ShapedTable) table).rawsetIfPresent(key, value, cache)) {
+      return;
+    }
+
+    setindex(context, table, key, value);
+  }
+
   /**
    * Returns {@code true} iff {@code a} <i>op</i> {@code b}, where <i>op</i> is
    * "{@code <=}" (lesser than or equal to) if {@code sign > 0}, or "{@code >=}" (greater
@@ -1550,6 +1671,37 @@ public final class Dispatch {
     return !eq(ZERO, sign) && (lt(ZERO, sign) ? le(a, b) : le(b, a));
   }
 
+  /**
+   * Returns {@code true} iff {@code a} <i>op</i> {@code b}, where <i>op</i> is
+   * "{@code <=}" (lesser than or equal to) if {@code sign > 0}, or "{@code >=}" (greater
+   * than or equal to) if {@code sign < 0}.
+   *
+   * <p>This is a variant of {@link #signed_le(Number, Number, Number)} for integer
+   * {@code a} and {@code sign}.</p>
+   *
+   * <p>When {@code sign} is zero, returns {@code false}.</p>
+   *
+   * @param a the first operand
+   * @param b the second operand, must not be {@code null}
+   * @param sign the sign
+   * @return {@code true} iff {@code a} is below {@code b} depending on the sign of {@code sign}
+   * @throws NullPointerException if {@code b} is {@code null}
+   */
+  @SuppressWarnings("unused")
+  public static boolean signed_le(long a, Number b, long sign) {
+    if (sign == 0) {
+      return false;
+    }
+
+    if (b instanceof Double || b instanceof Float) {
+      double d = b.doubleValue();
+      return sign > 0 ? LuaMathOperators.le(a, d) : LuaMathOperators.le(d, a);
+    } else {
+      long l = b.longValue();
+      return sign > 0 ? a <= l : l <= a;
+    }
+  }
+
   private static class CmpResultResumable implements Resumable {
 
     private final boolean cmpTo;
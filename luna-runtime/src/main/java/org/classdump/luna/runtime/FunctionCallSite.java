@@ -0,0 +1,219 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.classdump.luna.runtime;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+/**
+ * A call site for the Lua call {@code target(args...)}, linked by {@code invokedynamic}
+ * and equipped with a monomorphic inline cache.
+ *
+ * <p>When the call site is first executed with a {@link LuaFunction} as the call target,
+ * the call site is linked to the {@code invoke} method of the exact class of that function,
+ * guarded by a check of the class of the call target. Since every Lua function prototype
+ * is compiled into a class of its own, all closures of that prototype hit the cache,
+ * and the JVM is able to inline the call into the caller. When the guard fails,
+ * the call site is considered megamorphic and is relinked to the uncached path, i.e.,
+ * the corresponding {@code Dispatch.call} method.</p>
+ *
+ * <p>Call targets that are not functions (i.e., values with the {@code __call} metamethod)
+ * are never cached: a call site whose first call target is not a function is immediately
+ * linked to the uncached path.</p>
+ *
+ * <p>Function call sites have the same semantics as {@code Dispatch.call}: the results
+ * of the call are stored in the return buffer, tail calls are evaluated before the call site
+ * returns, and non-local control changes are signalled by throwing
+ * an {@link UnresolvedControlThrowable}. The type of the call site is determined by
+ * the number of arguments (see {@link #typeForKind(int)}).</p>
+ */
+public final class FunctionCallSite extends MutableCallSite {
+
+  /**
+   * The maximum number of arguments passed to the call target individually. Calls
+   * with more arguments pass them in an array.
+   */
+  public static final int MAX_ARGS = 5;
+
+  private static final MethodHandle LINK;
+  private static final MethodHandle GUARD;
+  private static final MethodHandle EVALUATE_TAIL_CALLS;
+  private static final MethodHandle UNRESOLVE;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      LINK = lookup.findVirtual(FunctionCallSite.class, "link",
+          methodType(void.class, Object.class));
+      GUARD = lookup.findStatic(FunctionCallSite.class, "guard",
+          methodType(boolean.class, Class.class, Object.class));
+      EVALUATE_TAIL_CALLS = lookup.findStatic(Dispatch.class, "evaluateTailCalls",
+          methodType(void.class, ExecutionContext.class));
+      UNRESOLVE = lookup.findStatic(FunctionCallSite.class, "unresolve",
+          methodType(void.class, ResolvedControlThrowable.class));
+    } catch (NoSuchMethodException | IllegalAccessException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final MethodHandle uncached;
+  private final MethodHandle fallback;
+  private boolean linked;  // guarded by this
+
+  private FunctionCallSite(MethodType type) {
+    super(type);
+    try {
+      this.uncached = MethodHandles.lookup().findStatic(Dispatch.class, "call", type);
+    } catch (NoSuchMethodException | IllegalAccessException ex) {
+      throw new IllegalStateException(ex);
+    }
+    // link the call site based on the call target, then take the uncached path
+    this.fallback = MethodHandles.foldArguments(uncached,
+        MethodHandles.dropArguments(LINK.bindTo(this), 0, ExecutionContext.class));
+    this.linked = false;
+    setTarget(fallback);
+  }
+
+  /**
+   * Returns the type of function call sites of the given kind. For {@code kind} between
+   * {@code 1} and {@code MAX_ARGS + 1} (inclusive), the call passes {@code kind - 1}
+   * arguments individually; for {@code kind} {@code 0}, the arguments are passed in
+   * an array.
+   *
+   * @param kind the call kind, between {@code 0} and {@code MAX_ARGS + 1} (inclusive)
+   * @return the type of function call sites of the kind {@code kind}
+   * @throws IllegalArgumentException if {@code kind} is out of bounds
+   */
+  public static MethodType typeForKind(int kind) {
+    MethodType base = methodType(void.class, ExecutionContext.class, Object.class);
+    if (kind == 0) {
+      return base.appendParameterTypes(Object[].class);
+    } else if (kind > 0 && kind <= MAX_ARGS + 1) {
+      Class<?>[] args = new Class<?>[kind - 1];
+      Arrays.fill(args, Object.class);
+      return base.appendParameterTypes(args);
+    } else {
+      throw new IllegalArgumentException("Illegal call kind: " + kind);
+    }
+  }
+
+  private static boolean isValidType(MethodType type) {
+    for (int kind = 0; kind <= MAX_ARGS + 1; kind++) {
+      if (typeForKind(kind).equals(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The bootstrap method for function call sites.
+   *
+   * @param lookup the lookup object, ignored
+   * @param name the method name, ignored
+   * @param type the type of the call site, must be one of the types returned
+   * by {@link #typeForKind(int)}
+   * @return a new function call site
+   * @throws IllegalArgumentException if {@code type} is not a valid type of a function call
+   * site
+   */
+  public static CallSite bootstrapCall(MethodHandles.Lookup lookup, String name,
+      MethodType type) {
+    if (!isValidType(type)) {
+      throw new IllegalArgumentException("Illegal call site type: " + type);
+    }
+    return new FunctionCallSite(type);
+  }
+
+  private static boolean guard(Class<?> clazz, Object o) {
+    return o != null && o.getClass() == clazz;
+  }
+
+  private static void unresolve(ResolvedControlThrowable ct) throws UnresolvedControlThrowable {
+    throw ct.unresolve();
+  }
+
+  // the invoke method of clazz, bound to its implementation rather than to the
+  // LuaFunction interface method; clazz is only known to implement LuaFunction
+  // if it is not accessible from here
+  private static MethodHandle concreteInvoke(Class<?> clazz, MethodType invokeType) {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      return lookup.findVirtual(clazz, "invoke", invokeType);
+    } catch (IllegalAccessException ex) {
+      // clazz is not accessible, go through the interface
+    } catch (NoSuchMethodException ex) {
+      throw new IllegalStateException(ex);
+    }
+
+    try {
+      MethodHandle invoke = lookup.findVirtual(LuaFunction.class, "invoke", invokeType);
+      return invoke.asType(invoke.type().changeParameterType(0, clazz));
+    } catch (NoSuchMethodException | IllegalAccessException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  // the call to target, an instance of clazz; equivalent to Dispatch.call for functions
+  private MethodHandle direct(Class<?> clazz) {
+    MethodType type = type();
+    MethodType invokeType = type.dropParameterTypes(1, 2);
+    MethodHandle invoke = concreteInvoke(clazz, invokeType);
+
+    // (clazz, ExecutionContext, args...) -> (Object, ExecutionContext, args...)
+    invoke = MethodHandles.explicitCastArguments(invoke,
+        invoke.type().changeParameterType(0, Object.class));
+
+    // swap the call target and the execution context
+    int[] reorder = new int[type.parameterCount()];
+    reorder[0] = 1;
+    reorder[1] = 0;
+    for (int i = 2; i < reorder.length; i++) {
+      reorder[i] = i;
+    }
+    invoke = MethodHandles.permuteArguments(invoke, type, reorder);
+
+    // evaluate tail calls once invoke returns
+    MethodHandle tailCalls = MethodHandles.dropArguments(EVALUATE_TAIL_CALLS, 1,
+        type.parameterList().subList(1, type.parameterCount()));
+    MethodHandle call = MethodHandles.foldArguments(tailCalls, invoke);
+
+    return MethodHandles.catchException(call, ResolvedControlThrowable.class,
+        MethodHandles.dropArguments(UNRESOLVE, 1, type.parameterList()));
+  }
+
+  private synchronized void link(Object target) {
+    if (!linked && target instanceof LuaFunction) {
+      Class<?> clazz = target.getClass();
+      setTarget(MethodHandles.guardWithTest(
+          MethodHandles.dropArguments(GUARD.bindTo(clazz), 0, ExecutionContext.class),
+          direct(clazz),
+          fallback));
+    } else {
+      setTarget(uncached);
+    }
+    linked = true;
+  }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.classdump.luna.runtime;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import org.classdump.luna.Metatables;
+import org.classdump.luna.Table;
+import org.classdump.luna.impl.ShapeCache;
+import org.classdump.luna.impl.ShapedTable;
+
+/**
+ * A call site for the Lua operations {@code table[key]} and {@code table[key] = value},
+ * linked by {@code invokedynamic} and equipped with a polymorphic inline cache.
+ *
+ * <p>The inline cache consists of up to {@value #MAX_ENTRIES} entries, each guarded by
+ * the exact class of the indexed table and by the identity of its metatable. An entry
+ * for tables without a metatable accesses the table directly; an entry for tables with
+ * a metatable follows chains of {@code __index} (or {@code __newindex}) tables without
+ * going through {@link Dispatch}. Entries for {@link ShapedTable}s use a {@link ShapeCache}
+ * of their own. Once the cache is full, the call site is considered megamorphic and
+ * is relinked to the uncached path.</p>
+ *
+ * <p>Metatables are referenced from the guards weakly, so that call sites (which live
+ * as long as the class of the chunk they are in) do not keep metatables, and everything
+ * reachable from them, alive. An entry whose metatable has been garbage-collected never
+ * matches again.</p>
+ *
+ * <p>Values that are not tables are never cached: accesses to them always take
+ * the uncached path (i.e., {@link Dispatch#index(ExecutionContext, Object, Object)}
+ * and {@link Dispatch#setindex(ExecutionContext, Object, Object, Object)}).</p>
+ *
+ * <p>The type of an index call site is {@link #INDEX_TYPE}: unlike {@code Dispatch.index},
+ * the call site returns the result directly rather than storing it in the return buffer.
+ * The type of a setindex call site is {@link #SETINDEX_TYPE}. Both may throw
+ * an {@link UnresolvedControlThrowable} when a metamethod initiates a non-local control
+ * change.</p>
+ *
+ * <p>Note that metatables of tables are always determined using
+ * {@link Table#getMetatable()}, as is the case with the default metatable accessor.</p>
+ */
+public final class IndexCallSite extends MutableCallSite {
+
+  /**
+   * The type of index call sites.
+   */
+  public static final MethodType INDEX_TYPE = methodType(
+      Object.class, ExecutionContext.class, Object.class, Object.class);
+
+  /**
+   * The type of setindex call sites.
+   */
+  public static final MethodType SETINDEX_TYPE = methodType(
+      void.class, ExecutionContext.class, Object.class, Object.class, Object.class);
+
+  /**
+   * The maximum number of entries in the inline cache.
+   */
+  public static final int MAX_ENTRIES = 4;
+
+  // the maximum number of __index or __newindex tables followed without going through Dispatch
+  private static final int MAX_CHAIN_LENGTH = 16;
+
+  private static final MethodHandle INDEX_FALLBACK;
+  private static final MethodHandle SETINDEX_FALLBACK;
+  private static final MethodHandle INDEX_UNCACHED;
+  private static final MethodHandle SETINDEX_UNCACHED;
+  private static final MethodHandle GUARD;
+  private static final MethodHandle WEAK_GUARD;
+  private static final MethodHandle RAWGET;
+  private static final MethodHandle RAWSET;
+  private static final MethodHandle SHAPED_RAWGET;
+  private static final MethodHandle SHAPED_RAWSET;
+  private static final MethodHandle SHAPED_RAWSET_IF_PRESENT;
+  private static final MethodHandle IS_NOT_NULL;
+  private static final MethodHandle NOP;
+  private static final MethodHandle INDEX_METAMETHOD;
+  private static final MethodHandle SETINDEX_METAMETHOD;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      INDEX_FALLBACK = lookup.findVirtual(IndexCallSite.class, "indexFallback", INDEX_TYPE);
+      SETINDEX_FALLBACK = lookup.findVirtual(IndexCallSite.class, "setindexFallback",
+          SETINDEX_TYPE);
+      INDEX_UNCACHED = lookup.findStatic(IndexCallSite.class, "index", INDEX_TYPE);
+      SETINDEX_UNCACHED = lookup.findStatic(IndexCallSite.class, "setindex", SETINDEX_TYPE);
+      GUARD = lookup.findStatic(IndexCallSite.class, "guard",
+          methodType(boolean.class, Class.class, Table.class, Object.class));
+      WEAK_GUARD = lookup.findStatic(IndexCallSite.class, "weakGuard",
+          methodType(boolean.class, Class.class, WeakReference.class, Object.class));
+      RAWGET = lookup.findVirtual(Table.class, "rawget",
+          methodType(Object.class, Object.class));
+      RAWSET = lookup.findVirtual(Table.class, "rawset",
+          methodType(void.class, Object.class, Object.class));
+      SHAPED_RAWGET = lookup.findVirtual(ShapedTable.class, "rawget",
+          methodType(Object.class, Object.class, ShapeCache.class));
+      SHAPED_RAWSET = lookup.findStatic(IndexCallSite.class, "shapedRawset",
+          methodType(void.class, ShapeCache.class, ShapedTable.class, Object.class,
+              Object.class));
+      SHAPED_RAWSET_IF_PRESENT = lookup.findVirtual(ShapedTable.class, "rawsetIfPresent",
+          methodType(boolean.class, Object.class, Object.class, ShapeCache.class));
+      IS_NOT_NULL = lookup.findStatic(IndexCallSite.class, "isNotNull",
+          methodType(boolean.class, Object.class));
+      NOP = lookup.findStatic(IndexCallSite.class, "nop", methodType(void.class));
+      INDEX_METAMETHOD = lookup.findStatic(IndexCallSite.class, "indexMetamethod",
+          methodType(Object.class, ExecutionContext.class, Object.class, Object.class));
+      SETINDEX_METAMETHOD = lookup.findStatic(IndexCallSite.class, "setindexMetamethod",
+          methodType(void.class, ExecutionContext.class, Object.class, Object.class,
+              Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final boolean isSetIndex;
+  private int entries;  // guarded by this
+
+  private IndexCallSite(MethodType type, boolean isSetIndex) {
+    super(type);
+    this.isSetIndex = isSetIndex;
+    this.entries = 0;
+    setTarget((isSetIndex ? SETINDEX_FALLBACK : INDEX_FALLBACK).bindTo(this));
+  }
+
+  /**
+   * The bootstrap method for index call sites.
+   *
+   * @param lookup the lookup object, ignored
+   * @param name the method name, ignored
+   * @param type the type of the call site, must be {@link #INDEX_TYPE}
+   * @return a new index call site
+   * @throws IllegalArgumentException if {@code type} is not {@link #INDEX_TYPE}
+   */
+  public static CallSite bootstrapIndex(MethodHandles.Lookup lookup, String name,
+      MethodType type) {
+    if (!INDEX_TYPE.equals(type)) {
+      throw new IllegalArgumentException("Illegal index call site type: " + type);
+    }
+    return new IndexCallSite(type, false);
+  }
+
+  /**
+   * The bootstrap method for setindex call sites.
+   *
+   * @param lookup the lookup object, ignored
+   * @param name the method name, ignored
+   * @param type the type of the call site, must be {@link #SETINDEX_TYPE}
+   * @return a new setindex call site
+   * @throws IllegalArgumentException if {@code type} is not {@link #SETINDEX_TYPE}
+   */
+  public static CallSite bootstrapSetIndex(MethodHandles.Lookup lookup, String name,
+      MethodType type) {
+    if (!SETINDEX_TYPE.equals(type)) {
+      throw new IllegalArgumentException("Illegal setindex call site type: " + type);
+    }
+    return new IndexCallSite(type, true);
+  }
+
+  private static boolean guard(Class<?> clazz, Table metatable, Object o) {
+    return o != null && o.getClass() == clazz && ((Table) o).getMetatable() == metatable;
+  }
+
+  private static boolean weakGuard(Class<?> clazz, WeakReference<Table> metatable, Object o) {
+    if (o != null && o.getClass() == clazz) {
+      Table mt = ((Table) o).getMetatable();
+      return mt != null && mt == metatable.get();
+    } else {
+      return false;
+    }
+  }
+
+  private static Object index(ExecutionContext context, Object table, Object key)
+      throws UnresolvedControlThrowable {
+    Dispatch.index(context, table, key);
+    return context.getReturnBuffer().get0();
+  }
+
+  private static void setindex(ExecutionContext context, Object table, Object key, Object value)
+      throws UnresolvedControlThrowable {
+    Dispatch.setindex(context, table, key, value);
+  }
+
+  private static void shapedRawset(ShapeCache cache, ShapedTable table, Object key,
+      Object value) {
+    if (!table.rawsetIfPresent(key, value, cache)) {
+      table.rawset(key, value);
+    }
+  }
+
+  private static boolean isNotNull(Object o) {
+    return o != null;
+  }
+
+  private static void nop() {
+    // no-op
+  }
+
+  // key is not in table, which has a metatable
+  private static Object indexMetamethod(ExecutionContext context, Object table, Object key)
+      throws UnresolvedControlThrowable {
+    Table t = (Table) table;
+    for (int i = 0; i < MAX_CHAIN_LENGTH; i++) {
+      Table mt = t.getMetatable();
+      Object handler = mt != null ? mt.rawget(Metatables.MT_INDEX) : null;
+      if (handler == null) {
+        return null;
+      } else if (handler instanceof Table) {
+        t = (Table) handler;
+        Object value = t.rawget(key);
+        if (value != null) {
+          return value;
+        }
+      } else {
+        return index(context, t, key);
+      }
+    }
+    return index(context, t, key);
+  }
+
+  // key is not in table, which has a metatable
+  private static void setindexMetamethod(ExecutionContext context, Object table, Object key,
+      Object value)
+      throws UnresolvedControlThrowable {
+    Table t = (Table) table;
+    for (int i = 0; i < MAX_CHAIN_LENGTH; i++) {
+      Table mt = t.getMetatable();
+      Object handler = mt != null ? mt.rawget(Metatables.MT_NEWINDEX) : null;
+      if (handler == null) {
+        t.rawset(key, value);
+        return;
+      } else if (handler instanceof Table) {
+        t = (Table) handler;
+        if (t.rawget(key) != null) {
+          t.rawset(key, value);
+          return;
+        }
+      } else {
+        setindex(context, t, key, value);
+        return;
+      }
+    }
+    setindex(context, t, key, value);
+  }
+
+  // casts the first argument of mh, of type Table (or a subclass), to clazz
+  private static MethodHandle castTable(MethodHandle mh, int pos, Class<?> clazz) {
+    MethodHandle h = mh.asType(mh.type().changeParameterType(pos, clazz));
+    return MethodHandles.explicitCastArguments(h, h.type().changeParameterType(pos, Object.class));
+  }
+
+  // (Object, Object)Object, returns the raw value
+  private static MethodHandle rawget(Class<?> clazz) {
+    MethodHandle mh = clazz == ShapedTable.class
+        ? MethodHandles.insertArguments(SHAPED_RAWGET, 2, new ShapeCache())
+        : RAWGET;
+    return castTable(mh, 0, clazz);
+  }
+
+  // (Object, Object, Object)V
+  private static MethodHandle rawset(Class<?> clazz) {
+    MethodHandle mh = clazz == ShapedTable.class
+        ? MethodHandles.insertArguments(SHAPED_RAWSET, 0, new ShapeCache())
+        : RAWSET;
+    return castTable(mh, 0, clazz);
+  }
+
+  // (Object, Object, Object)Z, sets the value iff the key is present
+  private static MethodHandle rawsetIfPresent(Class<?> clazz) {
+    if (clazz == ShapedTable.class) {
+      MethodHandle mh = MethodHandles.insertArguments(
+          SHAPED_RAWSET_IF_PRESENT, 3, new ShapeCache());
+      return castTable(mh, 0, clazz);
+    } else {
+      MethodHandle present = MethodHandles.filterReturnValue(rawget(clazz), IS_NOT_NULL);
+      present = MethodHandles.dropArguments(present, 2, Object.class);
+      MethodHandle set = MethodHandles.filterReturnValue(
+          rawset(clazz), MethodHandles.constant(boolean.class, true));
+      MethodHandle notSet = MethodHandles.dropArguments(
+          MethodHandles.constant(boolean.class, false), 0, Object.class, Object.class,
+          Object.class);
+      return MethodHandles.guardWithTest(present, set, notSet);
+    }
+  }
+
+  private MethodHandle cachedTarget(Class<?> clazz, Table metatable) {
+    if (!isSetIndex) {
+      MethodHandle get = rawget(clazz);
+      get = MethodHandles.dropArguments(get, 0, ExecutionContext.class);
+      if (metatable == null) {
+        return get;
+      } else {
+        // (value, context, table, key): return value if not nil, else go to the metatable
+        List<Class<?>> args = INDEX_TYPE.parameterList();
+        MethodHandle orElse = MethodHandles.guardWithTest(
+            MethodHandles.dropArguments(IS_NOT_NULL, 1, args),
+            MethodHandles.dropArguments(MethodHandles.identity(Object.class), 1, args),
+            MethodHandles.dropArguments(INDEX_METAMETHOD, 0, Object.class));
+        return MethodHandles.foldArguments(orElse, get);
+      }
+    } else {
+      if (metatable == null) {
+        return MethodHandles.dropArguments(rawset(clazz), 0, ExecutionContext.class);
+      } else {
+        // (done, context, table, key, value): go to the metatable unless done
+        List<Class<?>> args = SETINDEX_TYPE.parameterList();
+        MethodHandle orElse = MethodHandles.guardWithTest(
+            MethodHandles.dropArguments(MethodHandles.identity(boolean.class), 1, args),
+            MethodHandles.dropArguments(NOP, 0, boolean.class, ExecutionContext.class,
+                Object.class, Object.class, Object.class),
+            MethodHandles.dropArguments(SETINDEX_METAMETHOD, 0, boolean.class));
+        return MethodHandles.foldArguments(orElse,
+            MethodHandles.dropArguments(rawsetIfPresent(clazz), 0, ExecutionContext.class));
+      }
+    }
+  }
+
+  private void link(Table table) {
+    Class<?> clazz = table.getClass();
+    Table metatable = table.getMetatable();
+
+    synchronized (this) {
+      if (entries >= MAX_ENTRIES) {
+        // megamorphic
+        setTarget(isSetIndex ? SETINDEX_UNCACHED : INDEX_UNCACHED);
+      } else {
+        List<Class<?>> rest = type().parameterList().subList(2, type().parameterCount());
+        MethodHandle test = metatable != null
+            ? MethodHandles.insertArguments(WEAK_GUARD, 0, clazz, new WeakReference<>(metatable))
+            : MethodHandles.insertArguments(GUARD, 0, clazz, null);
+        test = MethodHandles.dropArguments(test, 1, rest);
+        test = MethodHandles.dropArguments(test, 0, ExecutionContext.class);
+
+        setTarget(MethodHandles.guardWithTest(
+            test, cachedTarget(clazz, metatable), getTarget()));
+        entries += 1;
+      }
+    }
+  }
+
+  private Object indexFallback(ExecutionContext context, Object table, Object key)
+      throws UnresolvedControlThrowable {
+    if (table instanceof Table) {
+      link((Table) table);
+    }
+    return index(context, table, key);
+  }
+
+  private void setindexFallback(ExecutionContext context, Object table, Object key,
+      Object value)
+      throws UnresolvedControlThrowable {
+    if (table instanceof Table) {
+      link((Table) table);
+    }
+    setindex(context, table, key, value);
+  }
+
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An open-addressing hash map with linear probing, storing its keys, values and the hash
+ * codes of its keys in parallel arrays. Unlike {@link java.util.HashMap} or
+ * {@link TraversableHashMap}, the map does not allocate any objects per entry.
+ *
+ * <p>The map is traversable in the same way as {@link TraversableHashMap}: use
+ * {@link #getFirstKey()} to get the first key and {@link #getSuccessorOf(Object)} to get
+ * the key following a given key. The traversal order is the order of the slots in the key
+ * array, so finding a successor amounts to a hash lookup followed by a linear scan.
+ * Alternatively, the slots may be iterated directly using {@link #firstIndex()},
+ * {@link #nextIndex(int)}, {@link #keyAt(int)} and {@link #valueAt(int)}.</p>
+ *
+ * <p>Removing a key keeps the key in its slot (as a <i>dead</i> key) until the next
+ * rehash. Consequently, removing keys during a traversal is safe, and
+ * {@link #getSuccessorOf(Object)} accepts the keys that have been removed since the last
+ * rehash. A rehash may only be triggered by the insertion of a new key.</p>
+ *
+ * <p>Neither {@code null} keys nor {@code null} values are permitted.</p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class OpenHashMap<K, V> {
+
+  private static final int MIN_CAPACITY = 4;
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private Object[] keys;
+  private Object[] values;  // values[i] == null && keys[i] != null iff keys[i] is dead
+  private int[] hashes;  // mixed hash codes of keys, compared before calling equals
+  private int mask;
+
+  private int size;  // number of live keys
+  private int used;  // number of slots occupied by live or dead keys
+  private int threshold;
+
+  // index of the key most recently returned by getFirstKey() or getSuccessorOf(),
+  // used to skip the hash lookup when looking up the value of that key or its successor
+  // (as in the common case of a traversal using next)
+  private int cursor;
+
+  /**
+   * Constructs a new empty map.
+   */
+  public OpenHashMap() {
+    this(0);
+  }
+
+  /**
+   * Constructs a new empty map with enough space to hold {@code expectedSize} entries
+   * without rehashing.
+   *
+   * @param expectedSize the expected number of entries, must not be negative
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public OpenHashMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+    }
+    allocate(capacityFor(expectedSize));
+  }
+
+  private static int capacityFor(int expectedSize) {
+    // keep the load factor at or below 3/4
+    long c = Math.max(MIN_CAPACITY, expectedSize + (expectedSize + 2) / 3);
+    if (c >= MAX_CAPACITY) {
+      return MAX_CAPACITY;
+    } else {
+      return Integer.highestOneBit((int) c - 1) << 1;
+    }
+  }
+
+  private static int hash(Object key) {
+    // integer keys are mixed, too: strided keys would otherwise share their low bits
+    // and collide, and even consecutive keys would form one long run of probed slots
+    int h = key.hashCode();
+    h = (h ^ (h >>> 16)) * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  private void allocate(int capacity) {
+    this.keys = new Object[capacity];
+    this.values = new Object[capacity];
+    this.hashes = new int[capacity];
+    this.mask = capacity - 1;
+    this.size = 0;
+    this.used = 0;
+    this.threshold = capacity == MAX_CAPACITY ? capacity - 1 : capacity - (capacity >>> 2);
+    this.cursor = 0;
+  }
+
+  /**
+   * Returns the slot index of {@code key} (live or dead), or {@code -1} if {@code key}
+   * is not in the key array.
+   */
+  private int indexOf(Object key) {
+    Object[] ks = keys;
+    int[] hs = hashes;
+    int m = mask;
+    int h = hash(key);
+    int i = h & m;
+    Object k;
+    while ((k = ks[i]) != null) {
+      if (k == key || (hs[i] == h && k.equals(key))) {
+        return i;
+      }
+      i = (i + 1) & m;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of slots examined by a lookup of {@code key}, which must be
+   * in the key array. Used in tests.
+   */
+  int probeLength(Object key) {
+    return ((indexOf(key) - hash(key)) & mask) + 1;
+  }
+
+  /**
+   * Returns the number of entries in this map.
+   *
+   * @return the number of entries in this map
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns {@code true} if this map contains no entries.
+   *
+   * @return {@code true} if this map is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns {@code true} if this map contains a value for {@code key}.
+   *
+   * @param key the key, may be {@code null}
+   * @return {@code true} if this map contains a value for {@code key}
+   */
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Returns the value associated with {@code key}, or {@code null} if there is no
+   * such value.
+   *
+   * @param key the key, may be {@code null}
+   * @return the value associated with {@code key}, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    if (key == null) {
+      return null;
+    }
+    int i = cursor;
+    if (keys[i] != key) {
+      i = indexOf(key);
+    }
+    return i >= 0 ? (V) values[i] : null;
+  }
+
+  /**
+   * Associates {@code value} with {@code key}, returning the value previously associated
+   * with {@code key} (or {@code null} if there was no such value).
+   *
+   * @param key the key, must not be {@code null}
+   * @param value the value, must not be {@code null}
+   * @return the previous value associated with {@code key}, or {@code null}
+   * @throws NullPointerException if {@code key} or {@code value} is {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  public V put(K key, V value) {
+    Objects.requireNonNull(key, "key is null");
+    Objects.requireNonNull(value, "value is null");
+
+    Object[] ks = keys;
+    int[] hs = hashes;
+    int m = mask;
+    int h = hash(key);
+    int i = h & m;
+    Object k;
+    while ((k = ks[i]) != null) {
+      if (k == key || (hs[i] == h && k.equals(key))) {
+        Object old = values[i];
+        values[i] = value;
+        if (old == null) {
+          // revive a dead key
+          size += 1;
+        }
+        return (V) old;
+      }
+      i = (i + 1) & m;
+    }
+
+    // a new key
+    if (used >= threshold) {
+      rehash(size + 1);
+      i = h & mask;
+      while (keys[i] != null) {
+        i = (i + 1) & mask;
+      }
+    }
+
+    keys[i] = key;
+    values[i] = value;
+    hashes[i] = h;
+    size += 1;
+    used += 1;
+    return null;
+  }
+
+  /**
+   * Removes the value associated with {@code key}, returning it (or {@code null}
+   * if there was no such value).
+   *
+   * <p>The key is kept in the map as a dead key until the next rehash, so that it
+   * remains a valid argument to {@link #getSuccessorOf(Object)}.</p>
+   *
+   * @param key the key, must not be {@code null}
+   * @return the removed value, or {@code null}
+   * @throws NullPointerException if {@code key} is {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(Object key) {
+    Objects.requireNonNull(key, "key is null");
+    int i = indexOf(key);
+    if (i >= 0) {
+      Object old = values[i];
+      if (old != null) {
+        values[i] = null;
+        size -= 1;
+      }
+      return (V) old;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Removes all entries (and dead keys) from this map.
+   */
+  public void clear() {
+    Arrays.fill(keys, null);
+    Arrays.fill(values, null);
+    size = 0;
+    used = 0;
+  }
+
+  /**
+   * Makes sure that this map can hold {@code expectedSize} entries without rehashing.
+   *
+   * @param expectedSize the expected number of entries
+   */
+  public void ensureCapacity(int expectedSize) {
+    if (expectedSize > size && capacityFor(expectedSize) > keys.length) {
+      rehash(expectedSize);
+    }
+  }
+
+  private void rehash(int expectedSize) {
+    Object[] oldKeys = keys;
+    Object[] oldValues = values;
+    int[] oldHashes = hashes;
+
+    int capacity = capacityFor(Math.max(expectedSize, size));
+    if (size >= MAX_CAPACITY - 1) {
+      throw new IllegalStateException("Map too large");
+    }
+
+    allocate(capacity);
+
+    Object[] ks = keys;
+    Object[] vs = values;
+    int[] hs = hashes;
+    int m = mask;
+
+    int n = 0;
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object v = oldValues[j];
+      if (v != null) {
+        int h = oldHashes[j];
+        int i = h & m;
+        while (ks[i] != null) {
+          i = (i + 1) & m;
+        }
+        ks[i] = oldKeys[j];
+        vs[i] = v;
+        hs[i] = h;
+        n += 1;
+      }
+    }
+
+    size = n;
+    used = n;
+  }
+
+  /**
+   * Returns the index of the first slot containing a live entry, or {@code -1}
+   * if the map is empty.
+   *
+   * @return the index of the first live slot, or {@code -1}
+   */
+  public int firstIndex() {
+    return nextIndex(-1);
+  }
+
+  /**
+   * Returns the index of the first slot following the slot {@code index} that contains
+   * a live entry, or {@code -1} if there is no such slot.
+   *
+   * @param index the slot index, or {@code -1} to start from the beginning
+   * @return the index of the next live slot, or {@code -1}
+   */
+  public int nextIndex(int index) {
+    Object[] vs = values;
+    for (int i = index + 1; i < vs.length; i++) {
+      if (vs[i] != null) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the key in the slot {@code index}.
+   *
+   * @param index the slot index, as returned by {@link #firstIndex()} or
+   * {@link #nextIndex(int)}
+   * @return the key in the slot {@code index}
+   */
+  @SuppressWarnings("unchecked")
+  public K keyAt(int index) {
+    return (K) keys[index];
+  }
+
+  /**
+   * Returns the value in the slot {@code index}.
+   *
+   * @param index the slot index, as returned by {@link #firstIndex()} or
+   * {@link #nextIndex(int)}
+   * @return the value in the slot {@code index}
+   */
+  @SuppressWarnings("unchecked")
+  public V valueAt(int index) {
+    return (V) values[index];
+  }
+
+  /**
+   * Returns the first key in the traversal order.
+   *
+   * @return the first key, or {@code null} if the map is empty
+   */
+  public K getFirstKey() {
+    int i = firstIndex();
+    if (i >= 0) {
+      cursor = i;
+      return keyAt(i);
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the key following {@code key} in the traversal order, or {@code null} if
+   * {@code key} is the last key in the traversal order.
+   *
+   * <p>{@code key} may be a key that has been removed from the map during the traversal.</p>
+   *
+   * @param key the key to find the successor of, must not be {@code null}
+   * @return the key following {@code key}, or {@code null} if {@code key} is the last key
+   * @throws NullPointerException if {@code key} is {@code null}
+   * @throws NoSuchElementException if {@code key} is not in the map
+   */
+  public K getSuccessorOf(K key) {
+    Objects.requireNonNull(key);
+    int i = cursor;
+    if (keys[i] != key) {
+      i = indexOf(key);
+      if (i < 0) {
+        throw new NoSuchElementException(key.toString());
+      }
+    }
+    int j = nextIndex(i);
+    if (j >= 0) {
+      cursor = j;
+      return keyAt(j);
+    } else {
+      return null;
+    }
+  }
+
+}
@@ -51,7 +51,23 @@ public class TraversableHashMap<K, V> implements Map<K, V> {
    * Constructs a new empty map.
    */
   public TraversableHashMap() {
-    this.entries = new HashMap<>();
+    this(0);
+  }
+
+  /**
+   * Constructs a new empty map with enough space to hold {@code expectedSize} entries
+   * without resizing.
+   *
+   * @param expectedSize the expected number of entries, must not be negative
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public TraversableHashMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+    }
+    this.entries = expectedSize > 0
+        ? new HashMap<K, Entry<K, V>>((int) Math.min(expectedSize / 0.75 + 1, 1 << 30))
+        : new HashMap<K, Entry<K, V>>();
     this.firstKey = null;
     this.lastKey = null;
 
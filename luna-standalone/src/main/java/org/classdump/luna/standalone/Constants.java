@@ -90,6 +90,32 @@ abstract class Constants {
    */
   public static final String ENV_MODULE_CLASSPATH = "CLASSPATH";
 
+  /**
+   * Name of the environment variable specifying the compiled chunk cache directory.
+   *
+   * <p>When the variable is defined, the chunks compiled by the console (including
+   * the Lua modules loaded using {@code require}) will be stored in the directory
+   * it names, and reused by subsequent runs. Otherwise, no chunk cache will be used.</p>
+   */
+  public static final String ENV_CHUNK_CACHE = "LUNA_CHUNK_CACHE";
+
+  /**
+   * Name of the environment variable listing the jar files with precompiled chunks.
+   *
+   * <p>When the variable is defined, it is split into file names around the path separator.
+   * Chunks and modules precompiled into these jar files (using {@code luna --compile})
+   * are then loaded without compiling them.</p>
+   */
+  public static final String ENV_PRECOMPILED = "LUNA_PRECOMPILED";
+
+  /**
+   * Command-line option selecting the ahead-of-time compiler.
+   *
+   * <p>When given as the first argument, the remaining arguments are handled
+   * by {@link LunaCompile}.</p>
+   */
+  public static final String OPTION_COMPILE = "--compile";
+
   /**
    * Name of the environment variable used to control the REPL verbosity.
    *
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.standalone;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.classdump.luna.compiler.CompiledModule;
+import org.classdump.luna.compiler.LuaCompiler;
+import org.classdump.luna.load.PrecompiledChunkLoader;
+import org.classdump.luna.parser.ParseException;
+import org.classdump.luna.parser.TokenMgrError;
+import org.classdump.luna.util.ByteVector;
+
+/**
+ * The ahead-of-time compiler: compiles trees of Lua modules into a jar file containing
+ * their classes and an index for the {@link PrecompiledChunkLoader}.
+ *
+ * <p>Invoked as {@code luna --compile [options] sources...}, where every source is either
+ * a directory searched for {@code .lua} files recursively, or a single {@code .lua} file.
+ * Module names are derived from the file paths relative to their source directory following
+ * the conventions of the default {@code package.path} (i.e., {@code a/b.lua} and
+ * {@code a/b/init.lua} both define the module {@code a.b}).</p>
+ */
+public final class LunaCompile {
+
+  static final String DEFAULT_OUTPUT = "luac.jar";
+  static final String DEFAULT_PREFIX = "luna_aot_";
+
+  private static final String LUA_SUFFIX = ".lua";
+  private static final String INIT_MODULE = "init";
+
+  private final PrintStream out;
+  private final PrintStream err;
+
+  private Path output;
+  private String prefix;
+  private boolean verbose;
+  private final List<Path> sources;
+
+  LunaCompile(PrintStream out, PrintStream err) {
+    this.out = Objects.requireNonNull(out);
+    this.err = Objects.requireNonNull(err);
+    this.output = Paths.get(DEFAULT_OUTPUT);
+    this.prefix = DEFAULT_PREFIX;
+    this.verbose = false;
+    this.sources = new ArrayList<>();
+  }
+
+  private static class Source {
+
+    final Path path;
+    final String moduleName;
+    final String chunkName;
+
+    Source(Path path, String moduleName, String chunkName) {
+      this.path = path;
+      this.moduleName = moduleName;
+      this.chunkName = chunkName;
+    }
+
+  }
+
+  static void printUsage(PrintStream out) {
+    out.println("usage: luna --compile [options] sources...");
+    out.println("Available options are:");
+    out.println("  -o name  output to jar file 'name' (default is \"" + DEFAULT_OUTPUT + "\")");
+    out.println("  -p name  use class name prefix 'name' (default is \"" + DEFAULT_PREFIX + "\")");
+    out.println("  -v       list the compiled modules");
+    out.println("  --       stop handling options");
+  }
+
+  private void parseArguments(String[] args) {
+    int i = 0;
+    boolean options = true;
+    while (i < args.length) {
+      String a = args[i++];
+      if (options && a.equals("--")) {
+        options = false;
+      } else if (options && (a.equals("-o") || a.equals("-p"))) {
+        if (i >= args.length) {
+          throw new IllegalArgumentException("'" + a + "' needs argument");
+        }
+        String v = args[i++];
+        if (a.equals("-o")) {
+          output = Paths.get(v);
+        } else {
+          prefix = v;
+        }
+      } else if (options && a.equals("-v")) {
+        verbose = true;
+      } else if (options && a.startsWith("-")) {
+        throw new IllegalArgumentException("unrecognized option '" + a + "'");
+      } else {
+        sources.add(Paths.get(a));
+      }
+    }
+
+    if (sources.isEmpty()) {
+      throw new IllegalArgumentException("no input files given");
+    }
+  }
+
+  private static String moduleName(Path relative) {
+    List<String> parts = new ArrayList<>();
+    for (Path p : relative) {
+      parts.add(p.toString());
+    }
+
+    String last = parts.remove(parts.size() - 1);
+    last = last.substring(0, last.length() - LUA_SUFFIX.length());
+    if (!last.equals(INIT_MODULE) || parts.isEmpty()) {
+      parts.add(last);
+    }
+
+    return String.join(".", parts);
+  }
+
+  private static boolean isLuaFile(Path p) {
+    return Files.isRegularFile(p) && p.getFileName().toString().endsWith(LUA_SUFFIX);
+  }
+
+  private static String chunkName(Path relative) {
+    List<String> parts = new ArrayList<>();
+    for (Path p : relative) {
+      parts.add(p.toString());
+    }
+    return String.join("/", parts);
+  }
+
+  private List<Source> findSources() throws IOException {
+    List<Source> result = new ArrayList<>();
+    for (Path root : sources) {
+      if (Files.isDirectory(root)) {
+        List<Path> files;
+        try (Stream<Path> s = Files.walk(root)) {
+          files = s.filter(LunaCompile::isLuaFile).sorted().collect(Collectors.toList());
+        }
+        for (Path f : files) {
+          Path relative = root.relativize(f);
+          result.add(new Source(f, moduleName(relative), chunkName(relative)));
+        }
+      } else if (isLuaFile(root)) {
+        Path name = root.getFileName();
+        result.add(new Source(root, moduleName(name), root.toString()));
+      } else {
+        throw new IOException("cannot open " + root);
+      }
+    }
+    return result;
+  }
+
+  // a valid Java identifier derived from the module name
+  private static String classNameFor(String prefix, String moduleName, String hash) {
+    StringBuilder bld = new StringBuilder(prefix);
+    for (int i = 0; i < moduleName.length(); i++) {
+      char c = moduleName.charAt(i);
+      bld.append(Character.isJavaIdentifierPart(c) ? c : '_');
+    }
+    return bld.append('_').append(hash, 0, 8).toString();
+  }
+
+  private static boolean isIndexable(String s) {
+    return s.indexOf('\t') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0;
+  }
+
+  private static void putEntry(JarOutputStream jar, String name, byte[] bytes)
+      throws IOException {
+    JarEntry entry = new JarEntry(name);
+    entry.setTime(0L);  // reproducible output
+    jar.putNextEntry(entry);
+    jar.write(bytes);
+    jar.closeEntry();
+  }
+
+  private void writeJar(Map<String, ByteVector> classes, String index) throws IOException {
+    Path dir = output.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    Path tmp = Files.createTempFile(dir, output.getFileName().toString(), ".tmp");
+    try {
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      manifest.getMainAttributes().put(new Attributes.Name("Created-By"), "luna --compile");
+
+      try (OutputStream os = Files.newOutputStream(tmp);
+          JarOutputStream jar = new JarOutputStream(os, manifest)) {
+
+        putEntry(jar, PrecompiledChunkLoader.INDEX_RESOURCE_NAME,
+            index.getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, ByteVector> e : classes.entrySet()) {
+          putEntry(jar, e.getKey().replace('.', '/') + ".class",
+              e.getValue().copyToNewArray());
+        }
+      }
+
+      Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  int run(String[] args) {
+    try {
+      parseArguments(args);
+    } catch (IllegalArgumentException ex) {
+      err.println(ex.getMessage());
+      printUsage(err);
+      return 1;
+    }
+
+    LuaCompiler compiler = new LuaCompiler(Utils.compilerSettings());
+    Map<String, ByteVector> classes = new TreeMap<>();
+    StringBuilder index = new StringBuilder(PrecompiledChunkLoader.INDEX_HEADER).append('\n')
+        .append(LuaCompiler.configuration(compiler.settings())).append('\n');
+
+    try {
+      List<Source> files = findSources();
+      Collections.sort(files, (a, b) -> a.moduleName.compareTo(b.moduleName));
+
+      for (Source src : files) {
+        if (!isIndexable(src.moduleName) || !isIndexable(src.chunkName)) {
+          err.println(src.path + ": invalid file name");
+          return 1;
+        }
+
+        // decoded the same way as source files loaded by the module library
+        String text = new String(Files.readAllBytes(src.path), Charset.defaultCharset());
+        String hash = PrecompiledChunkLoader.sourceHash(text);
+        String rootClassName = classNameFor(prefix, src.moduleName, hash);
+
+        final CompiledModule module;
+        try {
+          module = compiler.compile(text, src.chunkName, rootClassName);
+        } catch (ParseException | TokenMgrError ex) {
+          err.println(src.path + ": " + ex.getMessage());
+          return 1;
+        }
+
+        for (Map.Entry<String, ByteVector> e : module.classMap().entrySet()) {
+          if (classes.put(e.getKey(), e.getValue()) != null) {
+            err.println(src.path + ": duplicate class " + e.getKey());
+            return 1;
+          }
+        }
+
+        index.append(hash).append('\t')
+            .append(module.mainClassName()).append('\t')
+            .append(src.moduleName).append('\t')
+            .append(src.chunkName).append('\n');
+
+        if (verbose) {
+          out.println(src.moduleName + "\t" + src.path);
+        }
+      }
+
+      writeJar(classes, index.toString());
+    } catch (IOException ex) {
+      err.println(ex.getMessage());
+      return 1;
+    }
+
+    return 0;
+  }
+
+  public static void main(String[] args) {
+    System.exit(new LunaCompile(System.out, System.err).run(args));
+  }
+
+}
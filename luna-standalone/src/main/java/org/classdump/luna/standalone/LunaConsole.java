@@ -23,7 +23,10 @@ import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import jline.console.ConsoleReader;
@@ -32,7 +35,9 @@ import org.classdump.luna.Conversions;
 import org.classdump.luna.StateContext;
 import org.classdump.luna.Table;
 import org.classdump.luna.Variable;
+import org.classdump.luna.compiler.CompiledChunkCache;
 import org.classdump.luna.compiler.CompilerChunkLoader;
+import org.classdump.luna.compiler.LuaCompiler;
 import org.classdump.luna.compiler.CompilerSettings;
 import org.classdump.luna.env.RuntimeEnvironment;
 import org.classdump.luna.env.RuntimeEnvironments;
@@ -41,7 +46,9 @@ import org.classdump.luna.exec.CallPausedException;
 import org.classdump.luna.exec.DirectCallExecutor;
 import org.classdump.luna.impl.StateContexts;
 import org.classdump.luna.lib.StandardLibrary;
+import org.classdump.luna.load.ChunkLoader;
 import org.classdump.luna.load.LoaderException;
+import org.classdump.luna.load.PrecompiledChunkLoader;
 import org.classdump.luna.runtime.LuaFunction;
 
 public class LunaConsole {
@@ -56,6 +63,7 @@ public class LunaConsole {
   private final Table env;
 
   private final CompilerChunkLoader loader;
+  private final ChunkLoader chunkLoader;
   private final LuaFunction printFunction;
   private final LuaFunction requireFunction;
   private final boolean javaTraceback;
@@ -80,23 +88,18 @@ public class LunaConsole {
     this.out = Objects.requireNonNull(out);
     this.err = Objects.requireNonNull(err);
 
-    CompilerSettings.CPUAccountingMode cpuAccountingMode =
-        System.getenv(Constants.ENV_CPU_ACCOUNTING) != null
-            ? CompilerSettings.CPUAccountingMode.IN_EVERY_BASIC_BLOCK
-            : CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING;
-    CompilerSettings compilerSettings = CompilerSettings
-        .defaultSettings()
-        .withCPUAccountingMode(cpuAccountingMode);
+    CompilerSettings compilerSettings = Utils.compilerSettings();
 
     ClassLoader moduleClassLoader = newModuleClassLoader();
     Utils.logClassPath(ClassLoader.getSystemClassLoader(), "System classpath");
     Utils.logClassPath(moduleClassLoader, "Module classpath");
 
     this.state = StateContexts.newDefaultInstance();
-    this.loader = CompilerChunkLoader.of(compilerSettings, "luna_repl_");
+    this.loader = newChunkLoader(compilerSettings);
+    this.chunkLoader = newPrecompiledChunkLoader(compilerSettings, loader);
     RuntimeEnvironment runtimeEnv = RuntimeEnvironments.system(in, out, err);
     this.env = StandardLibrary.in(runtimeEnv)
-        .withLoader(loader)
+        .withLoader(chunkLoader)
         .withModuleLoader(moduleClassLoader)
         .withDebug(true)
         .installInto(state);
@@ -111,6 +114,55 @@ public class LunaConsole {
 
   }
 
+  private static CompilerChunkLoader newChunkLoader(CompilerSettings compilerSettings) {
+    String dir = System.getenv(Constants.ENV_CHUNK_CACHE);
+    if (dir != null && !dir.trim().isEmpty()) {
+      try {
+        CompiledChunkCache cache = CompiledChunkCache.open(Paths.get(dir.trim()));
+        if (Utils.isVerbose()) {
+          System.err.println("Chunk cache: " + cache.directory());
+        }
+        return CompilerChunkLoader.of(
+            CompilerChunkLoader.class.getClassLoader(),
+            new LuaCompiler(compilerSettings),
+            "luna_repl_",
+            cache);
+      } catch (IOException | RuntimeException ex) {
+        System.err.println("Unable to open chunk cache: " + ex.getMessage());
+      }
+    }
+    return CompilerChunkLoader.of(compilerSettings, "luna_repl_");
+  }
+
+  private static ChunkLoader newPrecompiledChunkLoader(CompilerSettings compilerSettings,
+      ChunkLoader fallback) {
+    String jars = System.getenv(Constants.ENV_PRECOMPILED);
+    if (jars != null) {
+      List<Path> paths = new ArrayList<>();
+      for (String s : jars.split(File.pathSeparator)) {
+        s = s.trim();
+        if (!s.isEmpty()) {
+          paths.add(Paths.get(s));
+        }
+      }
+
+      if (!paths.isEmpty()) {
+        try {
+          PrecompiledChunkLoader result = PrecompiledChunkLoader.of(
+              LuaCompiler.configuration(compilerSettings),
+              fallback, paths.toArray(new Path[paths.size()]));
+          if (Utils.isVerbose()) {
+            System.err.println("Precompiled chunks: " + result.size());
+          }
+          return result;
+        } catch (IOException | RuntimeException ex) {
+          System.err.println("Unable to load precompiled chunks: " + ex.getMessage());
+        }
+      }
+    }
+    return fallback;
+  }
+
   private static URLClassLoader newModuleClassLoader() {
     String cp = System.getenv(Constants.ENV_MODULE_CLASSPATH);
     if (cp != null) {
@@ -148,9 +200,17 @@ public class LunaConsole {
     out.println("  -E       ignore environment variables");
     out.println("  --       stop handling options");
     out.println("  -        stop handling options and execute stdin");
+    out.println("  " + Constants.OPTION_COMPILE
+        + " compile modules ahead of time (see '" + programName + " "
+        + Constants.OPTION_COMPILE + "')");
   }
 
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals(Constants.OPTION_COMPILE)) {
+      LunaCompile.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+
     // Caveat: inTty == true iff stdin *and* stdout are tty; however we only care about stdin
     boolean inTty = System.console() != null;
 
@@ -209,7 +269,7 @@ public class LunaConsole {
     Objects.requireNonNull(sourceFileName);
     Objects.requireNonNull(args);
 
-    LuaFunction fn = loader.loadTextChunk(new Variable(env), sourceFileName, sourceText);
+    LuaFunction fn = chunkLoader.loadTextChunk(new Variable(env), sourceFileName, sourceText);
 
     Object[] callArgs = new Object[args.length];
     System.arraycopy(args, 0, callArgs, 0, args.length);
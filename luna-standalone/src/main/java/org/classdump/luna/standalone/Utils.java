@@ -25,6 +25,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Objects;
+import org.classdump.luna.compiler.CompilerSettings;
 
 final class Utils {
 
@@ -69,6 +70,16 @@ final class Utils {
     }
   }
 
+  public static CompilerSettings compilerSettings() {
+    CompilerSettings.CPUAccountingMode cpuAccountingMode =
+        System.getenv(Constants.ENV_CPU_ACCOUNTING) != null
+            ? CompilerSettings.CPUAccountingMode.IN_EVERY_BASIC_BLOCK
+            : CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING;
+    return CompilerSettings
+        .defaultSettings()
+        .withCPUAccountingMode(cpuAccountingMode);
+  }
+
   public static boolean isVerbose() {
     return System.getenv(Constants.ENV_VERBOSE) != null;
   }
@@ -64,6 +64,7 @@ import org.classdump.luna.StateContext;
 import org.classdump.luna.Table;
 import org.classdump.luna.Variable;
 import org.classdump.luna.env.RuntimeEnvironment;
+import org.classdump.luna.load.BinaryChunks;
 import org.classdump.luna.load.ChunkLoader;
 import org.classdump.luna.load.LoaderException;
 import org.classdump.luna.runtime.Dispatch;
@@ -256,7 +257,26 @@ public final class BasicLib {
    * Manual entry for <code>dofile</code></a>
    */
   public static LuaFunction dofile(Object env, ChunkLoader loader, FileSystem fileSystem) {
-    return new DoFile(fileSystem, loader, env);
+    return dofile(env, loader, fileSystem, false);
+  }
+
+  /**
+   * Returns a {@code dofile} function that uses the specified chunk loader {@code loader}
+   * and {@code env} as the default global environment for loaded chunks, and opens files
+   * in the specified {@code fileSystem}. Binary chunks are accepted iff
+   * {@code binaryChunks} is {@code true}.
+   *
+   * @param env the default global environment for loaded chunks, may be {@code null}
+   * @param loader the chunk loader to use, must not be {@code null}
+   * @param fileSystem the file system to use, must not be {@code null}
+   * @param binaryChunks boolean flag indicating whether to accept binary chunks
+   * @return the {@code dofile} function
+   * @throws NullPointerException if {@code fileSystem} or {@code loader} is {@code null}
+   * @see #dofile(Object, ChunkLoader, FileSystem)
+   */
+  public static LuaFunction dofile(Object env, ChunkLoader loader, FileSystem fileSystem,
+      boolean binaryChunks) {
+    return new DoFile(fileSystem, loader, env, binaryChunks);
   }
 
   /**
@@ -373,6 +393,10 @@ public final class BasicLib {
    * chunks can crash the interpreter.</p>
    * </blockquote>
    *
+   * <p><b>Note:</b> the {@code load} function returned by this method does not accept
+   * binary chunks, and its default mode is {@code "t"}. Use
+   * {@link #load(Object, ChunkLoader, boolean)} to enable binary chunks.</p>
+   *
    * @param env the default global environment for loaded chunks, may be {@code null}
    * @param loader the chunk loader to use, must not be {@code null}
    * @return the {@code load} function
@@ -381,7 +405,27 @@ public final class BasicLib {
    * entry for <code>load</code></a>
    */
   public static LuaFunction load(Object env, ChunkLoader loader) {
-    return new Load(loader, env);
+    return load(env, loader, false);
+  }
+
+  /**
+   * Returns a {@code load} function that uses the specified chunk loader {@code loader}
+   * and {@code env} as the default global environment for loaded chunks. Binary chunks
+   * are accepted iff {@code binaryChunks} is {@code true}; otherwise, the default mode
+   * is {@code "t"} and attempts to load a binary chunk fail regardless of the mode.
+   *
+   * <p>Binary chunks are defined as JVM classes without any verification of their contents.
+   * They must only be enabled when all scripts with access to this function are trusted.</p>
+   *
+   * @param env the default global environment for loaded chunks, may be {@code null}
+   * @param loader the chunk loader to use, must not be {@code null}
+   * @param binaryChunks boolean flag indicating whether to accept binary chunks
+   * @return the {@code load} function
+   * @throws NullPointerException if {@code loader} is {@code null}
+   * @see #load(Object, ChunkLoader)
+   */
+  public static LuaFunction load(Object env, ChunkLoader loader, boolean binaryChunks) {
+    return new Load(loader, env, binaryChunks);
   }
 
   /**
@@ -410,7 +454,26 @@ public final class BasicLib {
    * Manual entry for <code>loadfile</code></a>
    */
   public static LuaFunction loadfile(Object env, ChunkLoader loader, FileSystem fileSystem) {
-    return new LoadFile(fileSystem, loader, env);
+    return loadfile(env, loader, fileSystem, false);
+  }
+
+  /**
+   * Returns a {@code loadfile} function that uses the specified chunk loader {@code loader}
+   * and {@code env} as the default global environment for loaded chunks, and opens files
+   * in the specified {@code fileSystem}. Binary chunks are accepted iff
+   * {@code binaryChunks} is {@code true}.
+   *
+   * @param env the default global environment for loaded chunks, may be {@code null}
+   * @param loader the chunk loader to use, must not be {@code null}
+   * @param fileSystem the file system to use, must not be {@code null}
+   * @param binaryChunks boolean flag indicating whether to accept binary chunks
+   * @return the {@code loadfile} function
+   * @throws NullPointerException if {@code fileSystem} or {@code loader} is {@code null}
+   * @see #loadfile(Object, ChunkLoader, FileSystem)
+   */
+  public static LuaFunction loadfile(Object env, ChunkLoader loader, FileSystem fileSystem,
+      boolean binaryChunks) {
+    return new LoadFile(fileSystem, loader, env, binaryChunks);
   }
 
   /**
@@ -786,6 +849,24 @@ public final class BasicLib {
    */
   public static void installInto(StateContext context, Table env,
       RuntimeEnvironment runtimeEnvironment, ChunkLoader loader) {
+    installInto(context, env, runtimeEnvironment, loader, false);
+  }
+
+  /**
+   * Installs the basic library to the global environment {@code env} in the state
+   * context {@code context}, as {@link #installInto(StateContext, Table, RuntimeEnvironment,
+   * ChunkLoader)}, with {@code load}, {@code loadfile} and {@code dofile} accepting
+   * binary chunks iff {@code binaryChunks} is {@code true}.
+   *
+   * @param context the state context, must not be {@code null}
+   * @param env the global environment, must not be {@code null}
+   * @param runtimeEnvironment the runtime environment to use, may be {@code null}
+   * @param loader the chunk loader to use, may be {@code null}
+   * @param binaryChunks boolean flag indicating whether to accept binary chunks
+   * @throws NullPointerException if {@code context} or {@code env} is {@code null}
+   */
+  public static void installInto(StateContext context, Table env,
+      RuntimeEnvironment runtimeEnvironment, ChunkLoader loader, boolean binaryChunks) {
     Objects.requireNonNull(context);  // not needed, but included for consistency
     Objects.requireNonNull(env);
 
@@ -795,17 +876,17 @@ public final class BasicLib {
     env.rawset("assert", assertFn());
     env.rawset("collectgarbage", collectgarbage());
     if (loader != null && fileSystem != null) {
-      env.rawset("dofile", dofile(env, loader, fileSystem));
+      env.rawset("dofile", dofile(env, loader, fileSystem, binaryChunks));
     }
     env.rawset("error", error());
     env.rawset("_G", env);
     env.rawset("getmetatable", getmetatable());
     env.rawset("ipairs", ipairs());
     if (loader != null) {
-      env.rawset("load", load(env, loader));
+      env.rawset("load", load(env, loader, binaryChunks));
     }
     if (loader != null && fileSystem != null) {
-      env.rawset("loadfile", loadfile(env, loader, fileSystem));
+      env.rawset("loadfile", loadfile(env, loader, fileSystem, binaryChunks));
     }
     env.rawset("next", next());
     env.rawset("pairs", pairs());
@@ -836,15 +917,21 @@ public final class BasicLib {
     try {
       Path p = fileSystem.getPath(fileName);
 
-      if (!modeString.contains((byte) 't')) {
-        throw new LuaRuntimeException(
-            "attempt to load a text chunk (mode is '" + modeString + "')");
-      }
-
       // FIXME: this is extremely wasteful!
       byte[] bytes = Files.readAllBytes(p);
-      ByteString chunkText = ByteString.copyOf(bytes);
-      fn = loader.loadTextChunk(new Variable(env), fileName, chunkText.toString());
+      boolean binary = BinaryChunks.isBinaryChunk(bytes, 0, bytes.length);
+
+      if (!modeString.contains((byte) (binary ? 'b' : 't'))) {
+        throw new LuaRuntimeException("attempt to load a " + (binary ? "binary" : "text")
+            + " chunk (mode is '" + modeString + "')");
+      }
+
+      if (binary) {
+        fn = loader.loadBinaryChunk(new Variable(env), fileName, bytes, 0, bytes.length);
+      } else {
+        ByteString chunkText = ByteString.copyOf(bytes);
+        fn = loader.loadTextChunk(new Variable(env), fileName, chunkText.toString());
+      }
     } catch (InvalidPathException | IOException ex) {
       throw new LoaderException(ex, fileName);
     }
@@ -1601,13 +1688,29 @@ public final class BasicLib {
   static class Load extends AbstractLibFunction {
 
     static final ByteString DEFAULT_MODE = ByteString.constOf("bt");
+    static final ByteString TEXT_MODE = ByteString.constOf("t");
 
     private final ChunkLoader loader;
     private final Object defaultEnv;
+    private final boolean binaryChunks;
 
-    public Load(ChunkLoader loader, Object env) {
+    public Load(ChunkLoader loader, Object env, boolean binaryChunks) {
       this.loader = Objects.requireNonNull(loader);
       this.defaultEnv = env;
+      this.binaryChunks = binaryChunks;
+    }
+
+    static ByteString defaultMode(boolean binaryChunks) {
+      return binaryChunks ? DEFAULT_MODE : TEXT_MODE;
+    }
+
+    // without binary chunks, the mode is restricted to text chunks
+    static ByteString effectiveMode(ByteString modeString, boolean binaryChunks) {
+      if (binaryChunks || !modeString.contains((byte) 'b')) {
+        return modeString;
+      } else {
+        return modeString.contains((byte) 't') ? TEXT_MODE : ByteString.empty();
+      }
     }
 
     @Override
@@ -1639,31 +1742,39 @@ public final class BasicLib {
             : "=(load)";
       }
 
-      final ByteString modeString = args.nextOptionalString(DEFAULT_MODE);
+      final ByteString modeString = effectiveMode(
+          args.nextOptionalString(defaultMode(binaryChunks)), binaryChunks);
       final Object env = args.nextOptionalAny(defaultEnv);
 
-      // TODO: binary chunks
-
-      if (!modeString.contains((byte) 't')) {
-        ByteStringBuilder bld = new ByteStringBuilder();
-        bld.append("attempt to load a text chunk (mode is '").append(modeString).append("')");
-        context.getReturnBuffer().setTo(null, bld.toByteString());
+      if (chunk instanceof ByteString) {
+        loadFromString(context, chunkName, modeString, env, (ByteString) chunk);
       } else {
-        if (chunk instanceof ByteString) {
-          loadFromString(context, chunkName, env, (ByteString) chunk);
-        } else {
-          LuaFunction fn = (LuaFunction) chunk;
-          loadFromFunction(context, false, chunkName, env, new ByteStringBuilder(), fn);
-        }
+        LuaFunction fn = (LuaFunction) chunk;
+        loadFromFunction(context, false, chunkName, modeString, env, new ByteStringBuilder(), fn);
       }
 
     }
 
-    private void loadFromString(ExecutionContext context, String chunkName, Object env,
-        ByteString chunkText) {
+    private void loadFromString(ExecutionContext context, String chunkName, ByteString modeString,
+        Object env, ByteString chunk) {
+
+      boolean binary = !chunk.isEmpty() && chunk.byteAt(0) == BinaryChunks.SIGNATURE_BYTE;
+      if (!modeString.contains((byte) (binary ? 'b' : 't'))) {
+        ByteStringBuilder bld = new ByteStringBuilder();
+        bld.append("attempt to load a ").append(binary ? "binary" : "text")
+            .append(" chunk (mode is '").append(modeString).append("')");
+        context.getReturnBuffer().setTo(null, bld.toByteString());
+        return;
+      }
+
       final LuaFunction fn;
       try {
-        fn = loader.loadTextChunk(new Variable(env), chunkName, chunkText.toString());
+        if (binary) {
+          byte[] bytes = chunk.getBytes();
+          fn = loader.loadBinaryChunk(new Variable(env), chunkName, bytes, 0, bytes.length);
+        } else {
+          fn = loader.loadTextChunk(new Variable(env), chunkName, chunk.toString());
+        }
       } catch (LoaderException ex) {
         context.getReturnBuffer().setTo(null, ex.getLuaStyleErrorMessage());
         return;
@@ -1678,7 +1789,7 @@ public final class BasicLib {
     }
 
     private void loadFromFunction(ExecutionContext context, boolean resuming, String chunkName,
-        Object env, ByteStringBuilder bld, LuaFunction fn)
+        ByteString modeString, Object env, ByteStringBuilder bld, LuaFunction fn)
         throws ResolvedControlThrowable {
 
       ByteString chunkText = null;
@@ -1705,30 +1816,34 @@ public final class BasicLib {
           }
         }
       } catch (UnresolvedControlThrowable ct) {
-        throw ct.resolve(this, new State(chunkName, env, bld, fn));
+        throw ct.resolve(this, new State(chunkName, modeString, env, bld, fn));
       }
 
       assert (chunkText != null);
 
-      loadFromString(context, chunkName, env, chunkText);
+      loadFromString(context, chunkName, modeString, env, chunkText);
     }
 
     @Override
     public void resume(ExecutionContext context, Object suspendedState)
         throws ResolvedControlThrowable {
       State state = (State) suspendedState;
-      loadFromFunction(context, true, state.chunkName, state.env, state.bld, state.fn);
+      loadFromFunction(context, true, state.chunkName, state.modeString, state.env, state.bld,
+          state.fn);
     }
 
     private static class State {
 
       public final String chunkName;
+      public final ByteString modeString;
       public final Object env;
       public final ByteStringBuilder bld;
       public final LuaFunction fn;
 
-      private State(String chunkName, Object env, ByteStringBuilder bld, LuaFunction fn) {
+      private State(String chunkName, ByteString modeString, Object env, ByteStringBuilder bld,
+          LuaFunction fn) {
         this.chunkName = chunkName;
+        this.modeString = modeString;
         this.env = env;
         this.bld = bld;
         this.fn = fn;
@@ -1743,11 +1858,14 @@ public final class BasicLib {
     private final FileSystem fileSystem;
     private final ChunkLoader loader;
     private final Object defaultEnv;
+    private final boolean binaryChunks;
 
-    public LoadFile(FileSystem fileSystem, ChunkLoader loader, Object defaultEnv) {
+    public LoadFile(FileSystem fileSystem, ChunkLoader loader, Object defaultEnv,
+        boolean binaryChunks) {
       this.fileSystem = Objects.requireNonNull(fileSystem);
       this.loader = Objects.requireNonNull(loader);
       this.defaultEnv = defaultEnv;
+      this.binaryChunks = binaryChunks;
     }
 
     @Override
@@ -1760,7 +1878,8 @@ public final class BasicLib {
         throws ResolvedControlThrowable {
 
       final ByteString fileName = args.nextOptionalString(null);
-      final ByteString modeString = args.nextOptionalString(Load.DEFAULT_MODE);
+      final ByteString modeString = Load.effectiveMode(
+          args.nextOptionalString(Load.defaultMode(binaryChunks)), binaryChunks);
       final Object env = args.nextOptionalAny(defaultEnv);
 
       boolean isStdin = fileName == null;
@@ -1794,11 +1913,13 @@ public final class BasicLib {
     private final FileSystem fileSystem;
     private final ChunkLoader loader;
     private final Object env;
+    private final boolean binaryChunks;
 
-    public DoFile(FileSystem fileSystem, ChunkLoader loader, Object env) {
+    public DoFile(FileSystem fileSystem, ChunkLoader loader, Object env, boolean binaryChunks) {
       this.fileSystem = Objects.requireNonNull(fileSystem);
       this.loader = Objects.requireNonNull(loader);
       this.env = env;
+      this.binaryChunks = binaryChunks;
     }
 
     @Override
@@ -1819,7 +1940,8 @@ public final class BasicLib {
 
       final LuaFunction fn;
       try {
-        fn = loadTextChunkFromFile(fileSystem, loader, fileName.toString(), Load.DEFAULT_MODE, env);
+        fn = loadTextChunkFromFile(fileSystem, loader, fileName.toString(),
+            Load.defaultMode(binaryChunks), env);
       } catch (LoaderException ex) {
         throw new LuaRuntimeException(ex.getLuaStyleErrorMessage());
       }
@@ -57,10 +57,13 @@ import org.classdump.luna.Conversions;
 import org.classdump.luna.LuaRuntimeException;
 import org.classdump.luna.StateContext;
 import org.classdump.luna.Table;
+import org.classdump.luna.Variable;
 import org.classdump.luna.env.RuntimeEnvironment;
 import org.classdump.luna.impl.UnimplementedFunction;
+import org.classdump.luna.load.ChunkFactory;
 import org.classdump.luna.load.ChunkLoader;
 import org.classdump.luna.load.LoaderException;
+import org.classdump.luna.load.PrecompiledChunkLoader;
 import org.classdump.luna.runtime.Dispatch;
 import org.classdump.luna.runtime.ExecutionContext;
 import org.classdump.luna.runtime.LuaFunction;
@@ -217,6 +220,10 @@ public final class ModuleLib {
       addSearcher(searchers, new PreloadSearcher(preload));
       if (chunkLoader != null) {
         addSearcher(searchers, new ChunkLoadPathSearcher(fileSystem, t, chunkLoader, env));
+        if (chunkLoader instanceof PrecompiledChunkLoader) {
+          addSearcher(searchers,
+              new PrecompiledModuleSearcher((PrecompiledChunkLoader) chunkLoader, env));
+        }
       }
       if (classLoader != null) {
         addSearcher(searchers,
@@ -486,7 +493,7 @@ public final class ModuleLib {
 
     private LuaFunction loaderForPath(ByteString path) throws LoaderException {
       return BasicLib
-          .loadTextChunkFromFile(fileSystem, loader, path.toString(), BasicLib.Load.DEFAULT_MODE,
+          .loadTextChunkFromFile(fileSystem, loader, path.toString(), BasicLib.Load.TEXT_MODE,
               env);
     }
 
@@ -530,6 +537,49 @@ public final class ModuleLib {
 
   }
 
+  /**
+   * A searcher function that looks up modules precompiled ahead of time by their module name,
+   * used when the module source files are not available.
+   */
+  static class PrecompiledModuleSearcher extends AbstractLibFunction {
+
+    private final PrecompiledChunkLoader loader;
+    private final Object env;
+
+    PrecompiledModuleSearcher(PrecompiledChunkLoader loader, Object env) {
+      this.loader = Objects.requireNonNull(loader);
+      this.env = env;
+    }
+
+    @Override
+    protected String name() {
+      return "(precompiled searcher)";
+    }
+
+    @Override
+    protected void invoke(ExecutionContext context, ArgumentIterator args)
+        throws ResolvedControlThrowable {
+      ByteString modName = args.nextString();
+
+      final LuaFunction fn;
+      try {
+        ChunkFactory factory = loader.loadModule(modName.toString());
+        if (factory == null) {
+          context.getReturnBuffer().setTo("\n\tno precompiled module '" + modName + "'");
+          return;
+        }
+        fn = factory.newInstance(new Variable(env));
+      } catch (LoaderException ex) {
+        throw new LuaRuntimeException(
+            "error loading precompiled module '" + modName + "'"
+                + "\n\t" + ex.getLuaStyleErrorMessage());
+      }
+
+      context.getReturnBuffer().setTo(fn, modName);
+    }
+
+  }
+
   /**
    * An abstract searcher function that uses a {@link ServiceLoader} to discover
    * loader services.
@@ -36,25 +36,27 @@ public class StandardLibrary {
   private final ChunkLoader chunkLoader;
   private final ClassLoader moduleLoader;
   private final boolean withDebug;
+  private final boolean withBinaryChunks;
 
   private StandardLibrary(RuntimeEnvironment environment,
       ChunkLoader chunkLoader, ClassLoader moduleLoader,
-      boolean withDebug) {
+      boolean withDebug, boolean withBinaryChunks) {
 
     this.environment = Objects.requireNonNull(environment);
     this.chunkLoader = chunkLoader;
     this.moduleLoader = moduleLoader;
     this.withDebug = withDebug;
+    this.withBinaryChunks = withBinaryChunks;
   }
 
   private StandardLibrary(RuntimeEnvironment environment) {
-    this(environment, null, null, false);
+    this(environment, null, null, false, false);
   }
 
   /**
    * Returns a default configuration for the specified environment.
-   * The default configuration does not include the Debug library, has no chunk loader
-   * and has no module loader.
+   * The default configuration does not include the Debug library, has no chunk loader,
+   * has no module loader and does not load binary chunks.
    *
    * <p>If any of the standard streams defined by the runtime environment is {@code null},
    * the corresponding file in the I/O library (such as {@code io.stdin}) will be undefined.
@@ -79,7 +81,8 @@ public class StandardLibrary {
    */
   public StandardLibrary withLoader(ChunkLoader chunkLoader) {
     return this.chunkLoader != chunkLoader
-        ? new StandardLibrary(environment, chunkLoader, moduleLoader, withDebug)
+        ? new StandardLibrary(environment, chunkLoader, moduleLoader, withDebug,
+            withBinaryChunks)
         : this;
   }
 
@@ -93,7 +96,8 @@ public class StandardLibrary {
    */
   public StandardLibrary withModuleLoader(ClassLoader moduleLoader) {
     return this.moduleLoader != moduleLoader
-        ? new StandardLibrary(environment, chunkLoader, moduleLoader, withDebug)
+        ? new StandardLibrary(environment, chunkLoader, moduleLoader, withDebug,
+            withBinaryChunks)
         : this;
   }
 
@@ -106,7 +110,26 @@ public class StandardLibrary {
    */
   public StandardLibrary withDebug(boolean hasDebug) {
     return this.withDebug != hasDebug
-        ? new StandardLibrary(environment, chunkLoader, moduleLoader, hasDebug)
+        ? new StandardLibrary(environment, chunkLoader, moduleLoader, hasDebug,
+            withBinaryChunks)
+        : this;
+  }
+
+  /**
+   * Returns a configuration in which {@code load}, {@code loadfile} and {@code dofile}
+   * accept binary chunks iff {@code hasBinaryChunks} is {@code true}.
+   *
+   * <p>Binary chunks are defined as JVM classes without any verification of their contents,
+   * and must therefore only be enabled when all scripts are trusted.</p>
+   *
+   * @param hasBinaryChunks boolean flag indicating whether to accept binary chunks
+   * @return a configuration that accepts binary chunks iff {@code hasBinaryChunks}
+   * is {@code true}
+   */
+  public StandardLibrary withBinaryChunks(boolean hasBinaryChunks) {
+    return this.withBinaryChunks != hasBinaryChunks
+        ? new StandardLibrary(environment, chunkLoader, moduleLoader, withDebug,
+            hasBinaryChunks)
         : this;
   }
 
@@ -124,7 +147,7 @@ public class StandardLibrary {
     Objects.requireNonNull(state);
     Table env = state.newTable();
 
-    BasicLib.installInto(state, env, environment, chunkLoader);
+    BasicLib.installInto(state, env, environment, chunkLoader, withBinaryChunks);
     ModuleLib.installInto(state, env, environment, chunkLoader, moduleLoader);
     CoroutineLib.installInto(state, env);
     StringLib.installInto(state, env);
@@ -43,6 +43,8 @@
 
 package org.classdump.luna.lib;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -59,6 +61,7 @@ import org.classdump.luna.StateContext;
 import org.classdump.luna.Table;
 import org.classdump.luna.impl.NonsuspendableFunctionException;
 import org.classdump.luna.impl.UnimplementedFunction;
+import org.classdump.luna.load.BinaryChunks;
 import org.classdump.luna.runtime.AbstractFunction0;
 import org.classdump.luna.runtime.Dispatch;
 import org.classdump.luna.runtime.ExecutionContext;
@@ -174,6 +177,13 @@ public final class StringLib {
    * to your needs.)</p>
    * </blockquote>
    *
+   * <p>Only functions compiled by Luna can be dumped, and only if their class files are
+   * available. Functions loaded by a {@link org.classdump.luna.load.ChunkClassLoader} can
+   * be dumped if and only if it
+   * {@linkplain org.classdump.luna.load.ChunkClassLoader#retainsClassFiles() retains}
+   * the class files of the classes it loads, as it does by default; otherwise, this function
+   * raises the error {@code "unable to dump given function"}.</p>
+   *
    * @return the {@code string.dump} function
    * @see <a href="http://www.lua.org/manual/5.3/manual.html#pdf-string.dump"> the Lua 5.3 Reference
    * Manual entry for <code>string.dump</code></a>
@@ -782,9 +792,17 @@ public final class StringLib {
     protected void invoke(ExecutionContext context, ArgumentIterator args)
         throws ResolvedControlThrowable {
       LuaFunction f = args.nextFunction();
+      // the debug information is part of the class files, and is always included
       boolean strip = args.hasNext() && args.nextBoolean();
 
-      throw new IllegalOperationAttemptException("unable to dump given function");
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        BinaryChunks.write(BinaryChunks.dump(f), out);
+      } catch (IOException ex) {
+        throw new IllegalOperationAttemptException("unable to dump given function");
+      }
+
+      context.getReturnBuffer().setTo(ByteString.copyOf(out.toByteArray()));
     }
 
   }
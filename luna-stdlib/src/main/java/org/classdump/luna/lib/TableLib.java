@@ -80,6 +80,7 @@ public final class TableLib {
   static final LuaFunction CONCAT = new Concat();
   static final LuaFunction INSERT = new Insert();
   static final LuaFunction MOVE = new Move();
+  static final LuaFunction NEW = new New();
   static final LuaFunction PACK = new Pack();
   static final LuaFunction REMOVE = new Remove();
   static final LuaFunction SORT = new Sort();
@@ -156,6 +157,31 @@ public final class TableLib {
     return MOVE;
   }
 
+  /**
+   * Returns the function {@code table.new}.
+   *
+   * <p>This function is not part of the Lua 5.3 standard library; it is modelled after
+   * the LuaJIT extension of the same name:</p>
+   *
+   * <blockquote>
+   * {@code table.new (narray, nhash)}
+   *
+   * <p>Creates a new empty table pre-sized to hold {@code narray} array-like elements
+   * and {@code nhash} hash-like elements. The table can be filled without any further
+   * resizing of its internal storage, as long as these limits are not exceeded.</p>
+   * </blockquote>
+   *
+   * <p>As in LuaJIT, sizes above 2<sup>27</sup> (for {@code narray}) and 2<sup>26</sup>
+   * (for {@code nhash}) raise a "table overflow" error. Since the sizes are only hints,
+   * at most 2<sup>20</sup> elements of each part are allocated up front, so that scripts
+   * cannot exhaust the heap by merely asking for a large table.</p>
+   *
+   * @return the {@code table.new} function
+   */
+  public static LuaFunction newFn() {
+    return NEW;
+  }
+
   /**
    * Returns the function {@code table.pack}.
    *
@@ -280,6 +306,7 @@ public final class TableLib {
     t.rawset("concat", concat());
     t.rawset("insert", insert());
     t.rawset("move", move());
+    t.rawset("new", newFn());
     t.rawset("pack", pack());
     t.rawset("remove", remove());
     t.rawset("sort", sort());
@@ -849,6 +876,38 @@ public final class TableLib {
 
   }
 
+  static class New extends AbstractLibFunction {
+
+    // the limits of LuaJIT (LJ_MAX_ASIZE and 2^LJ_MAX_HBITS)
+    static final int MAX_ARRAY_SIZE = (1 << 27) + 1;
+    static final int MAX_HASH_SIZE = 1 << 26;
+
+    // sizes are hints: beyond this, the storage grows as the table is filled
+    static final int MAX_PREALLOCATED_SIZE = 1 << 20;
+
+    @Override
+    protected String name() {
+      return "new";
+    }
+
+    @Override
+    protected void invoke(ExecutionContext context, ArgumentIterator args)
+        throws ResolvedControlThrowable {
+      int narray = args.nextIntRange(0, Integer.MAX_VALUE, "size");
+      int nhash = args.nextIntRange(0, Integer.MAX_VALUE, "size");
+
+      if (narray > MAX_ARRAY_SIZE || nhash > MAX_HASH_SIZE) {
+        throw new LuaRuntimeException("table overflow");
+      }
+
+      Table t = context.newTable(
+          Math.min(narray, MAX_PREALLOCATED_SIZE),
+          Math.min(nhash, MAX_PREALLOCATED_SIZE));
+      context.getReturnBuffer().setTo(t);
+    }
+
+  }
+
   static class Pack extends AbstractLibFunction {
 
     @Override
@@ -859,7 +918,7 @@ public final class TableLib {
     @Override
     protected void invoke(ExecutionContext context, ArgumentIterator args)
         throws ResolvedControlThrowable {
-      Table table = context.newTable();
+      Table table = context.newTable(args.remaining(), 1);
 
       int n = 0;
       while (args.hasNext()) {
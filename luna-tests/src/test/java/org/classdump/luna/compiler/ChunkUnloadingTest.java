@@ -0,0 +1,144 @@
+package org.classdump.luna.compiler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.WeakReference;
+import org.classdump.luna.StateContext;
+import org.classdump.luna.Table;
+import org.classdump.luna.Variable;
+import org.classdump.luna.env.RuntimeEnvironments;
+import org.classdump.luna.exec.DirectCallExecutor;
+import org.classdump.luna.impl.StateContexts;
+import org.classdump.luna.lib.StandardLibrary;
+import org.classdump.luna.load.ChunkClassLoader;
+import org.classdump.luna.load.ChunkLoader;
+import org.classdump.luna.runtime.LuaFunction;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ChunkUnloadingTest {
+
+  // set to true to run the metaspace soak test
+  private static final String SOAK_PROPERTY = "org.classdump.luna.test.UnloadingSoak";
+
+  private static String chunk(int i) {
+    return "local t = {}\n"
+        + "for k = 1, 4 do t[k] = function(x) return x * k + " + i + " end end\n"
+        + "local function sum(...) local s = 0; for _, f in ipairs({...}) do s = s + f(1) end; "
+        + "return s end\n"
+        + "return sum(table.unpack(t))";
+  }
+
+  private static Object run(ChunkLoader loader, int i) throws Exception {
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    LuaFunction<Variable, ?, ?, ?, ?> fn = loader.loadTextChunk(
+        new Variable(env), "chunk" + i, chunk(i));
+    return DirectCallExecutor.newExecutor().call(state, fn)[0];
+  }
+
+  private static WeakReference<ClassLoader> loadAndForget(ChunkLoader loader) throws Exception {
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    LuaFunction<Variable, ?, ?, ?, ?> fn = loader.loadTextChunk(
+        new Variable(env), "chunk", chunk(0));
+    assertThat(DirectCallExecutor.newExecutor().call(state, fn)).containsExactly(10L);
+    return new WeakReference<>(fn.getClass().getClassLoader());
+  }
+
+  private static void collectGarbage(WeakReference<?> ref) throws InterruptedException {
+    for (int i = 0; i < 20 && (ref == null || ref.get() != null); i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+  }
+
+  private static WeakReference<ClassLoader> defineAndForget() throws Exception {
+    ChunkClassLoader classLoader = new ChunkClassLoader();
+    String name = classLoader.install(
+        new LuaCompiler().compile("return 1", "control", "unloading_control"));
+    classLoader.loadClass(name);
+    return new WeakReference<ClassLoader>(classLoader);
+  }
+
+  // skips the calling test unless explicit garbage collections unload classes
+  // (they do not e.g. with -XX:+DisableExplicitGC or -XX:-ClassUnloading)
+  private static void assumeClassUnloading() throws Exception {
+    WeakReference<ClassLoader> ref = defineAndForget();
+    collectGarbage(ref);
+    Assume.assumeTrue("class unloading is not observable", ref.get() == null);
+  }
+
+  private static long metaspaceUsed() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getName().equals("Metaspace")) {
+        return pool.getUsage().getUsed();
+      }
+    }
+    return -1L;
+  }
+
+  @Test
+  public void unloadableChunksAreCollected() throws Exception {
+    CompilerChunkLoader loader = CompilerChunkLoader.unloadable("unloading_test_");
+    assertThat(loader.isUnloadable()).isTrue();
+
+    WeakReference<ClassLoader> ref = loadAndForget(loader);
+    assertThat(ref.get()).isNotSameAs(loader.getChunkClassLoader());
+    assumeClassUnloading();
+    collectGarbage(ref);
+    assertThat(ref.get()).isNull();
+
+    // chunks remain recognised as Lua functions in tracebacks
+    assertThat(loader.getChunkClassLoader().isInstalled("unloading_test_0")).isTrue();
+  }
+
+  @Test
+  public void sharedChunksAreNotCollected() throws Exception {
+    CompilerChunkLoader loader = CompilerChunkLoader.of("shared_unloading_test_");
+    assertThat(loader.isUnloadable()).isFalse();
+
+    WeakReference<ClassLoader> ref = loadAndForget(loader);
+    assertThat(ref.get()).isSameAs(loader.getChunkClassLoader());
+    collectGarbage(null);
+    assertThat(ref.get()).isNotNull();
+  }
+
+  @Test
+  public void metaspaceSoak() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean(SOAK_PROPERTY));
+    assumeClassUnloading();
+
+    int chunks = 2000;
+    ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+    CompilerSettings settings = CompilerSettings.defaultSettings().withParallelism(1);
+    CompilerChunkLoader loader = CompilerChunkLoader.unloadable(
+        getClass().getClassLoader(), new LuaCompiler(settings), "soak_");
+
+    // warm up, so that the runtime classes used by the chunks have been loaded
+    for (int i = 0; i < 50; i++) {
+      assertThat(run(loader, i)).isEqualTo(10L + 4 * i);
+    }
+    collectGarbage(null);
+    int loadedBefore = classLoading.getLoadedClassCount();
+    long unloadedBefore = classLoading.getUnloadedClassCount();
+    long metaspaceBefore = metaspaceUsed();
+
+    for (int i = 0; i < chunks; i++) {
+      assertThat(run(loader, i)).isEqualTo(10L + 4 * i);
+    }
+    collectGarbage(null);
+
+    int loadedAfter = classLoading.getLoadedClassCount();
+    long unloaded = classLoading.getUnloadedClassCount() - unloadedBefore;
+
+    // every chunk defines at least two classes
+    assertThat(unloaded).isGreaterThanOrEqualTo(2L * chunks);
+    assertThat(loadedAfter - loadedBefore).isLessThan(chunks / 10);
+    assertThat(metaspaceUsed()).isLessThan(metaspaceBefore + (chunks << 10));
+  }
+
+}
@@ -0,0 +1,169 @@
+package org.classdump.luna.compiler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.classdump.luna.StateContext;
+import org.classdump.luna.Table;
+import org.classdump.luna.Variable;
+import org.classdump.luna.env.RuntimeEnvironments;
+import org.classdump.luna.exec.DirectCallExecutor;
+import org.classdump.luna.impl.StateContexts;
+import org.classdump.luna.lib.StandardLibrary;
+import org.classdump.luna.load.ChunkFactory;
+import org.classdump.luna.parser.ParseException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompiledChunkCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String PROGRAM =
+      "local function f(x) return x * 2 end\n"
+          + "local t = {}\n"
+          + "for i = 1, 10 do t[i] = f(i) end\n"
+          + "return t[10] + x\n";
+
+  private static class CountingCompiler extends LuaCompiler {
+
+    final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public CompiledModule compile(String sourceText, String sourceFileName, String rootClassName)
+        throws ParseException {
+      count.incrementAndGet();
+      return super.compile(sourceText, sourceFileName, rootClassName);
+    }
+
+  }
+
+  private static int entries(Path dir) throws IOException {
+    int n = 0;
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.chunk")) {
+      for (Path ignored : ds) {
+        n += 1;
+      }
+    }
+    return n;
+  }
+
+  private static Object run(ChunkFactory factory) throws Exception {
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    env.rawset("x", 1L);
+    Object[] result = DirectCallExecutor.newExecutor()
+        .call(state, factory.newInstance(new Variable(env)));
+    return result[0];
+  }
+
+  @Test
+  public void compiledModuleRoundTrip() throws Exception {
+    CompiledModule module = new LuaCompiler().compile(PROGRAM, "test", "test_main");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    module.writeTo(out);
+    CompiledModule read = CompiledModule.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+    assertThat(read.mainClassName()).isEqualTo(module.mainClassName());
+    assertThat(read.classMap()).isEqualTo(module.classMap());
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedModuleIsRejected() throws Exception {
+    CompiledModule module = new LuaCompiler().compile(PROGRAM, "test", "test_main");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    module.writeTo(out);
+    byte[] bytes = out.toByteArray();
+    CompiledModule.readFrom(new ByteArrayInputStream(bytes, 0, bytes.length / 2));
+  }
+
+  @Test
+  public void keyDependsOnSourceAndSettings() {
+    CompilerSettings settings = CompilerSettings.defaultSettings();
+    String key = CompiledChunkCache.key(settings, PROGRAM, "test", "test_main");
+
+    assertThat(CompiledChunkCache.key(settings, PROGRAM, "test", "test_main")).isEqualTo(key);
+    assertThat(CompiledChunkCache.key(settings.withParallelism(1), PROGRAM, "test", "test_main"))
+        .isEqualTo(key);
+    assertThat(CompiledChunkCache.key(settings, PROGRAM + " ", "test", "test_main"))
+        .isNotEqualTo(key);
+    assertThat(CompiledChunkCache.key(settings, PROGRAM, "other", "test_main"))
+        .isNotEqualTo(key);
+    assertThat(CompiledChunkCache.key(settings.withConstFolding(false), PROGRAM, "test",
+        "test_main")).isNotEqualTo(key);
+  }
+
+  @Test
+  public void cacheStoresAndRetrievesModules() throws Exception {
+    CompiledChunkCache cache = CompiledChunkCache.open(folder.getRoot().toPath().resolve("c"));
+    CountingCompiler compiler = new CountingCompiler();
+
+    CompiledModule first = cache.compile(compiler, PROGRAM, "test", "test_main");
+    CompiledModule second = cache.compile(compiler, PROGRAM, "test", "test_main");
+
+    assertThat(compiler.count.get()).isEqualTo(1);
+    assertThat(second.classMap()).isEqualTo(first.classMap());
+    assertThat(entries(cache.directory())).isEqualTo(1);
+  }
+
+  @Test
+  public void corruptEntriesAreMisses() throws Exception {
+    CompiledChunkCache cache = CompiledChunkCache.open(folder.getRoot().toPath());
+    String key = CompiledChunkCache.key(
+        CompilerSettings.defaultSettings(), PROGRAM, "test", "test_main");
+    Files.write(cache.directory().resolve(key + ".chunk"), new byte[]{1, 2, 3});
+
+    assertThat(cache.get(key)).isNull();
+    assertThat(entries(cache.directory())).isEqualTo(0);
+  }
+
+  @Test
+  public void cacheSizeIsBounded() throws Exception {
+    LuaCompiler compiler = new LuaCompiler();
+    CompiledModule module = compiler.compile(PROGRAM, "test", "test_main");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    module.writeTo(out);
+    int entrySize = out.size();
+
+    CompiledChunkCache cache = CompiledChunkCache.open(folder.getRoot().toPath(), 3 * entrySize);
+    for (int i = 0; i < 10; i++) {
+      cache.put("k" + i, module);
+    }
+
+    assertThat(entries(cache.directory())).isEqualTo(3);
+    assertThat(cache.get("k9")).isNotNull();
+  }
+
+  @Test
+  public void chunkLoadersShareTheCache() throws Exception {
+    CompiledChunkCache cache = CompiledChunkCache.open(folder.getRoot().toPath());
+
+    CountingCompiler compiler1 = new CountingCompiler();
+    CompilerChunkLoader loader1 = CompilerChunkLoader.of(
+        getClass().getClassLoader(), compiler1, "cached_", cache);
+    assertThat(run(loader1.compileTextChunk("test", PROGRAM))).isEqualTo(21L);
+    // loading the same chunk again reuses the installed classes
+    assertThat(run(loader1.compileTextChunk("test", PROGRAM))).isEqualTo(21L);
+    assertThat(compiler1.count.get()).isEqualTo(1);
+
+    CountingCompiler compiler2 = new CountingCompiler();
+    CompilerChunkLoader loader2 = CompilerChunkLoader.of(
+        getClass().getClassLoader(), compiler2, "cached_", cache);
+    assertThat(run(loader2.compileTextChunk("test", PROGRAM))).isEqualTo(21L);
+    assertThat(compiler2.count.get()).isEqualTo(0);
+
+    assertThat(run(loader2.compileTextChunk("other", PROGRAM))).isEqualTo(21L);
+    assertThat(compiler2.count.get()).isEqualTo(1);
+  }
+
+}
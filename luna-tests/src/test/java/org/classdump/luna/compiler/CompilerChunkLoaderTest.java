@@ -2,7 +2,15 @@ package org.classdump.luna.compiler;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.classdump.luna.StateContext;
 import org.classdump.luna.Table;
 import org.classdump.luna.Variable;
@@ -69,4 +77,63 @@ public class CompilerChunkLoaderTest {
     assertThat(call1).containsExactlyInAnyOrder(true);
     assertThat(call2).matches(objects -> objects[0].toString().startsWith("table:"));
   }
-}
\ No newline at end of file
+
+  private static String concurrentChunk(int i) {
+    return "local t = {}\n"
+        + "for k = 1, 10 do t[k] = function(x) return x * k + " + i + " end end\n"
+        + "local s = 0\n"
+        + "for k, f in ipairs(t) do if k % 2 == 0 then s = s + f(k) else s = s - f(1) end end\n"
+        + "return s + " + i + " * 1000";
+  }
+
+  // compiles the chunks from the given number of threads, returning the main classes
+  private static List<ChunkFactory> compileConcurrently(final ChunkLoader loader, int chunks,
+      int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<ChunkFactory>> futures = new ArrayList<>();
+      for (int i = 0; i < chunks; i++) {
+        final int idx = i;
+        futures.add(executor.submit(new Callable<ChunkFactory>() {
+          @Override
+          public ChunkFactory call() throws Exception {
+            return loader.compileTextChunk("chunk" + idx, concurrentChunk(idx));
+          }
+        }));
+      }
+      List<ChunkFactory> result = new ArrayList<>();
+      for (Future<ChunkFactory> f : futures) {
+        result.add(f.get());
+      }
+      return result;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void concurrentCompilation() throws Exception {
+    int chunks = 200;
+    int cores = Runtime.getRuntime().availableProcessors();
+    CompilerSettings settings = CompilerSettings.defaultSettings().withParallelism(1);
+
+    for (int threads : new int[]{1, Math.max(2, cores)}) {
+      ChunkLoader loader = CompilerChunkLoader.of(settings, "concurrent_");
+
+      List<ChunkFactory> factories = compileConcurrently(loader, chunks, threads);
+
+      // every chunk got its own main class, and all of them work
+      Set<Class<?>> classes = new HashSet<>();
+      StateContext state = StateContexts.newDefaultInstance();
+      Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+      for (int i = 0; i < factories.size(); i++) {
+        LuaFunction<Variable, ?, ?, ?, ?> fn = factories.get(i).newInstance(new Variable(env));
+        classes.add(fn.getClass());
+        Object[] result = DirectCallExecutor.newExecutor().call(state, fn);
+        assertThat(result).containsExactly(195L + 1000L * i);
+      }
+      assertThat(classes).hasSize(chunks);
+    }
+  }
+
+}
@@ -0,0 +1,112 @@
+package org.classdump.luna.compiler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.Set;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.BinOp;
+import org.classdump.luna.compiler.ir.BodyNode;
+import org.classdump.luna.compiler.ir.Code;
+import org.classdump.luna.compiler.ir.Label;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.ir.TabRawGet;
+import org.classdump.luna.parser.Parser;
+import org.classdump.luna.parser.analysis.NameResolver;
+import org.junit.Test;
+
+public class LoopInvariantHoistingTest {
+
+  // k * 3 is invariant in the second loop, and known not to fail
+  private static final String ARITHMETIC = "local n = ...\n"
+      + "local k = 0\n"
+      + "for i = 1, 3 do k = i end\n"
+      + "local s = 0\n"
+      + "for j = 1, n do s = s + k * 3 end\n"
+      + "return s";
+
+  // t.x is invariant in the loop, but reading it may call a metamethod
+  private static final String TABLE_READ = "local t = ...\n"
+      + "local n = 0\n"
+      + "for i = 1, 5 do if t.x then n = n + 1 end end\n"
+      + "return n";
+
+  private static IRFunc process(CompilerSettings settings, String program) throws Exception {
+    Parser parser = new Parser(new ByteArrayInputStream(program.getBytes()));
+    IRFunc fn = IRTranslator.translate(NameResolver.resolveNames(parser.Chunk())).main();
+    return new LuaCompiler(settings).processFunction(fn).fn;
+  }
+
+  private static boolean reaches(Code code, Label from, Label to, Set<Label> visited) {
+    for (Label l : code.block(from).end().nextLabels()) {
+      if (l.equals(to) || (visited.add(l) && reaches(code, l, to, visited))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the number of nodes of the given class in blocks that are part of a loop
+  private static int inLoops(IRFunc fn, Class<? extends BodyNode> clazz) {
+    Code code = fn.code();
+    int count = 0;
+    for (Label l : code.labels()) {
+      if (reaches(code, l, l, new HashSet<Label>())) {
+        BasicBlock b = code.block(l);
+        for (BodyNode n : b.body()) {
+          if (clazz.isInstance(n)) {
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void defaultSettingsHoistArithmetic() throws Exception {
+    CompilerSettings settings = CompilerSettings.defaultSettings();
+    assertThat(settings.loopInvariantHoisting()).isTrue();
+
+    int hoisted = inLoops(process(settings, ARITHMETIC), BinOp.class);
+    int notHoisted = inLoops(
+        process(settings.withLoopInvariantHoisting(false), ARITHMETIC), BinOp.class);
+
+    assertThat(hoisted).isEqualTo(notHoisted - 1);
+  }
+
+  @Test
+  public void tableReadsAreOnlyHoistedWithoutCPUAccounting() throws Exception {
+    CompilerSettings settings = CompilerSettings.defaultSettings();
+
+    IRFunc accounted = process(settings, TABLE_READ);
+    assertThat(inLoops(accounted, TabGet.class)).isEqualTo(1);
+    assertThat(inLoops(accounted, TabRawGet.class)).isEqualTo(0);
+
+    IRFunc unaccounted = process(settings.withCPUAccountingMode(
+        CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING), TABLE_READ);
+    assertThat(inLoops(unaccounted, TabRawGet.class)).isEqualTo(0);
+    assertThat(tableRawReads(unaccounted)).isEqualTo(1);
+  }
+
+  @Test
+  public void hoistingIsPartOfTheConfiguration() {
+    CompilerSettings settings = CompilerSettings.defaultSettings();
+    assertThat(LuaCompiler.configuration(settings.withLoopInvariantHoisting(false)))
+        .isNotEqualTo(LuaCompiler.configuration(settings));
+  }
+
+  private static int tableRawReads(IRFunc fn) {
+    int count = 0;
+    for (Label l : fn.code().labels()) {
+      for (BodyNode n : fn.code().block(l).body()) {
+        if (n instanceof TabRawGet) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+}
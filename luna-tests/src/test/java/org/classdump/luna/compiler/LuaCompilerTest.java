@@ -0,0 +1,83 @@
+package org.classdump.luna.compiler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.classdump.luna.StateContext;
+import org.classdump.luna.Table;
+import org.classdump.luna.Variable;
+import org.classdump.luna.env.RuntimeEnvironments;
+import org.classdump.luna.exec.DirectCallExecutor;
+import org.classdump.luna.impl.StateContexts;
+import org.classdump.luna.lib.StandardLibrary;
+import org.classdump.luna.load.ChunkFactory;
+import org.classdump.luna.load.ChunkLoader;
+import org.junit.Test;
+
+public class LuaCompilerTest {
+
+  // a chunk with many (nested) functions
+  private static String manyClosures(int n) {
+    StringBuilder bld = new StringBuilder();
+    bld.append("local fs = {}\n");
+    for (int i = 0; i < n; i++) {
+      bld.append("fs[").append(i + 1).append("] = function(x) ")
+          .append("local function g(y) return y + ").append(i).append(" end ")
+          .append("return g(x) * 2 end\n");
+    }
+    bld.append("local sum = 0\n");
+    bld.append("for i, f in ipairs(fs) do sum = sum + f(i) end\n");
+    bld.append("return sum\n");
+    return bld.toString();
+  }
+
+  @Test
+  public void parallelCompilationEmitsTheSameClasses() throws Exception {
+    String program = manyClosures(50);
+
+    CompilerSettings settings = CompilerSettings.defaultSettings();
+    CompiledModule sequential = new LuaCompiler(settings.withParallelism(1))
+        .compile(program, "test", "test_main");
+    CompiledModule parallel = new LuaCompiler(settings.withParallelism(4))
+        .compile(program, "test", "test_main");
+    CompiledModule common = new LuaCompiler(settings.withParallelism(0))
+        .compile(program, "test", "test_main");
+
+    assertThat(sequential.classMap()).hasSize(101);
+    assertThat(parallel.classMap()).isEqualTo(sequential.classMap());
+    assertThat(common.classMap()).isEqualTo(sequential.classMap());
+    assertThat(parallel.mainClassName()).isEqualTo(sequential.mainClassName());
+  }
+
+  @Test
+  public void compilersShareTheirPools() throws Exception {
+    String program = manyClosures(10);
+    CompilerSettings settings = CompilerSettings.defaultSettings().withParallelism(4);
+    new LuaCompiler(settings).compile(program, "test", "test_main");
+
+    int threads = Thread.activeCount();
+    for (int i = 0; i < 10; i++) {
+      new LuaCompiler(settings).compile(program, "test", "test_main");
+    }
+
+    // the first compiler's pool may still be starting workers
+    assertThat(Thread.activeCount()).isLessThanOrEqualTo(threads + 4);
+  }
+
+  @Test
+  public void parallelCompiledChunkRuns() throws Exception {
+    String program = manyClosures(50);
+
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    ChunkLoader loader = CompilerChunkLoader.of(
+        CompilerSettings.defaultSettings().withParallelism(4), "parallel_");
+    ChunkFactory main = loader.compileTextChunk("", program);
+
+    Object[] result = DirectCallExecutor.newExecutor()
+        .call(state, main.newInstance(new Variable(env)));
+
+    // sum of 2 * (i + (i - 1)) for i = 1..50
+    assertThat(result).containsExactly(5000L);
+  }
+
+}
@@ -0,0 +1,88 @@
+package org.classdump.luna.compiler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import org.classdump.luna.compiler.analysis.EscapeAnalyser;
+import org.classdump.luna.compiler.ir.IRNode;
+import org.classdump.luna.compiler.ir.TabGet;
+import org.classdump.luna.compiler.tf.RedundantLoadEliminator;
+import org.classdump.luna.compiler.tf.ScalarReplacer;
+import org.classdump.luna.compiler.util.CodeUtils;
+import org.classdump.luna.parser.Parser;
+import org.classdump.luna.parser.analysis.NameResolver;
+import org.junit.Test;
+
+public class RedundantLoadEliminationTest {
+
+  private static IRFunc mainFunction(String program) throws Exception {
+    Parser parser = new Parser(new ByteArrayInputStream(program.getBytes()));
+    return IRTranslator.translate(NameResolver.resolveNames(parser.Chunk())).main();
+  }
+
+  private static int tableReads(IRFunc fn) {
+    int count = 0;
+    Iterator<IRNode> it = CodeUtils.nodeIterator(fn.code());
+    while (it.hasNext()) {
+      if (it.next() instanceof TabGet) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // the number of table reads left after scalar replacement, and then after
+  // redundant load elimination
+  private static int[] tableReadsLeft(String program) throws Exception {
+    IRFunc fn = mainFunction(program);
+    fn = ScalarReplacer.replaceTables(fn, EscapeAnalyser.analyse(fn));
+    int replaced = tableReads(fn);
+    fn = RedundantLoadEliminator.eliminateLoads(fn, EscapeAnalyser.analyse(fn));
+    return new int[] {replaced, tableReads(fn)};
+  }
+
+  private static int tableReadsLeft(CompilerSettings settings, String program) throws Exception {
+    return tableReads(new LuaCompiler(settings).processFunction(mainFunction(program)).fn);
+  }
+
+  @Test
+  public void eliminationIsControlledByItsOwnSetting() throws Exception {
+    String program = "local k, v = ...\n"
+        + "local p = {x = 1}\n"
+        + "p[k] = v\n"
+        + "return p.x + p.x";
+
+    CompilerSettings settings = CompilerSettings.defaultSettings();
+    assertThat(settings.redundantLoadElimination()).isTrue();
+    assertThat(tableReadsLeft(settings, program)).isEqualTo(1);
+    assertThat(tableReadsLeft(settings.withConstFolding(false), program)).isEqualTo(1);
+    assertThat(tableReadsLeft(settings.withRedundantLoadElimination(false), program))
+        .isEqualTo(2);
+  }
+
+  @Test
+  public void readsOfTablesWithNonConstantKeysAreEliminated() throws Exception {
+    // not scalar-replaceable: the table is also accessed with a key that is not constant
+    int[] reads = tableReadsLeft("local k, v = ...\n"
+        + "local p = {x = 1, y = 2}\n"
+        + "p[k] = v\n"
+        + "return p.x * p.x + p.y * p.y");
+
+    assertThat(reads[0]).isEqualTo(4);
+    assertThat(reads[1]).isEqualTo(2);
+  }
+
+  @Test
+  public void readsOfTablesFromSeveralConstructorsAreEliminated() throws Exception {
+    // not scalar-replaceable: t may hold tables created by two different constructors
+    int[] reads = tableReadsLeft("local c = ...\n"
+        + "local t = {x = 1}\n"
+        + "if c then t = {x = 2} end\n"
+        + "return t.x + t.x");
+
+    assertThat(reads[0]).isEqualTo(2);
+    assertThat(reads[1]).isEqualTo(1);
+  }
+
+}
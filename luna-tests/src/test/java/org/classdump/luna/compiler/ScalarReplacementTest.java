@@ -0,0 +1,91 @@
+package org.classdump.luna.compiler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.classdump.luna.StateContext;
+import org.classdump.luna.Table;
+import org.classdump.luna.Variable;
+import org.classdump.luna.env.RuntimeEnvironments;
+import org.classdump.luna.exec.DirectCallExecutor;
+import org.classdump.luna.impl.StateContexts;
+import org.classdump.luna.lib.StandardLibrary;
+import org.classdump.luna.runtime.LuaFunction;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ScalarReplacementTest {
+
+  private static final String CHUNK = "local n = ...\n"
+      + "local function vec(x, y) return {x = x, y = y} end\n"
+      + "local s = 0\n"
+      + "for i = 1, n do\n"
+      + "  local a, b = {x = i, y = 1}, vec(2, i)\n"
+      + "  s = s + a.x * b.x + a.y * b.y\n"
+      + "end\n"
+      + "return s";
+
+  private static com.sun.management.ThreadMXBean threadMXBean() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+      b.setThreadAllocatedMemoryEnabled(true);
+      return b;
+    } else {
+      return null;
+    }
+  }
+
+  // returns the number of bytes allocated by the chunk when running n iterations
+  private static long allocatedBytes(com.sun.management.ThreadMXBean bean,
+      CompilerSettings settings, long n) throws Exception {
+
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    LuaFunction<Variable, ?, ?, ?, ?> fn = CompilerChunkLoader.of(settings, "alloc_test_")
+        .loadTextChunk(new Variable(env), "alloc", CHUNK);
+    DirectCallExecutor executor = DirectCallExecutor.newExecutor();
+
+    // warm up
+    for (int i = 0; i < 10; i++) {
+      assertThat(executor.call(state, fn, 1000L)).containsExactly(1000L * 1001L * 3L / 2L);
+    }
+
+    long tid = Thread.currentThread().getId();
+    long before = bean.getThreadAllocatedBytes(tid);
+    Object[] result = executor.call(state, fn, n);
+    long after = bean.getThreadAllocatedBytes(tid);
+
+    assertThat(result).containsExactly(n * (n + 1) * 3L / 2L);
+    return after - before;
+  }
+
+  @Test
+  public void nonEscapingTablesAreNotAllocated() throws Exception {
+    com.sun.management.ThreadMXBean bean = threadMXBean();
+    Assume.assumeTrue(bean != null);
+
+    long n = 100000L;
+    CompilerSettings settings = CompilerSettings.defaultSettings();
+    long replaced = allocatedBytes(bean, settings, n);
+    long allocated = allocatedBytes(bean, settings.withScalarReplacement(false), n);
+
+    // two tables per iteration
+    assertThat(allocated).isGreaterThan(2 * 32 * n);
+    assertThat(replaced).isLessThan(n);
+  }
+
+  @Test
+  public void replacementIsIndependentOfConstFolding() throws Exception {
+    com.sun.management.ThreadMXBean bean = threadMXBean();
+    Assume.assumeTrue(bean != null);
+
+    long n = 100000L;
+    CompilerSettings settings = CompilerSettings.defaultSettings().withConstFolding(false);
+    assertThat(settings.scalarReplacement()).isTrue();
+    assertThat(allocatedBytes(bean, settings, n)).isLessThan(n);
+  }
+
+}
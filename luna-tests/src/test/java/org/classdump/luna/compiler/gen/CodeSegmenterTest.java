@@ -0,0 +1,171 @@
+package org.classdump.luna.compiler.gen;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.classdump.luna.compiler.CompilerSettings;
+import org.classdump.luna.compiler.IRTranslator;
+import org.classdump.luna.compiler.ir.BasicBlock;
+import org.classdump.luna.compiler.ir.BodyNode;
+import org.classdump.luna.compiler.ir.Code;
+import org.classdump.luna.compiler.ir.Label;
+import org.classdump.luna.compiler.ir.Line;
+import org.classdump.luna.parser.Parser;
+import org.classdump.luna.parser.analysis.NameResolver;
+import org.junit.Test;
+
+public class CodeSegmenterTest {
+
+  // a single long basic block
+  private static String straightLine(int n) {
+    StringBuilder bld = new StringBuilder("local a, b = ...\n");
+    for (int i = 0; i < n; i++) {
+      bld.append("a = a * b + ").append(i).append("\n");
+    }
+    return bld.append("return a").toString();
+  }
+
+  // short loops separated by straight-line code
+  private static String loops(int n) {
+    StringBuilder bld = new StringBuilder("local n, s = ...\n");
+    for (int i = 0; i < n; i++) {
+      bld.append("s = s * ").append(i).append(" + n\n");
+      bld.append("for i = 1, n do s = s + i * ").append(i).append(" end\n");
+      bld.append("while s > ").append(i).append(" do s = s - n end\n");
+    }
+    return bld.append("return s").toString();
+  }
+
+  private static Code code(String program) throws Exception {
+    Parser parser = new Parser(new ByteArrayInputStream(program.getBytes()));
+    return IRTranslator.translate(NameResolver.resolveNames(parser.Chunk())).main().code();
+  }
+
+  private static List<BasicBlock> blocks(Code code) {
+    List<BasicBlock> result = new ArrayList<>();
+    Iterator<BasicBlock> it = code.blockIterator();
+    while (it.hasNext()) {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  private static List<BasicBlock> blocks(SegmentedCode code) {
+    List<BasicBlock> result = new ArrayList<>();
+    for (List<BasicBlock> segment : code.segments()) {
+      result.addAll(segment);
+    }
+    return result;
+  }
+
+  private static List<Label> labels(List<BasicBlock> blocks) {
+    List<Label> result = new ArrayList<>();
+    for (BasicBlock blk : blocks) {
+      result.add(blk.label());
+    }
+    return result;
+  }
+
+  private static int size(List<BasicBlock> blocks) {
+    int size = 0;
+    for (BasicBlock blk : blocks) {
+      size += CodeSizeEstimator.estimate(blk);
+    }
+    return size;
+  }
+
+  private static boolean isSplittable(BasicBlock blk) {
+    int nodes = 0;
+    for (BodyNode n : blk.body()) {
+      if (!(n instanceof Line)) {
+        nodes += 1;
+      }
+    }
+    return nodes > 1;
+  }
+
+  private static void assertWithinLimit(SegmentedCode segmented, int limit) {
+    for (List<BasicBlock> segment : segmented.segments()) {
+      if (size(segment) > limit) {
+        // only a single block that cannot be split up any further may exceed the limit
+        assertThat(segment).hasSize(1);
+        assertThat(isSplittable(segment.get(0))).isFalse();
+      }
+    }
+  }
+
+  @Test
+  public void segmentsRespectTheLimit() throws Exception {
+    for (String program : new String[]{straightLine(100), loops(20)}) {
+      Code code = code(program);
+      for (int limit : new int[]{50, 200, 1000}) {
+        SegmentedCode segmented = CodeSegmenter.segmentBySize(code, limit);
+        assertThat(segmented.isSingleton()).isFalse();
+        assertWithinLimit(segmented, limit);
+      }
+    }
+  }
+
+  @Test
+  public void longBlocksAreSplitUp() throws Exception {
+    Code code = code(straightLine(100));
+    int limit = 200;
+    assertThat(size(blocks(code))).isGreaterThan(5 * limit);
+
+    SegmentedCode segmented = CodeSegmenter.segmentBySize(code, limit);
+
+    assertThat(blocks(segmented).size()).isGreaterThan(blocks(code).size());
+    assertThat(segmented.segments().size()).isGreaterThan(5);
+    assertWithinLimit(segmented, limit);
+  }
+
+  @Test
+  public void loopsAreNotSplitUp() throws Exception {
+    Code code = code(loops(20));
+    List<BasicBlock> original = blocks(code);
+    int limit = 400;
+
+    SegmentedCode segmented = CodeSegmenter.segmentBySize(code, limit);
+    List<BasicBlock> blocks = blocks(segmented);
+    List<Label> labels = labels(blocks);
+
+    // no block fits only partially, so none of them (and no loop header) is split
+    assertThat(labels).isEqualTo(labels(original));
+    assertThat(segmented.segments().size()).isGreaterThan(2);
+
+    // every back edge stays within the segment of the loop header it jumps to
+    int backEdges = 0;
+    for (int i = 0; i < blocks.size(); i++) {
+      for (Label target : blocks.get(i).end().nextLabels()) {
+        int header = labels.indexOf(target);
+        if (header <= i) {
+          assertThat(size(blocks.subList(header, i + 1))).isLessThanOrEqualTo(limit);
+          assertThat(segmented.labelEntry(target).segmentIdx)
+              .isEqualTo(segmented.labelEntry(blocks.get(i).label()).segmentIdx);
+          backEdges++;
+        }
+      }
+    }
+    assertThat(backEdges).isEqualTo(40);
+  }
+
+  @Test
+  public void nonPositiveLimitKeepsTheCodeInOneSegment() throws Exception {
+    assertThat(CompilerSettings.defaultSettings().methodSizeLimit()).isEqualTo(0);
+
+    for (String program : new String[]{straightLine(100), loops(20)}) {
+      Code code = code(program);
+      for (int limit : new int[]{0, -1}) {
+        SegmentedCode segmented = CodeSegmenter.segmentBySize(code, limit);
+        assertThat(segmented.isSingleton()).isTrue();
+        assertThat(segmented.segments().get(0)).isEqualTo(blocks(code));
+        assertThat(segmented.segments())
+            .isEqualTo(SegmentedCode.singleton(code).segments());
+      }
+    }
+  }
+
+}
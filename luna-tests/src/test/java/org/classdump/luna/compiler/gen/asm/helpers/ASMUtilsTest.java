@@ -0,0 +1,144 @@
+package org.classdump.luna.compiler.gen.asm.helpers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.classdump.luna.compiler.CompiledModule;
+import org.classdump.luna.compiler.LuaCompiler;
+import org.classdump.luna.util.ByteVector;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+public class ASMUtilsTest {
+
+  private static final String PROGRAM = "local t = {}\n"
+      + "for i = 1, 10 do t[i] = function(x) return x * i end end\n"
+      + "local s = 0\n"
+      + "for i, f in ipairs(t) do s = s + f(i) end\n"
+      + "return s";
+
+  private static String key(MethodNode m) {
+    return m.name + m.desc;
+  }
+
+  // writes cn, returning the code lengths of its methods as resolved by the class writer
+  private static byte[] write(ClassNode cn, Map<String, Integer> codeLengths) {
+    Map<String, LabelNode> ends = new HashMap<>();
+    for (Object o : cn.methods) {
+      MethodNode m = (MethodNode) o;
+      if (m.instructions.size() > 0) {
+        LabelNode end = new LabelNode();
+        m.instructions.add(end);
+        ends.put(key(m), end);
+      }
+    }
+
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cn.accept(cw);
+    byte[] bytes = cw.toByteArray();
+
+    for (Map.Entry<String, LabelNode> e : ends.entrySet()) {
+      codeLengths.put(e.getKey(), e.getValue().getLabel().getOffset());
+    }
+    return bytes;
+  }
+
+  private static MethodNode method(String name, String desc) {
+    return new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, desc, null, null);
+  }
+
+  private static ClassNode generatedClass() {
+    ClassNode cn = new ClassNode();
+    cn.version = Opcodes.V1_7;
+    cn.access = Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT;
+    cn.name = "ASMUtilsTestClass";
+    cn.superName = "java/lang/Object";
+    cn.interfaces.add("java/lang/Runnable");
+    cn.interfaces.add("java/io/Serializable");
+
+    // fields with and without attributes
+    cn.fields.add(new FieldNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+        "CONSTANT", "I", null, 42));
+    cn.fields.add(new FieldNode(Opcodes.ACC_PRIVATE, "field", "Ljava/lang/Object;", null, null));
+
+    MethodNode empty = method("empty", "()V");
+    empty.instructions.add(new InsnNode(Opcodes.RETURN));
+    cn.methods.add(empty);
+
+    // enough constants for ldc_w to be needed
+    MethodNode constants = method("constants", "()V");
+    for (int i = 0; i < 300; i++) {
+      constants.instructions.add(new LdcInsnNode("constant" + i));
+      constants.instructions.add(new InsnNode(Opcodes.POP));
+    }
+    constants.instructions.add(new InsnNode(Opcodes.RETURN));
+    cn.methods.add(constants);
+
+    // a table switch, which is padded, inside a loop
+    MethodNode loop = method("loop", "(I)I");
+    LabelNode head = new LabelNode();
+    LabelNode dflt = new LabelNode();
+    LabelNode[] cases = new LabelNode[]{new LabelNode(), new LabelNode(), new LabelNode()};
+    loop.instructions.add(head);
+    loop.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));
+    loop.instructions.add(new TableSwitchInsnNode(0, cases.length - 1, dflt, cases));
+    for (LabelNode c : cases) {
+      loop.instructions.add(c);
+      loop.instructions.add(new InsnNode(Opcodes.ICONST_1));
+      loop.instructions.add(new VarInsnNode(Opcodes.ISTORE, 0));
+      loop.instructions.add(new JumpInsnNode(Opcodes.GOTO, head));
+    }
+    loop.instructions.add(dflt);
+    loop.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));
+    loop.instructions.add(new InsnNode(Opcodes.IRETURN));
+    cn.methods.add(loop);
+
+    cn.methods.add(new MethodNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+        "run", "()V", null, null));
+
+    return cn;
+  }
+
+  @Test
+  public void codeSizesOfGeneratedClass() {
+    Map<String, Integer> expected = new HashMap<>();
+    byte[] bytes = write(generatedClass(), expected);
+
+    Map<String, Integer> sizes = ASMUtils.methodCodeSizes(bytes);
+
+    assertThat(sizes).isEqualTo(expected);
+    assertThat(sizes).containsEntry("empty()V", 1);
+    assertThat(sizes).doesNotContainKey("run()V");
+    assertThat(sizes.get("constants()V")).isGreaterThan(300 * 3);
+  }
+
+  @Test
+  public void codeSizesOfCompiledChunk() throws Exception {
+    CompiledModule module = new LuaCompiler().compile(PROGRAM, "test", "code_size_test");
+    assertThat(module.classMap()).hasSize(2);
+
+    for (ByteVector bv : module.classMap().values()) {
+      ClassNode cn = new ClassNode();
+      new ClassReader(bv.copyToNewArray()).accept(cn, 0);
+
+      Map<String, Integer> expected = new HashMap<>();
+      byte[] bytes = write(cn, expected);
+
+      assertThat(expected).isNotEmpty();
+      assertThat(ASMUtils.methodCodeSizes(bytes)).isEqualTo(expected);
+    }
+  }
+
+}
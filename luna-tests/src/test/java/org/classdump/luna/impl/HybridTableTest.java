@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.classdump.luna.ByteString;
+import org.classdump.luna.Table;
+import org.junit.Test;
+
+public class HybridTableTest {
+
+  private static Set<Object> keys(Table t) {
+    Set<Object> result = new HashSet<>();
+    Object k = t.initialKey();
+    while (k != null) {
+      assertTrue("key visited twice: " + k, result.add(k));
+      k = t.successorKeyOf(k);
+    }
+    return result;
+  }
+
+  @Test
+  public void appendedValuesAreRetrievable() {
+    Table t = HybridTable.factory().newTable();
+    for (long i = 1; i <= 1000; i++) {
+      t.rawset(i, Long.valueOf(i * 2));
+    }
+    assertEquals(1000L, t.rawlen());
+    for (long i = 1; i <= 1000; i++) {
+      assertEquals(i * 2, t.rawget(i));
+      assertEquals(i * 2, t.rawget(Long.valueOf(i)));
+      assertEquals(i * 2, t.rawget(Double.valueOf(i)));
+    }
+    assertNull(t.rawget(0L));
+    assertNull(t.rawget(1001L));
+  }
+
+  @Test
+  public void reverseInsertionEndsUpInArrayPart() {
+    Table t = HybridTable.factory().newTable();
+    for (long i = 100; i >= 1; i--) {
+      t.rawset(i, "x");
+    }
+    t.rawset("a", "b");
+    assertEquals(100L, t.rawlen());
+    assertEquals(101, keys(t).size());
+  }
+
+  @Test
+  public void mixedKeysAreAllVisited() {
+    Table t = HybridTable.factory().newTable();
+    Set<Object> expected = new HashSet<>();
+    for (long i = 1; i <= 50; i++) {
+      t.rawset(i, Long.valueOf(i));
+      expected.add(i);
+    }
+    for (long i = 1; i <= 50; i++) {
+      t.rawset(i * 1000, Long.valueOf(i));
+      expected.add(i * 1000);
+    }
+    for (int i = 0; i < 50; i++) {
+      t.rawset("k" + i, i);
+      expected.add(ByteString.of("k" + i));
+    }
+    t.rawset(0.5, "half");
+    expected.add(0.5);
+
+    assertEquals(expected, keys(t));
+  }
+
+  @Test
+  public void removalsDuringTraversalOfArrayPart() {
+    Table t = HybridTable.factory().newTable();
+    for (long i = 1; i <= 10; i++) {
+      t.rawset(i, Long.valueOf(i));
+    }
+
+    int visited = 0;
+    Object k = t.initialKey();
+    while (k != null) {
+      t.rawset(k, null);
+      visited += 1;
+      k = t.successorKeyOf(k);
+    }
+
+    assertEquals(10, visited);
+    assertNull(t.initialKey());
+    assertEquals(0L, t.rawlen());
+  }
+
+  @Test
+  public void lengthOfTableWithHoles() {
+    Table t = HybridTable.factory().newTable();
+    for (long i = 1; i <= 16; i++) {
+      t.rawset(i, Long.valueOf(i));
+    }
+    t.rawset(16L, null);
+    assertEquals(15L, t.rawlen());
+
+    t.rawset(8L, null);
+    long n = t.rawlen();
+    assertTrue(n == 7L || n == 15L);
+  }
+
+  @Test
+  public void presizedTableHoldsValues() {
+    Table t = HybridTable.factory().newTable(10, 2);
+    assertEquals(0L, t.rawlen());
+    assertNull(t.initialKey());
+
+    t.ensureArrayCapacity(20);
+    for (long i = 1; i <= 20; i++) {
+      t.rawset(i, Long.valueOf(i));
+    }
+    t.rawset("x", "y");
+    assertEquals(20L, t.rawlen());
+    assertEquals(21, keys(t).size());
+  }
+
+  @Test
+  public void lengthTracksPushAndPop() {
+    Table[] tables = new Table[]{
+        HybridTable.factory().newTable(),
+        DefaultTable.factory().newTable()
+    };
+
+    for (Table t : tables) {
+      for (long i = 1; i <= 100; i++) {
+        t.rawset(t.rawlen() + 1, Long.valueOf(i));
+      }
+      assertEquals(100L, t.rawlen());
+      for (long i = 100; i >= 1; i--) {
+        assertEquals(i, t.rawlen());
+        t.rawset(t.rawlen(), null);
+      }
+      assertEquals(0L, t.rawlen());
+
+      // the hint is out of date, but the result is still a border
+      t.rawset(1L, "x");
+      t.rawset(2L, "y");
+      t.rawset(3L, "z");
+      assertEquals(3L, t.rawlen());
+      t.rawset("a", "b");
+      t.rawset(2L, null);
+      t.rawset(4L, "w");
+      long n = t.rawlen();
+      assertTrue(n == 1L || n == 4L);
+    }
+  }
+
+}
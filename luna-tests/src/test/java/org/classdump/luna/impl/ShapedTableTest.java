@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.classdump.luna.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.classdump.luna.ByteString;
+import org.classdump.luna.Table;
+import org.junit.Test;
+
+public class ShapedTableTest {
+
+  private static final ByteString X = ByteString.of("x");
+  private static final ByteString Y = ByteString.of("y");
+  private static final ByteString Z = ByteString.of("z");
+
+  private static ShapedTable point(long x, long y) {
+    ShapedTable t = new ShapedTable();
+    t.rawset(X, Long.valueOf(x));
+    t.rawset(Y, Long.valueOf(y));
+    return t;
+  }
+
+  private static Set<Object> keys(Table t) {
+    Set<Object> result = new HashSet<>();
+    Object k = t.initialKey();
+    while (k != null) {
+      assertTrue("key visited twice: " + k, result.add(k));
+      k = t.successorKeyOf(k);
+    }
+    return result;
+  }
+
+  @Test
+  public void tablesWithSameKeysShareShape() {
+    ShapeCache cache = new ShapeCache();
+    ShapedTable a = point(1, 2);
+    ShapedTable b = point(3, 4);
+
+    assertEquals(2L, a.rawget(Y, cache));
+    ShapeCache.Entry e = cache.entry;
+    assertEquals(4L, b.rawget(Y, cache));
+    assertSame(e, cache.entry);
+  }
+
+  @Test
+  public void cacheMissesOnDifferentShape() {
+    ShapeCache cache = new ShapeCache();
+    ShapedTable a = point(1, 2);
+    ShapedTable b = new ShapedTable();
+    b.rawset(Y, Long.valueOf(5));
+    b.rawset(X, Long.valueOf(6));
+
+    assertEquals(2L, a.rawget(Y, cache));
+    assertEquals(5L, b.rawget(Y, cache));
+    assertEquals(6L, b.rawget(X, cache));
+    assertNull(b.rawget(Z, cache));
+    assertEquals(1L, a.rawget(X, cache));
+  }
+
+  @Test
+  public void rawsetIfPresentOnlySetsExistingKeys() {
+    ShapeCache cache = new ShapeCache();
+    ShapedTable t = point(1, 2);
+
+    assertTrue(t.rawsetIfPresent(X, Long.valueOf(10), cache));
+    assertEquals(10L, t.rawget(X));
+    assertFalse(t.rawsetIfPresent(Z, Long.valueOf(10), cache));
+    assertNull(t.rawget(Z));
+
+    t.rawset(X, null);
+    assertFalse(t.rawsetIfPresent(X, Long.valueOf(10), cache));
+    assertNull(t.rawget(X));
+  }
+
+  @Test
+  public void manyKeysSwitchToDictionaryMode() {
+    ShapedTable t = new ShapedTable();
+    Set<Object> expected = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      t.rawset("k" + i, Long.valueOf(i));
+      expected.add(ByteString.of("k" + i));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals((long) i, t.rawget(ByteString.of("k" + i), new ShapeCache()));
+    }
+    assertEquals(expected, keys(t));
+  }
+
+  @Test
+  public void mixedKeysAreAllVisited() {
+    ShapedTable t = point(1, 2);
+    t.rawset(1L, "one");
+    t.rawset(2L, "two");
+    t.rawset(Double.valueOf(0.5), "half");
+    t.rawset(Boolean.TRUE, "true");
+
+    Set<Object> expected = new HashSet<>();
+    expected.add(X);
+    expected.add(Y);
+    expected.add(1L);
+    expected.add(2L);
+    expected.add(0.5);
+    expected.add(Boolean.TRUE);
+
+    assertEquals(expected, keys(t));
+    assertEquals(2L, t.rawlen());
+  }
+
+  @Test
+  public void removalsDuringTraversal() {
+    ShapedTable t = point(1, 2);
+    t.rawset(Z, Long.valueOf(3));
+    t.rawset(1L, "one");
+    t.rawset("w", "w");
+
+    int n = 0;
+    Object k = t.initialKey();
+    while (k != null) {
+      t.rawset(k, null);
+      n += 1;
+      k = t.successorKeyOf(k);
+    }
+
+    assertEquals(5, n);
+    assertNull(t.initialKey());
+  }
+
+  @Test
+  public void clearedFieldKeepsShape() {
+    ShapeCache cache = new ShapeCache();
+    ShapedTable a = point(1, 2);
+    ShapedTable b = point(3, 4);
+    b.rawset(X, null);
+    b.rawset(X, Long.valueOf(5));
+
+    assertEquals(2L, a.rawget(Y, cache));
+    ShapeCache.Entry e = cache.entry;
+    assertEquals(4L, b.rawget(Y, cache));
+    assertSame(e, cache.entry);
+    assertEquals(5L, b.rawget(X));
+  }
+
+}
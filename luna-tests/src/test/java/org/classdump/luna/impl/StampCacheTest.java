@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.classdump.luna.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.classdump.luna.ByteString;
+import org.classdump.luna.Table;
+import org.junit.Test;
+
+public class StampCacheTest {
+
+  private static final ByteString X = ByteString.of("x");
+  private static final ByteString Y = ByteString.of("y");
+
+  private static class CountingTable extends DefaultTable {
+
+    int gets = 0;
+
+    @Override
+    public Object rawget(Object key) {
+      gets += 1;
+      return super.rawget(key);
+    }
+
+  }
+
+  private static void assertStampsTracked(Table t) {
+    long s = t.stamp();
+    assertTrue(s != 0L);
+    assertEquals(s, t.stamp());
+    t.rawget(X);
+    assertEquals(s, t.stamp());
+
+    t.rawset(X, 1L);
+    long s2 = t.stamp();
+    assertNotEquals(s, s2);
+
+    t.rawset(1L, (Object) 2L);
+    long s3 = t.stamp();
+    assertNotEquals(s2, s3);
+
+    t.rawset(X, null);
+    assertNotEquals(s3, t.stamp());
+  }
+
+  @Test
+  public void tablesTrackModifications() {
+    assertStampsTracked(new DefaultTable());
+    assertStampsTracked(new HybridTable());
+    assertStampsTracked(new ShapedTable());
+  }
+
+  @Test
+  public void stampsAreUniqueAcrossTables() {
+    Table a = new DefaultTable();
+    Table b = new DefaultTable();
+    assertNotEquals(a.stamp(), b.stamp());
+  }
+
+  @Test
+  public void shapedTableFieldUpdatesChangeStamp() {
+    ShapedTable t = new ShapedTable();
+    t.rawset(X, 1L);
+    long s = t.stamp();
+    assertTrue(t.rawsetIfPresent(X, 2L, new ShapeCache()));
+    assertNotEquals(s, t.stamp());
+  }
+
+  @Test
+  public void weakTablesAreNotTracked() {
+    Table t = new DefaultTable();
+    Table mt = new DefaultTable();
+    mt.rawset(ByteString.of("__mode"), ByteString.of("v"));
+    t.setMetatable(mt);
+    assertEquals(0L, t.stamp());
+
+    t.setMetatable(null);
+    assertTrue(t.stamp() != 0L);
+  }
+
+  @Test
+  public void immutableTableStampIsStable() {
+    Table t = new ImmutableTable.Builder().add(X, 1L).build();
+    long s = t.stamp();
+    assertTrue(s != 0L);
+    assertEquals(s, t.stamp());
+  }
+
+  @Test
+  public void cacheHitsUntilTableIsModified() {
+    StampCache cache = new StampCache();
+    CountingTable t = new CountingTable();
+    t.rawset(X, 1L);
+
+    assertEquals(1L, cache.rawget(t, X));
+    assertEquals(1L, cache.rawget(t, X));
+    assertEquals(1, t.gets);
+
+    // modification of an unrelated key
+    t.rawset(Y, 2L);
+    assertEquals(1L, cache.rawget(t, X));
+    assertEquals(2, t.gets);
+
+    t.rawset(X, 3L);
+    assertEquals(3L, cache.rawget(t, X));
+    assertEquals(3, t.gets);
+
+    t.rawset(X, null);
+    assertNull(cache.rawget(t, X));
+  }
+
+  @Test
+  public void cacheDistinguishesTables() {
+    StampCache cache = new StampCache();
+    Table a = new DefaultTable();
+    Table b = new DefaultTable();
+    a.rawset(X, 1L);
+    b.rawset(X, 2L);
+
+    assertEquals(1L, cache.rawget(a, X));
+    assertEquals(2L, cache.rawget(b, X));
+    assertEquals(1L, cache.rawget(a, X));
+  }
+
+  @Test
+  public void nilIsNotCached() {
+    StampCache cache = new StampCache();
+    CountingTable t = new CountingTable();
+
+    assertNull(cache.rawget(t, X));
+    assertNull(cache.rawget(t, X));
+    assertEquals(2, t.gets);
+  }
+
+  @Test
+  public void cacheStopsUpdatingAfterTooManyMisses() {
+    StampCache cache = new StampCache();
+    CountingTable t = new CountingTable();
+    Object v = Long.valueOf(1000L);
+
+    for (int i = 0; i < 100; i++) {
+      t.rawset(X, v);
+      assertSame(v, cache.rawget(t, X));
+    }
+    int gets = t.gets;
+    assertSame(v, cache.rawget(t, X));
+    assertEquals(gets + 1, t.gets);
+  }
+
+}
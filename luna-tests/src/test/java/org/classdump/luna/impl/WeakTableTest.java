@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import org.classdump.luna.ByteString;
+import org.classdump.luna.Metatables;
+import org.classdump.luna.Table;
+import org.classdump.luna.TableFactory;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class WeakTableTest {
+
+  private final TableFactory factory;
+
+  public WeakTableTest(String name, TableFactory factory) {
+    this.factory = factory;
+  }
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> factories() {
+    return Arrays.asList(new Object[][]{
+        {"DefaultTable", DefaultTable.factory()},
+        {"HybridTable", HybridTable.factory()},
+        {"ShapedTable", ShapedTable.factory()}
+    });
+  }
+
+  private Table newTable() {
+    return factory.newTable();
+  }
+
+  private Table weakTable(String mode) {
+    Table mt = newTable();
+    mt.rawset(Metatables.MT_MODE, mode);
+    Table t = newTable();
+    t.setMetatable(mt);
+    return t;
+  }
+
+  private static int count(Table t) {
+    int n = 0;
+    Object k = t.initialKey();
+    while (k != null) {
+      n += 1;
+      k = t.successorKeyOf(k);
+    }
+    return n;
+  }
+
+  // runs the garbage collector until t has at most max entries and an unrelated weak reference
+  // has been cleared, returns the number of entries; skips the calling test unless explicit
+  // garbage collections clear weak references (they do not e.g. with -XX:+DisableExplicitGC)
+  private static int collect(Table t, int max) throws InterruptedException {
+    WeakReference<Object> control = new WeakReference<>(new Object());
+    int n = count(t);
+    for (int i = 0; i < 50 && (n > max || control.get() != null); i++) {
+      System.gc();
+      Thread.sleep(10);
+      n = count(t);
+    }
+    Assume.assumeTrue("weak references are not cleared", control.get() == null);
+    return n;
+  }
+
+  @Test
+  public void weakKeysAreReclaimed() throws InterruptedException {
+    Table t = weakTable("k");
+    Table retained = newTable();
+    t.rawset(retained, "retained");
+    for (int i = 0; i < 1000; i++) {
+      t.rawset(newTable(), Long.valueOf(i));
+    }
+
+    assertEquals(1, collect(t, 1));
+    assertEquals(ByteString.of("retained"), t.rawget(retained));
+  }
+
+  @Test
+  public void weakValuesAreReclaimed() throws InterruptedException {
+    Table t = weakTable("v");
+    Table retained = newTable();
+    t.rawset(1L, retained);
+    for (int i = 2; i <= 1000; i++) {
+      t.rawset(Long.valueOf(i), newTable());
+    }
+
+    assertEquals(1, collect(t, 1));
+    assertSame(retained, t.rawget(1L));
+    assertEquals(1L, t.rawlen());
+  }
+
+  @Test
+  public void ephemeronValuesDoNotRetainTheirKeys() throws InterruptedException {
+    Table t = weakTable("k");
+    for (int i = 0; i < 1000; i++) {
+      Table key = newTable();
+      Table value = newTable();
+      value.rawset("key", key);
+      t.rawset(key, value);
+      assertSame(value, t.rawget(key));
+    }
+
+    assertEquals(0, collect(t, 0));
+  }
+
+  @Test
+  public void numbersAndStringsAreNotWeak() throws InterruptedException {
+    Table t = weakTable("kv");
+    t.rawset("a", "b");
+    t.rawset(1L, Double.valueOf(2.5));
+    t.rawset(true, false);
+    for (int i = 0; i < 100; i++) {
+      t.rawset(newTable(), newTable());
+    }
+
+    assertEquals(3, collect(t, 3));
+    assertEquals(ByteString.of("b"), t.rawget("a"));
+    assertEquals(2.5, t.rawget(1L));
+    assertEquals(Boolean.FALSE, t.rawget(true));
+  }
+
+  @Test
+  public void entriesSurviveModeChanges() {
+    Table mt = newTable();
+    Table t = newTable();
+    Table key = newTable();
+    Table value = newTable();
+    t.rawset(key, value);
+    t.rawset("x", value);
+    t.setMetatable(mt);
+
+    for (String mode : new String[]{"k", "v", "kv", "k", "", "kv"}) {
+      mt.rawset(Metatables.MT_MODE, mode);
+      assertSame(value, t.rawget(key));
+      assertSame(value, t.rawget("x"));
+      assertEquals(2, count(t));
+    }
+
+    t.setMetatable(null);
+    assertSame(value, t.rawget(key));
+    assertEquals(2, count(t));
+  }
+
+  @Test
+  public void sequencesSurviveModeChanges() {
+    Table mt = newTable();
+    Table t = newTable();
+    Table[] values = new Table[10];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = newTable();
+      t.rawset(i + 1, values[i]);
+    }
+    t.setMetatable(mt);
+
+    for (String mode : new String[]{"v", "", "kv", ""}) {
+      mt.rawset(Metatables.MT_MODE, mode);
+      assertEquals(values.length, t.rawlen());
+      for (int i = 0; i < values.length; i++) {
+        assertSame(values[i], t.rawget(i + 1));
+      }
+    }
+
+    mt.rawset(Metatables.MT_MODE, "k");
+    assertEquals(0L, t.stamp());
+    t.rawset(values.length + 1, "x");
+    assertEquals(values.length + 1, t.rawlen());
+  }
+
+  @Test
+  public void removalsDuringTraversal() {
+    Table t = weakTable("k");
+    Table[] keys = new Table[100];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = newTable();
+      t.rawset(keys[i], keys[i]);
+    }
+
+    int visited = 0;
+    Object k = t.initialKey();
+    while (k != null) {
+      t.rawset(k, null);
+      visited += 1;
+      k = t.successorKeyOf(k);
+    }
+
+    assertEquals(keys.length, visited);
+    assertNull(t.initialKey());
+  }
+
+  @Test
+  public void weakMemoizationCacheStaysBounded() throws InterruptedException {
+    Table cache = weakTable("k");
+
+    long maxEntries = 0;
+    for (int round = 0; round < 50; round++) {
+      for (int i = 0; i < 2000; i++) {
+        // the memoized result refers to its argument, and holds a sizeable payload
+        Table arg = newTable();
+        Table result = newTable();
+        result.rawset("arg", arg);
+        result.rawset("payload", new long[128]);
+        cache.rawset(arg, result);
+      }
+      maxEntries = Math.max(maxEntries, count(cache));
+    }
+
+    assertTrue("cache is unbounded: " + maxEntries + " entries",
+        maxEntries < 50 * 2000);
+    assertEquals(0, collect(cache, 0));
+
+    // expunging happens on mutation: the cache has been emptied
+    cache.rawset("x", "y");
+    assertEquals(1, count(cache));
+  }
+
+}
@@ -0,0 +1,86 @@
+package org.classdump.luna.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import org.classdump.luna.StateContext;
+import org.classdump.luna.Variable;
+import org.classdump.luna.compiler.LuaCompiler;
+import org.classdump.luna.exec.CallException;
+import org.classdump.luna.exec.DirectCallExecutor;
+import org.classdump.luna.impl.StateContexts;
+import org.classdump.luna.lib.StringLib;
+import org.classdump.luna.runtime.LuaFunction;
+import org.junit.Test;
+
+public class ChunkClassLoaderTest {
+
+  private static final String PROGRAM = "local function f(x) return x + 1 end\n"
+      + "return f(41)";
+
+  private static LuaFunction load(ChunkClassLoader classLoader, String rootClassName)
+      throws Exception {
+    String name = classLoader.install(new LuaCompiler().compile(PROGRAM, "test", rootClassName));
+    Class<?> c = classLoader.loadClass(name);
+    return BinaryChunks.newInstance(c.asSubclass(LuaFunction.class), new Variable(null), "test");
+  }
+
+  // the virtual machine clears all soft references before throwing an OutOfMemoryError
+  private static void clearSoftReferences() {
+    SoftReference<Object> ref = new SoftReference<>(new Object());
+    List<long[]> blocks = new ArrayList<>();
+    try {
+      while (true) {
+        blocks.add(new long[1 << 20]);
+      }
+    } catch (OutOfMemoryError ex) {
+      blocks.clear();
+    }
+    assertThat(ref.get()).isNull();
+  }
+
+  @Test
+  public void retainedClassFilesSurviveMemoryPressure() throws Exception {
+    ChunkClassLoader classLoader = new ChunkClassLoader();
+    assertThat(classLoader.retainsClassFiles()).isTrue();
+
+    LuaFunction fn = load(classLoader, "retention_test_retained");
+    DirectCallExecutor.newExecutor().call(StateContexts.newDefaultInstance(), fn);
+
+    clearSoftReferences();
+
+    CompiledChunk chunk = BinaryChunks.dump(fn);
+    assertThat(chunk.mainClassName()).isEqualTo(fn.getClass().getName());
+    assertThat(chunk.classMap()).hasSize(2);
+
+    LuaFunction copy = BinaryChunks.newInstance(
+        BinaryChunks.define(chunk, getClass().getClassLoader(), "copy"), new Variable(null),
+        "copy");
+    Object[] result = DirectCallExecutor.newExecutor()
+        .call(StateContexts.newDefaultInstance(), copy);
+    assertThat(result).containsExactly(42L);
+  }
+
+  @Test
+  public void discardedClassFilesCannotBeDumped() throws Exception {
+    ChunkClassLoader classLoader = new ChunkClassLoader(getClass().getClassLoader(), false);
+    assertThat(classLoader.retainsClassFiles()).isFalse();
+
+    final LuaFunction fn = load(classLoader, "retention_test_discarded");
+    String name = fn.getClass().getName();
+    assertThat(classLoader.isInstalled(name)).isTrue();
+    assertThat(classLoader.classFile(name)).isNull();
+
+    assertThatThrownBy(() -> BinaryChunks.dump(fn)).isInstanceOf(IOException.class);
+
+    StateContext state = StateContexts.newDefaultInstance();
+    assertThatThrownBy(() -> DirectCallExecutor.newExecutor().call(state, StringLib.dump(), fn))
+        .isInstanceOf(CallException.class)
+        .hasStackTraceContaining("unable to dump given function");
+  }
+
+}
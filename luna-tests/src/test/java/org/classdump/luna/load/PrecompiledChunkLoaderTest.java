@@ -0,0 +1,180 @@
+package org.classdump.luna.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.classdump.luna.StateContext;
+import org.classdump.luna.Table;
+import org.classdump.luna.Variable;
+import org.classdump.luna.compiler.CompiledModule;
+import org.classdump.luna.compiler.CompilerChunkLoader;
+import org.classdump.luna.compiler.CompilerSettings;
+import org.classdump.luna.compiler.LuaCompiler;
+import org.classdump.luna.env.RuntimeEnvironments;
+import org.classdump.luna.exec.DirectCallExecutor;
+import org.classdump.luna.impl.StateContexts;
+import org.classdump.luna.lib.StandardLibrary;
+import org.classdump.luna.runtime.LuaFunction;
+import org.classdump.luna.util.ByteVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrecompiledChunkLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String MODULE =
+      "local M = {}\n"
+          + "function M.twice(x) return 2 * x end\n"
+          + "return M\n";
+
+  private static final String MODULE_NAME = "precompiled_test_module";
+
+  private static final String CONFIGURATION =
+      LuaCompiler.configuration(CompilerSettings.defaultSettings());
+
+  private static class CountingLoader implements ChunkLoader {
+
+    final ChunkLoader delegate = CompilerChunkLoader.of("precompiled_fallback_");
+    final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public LuaFunction<Variable, ?, ?, ?, ?> loadTextChunk(Variable env, String chunkName,
+        String chunk) throws LoaderException {
+      return compileTextChunk(chunkName, chunk).newInstance(env);
+    }
+
+    @Override
+    public ChunkFactory compileTextChunk(String chunkName, String chunk) throws LoaderException {
+      count.incrementAndGet();
+      return delegate.compileTextChunk(chunkName, chunk);
+    }
+
+  }
+
+  // writes a jar in the format produced by the ahead-of-time compiler
+  private Path writeJar() throws Exception {
+    String hash = PrecompiledChunkLoader.sourceHash(MODULE);
+    CompiledModule module = new LuaCompiler()
+        .compile(MODULE, "precompiled_test_module.lua", "precompiled_test_" + hash.substring(0, 8));
+
+    Path jar = folder.getRoot().toPath().resolve("modules.jar");
+    try (OutputStream os = Files.newOutputStream(jar);
+        JarOutputStream out = new JarOutputStream(os)) {
+
+      out.putNextEntry(new JarEntry(PrecompiledChunkLoader.INDEX_RESOURCE_NAME));
+      String index = PrecompiledChunkLoader.INDEX_HEADER + "\n"
+          + CONFIGURATION + "\n"
+          + hash + "\t" + module.mainClassName() + "\t" + MODULE_NAME
+          + "\tprecompiled_test_module.lua\n";
+      out.write(index.getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+
+      for (Map.Entry<String, ByteVector> e : module.classMap().entrySet()) {
+        out.putNextEntry(new JarEntry(e.getKey().replace('.', '/') + ".class"));
+        out.write(e.getValue().copyToNewArray());
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private static Object[] call(StateContext state, LuaFunction fn, Object... args)
+      throws Exception {
+    return DirectCallExecutor.newExecutor().call(state, fn, args);
+  }
+
+  @Test
+  public void precompiledChunksAreNotCompiled() throws Exception {
+    CountingLoader fallback = new CountingLoader();
+    PrecompiledChunkLoader loader = PrecompiledChunkLoader.of(CONFIGURATION, fallback, writeJar());
+
+    assertThat(loader.size()).isEqualTo(1);
+    assertThat(loader.modules()).containsEntry(MODULE_NAME, "precompiled_test_module.lua");
+
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+
+    Object[] result = call(state, loader.loadTextChunk(new Variable(env), "mod.lua", MODULE));
+    assertThat(fallback.count.get()).isEqualTo(0);
+    Object twice = ((Table) result[0]).rawget("twice");
+    assertThat(call(state, (LuaFunction) twice, 21L)).containsExactly(42L);
+
+    // other chunks are compiled by the fallback loader
+    result = call(state, loader.loadTextChunk(new Variable(env), "other", "return 1 + 2"));
+    assertThat(fallback.count.get()).isEqualTo(1);
+    assertThat(result).containsExactly(3L);
+  }
+
+  @Test
+  public void chunksCompiledWithOtherSettingsAreNotUsed() throws Exception {
+    CountingLoader fallback = new CountingLoader();
+    String configuration = LuaCompiler.configuration(CompilerSettings.defaultSettings()
+        .withCPUAccountingMode(CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING));
+    PrecompiledChunkLoader loader = PrecompiledChunkLoader.of(configuration, fallback, writeJar());
+
+    assertThat(loader.size()).isEqualTo(0);
+    assertThat(loader.loadModule(MODULE_NAME)).isNull();
+
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    Object[] result = call(state, loader.loadTextChunk(new Variable(env), "mod.lua", MODULE));
+    assertThat(fallback.count.get()).isEqualTo(1);
+    Object twice = ((Table) result[0]).rawget("twice");
+    assertThat(call(state, (LuaFunction) twice, 21L)).containsExactly(42L);
+  }
+
+  @Test
+  public void precompiledFunctionsCanBeDumped() throws Exception {
+    PrecompiledChunkLoader loader = PrecompiledChunkLoader.of(CONFIGURATION, null, writeJar());
+
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state);
+    LuaFunction fn = loader.loadTextChunk(new Variable(env), "mod.lua", MODULE);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryChunks.write(BinaryChunks.dump(fn), out);
+    byte[] bytes = out.toByteArray();
+    LuaFunction copy = loader.loadBinaryChunk(new Variable(env), "copy", bytes, 0, bytes.length);
+
+    assertThat(copy.getClass()).isNotSameAs(fn.getClass());
+    Object twice = ((Table) call(state, copy)[0]).rawget("twice");
+    assertThat(call(state, (LuaFunction) twice, 5L)).containsExactly(10L);
+  }
+
+  @Test(expected = LoaderException.class)
+  public void chunksNotPrecompiledFailWithoutFallback() throws Exception {
+    PrecompiledChunkLoader loader = PrecompiledChunkLoader.of(CONFIGURATION, null, writeJar());
+    loader.compileTextChunk("other", "return 1");
+  }
+
+  @Test
+  public void requireFindsPrecompiledModules() throws Exception {
+    CountingLoader fallback = new CountingLoader();
+    PrecompiledChunkLoader loader = PrecompiledChunkLoader.of(CONFIGURATION, fallback, writeJar());
+
+    StateContext state = StateContexts.newDefaultInstance();
+    Table env = StandardLibrary.in(RuntimeEnvironments.system())
+        .withLoader(loader)
+        .installInto(state);
+
+    String program = "local m = require('" + MODULE_NAME + "')\n"
+        + "return m.twice(4), m == require('" + MODULE_NAME + "')";
+    Object[] result = call(state, fallback.loadTextChunk(new Variable(env), "main", program));
+
+    assertThat(result).containsExactly(8L, true);
+    // only the main chunk was compiled
+    assertThat(fallback.count.get()).isEqualTo(1);
+  }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class OpenHashMapTest {
+
+  private static <K> Set<K> keys(OpenHashMap<K, ?> map) {
+    Set<K> result = new HashSet<>();
+    K k = map.getFirstKey();
+    while (k != null) {
+      assertTrue("key visited twice: " + k, result.add(k));
+      k = map.getSuccessorOf(k);
+    }
+    return result;
+  }
+
+  @Test
+  public void behavesLikeAHashMap() {
+    OpenHashMap<Long, Long> map = new OpenHashMap<>();
+    Map<Long, Long> reference = new HashMap<>();
+
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      Long k = Long.valueOf(random.nextInt(1000));
+      if (random.nextInt(3) == 0) {
+        assertEquals(reference.remove(k), map.remove(k));
+      } else {
+        Long v = Long.valueOf(i);
+        assertEquals(reference.put(k, v), map.put(k, v));
+      }
+      assertEquals(reference.size(), map.size());
+    }
+
+    for (long k = 0; k < 1000; k++) {
+      assertEquals(reference.get(k), map.get(k));
+      assertEquals(reference.containsKey(k), map.containsKey(k));
+    }
+    assertEquals(reference.keySet(), keys(map));
+  }
+
+  @Test
+  public void removalsDuringTraversal() {
+    OpenHashMap<String, Integer> map = new OpenHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      map.put("k" + i, i);
+    }
+
+    int visited = 0;
+    String k = map.getFirstKey();
+    while (k != null) {
+      map.remove(k);
+      visited += 1;
+      k = map.getSuccessorOf(k);
+    }
+
+    assertEquals(100, visited);
+    assertTrue(map.isEmpty());
+    assertNull(map.getFirstKey());
+  }
+
+  @Test
+  public void removedKeysCanBeReinserted() {
+    OpenHashMap<String, Integer> map = new OpenHashMap<>(2);
+    for (int round = 0; round < 1000; round++) {
+      map.put("a" + round, round);
+      map.remove("a" + round);
+    }
+    assertTrue(map.isEmpty());
+
+    map.put("x", 1);
+    map.remove("x");
+    map.put("x", 2);
+    assertEquals(1, map.size());
+    assertEquals(Integer.valueOf(2), map.get("x"));
+  }
+
+  @Test
+  public void indexBasedIteration() {
+    OpenHashMap<Integer, Integer> map = new OpenHashMap<>(100);
+    int sum = 0;
+    for (int i = 0; i < 100; i++) {
+      map.put(i, i * 2);
+      sum += i * 2;
+    }
+    map.ensureCapacity(1000);
+
+    int n = 0;
+    int s = 0;
+    for (int i = map.firstIndex(); i >= 0; i = map.nextIndex(i)) {
+      assertEquals(map.keyAt(i) * 2, map.valueAt(i).intValue());
+      s += map.valueAt(i);
+      n += 1;
+    }
+    assertEquals(100, n);
+    assertEquals(sum, s);
+  }
+
+  @Test
+  public void stridedIntegerKeysHaveShortProbeSequences() {
+    long[] strides = {1, 2, 3, 16, 1024, 1L << 16, 1L << 20, 1L << 32, 3L << 32, -1};
+    for (long stride : strides) {
+      for (int n : new int[]{100, 1000, 3000, 10000}) {
+        OpenHashMap<Long, Long> map = new OpenHashMap<>();
+        for (long i = 0; i < n; i++) {
+          map.put(i * stride, i);
+        }
+
+        int max = 0;
+        long total = 0;
+        for (long i = 0; i < n; i++) {
+          int probes = map.probeLength(i * stride);
+          max = Math.max(max, probes);
+          total += probes;
+        }
+
+        String desc = "stride " + stride + ", " + n + " keys";
+        assertTrue(desc + ": longest probe sequence is " + max, max <= 128);
+        assertTrue(desc + ": average probe sequence is " + (double) total / n,
+            total <= 3L * n);
+      }
+    }
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void successorOfUnknownKey() {
+    OpenHashMap<String, String> map = new OpenHashMap<>();
+    map.put("a", "b");
+    map.getSuccessorOf("c");
+  }
+
+  @Test
+  public void clearRemovesEverything() {
+    OpenHashMap<String, String> map = new OpenHashMap<>();
+    map.put("a", "b");
+    map.clear();
+    assertFalse(map.containsKey("a"));
+    assertEquals(0, map.size());
+    assertNull(map.getFirstKey());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeExpectedSize() {
+    new OpenHashMap<String, String>(-1);
+  }
+
+}
@@ -0,0 +1,58 @@
+-- Microbenchmark: growing and shrinking sequences.
+--
+-- Usage: append.lua [N [ROUNDS]]
+-- Appends N elements to a fresh table using various idioms, then pops
+-- them again, reporting the time spent in each phase.
+
+local N = tonumber(arg and arg[1]) or 1000000
+local ROUNDS = tonumber(arg and arg[2]) or 5
+
+local clock = os.clock
+
+local function bench(name, fn)
+  local best = math.huge
+  local result
+  for _ = 1, ROUNDS do
+    local before = clock()
+    result = fn()
+    local elapsed = clock() - before
+    if elapsed < best then best = elapsed end
+  end
+  io.write(string.format("%-24s %10.1f ms  (#t = %d)\n", name, best * 1000, result))
+end
+
+bench("t[#t+1] = v", function()
+  local t = {}
+  for i = 1, N do
+    t[#t + 1] = i
+  end
+  return #t
+end)
+
+bench("table.insert(t, v)", function()
+  local t = {}
+  local insert = table.insert
+  for i = 1, N do
+    insert(t, i)
+  end
+  return #t
+end)
+
+bench("t[i] = v", function()
+  local t = {}
+  for i = 1, N do
+    t[i] = i
+  end
+  return #t
+end)
+
+bench("t[#t+1] = v; t[#t] = nil", function()
+  local t = {}
+  for i = 1, N do
+    t[#t + 1] = i
+  end
+  for _ = 1, N do
+    t[#t] = nil
+  end
+  return #t
+end)
@@ -0,0 +1,86 @@
+-- Microbenchmark: OOP-style method calls and field accesses through __index chains.
+--
+-- Usage: classes.lua [N [ROUNDS]]
+-- Creates N objects of a class derived from a base class, then calls methods
+-- defined in the class and in the base class, reporting the time spent in each phase.
+
+local N = tonumber(arg and arg[1]) or 200000
+local ROUNDS = tonumber(arg and arg[2]) or 5
+
+local clock = os.clock
+
+local function bench(name, fn)
+  local best = math.huge
+  local result
+  for _ = 1, ROUNDS do
+    local before = clock()
+    result = fn()
+    local elapsed = clock() - before
+    if elapsed < best then best = elapsed end
+  end
+  io.write(string.format("%-24s %10.1f ms  (%d)\n", name, best * 1000, result))
+end
+
+local Shape = {}
+Shape.__index = Shape
+
+function Shape.new(w, h)
+  return setmetatable({w = w, h = h}, Shape)
+end
+
+function Shape:area()
+  return self.w * self.h
+end
+
+function Shape:perimeter()
+  return 2 * (self.w + self.h)
+end
+
+local Square = setmetatable({}, {__index = Shape})
+Square.__index = Square
+
+function Square.new(s)
+  return setmetatable({w = s, h = s}, Square)
+end
+
+function Square:side()
+  return self.w
+end
+
+local objs = {}
+for i = 1, N do
+  objs[i] = Square.new(i % 100)
+end
+
+bench("o:side()", function()
+  local sum = 0
+  for i = 1, N do
+    sum = sum + objs[i]:side()
+  end
+  return sum
+end)
+
+bench("o:area() (inherited)", function()
+  local sum = 0
+  for i = 1, N do
+    sum = sum + objs[i]:area()
+  end
+  return sum
+end)
+
+bench("o.w + o.h", function()
+  local sum = 0
+  for i = 1, N do
+    local o = objs[i]
+    sum = sum + o.w + o.h
+  end
+  return sum
+end)
+
+bench("o.w = o.w + 1", function()
+  for i = 1, N do
+    local o = objs[i]
+    o.w = o.w + 1
+  end
+  return N
+end)
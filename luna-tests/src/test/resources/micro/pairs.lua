@@ -0,0 +1,70 @@
+-- Microbenchmark: filling and traversing string-keyed tables.
+--
+-- Usage: pairs.lua [N [ROUNDS]]
+-- Fills a table with N string keys, traverses it using pairs and next,
+-- and clears it during a traversal, reporting the time spent in each phase.
+
+local N = tonumber(arg and arg[1]) or 200000
+local ROUNDS = tonumber(arg and arg[2]) or 5
+
+local clock = os.clock
+
+local keys = {}
+for i = 1, N do
+  keys[i] = "k" .. i
+end
+
+local function bench(name, fn)
+  local best = math.huge
+  local result
+  for _ = 1, ROUNDS do
+    local before = clock()
+    result = fn()
+    local elapsed = clock() - before
+    if elapsed < best then best = elapsed end
+  end
+  io.write(string.format("%-24s %10.1f ms  (%d)\n", name, best * 1000, result))
+end
+
+local function fill()
+  local t = {}
+  for i = 1, N do
+    t[keys[i]] = i
+  end
+  return t
+end
+
+local filled = fill()
+
+bench("t[k] = v", function()
+  local t = fill()
+  return N
+end)
+
+bench("pairs(t)", function()
+  local sum = 0
+  for _, v in pairs(filled) do
+    sum = sum + v
+  end
+  return sum
+end)
+
+bench("next(t, k)", function()
+  local sum = 0
+  local k, v = next(filled)
+  while k ~= nil do
+    sum = sum + v
+    k, v = next(filled, k)
+  end
+  return sum
+end)
+
+bench("t[k] = nil in pairs", function()
+  local t = fill()
+  local n = 0
+  for k in pairs(t) do
+    t[k] = nil
+    n = n + 1
+  end
+  return n
+end)
@@ -0,0 +1,59 @@
+-- Microbenchmark: creating and accessing small records with string keys.
+--
+-- Usage: records.lua [N [ROUNDS]]
+-- Creates N records with the fields x, y and z, then reads and updates
+-- their fields, reporting the time spent in each phase.
+
+local N = tonumber(arg and arg[1]) or 200000
+local ROUNDS = tonumber(arg and arg[2]) or 5
+
+local clock = os.clock
+
+local function bench(name, fn)
+  local best = math.huge
+  local result
+  for _ = 1, ROUNDS do
+    local before = clock()
+    result = fn()
+    local elapsed = clock() - before
+    if elapsed < best then best = elapsed end
+  end
+  io.write(string.format("%-24s %10.1f ms  (%d)\n", name, best * 1000, result))
+end
+
+local function create()
+  local rs = {}
+  for i = 1, N do
+    local r = {}
+    r.x = i
+    r.y = i * 2
+    r.z = i * 3
+    rs[i] = r
+  end
+  return rs
+end
+
+local records = create()
+
+bench("r.x = v (new)", function()
+  local rs = create()
+  return #rs
+end)
+
+bench("r.x + r.y + r.z", function()
+  local sum = 0
+  for i = 1, N do
+    local r = records[i]
+    sum = sum + r.x + r.y + r.z
+  end
+  return sum
+end)
+
+bench("r.x = r.x + 1", function()
+  for i = 1, N do
+    local r = records[i]
+    r.x = r.x + 1
+    r.y = r.y + 1
+  end
+  return N
+end)
@@ -0,0 +1,82 @@
+-- Microbenchmark: short-lived tables that do not escape the function creating them.
+--
+-- Usage: temporaries.lua [N [ROUNDS]]
+-- Creates N temporary records, vectors and tuples, reporting the time spent in each
+-- phase and the number of temporary tables created per second. With constant folding
+-- enabled, the compiler replaces the fields of such tables by local variables,
+-- and none of the tables is actually allocated.
+
+local N = tonumber(arg and arg[1]) or 1000000
+local ROUNDS = tonumber(arg and arg[2]) or 5
+
+local clock = os.clock
+
+local function bench(name, tables, fn)
+  local best = math.huge
+  local result
+  for _ = 1, ROUNDS do
+    local before = clock()
+    result = fn()
+    local elapsed = clock() - before
+    if elapsed < best then best = elapsed end
+  end
+  local rate = best > 0 and tables * N / best / 1e6 or 0
+  io.write(string.format("%-24s %10.1f ms  %8.1f M tables/s  (%s)\n",
+      name, best * 1000, rate, tostring(result)))
+end
+
+local function vec(x, y)
+  return {x = x, y = y}
+end
+
+bench("{x = a, y = b}", 1, function()
+  local s = 0
+  for i = 1, N do
+    local v = {x = i, y = i + 1}
+    s = s + v.x * v.y
+  end
+  return s
+end)
+
+bench("local vec(), add(), dot()", 3, function()
+  -- small local functions are inlined, so their tables do not escape
+  local function vec(x, y) return {x = x, y = y} end
+  local function add(a, b) return {x = a.x + b.x, y = a.y + b.y} end
+  local function dot(a, b) return a.x * b.x + a.y * b.y end
+  local s = 0
+  for i = 1, N do
+    local a = vec(i, 1)
+    local b = vec(2, i)
+    s = s + dot(add(a, b), a)
+  end
+  return s
+end)
+
+bench("upvalue vec()", 1, function()
+  -- calls of upvalues are not inlined: the tables escape and are allocated
+  local s = 0
+  for i = 1, N do
+    local v = vec(i, i + 1)
+    s = s + v.x * v.y
+  end
+  return s
+end)
+
+bench("{a, b} tuples", 1, function()
+  local s = 0
+  for i = 1, N do
+    local t = {i, i * 2}
+    t[1] = t[1] + t[2]
+    s = s + t[1]
+  end
+  return s
+end)
+
+bench("accumulator record", 1, function()
+  local acc = {sum = 0, count = 0}
+  for i = 1, N do
+    acc.sum = acc.sum + i
+    acc.count = acc.count + 1
+  end
+  return acc.sum // acc.count
+end)
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.classdump.luna.compiler.analysis
+
+import java.io.ByteArrayInputStream
+
+import org.classdump.luna.compiler.analysis.SlotAllocInfo.SlotType
+import org.classdump.luna.compiler.ir.Var
+import org.classdump.luna.compiler.{IRFunc, IRTranslator}
+import org.classdump.luna.parser.Parser
+import org.classdump.luna.parser.analysis.NameResolver
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class SlotAllocatorSpec extends FunSpec with MustMatchers {
+
+  def mainFunction(s: String): IRFunc = {
+    val parser = new Parser(new ByteArrayInputStream(s.getBytes))
+    val chunk = NameResolver.resolveNames(parser.Chunk())
+    IRTranslator.translate(chunk).main()
+  }
+
+  def varSlotTypes(slots: SlotAllocInfo, types: TypeInfo): Seq[SlotType] = {
+    val vars = types.vars().asScala.toSeq.sortBy(_.toString.stripPrefix("$").toInt)
+    vars map { (v: Var) => slots.slotTypeOf(v) }
+  }
+
+  describe("unboxed slot allocation") {
+
+    it("places integer and float variables in unboxed slots") {
+      val fn = mainFunction(
+        """local i, f, s = 1, 2.0, "x"
+          |i = i + 1
+          |f = f * 2
+          |return i, f, s
+        """.stripMargin)
+      val types = Typer.analyseTypes(fn)
+      val slots = SlotAllocator.allocateUnboxedSlots(fn, types)
+
+      varSlotTypes(slots, types) mustEqual Seq(SlotType.LONG, SlotType.DOUBLE, SlotType.OBJECT)
+    }
+
+    it("places variables of mixed numeric types in object slots") {
+      val fn = mainFunction(
+        """local n = 1
+          |if ... then n = 2.0 end
+          |return n
+        """.stripMargin)
+      val types = Typer.analyseTypes(fn)
+      val slots = SlotAllocator.allocateUnboxedSlots(fn, types)
+
+      varSlotTypes(slots, types) mustEqual Seq(SlotType.OBJECT)
+    }
+
+    it("places captured variables in object slots") {
+      val fn = mainFunction(
+        """local n = 1
+          |local function f() return n end
+          |return f()
+        """.stripMargin)
+      val types = Typer.analyseTypes(fn)
+      val slots = SlotAllocator.allocateUnboxedSlots(fn, types)
+
+      varSlotTypes(slots, types) forall { _ == SlotType.OBJECT } mustBe true
+    }
+
+    it("orders object slots before unboxed slots") {
+      val fn = mainFunction(
+        """local a, b, c, d = 1.5, "x", 2, {}
+          |return a, b, c, d
+        """.stripMargin)
+      val types = Typer.analyseTypes(fn)
+      val slots = SlotAllocator.allocateUnboxedSlots(fn, types)
+
+      val slotTypes = for (i <- 0 until slots.numSlots()) yield slots.slotType(i)
+      slotTypes mustEqual slotTypes.sortBy(_.ordinal())
+      slotTypes must contain(SlotType.LONG)
+      slotTypes must contain(SlotType.DOUBLE)
+    }
+
+    it("uses object slots only when not given type information") {
+      val fn = mainFunction(
+        """local i, f = 1, 2.0
+          |return i + f
+        """.stripMargin)
+      val slots = SlotAllocator.allocateSlots(fn)
+
+      for (i <- 0 until slots.numSlots()) {
+        slots.slotType(i) mustBe SlotType.OBJECT
+      }
+    }
+
+  }
+
+}
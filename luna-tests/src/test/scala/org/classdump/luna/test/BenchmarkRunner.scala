@@ -22,11 +22,11 @@ import org.classdump.luna.compiler.{CompilerChunkLoader, CompilerSettings}
 import org.classdump.luna.compiler.CompilerSettings.CPUAccountingMode
 import org.classdump.luna.env.RuntimeEnvironments
 import org.classdump.luna.exec.DirectCallExecutor
-import org.classdump.luna.impl.StateContexts
+import org.classdump.luna.impl.{DefaultTable, HybridTable, ShapedTable, StateContexts}
 import org.classdump.luna.lib.{TableLib, _}
 import org.classdump.luna.load.{ChunkClassLoader, ChunkLoader}
 import org.classdump.luna.runtime.LuaFunction
-import org.classdump.luna.{StateContext, Table, Variable}
+import org.classdump.luna.{StateContext, Table, TableFactory, Variable}
 
 import scala.util.Try
 
@@ -39,8 +39,13 @@ object BenchmarkRunner {
   val DefaultStepSize = 1000000
   val NoCPUAccountingPropertyName = "noCPUAccounting"
   val DefaultNoCPUAccounting = false
+  val CPUAccountingModePropertyName = "cpuAccountingMode"
   val ConstFoldingPropertyName = "constFolding"
   val ConstCachingPropertyName = "constCaching"
+  val IndexCachingPropertyName = "indexCaching"
+  val InvokeDynamicPropertyName = "invokeDynamic"
+  val TableFactoryPropertyName = "tableFactory"
+  val DefaultTableFactory = "default"
 
   def doFile(prefix: String, stepSize: Int, settings: CompilerSettings, filename: String, args: String*): Unit = {
 
@@ -84,7 +89,7 @@ object BenchmarkRunner {
 
     val ldr = CompilerChunkLoader.of(new ChunkClassLoader(), settings, "benchmark_")
 
-    val state = StateContexts.newDefaultInstance()
+    val state = StateContexts.newInstance(tableFactory)
 
     val env = initEnv(state, ldr, args)
 
@@ -93,6 +98,14 @@ object BenchmarkRunner {
     EnvWithMainChunk(state, func)
   }
 
+  def tableFactory: TableFactory = {
+    stringProperty(TableFactoryPropertyName, DefaultTableFactory) match {
+      case "hybrid" => HybridTable.factory()
+      case "shaped" => ShapedTable.factory()
+      case _ => DefaultTable.factory()
+    }
+  }
+
   def initEnv(context: StateContext, loader: ChunkLoader, args: Seq[String]): Table = {
     val runtimeEnv = RuntimeEnvironments.system()
     val env = context.newTable()
@@ -135,13 +148,19 @@ object BenchmarkRunner {
         val numRuns = intProperty(NumOfRunsPropertyName, DefaultNumOfRuns)
         val stepSize = intProperty(StepSizePropertyName, DefaultStepSize)
         val noCPUAccounting = booleanProperty(NoCPUAccountingPropertyName, DefaultNoCPUAccounting)
+        val cpuAccountingMode = optCPUAccountingModeProperty(CPUAccountingModePropertyName)
         val constFolding = optBooleanProperty(ConstFoldingPropertyName)
         val constCaching = optBooleanProperty(ConstCachingPropertyName)
+        val indexCaching = optBooleanProperty(IndexCachingPropertyName)
+        val invokeDynamic = optBooleanProperty(InvokeDynamicPropertyName)
 
-        val requestedSettings = RequestedCompilerSettings(noCPUAccounting, constFolding, constCaching)
+        val requestedSettings = RequestedCompilerSettings(noCPUAccounting, cpuAccountingMode, constFolding, constCaching, indexCaching, invokeDynamic)
         val actualSettings = requestedSettings.toCompilerSettings
 
-        val bm = Benchmark(dirPrefix + setup.benchmarkFile)
+        // absolute resource paths (e.g. "/micro/append.lua") are used as they are
+        val bm = Benchmark(
+          if (setup.benchmarkFile.startsWith("/")) setup.benchmarkFile
+          else dirPrefix + setup.benchmarkFile)
 
         println("file = \"" + bm.fileName + "\"")
         println("arguments = {")
@@ -152,8 +171,12 @@ object BenchmarkRunner {
         println(NumOfRunsPropertyName + " = " + numRuns)
 
         println(NoCPUAccountingPropertyName + " = " + requestedSettings.noCPUAccounting + " (" + actualSettings.cpuAccountingMode() + ")")
+        println(CPUAccountingModePropertyName + " = " + requestedSettings.cpuAccountingMode + " (" + actualSettings.cpuAccountingMode() + ")")
         println(ConstFoldingPropertyName + " = " + requestedSettings.constFolding + " (" + actualSettings.constFolding() + ")")
         println(ConstCachingPropertyName + " = " + requestedSettings.constCaching + " (" + actualSettings.constCaching() + ")")
+        println(IndexCachingPropertyName + " = " + requestedSettings.indexCaching + " (" + actualSettings.indexCaching() + ")")
+        println(InvokeDynamicPropertyName + " = " + requestedSettings.invokeDynamic + " (" + actualSettings.invokeDynamic() + ")")
+        println(TableFactoryPropertyName + " = " + stringProperty(TableFactoryPropertyName, DefaultTableFactory))
 
         if (!noCPUAccounting) {
           println(StepSizePropertyName + " = " + stepSize)
@@ -172,6 +195,8 @@ object BenchmarkRunner {
         println("Use the \"" + NumOfRunsPropertyName + "\" VM property to set the number of runs (default is " + DefaultNumOfRuns + ").")
         println("        \"" + StepSizePropertyName + "\" VM property to set the step size (default is " + DefaultStepSize + ").")
         println("        \"" + NoCPUAccountingPropertyName + "\" VM property (true/false) to turn off CPU accounting (default is " + DefaultNoCPUAccounting + ")")
+        println("        \"" + CPUAccountingModePropertyName + "\" VM property (NO_CPU_ACCOUNTING/IN_EVERY_BASIC_BLOCK/ON_BACK_EDGES) to select the CPU accounting mode (default is " + CompilerSettings.DEFAULT_CPU_ACCOUNTING_MODE + ")")
+        println("        \"" + TableFactoryPropertyName + "\" VM property (default/hybrid/shaped) to select the table implementation (default is " + DefaultTableFactory + ")")
         System.exit(1)
     }
 
@@ -197,6 +222,10 @@ object BenchmarkRunner {
     }
   }
 
+  protected def optCPUAccountingModeProperty(key: String): Option[CPUAccountingMode] = {
+    Option(System.getProperty(key)) flatMap { s => Try(CPUAccountingMode.valueOf(s)).toOption }
+  }
+
   private def getSetup(args: Array[String]): Option[Setup] = {
     args.toList match {
       case fileName :: tail => Some(Setup(fileName, tail))
@@ -210,14 +239,21 @@ object BenchmarkRunner {
 
   case class RequestedCompilerSettings(
                                         noCPUAccounting: Boolean,
+                                        cpuAccountingMode: Option[CPUAccountingMode],
                                         constFolding: Option[Boolean],
-                                        constCaching: Option[Boolean]
+                                        constCaching: Option[Boolean],
+                                        indexCaching: Option[Boolean],
+                                        invokeDynamic: Option[Boolean]
                                       ) {
 
     def toCompilerSettings: CompilerSettings = {
       val s0 = CompilerSettings.defaultSettings()
 
-      val s1 = if (noCPUAccounting) s0.withCPUAccountingMode(CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING) else s0
+      val s1 = if (noCPUAccounting) s0.withCPUAccountingMode(CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING)
+      else cpuAccountingMode match {
+        case Some(m) => s0.withCPUAccountingMode(m)
+        case _ => s0
+      }
 
       val s2 = constFolding match {
         case Some(v) => s1.withConstFolding(v)
@@ -229,7 +265,17 @@ object BenchmarkRunner {
         case _ => s2
       }
 
-      s3
+      val s4 = indexCaching match {
+        case Some(v) => s3.withIndexCaching(v)
+        case _ => s3
+      }
+
+      val s5 = invokeDynamic match {
+        case Some(v) => s4.withInvokeDynamic(v)
+        case _ => s4
+      }
+
+      s5
     }
 
   }
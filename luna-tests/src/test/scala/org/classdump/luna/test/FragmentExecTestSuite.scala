@@ -20,13 +20,13 @@ import org.classdump.luna.compiler.{CompilerChunkLoader, CompilerSettings}
 import org.classdump.luna.compiler.CompilerSettings.CPUAccountingMode
 import org.classdump.luna.env.RuntimeEnvironments
 import org.classdump.luna.exec.{Continuation, _}
-import org.classdump.luna.impl.StateContexts
+import org.classdump.luna.impl.{DefaultTable, StateContexts}
 import org.classdump.luna.lib.{TableLib, _}
 import org.classdump.luna.load.{ChunkClassLoader, ChunkLoader}
 import org.classdump.luna.runtime.RuntimeCallInitialiser
 import org.classdump.luna.test.FragmentExpectations.Env
 import org.classdump.luna.test.Util.{BufferPrinter, Printer}
-import org.classdump.luna.{Conversions, StateContext, Table, Variable}
+import org.classdump.luna.{Conversions, StateContext, Table, TableFactory, Variable}
 import org.scalatest.{FunSpec, MustMatchers}
 
 import scala.util.{Failure, Success}
@@ -56,10 +56,13 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
 
   def compilerConfigs: CompilerConfigs = CompilerConfigs.DefaultOnly
 
+  def tableFactory: TableFactory = DefaultTable.factory()
+
   def compilerSettingsToString(settings: CompilerSettings): String = {
     val cpu = settings.cpuAccountingMode() match {
       case CPUAccountingMode.NO_CPU_ACCOUNTING => "n"
       case CPUAccountingMode.IN_EVERY_BASIC_BLOCK => "a"
+      case CPUAccountingMode.ON_BACK_EDGES => "b"
     }
     val cfold = settings.constFolding() match {
       case true => "t"
@@ -73,7 +76,11 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
       case 0 => "0"
       case n => n.toString
     }
-    cpu + cfold + ccache + "_" + nlimit
+    val mlimit = if (settings.methodSizeLimit() > 0) "_m" + settings.methodSizeLimit() else ""
+    val icache = if (settings.indexCaching()) "_icache" else ""
+    val indy = if (settings.invokeDynamic()) "_indy" else ""
+    val boxed = if (settings.unboxedSlots()) "" else "_boxed"
+    cpu + cfold + ccache + "_" + nlimit + mlimit + icache + indy + boxed
   }
 
   protected def envForContext(state: StateContext, ctx: Env, ldr: ChunkLoader, printer: Printer): Table = {
@@ -101,7 +108,7 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
         MathLib.installInto(state, env)
 
       case Str =>
-        BasicLib.installInto(state, env, runtimeEnv, ldr)
+        BasicLib.installInto(state, env, runtimeEnv, ldr, true)
         StringLib.installInto(state, env)
 
       case Os =>
@@ -121,7 +128,7 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
         DebugLib.installInto(state, env)
 
       case Full =>
-        BasicLib.installInto(state, env, runtimeEnv, ldr)
+        BasicLib.installInto(state, env, runtimeEnv, ldr, true)
         ModuleLib.installInto(state, env, runtimeEnv, ldr, moduleClassLoader)
         CoroutineLib.installInto(state, env)
         MathLib.installInto(state, env)
@@ -157,21 +164,38 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
     val limits = Seq(0, 10)
     //    val limits = Seq(0)
 
+    // (node size limit, method size limit)
+    val segmentations = limits.map((_, 0)) :+ ((0, 200))
+
     val allConfigs = for (
       cpu <- CPUAccountingMode.values();
       cfold <- bools;
       ccache <- bools;
-      nlimit <- limits
+      (nlimit, mlimit) <- segmentations;
+      unboxed <- bools
     ) yield CompilerSettings.defaultSettings()
       .withCPUAccountingMode(cpu)
       .withConstFolding(cfold)
       .withConstCaching(ccache)
       .withNodeSizeLimit(nlimit)
+      .withMethodSizeLimit(mlimit)
+      .withUnboxedSlots(unboxed)
 
     case object DefaultOnly extends CompilerConfigs(Seq(CompilerSettings.defaultSettings()))
 
     case object All extends CompilerConfigs(allConfigs)
 
+    case object InvokeDynamic extends CompilerConfigs(
+      for (nlimit <- limits) yield CompilerSettings.defaultSettings()
+        .withInvokeDynamic(true)
+        .withNodeSizeLimit(nlimit))
+
+    case object IndexCaching extends CompilerConfigs(
+      CompilerSettings.defaultSettings() +:
+          (for (nlimit <- limits) yield CompilerSettings.defaultSettings()
+              .withIndexCaching(true)
+              .withNodeSizeLimit(nlimit)))
+
   }
 
   for (bundle <- bundles;
@@ -197,7 +221,7 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
 
             val ldr = l.loader()
 
-            val state = StateContexts.newDefaultInstance()
+            val state = StateContexts.newInstance(tableFactory)
 
             val env = envForContext(state, ctx, ldr, printer)
             val func = ldr.loadTextChunk(new Variable(env), "test", fragment.code)
@@ -392,6 +392,35 @@ object BasicFragments extends FragmentBundle with FragmentExpectations with OneL
   }
   DynamicIntegerForLoop in EmptyContext succeedsWith (55)
 
+  val IntegerForLoopWithDynamicLimit = fragment("IntegerForLoopWithDynamicLimit") {
+    """local function count(limit)
+      |  local n, sum = 0, 0
+      |  for i = 1, limit do n = n + 1; sum = sum + i end
+      |  for i = -1, -limit, -1 do n = n + 1; sum = sum + i end
+      |  return n, sum
+      |end
+      |
+      |local a, b = count(4)
+      |local c, d = count(4.5)
+      |local e, f = count(0/0)
+      |return a, b, c, d, e, f
+    """
+  }
+  IntegerForLoopWithDynamicLimit in EmptyContext succeedsWith (8, 0, 8, 0, 0, 0)
+
+  val TypedForLoops = fragment("TypedForLoops") {
+    """local n, sum = 0, 0
+      |for i = 10, 1, -3 do n = n + 1; sum = sum + i end
+      |for i = 0, 5 do n = n + 1; sum = sum + i end
+      |for x = 0.5, 2.0, 0.5 do n = n + 1; sum = sum + x end
+      |for x = 2.0, -1.0, -1.5 do n = n + 1; sum = sum + x end
+      |for x = 0.0, 1.0, 0/0 do n = n + 100 end
+      |for x = 0.0, 0/0, 1.0 do n = n + 100 end
+      |return n, sum
+    """
+  }
+  TypedForLoops in EmptyContext succeedsWith (17, 43.5)
+
   val ForLoopMtAttempt = fragment("ForLoopMtAttempt") {
     """local function nt(v)
       |  local t = {}
@@ -1612,4 +1641,379 @@ object BasicFragments extends FragmentBundle with FragmentExpectations with OneL
     }
   }
 
+
+  about("global variable caching") {
+    in(BasicContext) {
+
+      program(
+        """local function f() return g() end
+          |g = function() return 1 end
+          |local a = f()
+          |g = function() return 2 end
+          |return a, f()
+        """) succeedsWith(1, 2)
+
+      program(
+        """x = 0
+          |for i = 1, 10 do x = x + i end
+          |return x
+        """) succeedsWith (55)
+
+      program(
+        """y = 1
+          |local function get() return y end
+          |local a = get()
+          |rawset(_ENV, "y", 2)
+          |return a, get()
+        """) succeedsWith(1, 2)
+
+      program(
+        """setmetatable(_ENV, {__index = function(t, k) return k .. "!" end})
+          |y = 1
+          |local function get() return y end
+          |local a = get()
+          |y = nil
+          |return a, get()
+        """) succeedsWith(1, "y!")
+
+      program(
+        """local function mk(env) local _ENV = env; return function() return v end end
+          |local f, g = mk({v = 1}), mk({v = 2})
+          |return f(), g(), f(), g()
+        """) succeedsWith(1, 2, 1, 2)
+
+      program(
+        """local t = {f = 1}
+          |m = t
+          |local function get() return m.f end
+          |local a = get()
+          |t.f = 2
+          |local b = get()
+          |m = {f = 3}
+          |return a, b, get()
+        """) succeedsWith(1, 2, 3)
+
+    }
+  }
+
+
+  about("loop-invariant code motion") {
+
+    in(BasicContext) {
+
+      program(
+        """local a, b = 1, 0
+          |local s = 0
+          |for i = 1, 0 do s = s + a // b end
+          |return s
+        """) succeedsWith (0)
+
+      program(
+        """local s = 0
+          |for i = 1, 3 do for j = 1, 4 do s = s + i * i + j end end
+          |return s
+        """) succeedsWith (86)
+
+      program(
+        """local k = 0
+          |local fs, gs = {}, {}
+          |for i = 1, 3 do
+          |  fs[i] = function() return k end
+          |  gs[i] = function() return i + k end
+          |  k = k + 10
+          |end
+          |return fs[1](), gs[1](), gs[3]()
+        """) succeedsWith(30, 31, 33)
+
+      program(
+        """local t = {x = true, y = {z = true}}
+          |local n = 0
+          |for i = 1, 5 do if t.x and t.y.z then n = n + 1 end end
+          |return n
+        """) succeedsWith (5)
+
+      program(
+        """local t = nil
+          |local n = 0
+          |for i = 1, 0 do if t.x then n = n + 1 end end
+          |return n
+        """) succeedsWith (0)
+
+      program(
+        """local count = 0
+          |local t = setmetatable({}, {__index = function(t, k) count = count + 1; return k == "x" or nil end})
+          |local n = 0
+          |for i = 1, 5 do if t.x ~= nil then n = n + 1 end end
+          |return n, count
+        """) succeedsWith(5, 5)
+
+      program(
+        """local t = {x = 1}
+          |local n = 0
+          |for i = 1, 5 do if t.x then n = n + 1; t.x = i < 3 or nil end end
+          |return n
+        """) succeedsWith (3)
+
+      program(
+        """local a = {x = 1}
+          |local b = setmetatable({}, {__index = function(t, k) a.x = nil; return true end})
+          |local n = 0
+          |for i = 1, 3 do if a.x ~= nil and b.y then n = n + 1 end end
+          |return n
+        """) succeedsWith (1)
+
+      program(
+        """local a = {x = 1}
+          |local b = setmetatable({}, {__index = function(t, k) a = {x = false}; return true end})
+          |local n = 0
+          |for i = 1, 3 do if b.y and a.x then n = n + 1 end end
+          |return n
+        """) succeedsWith (0)
+
+      program(
+        """local t = {}
+          |local n = 0
+          |for i = 1, 3 do if t.x == nil then n = n + 1 end end
+          |return n
+        """) succeedsWith (3)
+
+    }
+  }
+
+
+  about("function inlining") {
+    in(BasicContext) {
+
+      program(
+        """local k = 3
+          |local function sq(x) return x * x + k end
+          |local s = 0
+          |for i = 1, 10 do s = s + sq(i) end
+          |return s
+        """) succeedsWith (415)
+
+      program(
+        """local function two(a, b) return a + b, a - b end
+          |local function id(a) return a end
+          |local x, y = two(5, 3)
+          |local p, q = id(1, 2)
+          |local function up() x = x + 1; return x end
+          |up(); up()
+          |local function none(a) end
+          |local z = none(1)
+          |return x, y, p, q, z
+        """) succeedsWith(10, 2, 1, null, null)
+
+      program(
+        """local function sum(n, s)
+          |  s = s or 0
+          |  for i = 1, n do s = s + i end
+          |  return s
+          |end
+          |local a, b = sum(10), sum(3, 100)
+          |return a, b
+        """) succeedsWith(55, 106)
+
+      program(
+        """local function sign(x) if x < 0 then return -1 elseif x > 0 then return 1 end end
+          |local a, b, c = sign(-5), sign(5), sign(0)
+          |return a, b, c
+        """) succeedsWith(-1, 1, null)
+
+      program(
+        """local function f(x) return tostring(x) end
+          |local a = f(1)
+          |return a, f(2)
+        """) succeedsWith("1", "2")
+
+      program(
+        """local k = 1
+          |local function f() return k end
+          |local a = f()
+          |k = 2
+          |local b = f()
+          |return a, b
+        """) succeedsWith(1, 2)
+
+      program(
+        """local function fact(n) if n <= 1 then return 1 else return n * fact(n - 1) end end
+          |local a = fact(5)
+          |return a
+        """) succeedsWith (120)
+
+      program(
+        """local function f() return 1 end
+          |local function g() f = function() return 2 end end
+          |local a = f()
+          |g()
+          |local b = f()
+          |return a, b
+        """) succeedsWith(1, 2)
+
+      program(
+        """local function g()
+          |  local function f(t) return t.x end
+          |  local v = f(nil)
+          |  return v
+          |end
+          |return pcall(g)
+        """) succeedsWith(false, "attempt to index a nil value")
+
+    }
+
+    in(CoroContext) {
+
+      program(
+        """local co = coroutine.wrap(function(a)
+          |  local function step(v) return coroutine.yield(v) + 1 end
+          |  local b = step(a)
+          |  local c = step(b)
+          |  return c
+          |end)
+          |return co(1), co(10), co(20)
+        """) succeedsWith(1, 11, 21)
+
+    }
+  }
+
+  about("redundant load elimination") {
+    in(BasicContext) {
+
+      program(
+        """local p = {x = 1, vx = 2}
+          |p.x = p.x + p.vx * 3
+          |local q = p
+          |return p.x + q.x + p.vx
+        """) succeedsWith (16)
+
+      program(
+        """local a = {x = 1}
+          |local b = a
+          |if a then b.x = 2 end
+          |local r1 = a.x
+          |local e = {}
+          |e.x = 1
+          |local k = "x"
+          |local s = e.x
+          |e[k] = 5
+          |local r2 = s + e.x
+          |local t = {1, 2, 3}
+          |t[1] = 7
+          |return r1, r2, t[1] + #t
+        """) succeedsWith(2, 6, 10)
+
+      program(
+        """local u, v = {x = 1}, {x = 2}
+          |for i = 1, 3 do
+          |  u.x = u.x + v.x
+          |  v.x = v.x * 2
+          |  u, v = v, u
+          |end
+          |return u.x, v.x
+        """) succeedsWith(14, 13)
+
+      program(
+        """local t = {x = 1}
+          |local a = t.x
+          |setmetatable(t, {__newindex = function(t, k, v) rawset(t, k, v * 10) end})
+          |t.x = nil
+          |t.x = 2
+          |return a, t.x
+        """) succeedsWith(1, 20)
+
+      program(
+        """local t = {x = 1}
+          |local function f() t.x = t.x + 1 end
+          |local a = t.x
+          |f()
+          |return a, t.x
+        """) succeedsWith(1, 2)
+
+      program(
+        """local k, v = ...
+          |local p = {x = 1, y = 2}
+          |p[k or "z"] = v
+          |return p.x * p.x + p.y * p.y
+        """) succeedsWith(5)
+
+      program(
+        """local t = {x = 1}
+          |for i, k in ipairs({"y", "x", "z"}) do t[k] = i end
+          |return t.x + t.x
+        """) succeedsWith(4)
+
+      program(
+        """local function f(c)
+          |  local t = {x = 1}
+          |  if c then t = {x = 2} end
+          |  return t.x + t.x
+          |end
+          |return f(false), f(true)
+        """) succeedsWith(2, 4)
+
+    }
+  }
+
+  about("scalar replacement") {
+    in(BasicContext) {
+
+      program(
+        """local c = ...
+          |local t = {x = 1}
+          |if not c then t = {x = 2} end
+          |return t.x
+        """) succeedsWith (2)
+
+      program(
+        """local s = 0
+          |for i = 1, 3 do
+          |  local t = {}
+          |  local a = t.x
+          |  if i > 1 then t.x = i end
+          |  s = s + (a or 10) + (t.x or 100)
+          |end
+          |return s
+        """) succeedsWith (135)
+
+      program(
+        """local p = {10, 20}
+          |p[1] = p[1] + p[2]
+          |local q = {[1] = 5, [2.0] = 6}
+          |return p[1], p[2], q[2]
+        """) succeedsWith(30, 20, 6)
+
+      program(
+        """local function vec(x, y) return {x = x, y = y} end
+          |local function dot(a, b) return a.x * b.x + a.y * b.y end
+          |local s = 0
+          |for i = 1, 10 do
+          |  local v = vec(i, i + 1)
+          |  local w = vec(1, 2)
+          |  s = s + dot(v, w)
+          |end
+          |return s
+        """) succeedsWith (185)
+
+      program(
+        """local t = {x = 1}
+          |local u = t
+          |u.x = nil
+          |return t.x, next(t)
+        """) succeedsWith(null, null)
+
+    }
+
+    in(CoroContext) {
+
+      program(
+        """local t = {n = 0}
+          |local u = t
+          |local co = coroutine.wrap(function() for i = 1, 3 do coroutine.yield(i) end end)
+          |for i = 1, 3 do u.n = t.n + co() end
+          |return t.n
+        """) succeedsWith (6)
+
+    }
+  }
+
 }
@@ -176,6 +176,11 @@ object BasicLibFragments extends FragmentBundle with FragmentExpectations with O
           |return getmetatable(t)
         """) succeedsWith "hello"
 
+      // metatables set on freshly-created tables are honoured
+      program("local t = {}; setmetatable(t, {__index = function() return 'mt' end}); return t.x") succeedsWith "mt"
+      program("local t = {}; local u = t; setmetatable(u, {__newindex = function() end}); t.x = 1; return rawget(t, 'x')") succeedsWith null
+      program("local t = {}; local mt = {__eq = function() return true end}; setmetatable(t, mt); local u = setmetatable({}, mt); return t == u, t == 1") succeedsWith(true, false)
+
     }
 
     about("pcall") {
@@ -367,6 +372,11 @@ object BasicLibFragments extends FragmentBundle with FragmentExpectations with O
       program("return load(42)") succeedsWith(null, classOf[String])
       program("return load(42, 42, 42)") succeedsWith(null, "attempt to load a text chunk (mode is '42')")
 
+      // binary chunks are not enabled in this context
+      program("""return load("\27Lua")""") succeedsWith(null, "attempt to load a binary chunk (mode is 't')")
+      program("""return load("\27Lua", nil, "bt")""") succeedsWith(null, "attempt to load a binary chunk (mode is 't')")
+      program("""return load("\27Lua", nil, "b")""") succeedsWith(null, "attempt to load a binary chunk (mode is '')")
+
       program("return load('return nil', nil)") succeedsWith (classOf[LuaFunction[_, _, _, _, _]])
 
       program("return load('return 1 + 2')()") succeedsWith (3)
@@ -157,4 +157,22 @@ object CoroutineLibFragments extends FragmentBundle with FragmentExpectations {
   }
   WrappedCoroutineRunning in CoroContext succeedsWith(classOf[Coroutine], false)
 
+  val NumericLocalsPreservedAcrossYield = fragment("NumericLocalsPreservedAcrossYield") {
+    """local f = coroutine.wrap(function(n)
+      |  local s, x = 0, 0.5
+      |  for i = 1, n do
+      |    s = s + i
+      |    x = x * 2
+      |    coroutine.yield(s, x)
+      |  end
+      |  return -s, -x
+      |end)
+      |local a, b = f(3)
+      |local c, d = f()
+      |local e, g = f()
+      |return a, b, c, d, e, g, f()
+    """
+  }
+  NumericLocalsPreservedAcrossYield in CoroContext succeedsWith(1, 1.0, 3, 2.0, 6, 4.0, -6, -4.0)
+
 }
@@ -96,6 +96,25 @@ object MetatableFragments extends FragmentBundle with FragmentExpectations with
     }
     CallMetamethodReturningTwoResults in thisContext succeedsWith("a", "b")
 
+    val CallSiteWithDifferentTargets = fragment("call site with functions and callable tables as targets") {
+      """local callable = setmetatable({}, {__call = function(self, x) return 'c' .. x end})
+        |local function f(x) return 'f' .. x end
+        |local function g(x) return 'g' .. x end
+        |local function h(x) return f(x) end
+        |
+        |local function call(fn, x) return (fn(x)) end
+        |
+        |local s = ''
+        |for _, fn in ipairs({f, f, callable, g, h, f}) do
+        |  s = s .. call(fn, 1)
+        |end
+        |
+        |local function many(fn) return fn(1, 2, 3, 4, 5, 6, 7) end
+        |return s, many(function(...) return select('#', ...) end), many(callable)
+      """
+    }
+    CallSiteWithDifferentTargets in thisContext succeedsWith("f1f1c1g1f1f1", 7, "c1")
+
     val AddMetamethodReturningTwoResults = fragment("metamethod for __add returning two results") {
       """function mtn(tab, what)
         |  local mt = {}
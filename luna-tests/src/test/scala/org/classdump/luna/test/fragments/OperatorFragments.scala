@@ -491,6 +491,40 @@ object OperatorFragments extends FragmentBundle with FragmentExpectations with O
 
     }
 
+    about("operations on locals of known numeric types") {
+
+      // i and f are an integer and a float, respectively, that cannot be constant-folded
+      val typedPrefix = "local i, f = 0, 0.0; for k = 1, 7 do i = i + 1; f = f + 0.5 end\n"
+
+      program(typedPrefix + "return i + 3, i - 10, i * -3, i % -3, i // -3, i / 2, i ^ 2") succeedsWith(10, -3, -21, -2, -3, 3.5, 49.0)
+      program(typedPrefix + "return f + 1, f - i, f * 2, f % -2, f // 2, f / 0, i % 2.0") succeedsWith(4.5, -3.5, 7.0, -0.5, 1.0, Double.PositiveInfinity, 1.0)
+      program(typedPrefix + "return i & 3, i | 8, i ~ 5, i << 62, i >> 1, -i >> 62, i << 64, ~i, -i, -f") succeedsWith(3, 15, 2, -4611686018427387904L, 3, 3, 0, -8, -7, -3.5)
+      program(typedPrefix + minMaxPrefix + "return (maxint - 6) + i == minint, (minint + 6) - i == maxint") succeedsWith(true, true)
+
+      program(typedPrefix + "return i < 7, i <= 7, i == 7, i ~= 7, f < 3.5, f <= 3.5, f == 3.5, f ~= 3.5") succeedsWith(false, true, true, false, false, true, true, false)
+      program(typedPrefix + "return i < f, f < i, i == f * 2, f * 2 == i, i <= 7.0, i ~= f") succeedsWith(false, true, true, true, true, true)
+      program(typedPrefix + "local nan = (f - f) / (f - f); return nan == nan, nan ~= nan, nan < f, nan <= f, f < nan, f <= nan") succeedsWith(false, true, false, false, false, false)
+      program(typedPrefix + "local n = 0; if i < f then n = n + 1 end; if i > f then n = n + 10 end; if i == 7 then n = n + 100 end; if f ~= 3.5 then n = n + 1000 end; return n") succeedsWith 110
+      program(typedPrefix + "local n = 0; while f <= 5 do f = f + 0.5; n = n + 1 end; return n, f") succeedsWith(4, 5.5)
+
+      program(typedPrefix + "return i % (i - 7)") failsWith "" << "attempt to perform 'n%0'"
+      program(typedPrefix + "return i // (i - 7)") failsWith "" << "attempt to divide by zero"
+
+    }
+
+    about("operations that cannot call metamethods") {
+
+      program("local s = 'a'; for i = 1, 3 do s = s .. i .. 'b' end; return s, #s, #(s .. 0.5)") succeedsWith("a1b2b3b", 7, 10)
+      program("local x; for i = 1, 2 do x = i end; return x == nil, x ~= nil, nil == x, x == 'x', 'x' ~= x") succeedsWith(false, true, false, false, true)
+      program("local n = 0; for i = 1, 3 do local s = 'a' .. i; if s == 'a2' then n = n + i end end; return n") succeedsWith 2
+      program("local f = function() end; local g = f; return f == g, f ~= g, f == print") succeedsWith(true, false, false)
+
+      program("local t = {}; t.x = 1; t[2] = t.x + 1; return t.x, t[2], t.y, #t") succeedsWith(1, 2, null, 0)
+      program("local t = {}; t[nil] = 1") failsWith "" << "table index is nil"
+      program("local t = {}; t[0/0] = 1") failsWith "" << "table index is NaN"
+
+    }
+
   }
 
 }
@@ -16,6 +16,7 @@
 
 package org.classdump.luna.test.fragments
 
+import org.classdump.luna.runtime.IllegalOperationAttemptException
 import org.classdump.luna.test.{FragmentBundle, FragmentExpectations, OneLiners}
 import org.classdump.luna.{LuaFormat, Table}
 
@@ -94,6 +95,70 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
       program("""string.char(256)""") failsWith(classOf[IllegalArgumentException], "" << "bad argument #1 to 'char' (value out of range)")
     }
 
+    about("dump") {
+      program("""return string.byte(string.dump(function() return 42 end))""") succeedsWith (27)
+      program("""return load(string.dump(function() return 42 end))()""") succeedsWith (42)
+      program("""return load(string.dump(function() return 42 end), "dumped", "b")()""") succeedsWith (42)
+      program("""return load(string.dump(function() return 42 end), "dumped", "t")""") succeedsWith (null, "attempt to load a binary chunk (mode is 't')")
+      program("""return load("return 42", "text", "b")""") succeedsWith (null, "attempt to load a text chunk (mode is 'b')")
+
+      // nested functions
+      program(
+        """local function f(n)
+          |  local function fact(k) if k <= 1 then return 1 else return k * fact(k - 1) end end
+          |  return fact(n), (function() return n end)()
+          |end
+          |return load(string.dump(f))(5)
+        """
+      ) succeedsWith (120, 5)
+
+      // the first upvalue is set to the environment, others are fresh nil-valued variables
+      program(
+        """local a = 1
+          |local function f() return tostring, a end
+          |local g = load(string.dump(f))
+          |local x, y = g()
+          |return x == tostring, y
+        """
+      ) succeedsWith (true, null)
+      program(
+        """local function f() return tostring(10) end
+          |return load(string.dump(f))()
+        """
+      ) succeedsWith ("10")
+      program(
+        """local t = {}
+          |local function f(x) t.y = x; return t.y end
+          |return pcall(load(string.dump(f)), 1), y
+        """
+      ) succeedsWith (true, 1)
+
+      // dumped functions may be loaded any number of times, including by themselves
+      program(
+        """local d = string.dump(function(x) return x + 1 end)
+          |local f1, f2 = load(d), load(d)
+          |return f1(1), f2(2), f1 ~= f2, load(string.dump(f1))(3)
+        """
+      ) succeedsWith (2, 3, true, 4)
+
+      program("""string.dump(print)""") failsWith(classOf[IllegalOperationAttemptException], "" << "unable to dump given function")
+      program("""local f, msg = load("\27Lua"); return f, msg:find("not a binary chunk", 1, true) ~= nil""") succeedsWith (null, true)
+
+      // malformed chunks are rejected before their declared contents are allocated
+      program(
+        """local header = "\27Luna\0\0\0\1\0\1m"
+          |local function malformed(s)
+          |  local f, msg = load(header .. s)
+          |  return f == nil and msg:find("malformed binary chunk", 1, true) ~= nil
+          |end
+          |return malformed("\127\255\255\255"),
+          |    malformed("\0\0\0\1\0\1m\127\255\255\255"),
+          |    malformed("\0\0\0\1\0\1m\255\255\255\255"),
+          |    malformed("\0\0\0\1\0\1m\0\16\0\0xyz"),
+          |    malformed("\0\0\0\1\0\1n\0\0\0\0")
+        """) succeedsWith (true, true, true, true, true)
+    }
+
     about("sub") {
 
       // from the PUC-Lua test suite (strings.lua)
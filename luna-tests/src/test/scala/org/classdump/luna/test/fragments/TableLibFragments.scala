@@ -375,6 +375,29 @@ object TableLibFragments extends FragmentBundle with FragmentExpectations with O
 
     }
 
+    about("table.new") {
+
+      program("""return table.new()""") failsWith "" << "bad argument #1 to 'new' (number expected, got no value)"
+      program("""return table.new(0)""") failsWith "" << "bad argument #2 to 'new' (number expected, got no value)"
+      program("""return table.new(-1, 0)""") failsWith "" << "bad argument #1 to 'new' (size out of range)"
+      program("""return table.new(0, -1)""") failsWith "" << "bad argument #2 to 'new' (size out of range)"
+      program("""return table.new(2^31 - 1, 0)""") failsWith "" << "table overflow"
+      program("""return table.new(0, 2^31 - 1)""") failsWith "" << "table overflow"
+
+      program("""return type(table.new(0, 0))""") succeedsWith ("table")
+      program("""return #table.new(100, 0)""") succeedsWith (0)
+      program("""return next(table.new(100, 100))""") succeedsWith (null)
+      program("""return #table.new(2^27, 2^26)""") succeedsWith (0)
+
+      program(
+        """local t = table.new(100, 2)
+          |for i = 1, 100 do t[i] = i end
+          |t.x, t.y = 1, 2
+          |return #t, t[50], t.x + t.y
+        """) succeedsWith (100, 50, 3)
+
+    }
+
     about("table.pack") {
 
       program("""return table.pack(xx, yy, zz).n""") succeedsWith (3)